@@ -13,6 +13,9 @@ import java.util.List;
 
 import org.openmuc.jmbus.DataRecord;
 import org.openmuc.jmbus.MBusConnection;
+import org.openmuc.jmbus.PrimaryAddressScanResult;
+import org.openmuc.jmbus.PrimaryAddressScanner;
+import org.openmuc.jmbus.ScanProgressListener;
 import org.openmuc.jmbus.SecondaryAddress;
 import org.openmuc.jmbus.SecondaryAddressListener;
 import org.openmuc.jmbus.VariableDataStructure;
@@ -180,29 +183,34 @@ class CliConnection {
         System.out.println("\nScan finished.");
     }
 
-    private static void scanPrimaryAddresses(MBusConnection mBusConnection, CliPrinter cliPrinter) {
-        for (int i = 0; i <= 250; i++) {
-            if (i % 10 == 0 && i != 0) {
-                cliPrinter.printlnInfo();
-            }
-            cliPrinter.printInfo(String.format("%3d%c", i, ','));
-            try {
-                mBusConnection.linkReset(i);
-                try {
-                    Thread.sleep(50); // for slow slaves
-                } catch (InterruptedException e) {
-                    cliPrinter.printError("\nThread sleep fails.\n" + e.getMessage(), false);
-                }
-                VariableDataStructure vdr = mBusConnection.read(i);
-                cliPrinter.printInfo("\nFound device at primary address :" + i + ", ");
+    private static void scanPrimaryAddresses(MBusConnection mBusConnection, final CliPrinter cliPrinter)
+            throws IOException {
+        PrimaryAddressScanResult result = new PrimaryAddressScanner(mBusConnection)
+                .setProgressListener(new ScanProgressListener() {
+
+                    @Override
+                    public void scanProgress(double progress, int probes, int devicesFound) {
+                        if (probes % 10 == 0) {
+                            cliPrinter.printInfo(String.format("%3d%%, ", (int) (progress * 100)));
+                        }
+                    }
+                })
+                .scan();
+        cliPrinter.printlnInfo();
+
+        for (int primaryAddress : result.getPrimaryAddresses()) {
+            VariableDataStructure vdr = result.getVariableDataStructure(primaryAddress);
+            cliPrinter.printInfo("\nFound device at primary address :" + primaryAddress + ", ");
+            if (vdr != null) {
                 cliPrinter.printlnInfo(vdr.getSecondaryAddress());
-
-            } catch (InterruptedIOException e) {
-                continue;
-            } catch (IOException e) {
-                cliPrinter.printlnInfo("\nError reading meter at primary address " + i + ": " + e.getMessage());
-                continue;
             }
+            else {
+                cliPrinter.printlnInfo("read failed");
+            }
+        }
+        for (int primaryAddress : result.getCollisions()) {
+            cliPrinter.printlnInfo("\nCollision at primary address " + primaryAddress
+                    + ", several devices answered. Use secondary address scan.");
         }
     }
 
@@ -115,7 +115,7 @@ class ConsoleLineParser {
             .buildStringParameter("transceiver");
 
     private final StringCliParameter wmbusMode = new CliParameterBuilder("-wm").setMandatory()
-            .setDescription("The wM-Bus mode can be S, T or C.")
+            .setDescription("The wM-Bus mode can be S, T, C or CT (C and T combined).")
             .buildStringParameter("wmbus_mode");
 
     private final StringCliParameter key = new CliParameterBuilder("-key").setDescription(
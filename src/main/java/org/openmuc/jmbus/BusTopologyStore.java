@@ -0,0 +1,335 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package org.openmuc.jmbus;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Persists the meters found on each bus, so a restarted application can read its meters without scanning first.
+ * <p>
+ * For every meter the store keeps its secondary address, its primary address, the time it has last been seen, its
+ * last response time and whether it can be read by primary address. A connection attached to the store with
+ * {@link MBusConnection#setTopologyStore(BusTopologyStore, String)} updates the entries of its bus with every read by
+ * secondary address. The store is written to its file by {@link #save()}.
+ * </p>
+ */
+public class BusTopologyStore {
+
+    private static final int MAGIC = 0x4a4d4254; // "JMBT"
+    private static final int VERSION = 1;
+
+    private static final int NONE = 0xff;
+
+    /**
+     * How a meter is read.
+     */
+    public enum ReadoutMode {
+        /**
+         * The meter has a primary address of its own on the bus, it is read without selection.
+         */
+        PRIMARY,
+        /**
+         * The meter is selected by its secondary address.
+         */
+        SECONDARY
+    }
+
+    /**
+     * The stored state of one meter.
+     */
+    public static class Entry {
+        private final SecondaryAddress secondaryAddress;
+        private final int primaryAddress;
+        private final long lastSeen;
+        private final int latency;
+        private final ReadoutMode readoutMode;
+
+        Entry(SecondaryAddress secondaryAddress, int primaryAddress, long lastSeen, int latency,
+                ReadoutMode readoutMode) {
+            this.secondaryAddress = secondaryAddress;
+            this.primaryAddress = primaryAddress;
+            this.lastSeen = lastSeen;
+            this.latency = latency;
+            this.readoutMode = readoutMode;
+        }
+
+        public SecondaryAddress getSecondaryAddress() {
+            return secondaryAddress;
+        }
+
+        /**
+         * @return the primary address or -1 if it is not known.
+         */
+        public int getPrimaryAddress() {
+            return primaryAddress;
+        }
+
+        /**
+         * @return the time the meter has last answered in milliseconds since the epoch.
+         */
+        public long getLastSeen() {
+            return lastSeen;
+        }
+
+        /**
+         * @return the last response time in milliseconds or -1 if it is not known.
+         */
+        public int getLatency() {
+            return latency;
+        }
+
+        public ReadoutMode getReadoutMode() {
+            return readoutMode;
+        }
+
+        @Override
+        public String toString() {
+            return MessageFormat.format("{0}, primary address: {1}, latency: {2}ms, mode: {3}", secondaryAddress,
+                    primaryAddress, latency, readoutMode);
+        }
+    }
+
+    private final File file;
+    private final Map<String, Map<SecondaryAddress, Entry>> buses = new LinkedHashMap<>();
+
+    /**
+     * Creates an empty store.
+     *
+     * @param file
+     *            the file the store is saved to.
+     */
+    public BusTopologyStore(File file) {
+        this.file = file;
+    }
+
+    /**
+     * Loads a store from its file. If the file does not exist yet, the store is empty.
+     *
+     * @param file
+     *            the file of the store.
+     * @return the store.
+     * @throws IOException
+     *             if the file cannot be read or is not a topology file.
+     */
+    public static BusTopologyStore load(File file) throws IOException {
+        BusTopologyStore store = new BusTopologyStore(file);
+        if (!file.exists()) {
+            return store;
+        }
+
+        try (DataInputStream is = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (is.readInt() != MAGIC) {
+                throw new IOException(MessageFormat.format("{0} is not a bus topology file.", file));
+            }
+            int version = is.readUnsignedByte();
+            if (version != VERSION) {
+                throw new IOException(MessageFormat.format("Unsupported bus topology file version {0}.", version));
+            }
+
+            int busCount = is.readInt();
+            for (int i = 0; i < busCount; i++) {
+                String busId = is.readUTF();
+                int entryCount = is.readInt();
+                for (int j = 0; j < entryCount; j++) {
+                    byte[] sa = new byte[8];
+                    is.readFully(sa);
+                    int primaryAddress = is.readUnsignedByte();
+                    long lastSeen = is.readLong();
+                    int latency = is.readInt();
+                    ReadoutMode readoutMode = is.readBoolean() ? ReadoutMode.PRIMARY : ReadoutMode.SECONDARY;
+
+                    SecondaryAddress secondaryAddress = SecondaryAddress.newFromLongHeader(sa, 0);
+                    store.entriesOf(busId).put(secondaryAddress, new Entry(secondaryAddress,
+                            primaryAddress == NONE ? -1 : primaryAddress, lastSeen, latency, readoutMode));
+                }
+            }
+        }
+        return store;
+    }
+
+    /**
+     * Writes the store to its file. The file is replaced as a whole, a crash while saving leaves the previous version
+     * in place.
+     *
+     * @throws IOException
+     *             if the file cannot be written.
+     */
+    public synchronized void save() throws IOException {
+        File tmpFile = new File(file.getPath() + ".tmp");
+
+        try (DataOutputStream os = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)))) {
+            os.writeInt(MAGIC);
+            os.writeByte(VERSION);
+            os.writeInt(buses.size());
+            for (Map.Entry<String, Map<SecondaryAddress, Entry>> bus : buses.entrySet()) {
+                os.writeUTF(bus.getKey());
+                os.writeInt(bus.getValue().size());
+                for (Entry entry : bus.getValue().values()) {
+                    os.write(entry.secondaryAddress.asByteArray());
+                    os.writeByte(entry.primaryAddress < 0 ? NONE : entry.primaryAddress);
+                    os.writeLong(entry.lastSeen);
+                    os.writeInt(entry.latency);
+                    os.writeBoolean(entry.readoutMode == ReadoutMode.PRIMARY);
+                }
+            }
+        }
+
+        Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * @return the IDs of all buses in the store.
+     */
+    public synchronized List<String> getBusIds() {
+        return new ArrayList<>(buses.keySet());
+    }
+
+    /**
+     * @param busId
+     *            the ID of the bus.
+     * @return the entries of all meters of the bus.
+     */
+    public synchronized List<Entry> getEntries(String busId) {
+        Map<SecondaryAddress, Entry> entries = buses.get(busId);
+        return entries == null ? new ArrayList<Entry>() : new ArrayList<>(entries.values());
+    }
+
+    /**
+     * @param busId
+     *            the ID of the bus.
+     * @return the secondary addresses of all meters of the bus, e.g. to seed
+     *         {@link SecondaryAddressScanner#setKnownAddresses(Collection)}.
+     */
+    public synchronized List<SecondaryAddress> getSecondaryAddresses(String busId) {
+        Map<SecondaryAddress, Entry> entries = buses.get(busId);
+        return entries == null ? new ArrayList<SecondaryAddress>() : new ArrayList<>(entries.keySet());
+    }
+
+    /**
+     * @param busId
+     *            the ID of the bus.
+     * @param secondaryAddress
+     *            the secondary address of the meter.
+     * @return the entry of the meter or <code>null</code> if the meter is not known on this bus.
+     */
+    public synchronized Entry getEntry(String busId, SecondaryAddress secondaryAddress) {
+        Map<SecondaryAddress, Entry> entries = buses.get(busId);
+        return entries == null ? null : entries.get(secondaryAddress);
+    }
+
+    /**
+     * Replaces the meters of a bus by the result of a scan. Entries of meters that have been found again are kept.
+     *
+     * @param busId
+     *            the ID of the bus.
+     * @param secondaryAddresses
+     *            the secondary addresses found by the scan.
+     */
+    public synchronized void scanCompleted(String busId, Collection<SecondaryAddress> secondaryAddresses) {
+        Map<SecondaryAddress, Entry> entries = entriesOf(busId);
+        Map<SecondaryAddress, Entry> scanned = new LinkedHashMap<>();
+        long now = System.currentTimeMillis();
+        for (SecondaryAddress secondaryAddress : secondaryAddresses) {
+            Entry entry = entries.get(secondaryAddress);
+            if (entry == null) {
+                entry = new Entry(secondaryAddress, -1, now, -1, ReadoutMode.SECONDARY);
+            }
+            else {
+                entry = new Entry(secondaryAddress, entry.primaryAddress, now, entry.latency, entry.readoutMode);
+            }
+            scanned.put(secondaryAddress, entry);
+        }
+        entries.clear();
+        entries.putAll(scanned);
+    }
+
+    /**
+     * Removes a meter from a bus.
+     *
+     * @param busId
+     *            the ID of the bus.
+     * @param secondaryAddress
+     *            the secondary address of the meter.
+     */
+    public synchronized void remove(String busId, SecondaryAddress secondaryAddress) {
+        Map<SecondaryAddress, Entry> entries = buses.get(busId);
+        if (entries != null) {
+            entries.remove(secondaryAddress);
+        }
+    }
+
+    /**
+     * Records a response of a meter. A meter whose primary address is not shared with another meter of the bus is read
+     * by primary address from now on.
+     */
+    synchronized void meterSeen(String busId, SecondaryAddress secondaryAddress, int primaryAddress, int latency) {
+        Map<SecondaryAddress, Entry> entries = entriesOf(busId);
+        Entry entry = entries.get(secondaryAddress);
+
+        ReadoutMode readoutMode;
+        if (entry != null && entry.primaryAddress == primaryAddress) {
+            readoutMode = entry.readoutMode;
+        }
+        else {
+            readoutMode = isUniquePrimaryAddress(entries, secondaryAddress, primaryAddress) ? ReadoutMode.PRIMARY
+                    : ReadoutMode.SECONDARY;
+        }
+        entries.put(secondaryAddress,
+                new Entry(secondaryAddress, primaryAddress, System.currentTimeMillis(), latency, readoutMode));
+    }
+
+    /**
+     * Records that a meter did not answer on its primary address. It is selected by secondary address from now on.
+     */
+    synchronized void primaryReadFailed(String busId, SecondaryAddress secondaryAddress) {
+        Map<SecondaryAddress, Entry> entries = entriesOf(busId);
+        Entry entry = entries.get(secondaryAddress);
+        if (entry != null) {
+            entries.put(secondaryAddress, new Entry(secondaryAddress, entry.primaryAddress, entry.lastSeen,
+                    entry.latency, ReadoutMode.SECONDARY));
+        }
+    }
+
+    private static boolean isUniquePrimaryAddress(Map<SecondaryAddress, Entry> entries,
+            SecondaryAddress secondaryAddress, int primaryAddress) {
+        // 0 is the default address of unconfigured meters, 251 to 255 are reserved
+        if (primaryAddress < 1 || primaryAddress > 250) {
+            return false;
+        }
+        for (Entry entry : entries.values()) {
+            if (entry.primaryAddress == primaryAddress && !entry.secondaryAddress.equals(secondaryAddress)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private Map<SecondaryAddress, Entry> entriesOf(String busId) {
+        Map<SecondaryAddress, Entry> entries = buses.get(busId);
+        if (entries == null) {
+            entries = new LinkedHashMap<>();
+            buses.put(busId, entries);
+        }
+        return entries;
+    }
+
+}
@@ -0,0 +1,115 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package org.openmuc.jmbus;
+
+import java.text.MessageFormat;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.openmuc.jmbus.MeterHealth.State;
+
+/**
+ * Keeps the circuit breaker state of every address of a connection.
+ */
+class CircuitBreakers {
+
+    private final Map<Object, Breaker> breakers = new HashMap<>();
+
+    /**
+     * Checks whether a read of the address may be sent.
+     *
+     * @return <code>true</code> if the read is the probe of a breaker whose open period has passed, it is not retried.
+     * @throws MeterUnavailableException
+     *             if the breaker is open.
+     */
+    synchronized boolean beforeRead(Object address, long now) throws MeterUnavailableException {
+        Breaker breaker = breakers.get(address);
+        if (breaker == null || breaker.state == State.CLOSED) {
+            return false;
+        }
+        if (breaker.state == State.OPEN && now >= breaker.retryAt) {
+            breaker.state = State.HALF_OPEN;
+            return true;
+        }
+        breaker.skippedReads++;
+        throw new MeterUnavailableException(
+                MessageFormat.format("Meter {0} has failed {1} times in a row and is skipped.", address,
+                        breaker.consecutiveFailures),
+                breaker.retryAt);
+    }
+
+    synchronized void retried(Object address) {
+        breakerFor(address).retries++;
+    }
+
+    synchronized void readSucceeded(Object address) {
+        Breaker breaker = breakers.get(address);
+        if (breaker != null) {
+            breaker.state = State.CLOSED;
+            breaker.consecutiveFailures = 0;
+            breaker.failedProbes = 0;
+            breaker.retryAt = 0;
+        }
+    }
+
+    synchronized void readFailed(Object address, long now, RetryPolicy policy) {
+        Breaker breaker = breakerFor(address);
+        breaker.failures++;
+        breaker.consecutiveFailures++;
+        if (breaker.state == State.HALF_OPEN) {
+            breaker.failedProbes++;
+            open(breaker, now, policy);
+        }
+        else if (breaker.state == State.CLOSED && breaker.consecutiveFailures >= policy.getFailureThreshold()) {
+            open(breaker, now, policy);
+        }
+    }
+
+    /**
+     * Ends a probe which has been aborted without an answer about the meter, e.g. because the connection has failed.
+     * The breaker is opened again without counting a failure, the next read is the probe.
+     */
+    synchronized void probeAborted(Object address) {
+        Breaker breaker = breakers.get(address);
+        if (breaker != null && breaker.state == State.HALF_OPEN) {
+            breaker.state = State.OPEN;
+        }
+    }
+
+    synchronized MeterHealth healthOf(Object address) {
+        Breaker breaker = breakers.get(address);
+        if (breaker == null) {
+            return new MeterHealth(State.CLOSED, 0, 0, 0, 0, 0);
+        }
+        return new MeterHealth(breaker.state, breaker.consecutiveFailures, breaker.failures, breaker.retries,
+                breaker.skippedReads, breaker.retryAt);
+    }
+
+    private static void open(Breaker breaker, long now, RetryPolicy policy) {
+        breaker.state = State.OPEN;
+        breaker.retryAt = now + policy.openPeriod(breaker.failedProbes);
+    }
+
+    private Breaker breakerFor(Object address) {
+        Breaker breaker = breakers.get(address);
+        if (breaker == null) {
+            breaker = new Breaker();
+            breakers.put(address, breaker);
+        }
+        return breaker;
+    }
+
+    private static class Breaker {
+        private State state = State.CLOSED;
+        private int consecutiveFailures;
+        private int failedProbes;
+        private long failures;
+        private long retries;
+        private long skippedReads;
+        private long retryAt;
+    }
+
+}
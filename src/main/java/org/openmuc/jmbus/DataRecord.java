@@ -669,21 +669,6 @@ public class DataRecord {
         }
     }
 
-    int encode(byte[] buffer, int offset) {
-
-        int i = offset;
-
-        System.arraycopy(dib, 0, buffer, i, dib.length);
-
-        i += dib.length;
-
-        System.arraycopy(vib, 0, buffer, i, vib.length);
-
-        i += vib.length;
-
-        return i - offset;
-    }
-
     /**
      * Returns a byte array containing the DIB (i.e. the DIF and the DIFEs) contained in the data record.
      * 
@@ -0,0 +1,27 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package org.openmuc.jmbus;
+
+import java.util.EventListener;
+
+/**
+ * Listener to get the data records of a readout spanning several telegrams.
+ *
+ * @see MBusConnection#readAll(int, DataRecordListener)
+ */
+public interface DataRecordListener extends EventListener {
+
+    /**
+     * A data record has been received.
+     *
+     * @param telegram
+     *            the telegram the record belongs to, e.g. to get the header of the response.
+     * @param dataRecord
+     *            the data record.
+     */
+    void newDataRecord(VariableDataStructure telegram, DataRecord dataRecord);
+
+}
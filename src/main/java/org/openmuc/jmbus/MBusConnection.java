@@ -5,48 +5,78 @@
  */
 package org.openmuc.jmbus;
 
-import java.io.ByteArrayOutputStream;
-import java.io.DataInputStream;
 import java.io.DataOutputStream;
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InterruptedIOException;
+import java.net.SocketException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
 
 import org.openmuc.jmbus.MBusMessage.MessageType;
 import org.openmuc.jmbus.VerboseMessage.MessageDirection;
+import org.openmuc.jmbus.transportlayer.BaudrateSwitchable;
 import org.openmuc.jmbus.transportlayer.SerialBuilder;
 import org.openmuc.jmbus.transportlayer.TcpBuilder;
 import org.openmuc.jmbus.transportlayer.TransportLayer;
 
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListenableFutureTask;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
 /**
  * M-Bus Application Layer connection.
  * <p>
  * Use this access point to communicate using the M-Bus wired protocol.
  * </p>
+ * <p>
+ * A connection can be shared by several threads. Every request is an atomic transaction: its frames and the response
+ * are exchanged before the request of another thread is sent. A read by secondary address (select, read, deselect) is
+ * a single transaction as well. Waiting threads are handed the bus in turn, the lock does not spin.
+ * </p>
  * 
  * @see MBusConnection#newSerialBuilder(String)
  * @see MBusConnection#newTcpBuilder(String, int)
  */
 public class MBusConnection implements AutoCloseable {
 
-    private static final int START_BYTE = 0x68;
-    private static final int STOP_BYTE = 0x16;
-    private static final int SINGLE_CHARACTER = 0xe5;
+    private static final int MAX_MESSAGE_SIZE = MBusFrames.MAX_MESSAGE_SIZE;
 
-    // 261 is the maximum size of a long frame
-    private static final int MAX_MESSAGE_SIZE = 261;
+    // a meter which never clears the "more records follow" flag must not read forever
+    private static final int MAX_TELEGRAMS = 64;
+    private static final int CAPACITY_TELEGRAMS = 8;
 
-    private final byte[] outputBuffer = new byte[MAX_MESSAGE_SIZE];
+    // the baud rates of the switch commands CI 0xb8 to 0xbf
+    private static final int[] BAUDRATES = { 300, 600, 1200, 2400, 4800, 9600, 19200, 38400 };
 
-    private final byte[] dataRecordsAsBytes = new byte[MAX_MESSAGE_SIZE];
+    private final byte[] outputBuffer = new byte[MAX_MESSAGE_SIZE];
 
     private final boolean[] frameCountBits;
 
     private DataOutputStream os;
-    private DataInputStream is;
+    private MBusFrameReader frameReader;
 
     private SecondaryAddress secondaryAddress;
 
@@ -54,15 +84,48 @@ public class MBusConnection implements AutoCloseable {
 
     private final TransportLayer transportLayer;
 
+    // one request/response exchange at a time; a lock instead of a monitor, so a blocked virtual thread does not pin
+    // its carrier thread
+    private final ReentrantLock transactionLock = new ReentrantLock(true);
+
+    private ExecutorService executor;
+    private final ThreadFactory threadFactory;
+    private boolean ownsExecutor;
+    private Executor requestQueue;
+    private final Queue<Future<?>> pendingRequests = new ConcurrentLinkedQueue<>();
+    private boolean closed = false;
+
+    private volatile ResponseTimeTracker responseTimes;
+
+    private volatile RetryPolicy retryPolicy;
+    private volatile CircuitBreakers circuitBreakers = new CircuitBreakers();
+
+    private volatile int[] switchBaudrates;
+    private int commonBaudrate;
+    private final Map<Object, Integer> meterBaudrates = new ConcurrentHashMap<>();
+    // the lowest baud rate a meter has acknowledged but failed to answer with, only lower ones are negotiated
+    private final Map<Object, Integer> failedBaudrates = new ConcurrentHashMap<>();
+
+    private volatile BusTopologyStore topologyStore;
+    private volatile String busId;
+    private int lastResponseAddress;
+    private int lastResponseTime;
+
     /**
      * Creates an M-Bus Service Access Point that is used to read meters.
      * 
      * @param transportLayer
      *            Underlying transport layer
+     * @param executor
+     *            executor of the asynchronous requests or <code>null</code>
+     * @param threadFactory
+     *            thread factory used if no executor is given or <code>null</code>
      * @see MBusConnection#open()
      */
-    private MBusConnection(TransportLayer transportLayer) {
+    private MBusConnection(TransportLayer transportLayer, ExecutorService executor, ThreadFactory threadFactory) {
         this.transportLayer = transportLayer;
+        this.executor = executor;
+        this.threadFactory = threadFactory;
 
         // set all frame bits to true
         this.frameCountBits = new boolean[254];
@@ -80,14 +143,24 @@ public class MBusConnection implements AutoCloseable {
         }
 
         this.os = transportLayer.getOutputStream();
-        this.is = transportLayer.getInputStream();
+        this.frameReader = new MBusFrameReader(transportLayer.getInputStream());
     }
 
     /**
-     * Closes the service access point.
+     * Closes the service access point. Asynchronous requests which have not been processed yet are cancelled.
      */
     @Override
     public void close() {
+        synchronized (this) {
+            closed = true;
+            Future<?> pendingRequest;
+            while ((pendingRequest = pendingRequests.poll()) != null) {
+                pendingRequest.cancel(false);
+            }
+            if (ownsExecutor) {
+                executor.shutdownNow();
+            }
+        }
         transportLayer.close();
     }
 
@@ -101,9 +174,266 @@ public class MBusConnection implements AutoCloseable {
         this.verboseMessageListener = verboseMessageListener;
     }
 
+    /**
+     * Enables timeouts which are learned per meter from the observed response times. The timeout of a meter is the 99th
+     * percentile of its recent response times multiplied by the given margin, but not less than the minimum timeout
+     * and not more than the timeout this connection has been built with. Addresses which never responded are given a
+     * timeout derived from all meters of this connection, so dead addresses do not cost the full timeout.
+     * <p>
+     * After a timeout, the next read of the meter waits for the full timeout once before the learned timeout is
+     * applied again.
+     * </p>
+     * 
+     * @param minimumTimeout
+     *            the minimum timeout in milliseconds.
+     * @param margin
+     *            the factor applied to the 99th percentile response time, e.g. 1.5.
+     * @throws IOException
+     *             if the configured timeout could not be read from the transport layer.
+     * @see #getResponseTimeStatistics(int)
+     */
+    public void enableAdaptiveTimeout(int minimumTimeout, double margin) throws IOException {
+        if (margin < 1) {
+            throw new IllegalArgumentException("Margin must not be less than 1.");
+        }
+        ResponseTimeTracker tracker = responseTimes;
+        if (tracker != null) {
+            tracker.setLimits(minimumTimeout, tracker.getMaximumTimeout(), margin);
+        }
+        else {
+            responseTimes = new ResponseTimeTracker(minimumTimeout, transportLayer.getTimeout(), margin);
+            seedResponseTimes();
+        }
+    }
+
+    int getTimeout() throws IOException {
+        return transportLayer.getTimeout();
+    }
+
+    void setTimeout(int timeout) throws IOException {
+        transportLayer.setTimeout(timeout);
+    }
+
+    /**
+     * Drops the bytes already received, e.g. the late answer to an earlier request.
+     */
+    void drainInput() throws IOException {
+        transactionLock.lock();
+        try {
+            frameReader.drain();
+        } finally {
+            transactionLock.unlock();
+        }
+    }
+
+    /**
+     * @return the baud rate of the port, or the default baud rate of M-Bus of 2400 if the transport layer does not
+     *         know it, e.g. a TCP gateway.
+     */
+    int getLineBaudrate() throws IOException {
+        if (transportLayer instanceof BaudrateSwitchable) {
+            return ((BaudrateSwitchable) transportLayer).getBaudrate();
+        }
+        return 2400;
+    }
+
+    /**
+     * Disables adaptive timeouts and discards the learned response times.
+     */
+    public void disableAdaptiveTimeout() {
+        responseTimes = null;
+    }
+
+    /**
+     * Get the learned response times of a meter read by primary address.
+     * 
+     * @param primaryAddress
+     *            the primary address of the meter.
+     * @return the statistics or <code>null</code> if adaptive timeouts are disabled or the meter has not been read
+     *         yet.
+     * @see #enableAdaptiveTimeout(int, double)
+     */
+    public ResponseTimeStatistics getResponseTimeStatistics(int primaryAddress) {
+        ResponseTimeTracker tracker = responseTimes;
+        return tracker == null ? null : tracker.statisticsFor(primaryAddress);
+    }
+
+    /**
+     * Get the learned response times of a meter read by secondary address.
+     * 
+     * @param secondaryAddress
+     *            the secondary address of the meter.
+     * @return the statistics or <code>null</code> if adaptive timeouts are disabled or the meter has not been read
+     *         yet.
+     * @see #enableAdaptiveTimeout(int, double)
+     */
+    public ResponseTimeStatistics getResponseTimeStatistics(SecondaryAddress secondaryAddress) {
+        ResponseTimeTracker tracker = responseTimes;
+        return tracker == null ? null : tracker.statisticsFor(secondaryAddress);
+    }
+
+    /**
+     * Get the response times of all meters of this connection.
+     * 
+     * @return the statistics or <code>null</code> if adaptive timeouts are disabled.
+     * @see #enableAdaptiveTimeout(int, double)
+     */
+    public ResponseTimeStatistics getResponseTimeStatistics() {
+        ResponseTimeTracker tracker = responseTimes;
+        return tracker == null ? null : tracker.statistics();
+    }
+
+    /**
+     * Attaches a topology store to this connection. Meters of the bus which have a primary address of their own are
+     * read by primary address instead of being selected, and every read by secondary address updates the store. The
+     * stored response times are used as first samples of the adaptive timeouts.
+     * 
+     * @param topologyStore
+     *            the store or <code>null</code> to detach the store.
+     * @param busId
+     *            the ID of the bus of this connection in the store.
+     * @see BusTopologyStore#load(java.io.File)
+     */
+    public void setTopologyStore(BusTopologyStore topologyStore, String busId) {
+        this.busId = busId;
+        this.topologyStore = topologyStore;
+        seedResponseTimes();
+    }
+
+    /**
+     * Sets the policy for retrying failed reads and skipping meters that keep failing. Applies to {@link #read(int)},
+     * {@link #read(SecondaryAddress)} and their asynchronous variants. Without a policy (the default) a failed read is
+     * reported immediately. A lost connection, i.e. an {@link EOFException} or {@link SocketException}, is reported
+     * immediately as well and is not counted as a failure of the meter.
+     * 
+     * @param retryPolicy
+     *            the policy or <code>null</code> to disable retries. Setting a policy resets all circuit breakers.
+     */
+    public void setRetryPolicy(RetryPolicy retryPolicy) {
+        this.circuitBreakers = new CircuitBreakers();
+        this.retryPolicy = retryPolicy;
+    }
+
+    /**
+     * Get the circuit breaker state of a meter read by primary address.
+     * 
+     * @param primaryAddress
+     *            the primary address of the meter.
+     * @return the state, a meter that has never failed is reported as closed.
+     * @see #setRetryPolicy(RetryPolicy)
+     */
+    public MeterHealth getMeterHealth(int primaryAddress) {
+        return circuitBreakers.healthOf(primaryAddress);
+    }
+
+    /**
+     * Get the circuit breaker state of a meter read by secondary address.
+     * 
+     * @param secondaryAddress
+     *            the secondary address of the meter.
+     * @return the state, a meter that has never failed is reported as closed.
+     * @see #setRetryPolicy(RetryPolicy)
+     */
+    public MeterHealth getMeterHealth(SecondaryAddress secondaryAddress) {
+        return circuitBreakers.healthOf(secondaryAddress);
+    }
+
+    /**
+     * Enables switching the baud rate per meter. Before a meter is read, it is switched to the highest of the given
+     * baud rates it supports, afterwards the meter and the port are switched back to the baud rate the connection has
+     * been built with, which all meters of the bus share. The supported baud rate of a meter is negotiated with its
+     * first read by trying the given baud rates from the highest to the lowest and is remembered from then on. If the
+     * meter acknowledges a baud rate but the exchange at this baud rate fails, the next negotiation starts with the
+     * next lower baud rate, down to the common baud rate.
+     * <p>
+     * Applies to {@link #read(int)}, {@link #read(SecondaryAddress)} and the <code>readAll</code> methods. Only serial
+     * connections can switch their baud rate.
+     * </p>
+     * 
+     * @param baudrates
+     *            the baud rates to try, each one of 300, 600, 1200, 2400, 4800, 9600, 19200 and 38400.
+     * @throws IOException
+     *             if the baud rate of the port could not be read.
+     */
+    public void enableBaudrateSwitching(int... baudrates) throws IOException {
+        if (!(transportLayer instanceof BaudrateSwitchable)) {
+            throw new IllegalStateException("The transport layer of this connection cannot switch its baud rate.");
+        }
+        int[] candidates = baudrates.clone();
+        Arrays.sort(candidates);
+        for (int baudrate : candidates) {
+            if (Arrays.binarySearch(BAUDRATES, baudrate) < 0) {
+                throw new IllegalArgumentException("Baud rate not supported by M-Bus: " + baudrate);
+            }
+        }
+
+        transactionLock.lock();
+        try {
+            commonBaudrate = ((BaudrateSwitchable) transportLayer).getBaudrate();
+            meterBaudrates.clear();
+            failedBaudrates.clear();
+            switchBaudrates = candidates;
+        } finally {
+            transactionLock.unlock();
+        }
+    }
+
+    /**
+     * Disables switching the baud rate per meter and discards the negotiated baud rates.
+     */
+    public void disableBaudrateSwitching() {
+        switchBaudrates = null;
+        meterBaudrates.clear();
+        failedBaudrates.clear();
+    }
+
+    /**
+     * Get the negotiated baud rate of a meter read by primary address.
+     * 
+     * @param primaryAddress
+     *            the primary address of the meter.
+     * @return the baud rate or -1 if it has not been negotiated yet.
+     * @see #enableBaudrateSwitching(int...)
+     */
+    public int getMeterBaudrate(int primaryAddress) {
+        Integer baudrate = meterBaudrates.get(primaryAddress);
+        return baudrate == null ? -1 : baudrate;
+    }
+
+    /**
+     * Get the negotiated baud rate of a meter read by secondary address.
+     * 
+     * @param secondaryAddress
+     *            the secondary address of the meter.
+     * @return the baud rate or -1 if it has not been negotiated yet.
+     * @see #enableBaudrateSwitching(int...)
+     */
+    public int getMeterBaudrate(SecondaryAddress secondaryAddress) {
+        Integer baudrate = meterBaudrates.get(secondaryAddress);
+        return baudrate == null ? -1 : baudrate;
+    }
+
+    private void seedResponseTimes() {
+        ResponseTimeTracker tracker = responseTimes;
+        BusTopologyStore store = topologyStore;
+        if (tracker == null || store == null) {
+            return;
+        }
+        for (BusTopologyStore.Entry entry : store.getEntries(busId)) {
+            if (entry.getLatency() >= 0) {
+                tracker.responseReceived(entry.getSecondaryAddress(), entry.getLatency());
+                // a meter read by primary address is tracked by its primary address
+                if (entry.getReadoutMode() == BusTopologyStore.ReadoutMode.PRIMARY) {
+                    tracker.responseReceived(entry.getPrimaryAddress(), entry.getLatency());
+                }
+            }
+        }
+    }
+
     /**
      * Scans for secondary addresses and returns all detected devices in a list and if SecondaryAddressListener not null
-     * to the listen listener.
+     * to the listen listener. The connection is closed after the scan, use a {@link SecondaryAddressScanner} to keep it
+     * open or to scan incrementally.
      * 
      * @param wildcardMask
      *            a wildcard mask for masking
@@ -115,15 +445,16 @@ public class MBusConnection implements AutoCloseable {
      * @throws IOException
      *             if any kind of error (including timeout) occurs while writing to the remote device. Note that the
      *             connection is not closed when an IOException is thrown.
+     * @see SecondaryAddressScanner
      */
     public List<SecondaryAddress> scan(String wildcardMask, SecondaryAddressListener secondaryAddressListener)
             throws IOException {
 
-        if (wildcardMask == null || wildcardMask.isEmpty()) {
-            wildcardMask = "ffffffff";
-        }
-
-        return ScanSecondaryAddress.scan(this, wildcardMask, secondaryAddressListener);
+        List<SecondaryAddress> secondaryAddresses = new SecondaryAddressScanner(this).setWildcardMask(wildcardMask)
+                .setListener(secondaryAddressListener)
+                .scan();
+        close();
+        return secondaryAddresses;
     }
 
     /**
@@ -140,40 +471,775 @@ public class MBusConnection implements AutoCloseable {
      *             connection is not closed when an IOException is thrown.
      * @throws InterruptedIOException
      *             if no response at all (not even a single byte) was received from the meter within the timeout span.
+     * @throws MeterUnavailableException
+     *             if a retry policy is set and the meter is skipped because it has failed repeatedly.
+     * @see #setRetryPolicy(RetryPolicy)
+     */
+    public VariableDataStructure read(final int primaryAddress) throws IOException, InterruptedIOException {
+        if (retryPolicy == null) {
+            return readAtMeterBaudrate(primaryAddress, primaryAddress);
+        }
+        return readWithRetries(primaryAddress, primaryAddress, new Callable<VariableDataStructure>() {
+
+            @Override
+            public VariableDataStructure call() throws IOException {
+                return readAtMeterBaudrate(primaryAddress, primaryAddress);
+            }
+        });
+    }
+
+    /**
+     * Sends a REQ_UD2 and receives the response, ignoring the retry policy.
      */
-    public VariableDataStructure read(int primaryAddress) throws IOException, InterruptedIOException {
-        if (transportLayer.isClosed()) {
-            throw new IllegalStateException("Port is not open.");
+    VariableDataStructure requestUserData(int primaryAddress) throws IOException {
+        transactionLock.lock();
+        try {
+            if (transportLayer.isClosed()) {
+                throw new IllegalStateException("Port is not open.");
+            }
+
+            ResponseTimeTracker tracker = responseTimes;
+            long requestTime = System.nanoTime();
+
+            if (frameCountBits[primaryAddress]) {
+                sendShortMessage(primaryAddress, 0x7b);
+                frameCountBits[primaryAddress] = false;
+            }
+            else {
+                sendShortMessage(primaryAddress, 0x5b);
+                frameCountBits[primaryAddress] = true;
+            }
+
+            MBusMessage mBusMessage;
+            if (tracker == null) {
+                mBusMessage = receiveMessage();
+            }
+            else {
+                Object address = primaryAddress == 0xfd && secondaryAddress != null ? secondaryAddress : primaryAddress;
+                int timeout = tracker.timeoutFor(address);
+                try {
+                    if (timeout != tracker.getMaximumTimeout()) {
+                        transportLayer.setTimeout(timeout);
+                    }
+                    frameReader.awaitData();
+                } catch (InterruptedIOException e) {
+                    tracker.timedOut(address);
+                    throw e;
+                } finally {
+                    // the rest of the frame is read with the configured timeout
+                    if (timeout != tracker.getMaximumTimeout()) {
+                        transportLayer.setTimeout(tracker.getMaximumTimeout());
+                    }
+                }
+                tracker.responseReceived(address, (System.nanoTime() - requestTime) / 1000000);
+                mBusMessage = receiveMessage();
+            }
+
+            if (mBusMessage.getMessageType() != MessageType.RSP_UD) {
+                throw new IOException(
+                        "Received wrong kind of message. Expected RSP_UD but got: " + mBusMessage.getMessageType());
+            }
+
+            lastResponseAddress = mBusMessage.getAddressField();
+            lastResponseTime = (int) ((System.nanoTime() - requestTime) / 1000000);
+
+            if (mBusMessage.getAddressField() != primaryAddress) {
+                // throw new IOException("Received RSP_UD message with unexpected address field. Expected "
+                // + primaryAddress + " but received " + mBusMessage.getAddressField());
+            }
+
+            try {
+                mBusMessage.getVariableDataResponse().decode();
+            } catch (DecodingException e) {
+                throw new IOException("Error decoding incoming RSP_UD message.", e);
+            }
+
+            return mBusMessage.getVariableDataResponse();
+        } finally {
+            transactionLock.unlock();
         }
+    }
 
-        if (frameCountBits[primaryAddress]) {
-            sendShortMessage(primaryAddress, 0x7b);
-            frameCountBits[primaryAddress] = false;
+    /**
+     * Reads a meter using secondary addressing. The meter is selected, read on primary address 0xfd and deselected
+     * again.
+     * 
+     * @param secondaryAddress
+     *            the secondary address of the meter to read.
+     * @return the variable data structure from the received RSP_UD frame
+     * @throws IOException
+     *             if any kind of error (including timeout) occurs while trying to read the remote device. Note that the
+     *             connection is not closed when an IOException is thrown.
+     * @throws InterruptedIOException
+     *             if no response at all (not even a single byte) was received from the meter within the timeout span.
+     * @throws MeterUnavailableException
+     *             if a retry policy is set and the meter is skipped because it has failed repeatedly.
+     * @see #selectComponent(SecondaryAddress)
+     * @see #setRetryPolicy(RetryPolicy)
+     */
+    public VariableDataStructure read(final SecondaryAddress secondaryAddress)
+            throws IOException, InterruptedIOException {
+        if (retryPolicy == null) {
+            return readSecondary(secondaryAddress);
         }
-        else {
-            sendShortMessage(primaryAddress, 0x5b);
-            frameCountBits[primaryAddress] = true;
+        return readWithRetries(secondaryAddress, -1, new Callable<VariableDataStructure>() {
+
+            @Override
+            public VariableDataStructure call() throws IOException {
+                return readSecondary(secondaryAddress);
+            }
+        });
+    }
+
+    private VariableDataStructure readSecondary(SecondaryAddress secondaryAddress) throws IOException {
+        transactionLock.lock();
+        try {
+            BusTopologyStore store = topologyStore;
+            if (store == null) {
+                return readSelected(secondaryAddress);
+            }
+
+            BusTopologyStore.Entry entry = store.getEntry(busId, secondaryAddress);
+            if (entry != null && entry.getReadoutMode() == BusTopologyStore.ReadoutMode.PRIMARY) {
+                try {
+                    VariableDataStructure variableDataStructure = readAtMeterBaudrate(secondaryAddress,
+                            entry.getPrimaryAddress());
+                    if (secondaryAddress.equals(variableDataStructure.getSecondaryAddress())) {
+                        store.meterSeen(busId, secondaryAddress, lastResponseAddress, lastResponseTime);
+                        return variableDataStructure;
+                    }
+                } catch (IOException e) {
+                    // the primary address has been reassigned or is shared now
+                }
+                store.primaryReadFailed(busId, secondaryAddress);
+            }
+
+            VariableDataStructure variableDataStructure = readSelected(secondaryAddress);
+            store.meterSeen(busId, secondaryAddress, lastResponseAddress, lastResponseTime);
+            return variableDataStructure;
+        } finally {
+            transactionLock.unlock();
         }
+    }
 
-        MBusMessage mBusMessage = receiveMessage();
+    private VariableDataStructure readSelected(SecondaryAddress secondaryAddress) throws IOException {
+        selectComponent(secondaryAddress);
+
+        VariableDataStructure variableDataStructure;
+        try {
+            variableDataStructure = readAtMeterBaudrate(secondaryAddress, 0xfd);
+        } catch (IOException e) {
+            try {
+                deselectComponent();
+            } catch (IOException e1) {
+                // ignore, the read error is reported
+            }
+            throw e;
+        }
+
+        deselectComponent();
+        return variableDataStructure;
+    }
+
+    private VariableDataStructure readAtMeterBaudrate(Object meter, final int address) throws IOException {
+        return atMeterBaudrate(meter, address, new Callable<VariableDataStructure>() {
+
+            @Override
+            public VariableDataStructure call() throws IOException {
+                return requestUserData(address);
+            }
+        });
+    }
+
+    /**
+     * Runs the exchange at the highest baud rate the meter supports and switches the meter and the port back to the
+     * common baud rate afterwards.
+     */
+    private <T> T atMeterBaudrate(Object meter, int address, Callable<T> exchange) throws IOException {
+        int[] candidates = switchBaudrates;
+        if (candidates == null) {
+            return call(exchange);
+        }
+
+        transactionLock.lock();
+        try {
+            int baudrate = raiseBaudrate(meter, address, candidates);
+
+            T result;
+            try {
+                result = call(exchange);
+            } catch (IOException | RuntimeException e) {
+                meterBaudrates.remove(meter);
+                if (baudrate != commonBaudrate) {
+                    // the meter has acknowledged a baud rate it cannot sustain, the next lower one is negotiated
+                    // with the next exchange
+                    failedBaudrates.put(meter, baudrate);
+                    restoreBaudrate(address);
+                }
+                else {
+                    // the meter may have been replaced, its baud rate is negotiated again from the highest one
+                    failedBaudrates.remove(meter);
+                }
+                throw e;
+            }
+
+            if (baudrate != commonBaudrate && !restoreBaudrate(address)) {
+                meterBaudrates.remove(meter);
+            }
+            return result;
+        } finally {
+            transactionLock.unlock();
+        }
+    }
+
+    private int raiseBaudrate(Object meter, int address, int[] candidates) throws IOException {
+        Integer known = meterBaudrates.get(meter);
+        if (known != null) {
+            if (known == commonBaudrate) {
+                return commonBaudrate;
+            }
+            if (switchMeterBaudrate(address, known)) {
+                ((BaudrateSwitchable) transportLayer).setBaudrate(known);
+                return known;
+            }
+            meterBaudrates.remove(meter);
+            return commonBaudrate;
+        }
+
+        Integer failed = failedBaudrates.get(meter);
+        for (int i = candidates.length - 1; i >= 0 && candidates[i] > commonBaudrate; i--) {
+            if (failed != null && candidates[i] >= failed) {
+                continue;
+            }
+            if (switchMeterBaudrate(address, candidates[i])) {
+                meterBaudrates.put(meter, candidates[i]);
+                ((BaudrateSwitchable) transportLayer).setBaudrate(candidates[i]);
+                return candidates[i];
+            }
+        }
+        meterBaudrates.put(meter, commonBaudrate);
+        return commonBaudrate;
+    }
+
+    private boolean restoreBaudrate(int address) throws IOException {
+        try {
+            return switchMeterBaudrate(address, commonBaudrate);
+        } catch (IOException e) {
+            return false;
+        } finally {
+            ((BaudrateSwitchable) transportLayer).setBaudrate(commonBaudrate);
+        }
+    }
+
+    /**
+     * Sends the baud rate switch command (CI 0xb8 to 0xbf). The meter acknowledges with the old baud rate and
+     * switches afterwards, a meter that does not support the baud rate does not answer.
+     */
+    private boolean switchMeterBaudrate(int address, int baudrate) throws IOException {
+        sendLongMessage(address, 0x53, 0xb8 + Arrays.binarySearch(BAUDRATES, baudrate), 0, new byte[0]);
+        try {
+            return receiveMessage().getMessageType() == MessageType.SINGLE_CHARACTER;
+        } catch (InterruptedIOException e) {
+            return false;
+        }
+    }
+
+    private VariableDataStructure readWithRetries(Object address, int linkResetAddress,
+            Callable<VariableDataStructure> request) throws IOException {
+        RetryPolicy policy = retryPolicy;
+        CircuitBreakers breakers = circuitBreakers;
+        if (policy == null) {
+            return call(request);
+        }
+
+        boolean probe = breakers.beforeRead(address, System.currentTimeMillis());
+        // a probe of a meter that has failed repeatedly is not retried, it costs one timeout at most
+        int attempts = probe ? 1 : policy.getRetries() + 1;
+
+        boolean settled = false;
+        try {
+            IOException failure = null;
+            for (int attempt = 0; attempt < attempts; attempt++) {
+                if (attempt > 0) {
+                    breakers.retried(address);
+                    // the delay is spent outside of the transaction, so other threads can use the bus meanwhile; the
+                    // asynchronous reads are retried by AsyncRetry instead, which does not occupy the request queue
+                    sleep(policy.retryDelay(attempt));
+                    if (policy.isLinkResetBeforeRetry() && linkResetAddress >= 0) {
+                        try {
+                            linkReset(linkResetAddress);
+                        } catch (IOException e) {
+                            // the read is repeated anyway
+                        }
+                    }
+                }
+                try {
+                    VariableDataStructure variableDataStructure = call(request);
+                    breakers.readSucceeded(address);
+                    settled = true;
+                    return variableDataStructure;
+                } catch (IOException e) {
+                    if (isConnectionFailure(e)) {
+                        // the bus has failed, not the meter
+                        if (probe) {
+                            breakers.probeAborted(address);
+                        }
+                        settled = true;
+                        throw e;
+                    }
+                    failure = e;
+                }
+            }
+            breakers.readFailed(address, System.currentTimeMillis(), policy);
+            settled = true;
+            throw failure;
+        } finally {
+            if (probe && !settled) {
+                // e.g. a runtime exception of the request, the breaker must not stay half open
+                breakers.readFailed(address, System.currentTimeMillis(), policy);
+            }
+        }
+    }
+
+    /**
+     * @return <code>true</code> if the connection to the bus has been lost, which is not counted as a failure of the
+     *         meter.
+     */
+    private static boolean isConnectionFailure(Throwable t) {
+        return t instanceof EOFException || t instanceof SocketException;
+    }
+
+    private static <T> T call(Callable<T> request) throws IOException {
+        try {
+            return request.call();
+        } catch (IOException | RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IOException(e);
+        }
+    }
 
-        if (mBusMessage.getMessageType() != MessageType.RSP_UD) {
-            throw new IOException(
-                    "Received wrong kind of message. Expected RSP_UD but got: " + mBusMessage.getMessageType());
+    private static void sleep(long millis) throws InterruptedIOException {
+        if (millis <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting to retry.");
         }
+    }
 
-        if (mBusMessage.getAddressField() != primaryAddress) {
-            // throw new IOException("Received RSP_UD message with unexpected address field. Expected " + primaryAddress
-            // + " but received " + mBusMessage.getAddressField());
+    /**
+     * Reads all telegrams of a meter using primary addressing. The meter is read until it indicates that no more
+     * records follow. The records of all telegrams are passed to the listener in the order they have been received.
+     * <p>
+     * If a response is lost, the request is repeated with the same frame count bit, so the meter repeats the lost
+     * telegram instead of sending the next one.
+     * </p>
+     * 
+     * @param primaryAddress
+     *            the primary address of the meter to read.
+     * @param listener
+     *            the listener to get the data records.
+     * @throws IOException
+     *             if any kind of error (including timeout) occurs while trying to read the remote device.
+     */
+    public void readAll(int primaryAddress, DataRecordListener listener) throws IOException {
+        transactionLock.lock();
+        try {
+            readTelegramsAtMeterBaudrate(primaryAddress, primaryAddress, listener);
+        } finally {
+            transactionLock.unlock();
         }
+    }
 
+    /**
+     * Reads all telegrams of a meter using secondary addressing. The meter stays selected until the last telegram has
+     * been received.
+     * 
+     * @param secondaryAddress
+     *            the secondary address of the meter to read.
+     * @param listener
+     *            the listener to get the data records.
+     * @throws IOException
+     *             if any kind of error (including timeout) occurs while trying to read the remote device.
+     * @see #readAll(int, DataRecordListener)
+     */
+    public void readAll(SecondaryAddress secondaryAddress, DataRecordListener listener) throws IOException {
+        transactionLock.lock();
         try {
-            mBusMessage.getVariableDataResponse().decode();
-        } catch (DecodingException e) {
-            throw new IOException("Error decoding incoming RSP_UD message.", e);
+            selectComponent(secondaryAddress);
+            try {
+                readTelegramsAtMeterBaudrate(secondaryAddress, 0xfd, listener);
+            } catch (IOException e) {
+                try {
+                    deselectComponent();
+                } catch (IOException e1) {
+                    // ignore, the read error is reported
+                }
+                throw e;
+            }
+            deselectComponent();
+        } finally {
+            transactionLock.unlock();
+        }
+    }
+
+    /**
+     * Reads all telegrams of a meter using primary addressing and merges their records.
+     * 
+     * @param primaryAddress
+     *            the primary address of the meter to read.
+     * @return the data records of all telegrams.
+     * @throws IOException
+     *             if any kind of error (including timeout) occurs while trying to read the remote device.
+     * @see #readAll(int, DataRecordListener)
+     */
+    public List<DataRecord> readAll(int primaryAddress) throws IOException {
+        DataRecordCollector collector = new DataRecordCollector();
+        readAll(primaryAddress, collector);
+        return collector.dataRecords;
+    }
+
+    /**
+     * Reads all telegrams of a meter using secondary addressing and merges their records.
+     * 
+     * @param secondaryAddress
+     *            the secondary address of the meter to read.
+     * @return the data records of all telegrams.
+     * @throws IOException
+     *             if any kind of error (including timeout) occurs while trying to read the remote device.
+     * @see #readAll(SecondaryAddress, DataRecordListener)
+     */
+    public List<DataRecord> readAll(SecondaryAddress secondaryAddress) throws IOException {
+        DataRecordCollector collector = new DataRecordCollector();
+        readAll(secondaryAddress, collector);
+        return collector.dataRecords;
+    }
+
+    private void readTelegramsAtMeterBaudrate(Object meter, final int address, final DataRecordListener listener)
+            throws IOException {
+        atMeterBaudrate(meter, address, new Callable<Void>() {
+
+            @Override
+            public Void call() throws IOException {
+                readTelegrams(address, listener);
+                return null;
+            }
+        });
+    }
+
+    private void readTelegrams(int primaryAddress, DataRecordListener listener) throws IOException {
+        boolean repeated = false;
+        for (int telegrams = 0; telegrams < MAX_TELEGRAMS;) {
+            VariableDataStructure variableDataStructure;
+            try {
+                variableDataStructure = requestUserData(primaryAddress);
+            } catch (InterruptedIOException e) {
+                if (telegrams == 0 || repeated) {
+                    throw e;
+                }
+                // the meter has toggled to the next telegram only if it has received the lost request
+                frameCountBits[primaryAddress] = !frameCountBits[primaryAddress];
+                repeated = true;
+                continue;
+            }
+            repeated = false;
+            telegrams++;
+
+            for (DataRecord dataRecord : variableDataStructure.getDataRecords()) {
+                listener.newDataRecord(variableDataStructure, dataRecord);
+            }
+            if (!variableDataStructure.moreRecordsFollow()) {
+                return;
+            }
+        }
+        throw new IOException("Meter did not send its last telegram within " + MAX_TELEGRAMS + " telegrams.");
+    }
+
+    private static class DataRecordCollector implements DataRecordListener {
+        private final ArrayList<DataRecord> dataRecords = new ArrayList<>();
+
+        @Override
+        public void newDataRecord(VariableDataStructure telegram, DataRecord dataRecord) {
+            if (dataRecords.isEmpty()) {
+                // telegrams of a meter are of similar size, the first one gives the expected capacity
+                int size = telegram.getDataRecords().size();
+                dataRecords.ensureCapacity(telegram.moreRecordsFollow() ? size * CAPACITY_TELEGRAMS : size);
+            }
+            dataRecords.add(dataRecord);
+        }
+    }
+
+    /**
+     * Asynchronously reads a meter using primary addressing. The request is queued and processed after all previously
+     * queued requests of this connection.
+     * 
+     * @param primaryAddress
+     *            the primary address of the meter to read.
+     * @return a future holding the variable data structure from the received RSP_UD frame.
+     * @see #read(int)
+     */
+    public ListenableFuture<VariableDataStructure> readAsync(final int primaryAddress) {
+        return readAsyncWithRetries(primaryAddress, primaryAddress, new Callable<VariableDataStructure>() {
+
+            @Override
+            public VariableDataStructure call() throws IOException {
+                return readAtMeterBaudrate(primaryAddress, primaryAddress);
+            }
+        });
+    }
+
+    /**
+     * Asynchronously reads a meter using secondary addressing. Select, read and deselect are processed as one request,
+     * so they are never interleaved with other queued requests.
+     * 
+     * @param secondaryAddress
+     *            the secondary address of the meter to read.
+     * @return a future holding the variable data structure from the received RSP_UD frame.
+     * @see #read(SecondaryAddress)
+     */
+    public ListenableFuture<VariableDataStructure> readAsync(final SecondaryAddress secondaryAddress) {
+        return readAsyncWithRetries(secondaryAddress, -1, new Callable<VariableDataStructure>() {
+
+            @Override
+            public VariableDataStructure call() throws IOException {
+                return readSecondary(secondaryAddress);
+            }
+        });
+    }
+
+    /**
+     * Queues every attempt of a read as a request of its own. The delay between the attempts is spent outside of the
+     * request queue, so a meter that does not respond does not hold up the other requests of the bus.
+     */
+    private ListenableFuture<VariableDataStructure> readAsyncWithRetries(Object address, int linkResetAddress,
+            Callable<VariableDataStructure> request) {
+        RetryPolicy policy = retryPolicy;
+        if (policy == null) {
+            return submit(request);
+        }
+
+        final AsyncRetry retry = new AsyncRetry(policy, circuitBreakers, address, linkResetAddress, request);
+        synchronized (this) {
+            if (closed) {
+                throw new RejectedExecutionException("Connection has been closed.");
+            }
+            pendingRequests.add(retry.result);
+        }
+        retry.result.addListener(new Runnable() {
+
+            @Override
+            public void run() {
+                pendingRequests.remove(retry.result);
+            }
+        }, MoreExecutors.directExecutor());
+        retry.start();
+        return retry.result;
+    }
+
+    /**
+     * Asynchronously writes to a meter using primary addressing.
+     * 
+     * @param primaryAddress
+     *            the primary address of the meter to write.
+     * @param data
+     *            the data to sends to the meter.
+     * @return a future which completes when the meter acknowledged the data.
+     * @see #write(int, byte[])
+     */
+    public ListenableFuture<Void> writeAsync(final int primaryAddress, final byte[] data) {
+        return submit(new Callable<Void>() {
+
+            @Override
+            public Void call() throws IOException {
+                write(primaryAddress, data);
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Asynchronously writes to several meters. The batch is queued as one request.
+     * 
+     * @param requests
+     *            the writes.
+     * @return a future holding the result of every write in the order of the requests.
+     * @see #writeAll(Collection)
+     */
+    public ListenableFuture<List<WriteResult>> writeAllAsync(final Collection<WriteRequest> requests) {
+        return submit(new Callable<List<WriteResult>>() {
+
+            @Override
+            public List<WriteResult> call() {
+                return writeAll(requests);
+            }
+        });
+    }
+
+    /**
+     * Asynchronously sends a SND_NKE message to reset the FCB (frame counter bit).
+     * 
+     * @param primaryAddress
+     *            the primary address of the meter to reset.
+     * @return a future which completes when the meter acknowledged the reset.
+     * @see #linkReset(int)
+     */
+    public ListenableFuture<Void> linkResetAsync(final int primaryAddress) {
+        return submit(new Callable<Void>() {
+
+            @Override
+            public Void call() throws IOException {
+                linkReset(primaryAddress);
+                return null;
+            }
+        });
+    }
+
+    private class AsyncRetry implements Runnable, FutureCallback<VariableDataStructure> {
+        private final RetryPolicy policy;
+        private final CircuitBreakers breakers;
+        private final Object address;
+        private final int linkResetAddress;
+        private final Callable<VariableDataStructure> request;
+        private final SettableFuture<VariableDataStructure> result = SettableFuture.create();
+
+        private boolean probe;
+        private int attempts;
+        private int attempt = 0;
+
+        AsyncRetry(RetryPolicy policy, CircuitBreakers breakers, Object address, int linkResetAddress,
+                Callable<VariableDataStructure> request) {
+            this.policy = policy;
+            this.breakers = breakers;
+            this.address = address;
+            this.linkResetAddress = linkResetAddress;
+            this.request = request;
         }
 
-        return mBusMessage.getVariableDataResponse();
+        void start() {
+            try {
+                // a probe of a meter that has failed repeatedly is not retried
+                probe = breakers.beforeRead(address, System.currentTimeMillis());
+                attempts = probe ? 1 : policy.getRetries() + 1;
+            } catch (MeterUnavailableException e) {
+                result.setException(e);
+                return;
+            }
+            run();
+        }
+
+        /**
+         * Queues the next attempt.
+         */
+        @Override
+        public void run() {
+            if (result.isDone()) {
+                return;
+            }
+            final boolean retry = attempt > 0;
+            ListenableFuture<VariableDataStructure> future;
+            try {
+                future = submit(new Callable<VariableDataStructure>() {
+
+                    @Override
+                    public VariableDataStructure call() throws IOException {
+                        if (retry && policy.isLinkResetBeforeRetry() && linkResetAddress >= 0) {
+                            try {
+                                linkReset(linkResetAddress);
+                            } catch (IOException e) {
+                                // the read is repeated anyway
+                            }
+                        }
+                        return MBusConnection.call(request);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                if (probe) {
+                    breakers.probeAborted(address);
+                }
+                result.setException(new IOException("Connection has been closed.", e));
+                return;
+            }
+            Futures.addCallback(future, this, MoreExecutors.directExecutor());
+        }
+
+        @Override
+        public void onSuccess(VariableDataStructure variableDataStructure) {
+            breakers.readSucceeded(address);
+            result.set(variableDataStructure);
+        }
+
+        @Override
+        public void onFailure(Throwable t) {
+            if (result.isDone() || isConnectionFailure(t)) {
+                // cancelled, or the bus has failed, not the meter
+                if (probe) {
+                    breakers.probeAborted(address);
+                }
+                result.setException(t);
+                return;
+            }
+            if (!(t instanceof IOException)) {
+                if (probe) {
+                    breakers.readFailed(address, System.currentTimeMillis(), policy);
+                }
+                result.setException(t);
+                return;
+            }
+            if (++attempt >= attempts) {
+                breakers.readFailed(address, System.currentTimeMillis(), policy);
+                result.setException(t);
+                return;
+            }
+
+            breakers.retried(address);
+            long delay = policy.retryDelay(attempt);
+            if (delay <= 0) {
+                run();
+            }
+            else {
+                RetryTimer.INSTANCE.schedule(this, delay, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    /**
+     * Waits for the delays of the asynchronous retries of all connections. It only queues the next attempt, the
+     * attempts themselves are executed by the request queue of their connection.
+     */
+    private static class RetryTimer {
+        private static final ScheduledExecutorService INSTANCE = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder().setNameFormat("jmbus-retry-timer").setDaemon(true).build());
+    }
+
+    synchronized <T> ListenableFuture<T> submit(Callable<T> request) {
+        if (closed) {
+            throw new RejectedExecutionException("Connection has been closed.");
+        }
+        if (requestQueue == null) {
+            if (executor == null) {
+                executor = Executors.newSingleThreadExecutor(
+                        threadFactory != null ? threadFactory : Executors.defaultThreadFactory());
+                ownsExecutor = true;
+            }
+            // requests must not overlap, even if the executor runs tasks in parallel
+            requestQueue = MoreExecutors.newSequentialExecutor(executor);
+        }
+
+        final ListenableFutureTask<T> task = ListenableFutureTask.create(request);
+        pendingRequests.add(task);
+        task.addListener(new Runnable() {
+
+            @Override
+            public void run() {
+                pendingRequests.remove(task);
+            }
+        }, MoreExecutors.directExecutor());
+        requestQueue.execute(task);
+        return task;
     }
 
     /**
@@ -201,14 +1267,19 @@ public class MBusConnection implements AutoCloseable {
      */
     public MBusMessage sendLongMessage(int primaryAddr, int controlField, int ci, byte[] data, boolean responseExpected)
             throws IOException {
-        MBusMessage mBusMessage = null;
+        transactionLock.lock();
+        try {
+            MBusMessage mBusMessage = null;
 
-        sendLongMessage(primaryAddr, controlField, ci, data.length, data);
+            sendLongMessage(primaryAddr, controlField, ci, data.length, data);
 
-        if (responseExpected) {
-            mBusMessage = receiveMessage();
+            if (responseExpected) {
+                mBusMessage = receiveMessage();
+            }
+            return mBusMessage;
+        } finally {
+            transactionLock.unlock();
         }
-        return mBusMessage;
     }
 
     /**
@@ -232,14 +1303,19 @@ public class MBusConnection implements AutoCloseable {
      *             Note that the connection is not closed when an IOException is thrown.
      */
     public MBusMessage sendShortMessage(int primaryAddr, int cmd, boolean responseExpected) throws IOException {
-        MBusMessage mBusMessage = null;
+        transactionLock.lock();
+        try {
+            MBusMessage mBusMessage = null;
 
-        sendShortMessage(primaryAddr, cmd);
+            sendShortMessage(primaryAddr, cmd);
 
-        if (responseExpected) {
-            mBusMessage = receiveMessage();
+            if (responseExpected) {
+                mBusMessage = receiveMessage();
+            }
+            return mBusMessage;
+        } finally {
+            transactionLock.unlock();
         }
-        return mBusMessage;
     }
 
     /**
@@ -247,7 +1323,8 @@ public class MBusConnection implements AutoCloseable {
      * slave sends a 0x7e else false
      * 
      * @param primaryAddress
-     *            the primary address of the meter to write. For secondary address use 0xfd.
+     *            the primary address of the meter to write. For secondary address use 0xfd, for a broadcast to all
+     *            meters without acknowledgement use 0xff.
      * @param data
      *            the data to sends to the meter.
      * @throws IOException
@@ -257,17 +1334,69 @@ public class MBusConnection implements AutoCloseable {
      *             if no response at all (not even a single byte) was received from the meter within the timeout span.
      */
     public void write(int primaryAddress, byte[] data) throws IOException, InterruptedIOException {
-        if (data == null) {
-            data = new byte[0];
-        }
+        transactionLock.lock();
+        try {
+            if (data == null) {
+                data = new byte[0];
+            }
 
-        sendLongMessage(primaryAddress, 0x73, 0x51, data.length, data);
-        MBusMessage mBusMessage = receiveMessage();
+            sendLongMessage(primaryAddress, 0x73, 0x51, data.length, data);
+            if (primaryAddress == WriteRequest.BROADCAST_ADDRESS) {
+                // meters do not answer a broadcast
+                return;
+            }
+            MBusMessage mBusMessage = receiveMessage();
 
-        if (mBusMessage.getMessageType() != MessageType.SINGLE_CHARACTER) {
-            throw new IOException("Unable to select component.");
+            if (mBusMessage.getMessageType() != MessageType.SINGLE_CHARACTER) {
+                throw new IOException("Unable to select component.");
+            }
+        } finally {
+            transactionLock.unlock();
         }
+    }
+
+    /**
+     * Writes to several meters in one go. The writes are sent one after another without being interleaved with other
+     * requests of this connection. Consecutive writes using secondary addressing select each meter once and deselect
+     * the last one only, as selecting a meter deselects the previous one. Broadcasts (primary address 0xff) are not
+     * acknowledged and are reported successful once sent.
+     * 
+     * @param requests
+     *            the writes.
+     * @return the result of every write in the order of the requests.
+     */
+    public List<WriteResult> writeAll(Collection<WriteRequest> requests) {
+        List<WriteResult> results = new ArrayList<>(requests.size());
+        transactionLock.lock();
+        try {
+            SecondaryAddress selected = null;
+            for (WriteRequest request : requests) {
+                try {
+                    if (request.getSecondaryAddress() != null) {
+                        if (!request.getSecondaryAddress().equals(selected)) {
+                            selected = null;
+                            selectComponent(request.getSecondaryAddress());
+                            selected = request.getSecondaryAddress();
+                        }
+                    }
+                    write(request.getPrimaryAddress(), request.getData());
+                    results.add(new WriteResult(request, null));
+                } catch (IOException e) {
+                    results.add(new WriteResult(request, e));
+                }
+            }
 
+            if (selected != null) {
+                try {
+                    deselectComponent();
+                } catch (IOException e) {
+                    // the writes have been acknowledged already
+                }
+            }
+        } finally {
+            transactionLock.unlock();
+        }
+        return results;
     }
 
     /**
@@ -282,8 +1411,13 @@ public class MBusConnection implements AutoCloseable {
      *             if no response at all (not even a single byte) was received from the meter within the timeout span.
      */
     public void selectComponent(SecondaryAddress secondaryAddress) throws IOException, InterruptedIOException {
-        this.secondaryAddress = secondaryAddress;
-        componentSelection(false);
+        transactionLock.lock();
+        try {
+            this.secondaryAddress = secondaryAddress;
+            componentSelection(false);
+        } finally {
+            transactionLock.unlock();
+        }
     }
 
     /**
@@ -296,11 +1430,16 @@ public class MBusConnection implements AutoCloseable {
      *             if no response at all (not even a single byte) was received from the meter within the timeout span.
      */
     public void deselectComponent() throws IOException, InterruptedIOException {
-        if (secondaryAddress == null) {
-            return;
+        transactionLock.lock();
+        try {
+            if (secondaryAddress == null) {
+                return;
+            }
+            componentSelection(true);
+            secondaryAddress = null;
+        } finally {
+            transactionLock.unlock();
         }
-        componentSelection(true);
-        secondaryAddress = null;
     }
 
     /**
@@ -318,15 +1457,36 @@ public class MBusConnection implements AutoCloseable {
      */
     public void selectForReadout(int primaryAddress, List<DataRecord> dataRecords)
             throws IOException, InterruptedIOException {
-        int i = 0;
-        for (DataRecord dataRecord : dataRecords) {
-            i += dataRecord.encode(dataRecordsAsBytes, i);
-        }
-        sendLongMessage(primaryAddress, 0x53, 0x51, i, dataRecordsAsBytes);
-        MBusMessage mBusMessage = receiveMessage();
+        selectForReadout(primaryAddress, ReadoutSelection.of(dataRecords));
+    }
 
-        if (mBusMessage.getMessageType() != MessageType.SINGLE_CHARACTER) {
-            throw new IOException("unable to select component");
+    /**
+     * Selects the records a meter sends with the following readouts. The selection is sent as it has been encoded
+     * when it was built.
+     * 
+     * @param primaryAddress
+     *            primary address of the slave, 0xfd for the selected slave.
+     * @param selection
+     *            the records to select.
+     * @throws IOException
+     *             if any kind of error (including timeout) occurs while trying to read the remote device. Note that the
+     *             connection is not closed when an IOException is thrown.
+     * @throws InterruptedIOException
+     *             if no response at all (not even a single byte) was received from the meter within the timeout span.
+     * @see #resetReadout(int)
+     */
+    public void selectForReadout(int primaryAddress, ReadoutSelection selection)
+            throws IOException, InterruptedIOException {
+        transactionLock.lock();
+        try {
+            sendLongMessage(primaryAddress, 0x53, 0x51, selection.getLength(), selection.getEncoded());
+            MBusMessage mBusMessage = receiveMessage();
+
+            if (mBusMessage.getMessageType() != MessageType.SINGLE_CHARACTER) {
+                throw new IOException("unable to select component");
+            }
+        } finally {
+            transactionLock.unlock();
         }
     }
 
@@ -342,11 +1502,16 @@ public class MBusConnection implements AutoCloseable {
      *             if no response at all (not even a single byte) was received from the meter within the timeout span.
      */
     public void resetReadout(int primaryAddress) throws IOException, InterruptedIOException {
-        sendLongMessage(primaryAddress, 0x53, 0x50, 0, new byte[] {});
-        MBusMessage mBusMessage = receiveMessage();
+        transactionLock.lock();
+        try {
+            sendLongMessage(primaryAddress, 0x53, 0x50, 0, new byte[] {});
+            MBusMessage mBusMessage = receiveMessage();
 
-        if (mBusMessage.getMessageType() != MessageType.SINGLE_CHARACTER) {
-            throw new IOException("Unable to reset application.");
+            if (mBusMessage.getMessageType() != MessageType.SINGLE_CHARACTER) {
+                throw new IOException("Unable to reset application.");
+            }
+        } finally {
+            transactionLock.unlock();
         }
     }
 
@@ -363,14 +1528,19 @@ public class MBusConnection implements AutoCloseable {
      *             if the slave does not answer with an 0xe5 message within the configured timeout span.
      */
     public void linkReset(int primaryAddress) throws IOException, InterruptedIOException {
-        sendShortMessage(primaryAddress, 0x40);
-        MBusMessage mBusMessage = receiveMessage();
+        transactionLock.lock();
+        try {
+            sendShortMessage(primaryAddress, 0x40);
+            MBusMessage mBusMessage = receiveMessage();
 
-        if (mBusMessage.getMessageType() != MessageType.SINGLE_CHARACTER) {
-            throw new IOException("Unable to reset link.");
-        }
+            if (mBusMessage.getMessageType() != MessageType.SINGLE_CHARACTER) {
+                throw new IOException("Unable to reset link.");
+            }
 
-        frameCountBits[primaryAddress] = true;
+            frameCountBits[primaryAddress] = true;
+        } finally {
+            transactionLock.unlock();
+        }
     }
 
     private void componentSelection(boolean deselect) throws IOException, InterruptedIOException {
@@ -402,100 +1572,55 @@ public class MBusConnection implements AutoCloseable {
     }
 
     private void sendShortMessage(int slaveAddr, int cmd) throws IOException {
-        synchronized (os) {
-            outputBuffer[0] = 0x10;
-            outputBuffer[1] = (byte) (cmd);
-            outputBuffer[2] = (byte) (slaveAddr);
-            outputBuffer[3] = (byte) (cmd + slaveAddr);
-            outputBuffer[4] = STOP_BYTE;
+        transactionLock.lock();
+        try {
+            frameReader.discard();
+            int length = MBusFrames.encodeShortFrame(outputBuffer, slaveAddr, cmd);
 
-            verboseMessage(MessageDirection.SEND, outputBuffer, 0, 5);
+            verboseMessage(MessageDirection.SEND, outputBuffer, 0, length);
 
-            os.write(outputBuffer, 0, 5);
+            os.write(outputBuffer, 0, length);
+        } finally {
+            transactionLock.unlock();
         }
     }
 
     void sendLongMessage(int slaveAddr, int controlField, int ci, int length, byte[] data) throws IOException {
-        synchronized (os) {
-            outputBuffer[0] = START_BYTE;
-            outputBuffer[1] = (byte) (length + 3);
-            outputBuffer[2] = (byte) (length + 3);
-            outputBuffer[3] = START_BYTE;
-            outputBuffer[4] = (byte) controlField;
-            outputBuffer[5] = (byte) slaveAddr;
-            outputBuffer[6] = (byte) ci;
-
-            for (int i = 0; i < length; i++) {
-                outputBuffer[7 + i] = data[i];
-            }
-
-            outputBuffer[length + 7] = computeChecksum(length, outputBuffer);
-
-            outputBuffer[length + 8] = STOP_BYTE;
+        transactionLock.lock();
+        try {
+            frameReader.discard();
+            int frameLength = MBusFrames.encodeLongFrame(outputBuffer, slaveAddr, controlField, ci, length, data);
 
-            verboseMessage(MessageDirection.SEND, outputBuffer, 0, length + 9);
+            verboseMessage(MessageDirection.SEND, outputBuffer, 0, frameLength);
 
-            os.write(outputBuffer, 0, length + 9);
+            os.write(outputBuffer, 0, frameLength);
+        } finally {
+            transactionLock.unlock();
         }
     }
 
-    private static byte computeChecksum(int length, byte[] oBuffer) {
-        int checksum = 0;
-        for (int j = 4; j < (length + 7); j++) {
-            checksum += oBuffer[j];
-        }
-        return (byte) (checksum & 0xff);
+    /**
+     * Starts an exchange of several frames which must not be interleaved with the requests of other threads. Has to be
+     * followed by {@link #endTransaction()}.
+     */
+    void beginTransaction() {
+        transactionLock.lock();
     }
 
-    MBusMessage receiveMessage() throws IOException {
-        byte[] receivedBytes;
-        int b0 = is.read();
-        if (b0 == SINGLE_CHARACTER) {
-            receivedBytes = new byte[] { (byte) b0 };
-        }
-        else if ((b0 & 0xff) == START_BYTE) {
-            int b1 = is.readByte() & 0xff;
-
-            /**
-             * The L field gives the quantity of the user data inputs plus 3 (for C,A,CI).
-             */
-            int messageLength = b1 + 6;
-
-            receivedBytes = new byte[messageLength];
-            receivedBytes[0] = (byte) b0;
-            receivedBytes[1] = (byte) b1;
-
-            is.readFully(receivedBytes, 2, messageLength - 2);
-
-            if (receivedBytes[messageLength - 1] != STOP_BYTE) {
-                receivedBytes = readUntilStop(receivedBytes, messageLength);
-            }
+    void endTransaction() {
+        transactionLock.unlock();
+    }
 
-        }
-        else {
-            throw new IOException(String.format("Received unknown message: %02X", b0));
-        }
+    MBusMessage receiveMessage() throws IOException {
+        int length = frameReader.readFrame();
 
-        verboseMessage(MessageDirection.RECEIVE, receivedBytes, 0, receivedBytes.length);
+        // the decoded message keeps a reference to its buffer, so the frame leaves the reusable buffer as a copy
+        int offset = frameReader.getFrameOffset();
+        byte[] receivedBytes = Arrays.copyOfRange(frameReader.getBuffer(), offset, offset + length);
 
-        return MBusMessage.decode(receivedBytes, receivedBytes.length);
-    }
+        verboseMessage(MessageDirection.RECEIVE, receivedBytes, 0, length);
 
-    private byte[] readUntilStop(byte[] receivedBytes, int messageLength) throws IOException {
-        ByteArrayOutputStream baos = new ByteArrayOutputStream(messageLength);
-        baos.write(receivedBytes);
-        byte read = is.readByte();
-        baos.write(read);
-        try {
-            while (read != STOP_BYTE) {
-                read = is.readByte();
-                baos.write(read);
-            }
-        } catch (Exception e) {
-            // ignore
-        }
-        receivedBytes = baos.toByteArray();
-        return receivedBytes;
+        return MBusMessage.decode(receivedBytes, length);
     }
 
     private void verboseMessage(MessageDirection direction, byte[] array, int from, int to) {
@@ -519,7 +1644,8 @@ public class MBusConnection implements AutoCloseable {
 
         @Override
         public MBusConnection build() throws IOException {
-            MBusConnection mBusConnection = new MBusConnection(buildTransportLayer());
+            MBusConnection mBusConnection = new MBusConnection(buildTransportLayer(), getExecutor(),
+                    getThreadFactory());
             mBusConnection.open();
             return mBusConnection;
         }
@@ -545,7 +1671,8 @@ public class MBusConnection implements AutoCloseable {
 
         @Override
         public MBusConnection build() throws IOException {
-            MBusConnection mBusConnection = new MBusConnection(buildTransportLayer());
+            MBusConnection mBusConnection = new MBusConnection(buildTransportLayer(), getExecutor(),
+                    getThreadFactory());
             mBusConnection.open();
             return mBusConnection;
         }
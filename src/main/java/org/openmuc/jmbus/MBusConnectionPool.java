@@ -0,0 +1,330 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package org.openmuc.jmbus;
+
+import java.io.IOException;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.google.common.base.Function;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+
+/**
+ * A pool of wired M-Bus connections, one per bus segment.
+ * <p>
+ * Each segment (serial port or TCP gateway) is driven by the request queue of its connection, so requests to different
+ * segments are processed in parallel while requests to the same segment are processed one after another. Reads by
+ * secondary address are routed to the segment that owns the meter. If the segment of a meter is unknown, the meter is
+ * searched on all segments in parallel and the route is remembered until the meter stops responding on that segment.
+ * </p>
+ * <p>
+ * A connection that has been added to the pool must not be used directly anymore.
+ * </p>
+ */
+public class MBusConnectionPool implements AutoCloseable {
+
+    private final Map<String, Segment> segments = new LinkedHashMap<>();
+    private final ConcurrentHashMap<SecondaryAddress, Segment> routes = new ConcurrentHashMap<>();
+
+    private volatile boolean closed = false;
+
+    /**
+     * Adds a connection to an M-Bus segment to the pool.
+     *
+     * @param segmentId
+     *            a unique name of the segment, e.g. the serial port or the host of the gateway.
+     * @param connection
+     *            an open connection to the segment.
+     * @throws IllegalArgumentException
+     *             if a segment with the same ID has already been added.
+     */
+    public synchronized void addSegment(String segmentId, MBusConnection connection) {
+        if (closed) {
+            throw new IllegalStateException("Connection pool is closed.");
+        }
+        if (segments.containsKey(segmentId)) {
+            throw new IllegalArgumentException(MessageFormat.format("Segment {0} already exists.", segmentId));
+        }
+        segments.put(segmentId, new Segment(segmentId, connection));
+    }
+
+    /**
+     * Get the IDs of all segments of this pool.
+     *
+     * @return the segment IDs in the order they have been added.
+     */
+    public synchronized List<String> getSegmentIds() {
+        return new ArrayList<>(segments.keySet());
+    }
+
+    /**
+     * Assigns a meter to a segment. Reads with this secondary address are routed directly to the given segment.
+     *
+     * @param secondaryAddress
+     *            the secondary address of the meter.
+     * @param segmentId
+     *            the ID of the segment the meter is connected to.
+     */
+    public void assignSegment(SecondaryAddress secondaryAddress, String segmentId) {
+        routes.put(secondaryAddress, segmentFor(segmentId));
+    }
+
+    /**
+     * Get the segment a meter has been assigned to or found on.
+     *
+     * @param secondaryAddress
+     *            the secondary address of the meter.
+     * @return the segment ID or {@code null} if the segment of the meter is not known.
+     */
+    public String getSegmentId(SecondaryAddress secondaryAddress) {
+        Segment segment = routes.get(secondaryAddress);
+        return segment == null ? null : segment.id;
+    }
+
+    /**
+     * Reads a meter using primary addressing on the given segment.
+     *
+     * @param segmentId
+     *            the ID of the segment.
+     * @param primaryAddress
+     *            the primary address of the meter on this segment.
+     * @return a future holding the variable data structure of the response.
+     * @see MBusConnection#readAsync(int)
+     */
+    public ListenableFuture<VariableDataStructure> read(String segmentId, int primaryAddress) {
+        return segmentFor(segmentId).connection.readAsync(primaryAddress);
+    }
+
+    /**
+     * Reads a meter using secondary addressing. The meter is selected, read and deselected on the segment it belongs
+     * to. If the segment is not known yet or the meter does not respond on its segment anymore, all segments are
+     * searched in parallel and the first response is returned.
+     *
+     * @param secondaryAddress
+     *            the secondary address of the meter.
+     * @return a future holding the variable data structure of the response.
+     */
+    public ListenableFuture<VariableDataStructure> read(final SecondaryAddress secondaryAddress) {
+        final Segment segment = routes.get(secondaryAddress);
+        if (segment == null) {
+            return search(secondaryAddress);
+        }
+
+        final SettableFuture<VariableDataStructure> result = SettableFuture.create();
+        Futures.addCallback(segment.connection.readAsync(secondaryAddress),
+                new FutureCallback<VariableDataStructure>() {
+
+                    @Override
+                    public void onSuccess(VariableDataStructure response) {
+                        result.set(response);
+                    }
+
+                    @Override
+                    public void onFailure(Throwable t) {
+                        // the meter may have been moved to another segment
+                        routes.remove(secondaryAddress, segment);
+                        result.setFuture(search(secondaryAddress));
+                    }
+                }, MoreExecutors.directExecutor());
+        return result;
+    }
+
+    private ListenableFuture<VariableDataStructure> search(final SecondaryAddress secondaryAddress) {
+        final List<Segment> candidates;
+        synchronized (this) {
+            candidates = new ArrayList<>(segments.values());
+        }
+
+        final SettableFuture<VariableDataStructure> result = SettableFuture.create();
+        if (candidates.isEmpty()) {
+            result.setException(new IOException("Connection pool has no segments."));
+            return result;
+        }
+
+        final AtomicInteger pending = new AtomicInteger(candidates.size());
+        for (final Segment candidate : candidates) {
+            Futures.addCallback(candidate.connection.readAsync(secondaryAddress),
+                    new FutureCallback<VariableDataStructure>() {
+
+                        @Override
+                        public void onSuccess(VariableDataStructure response) {
+                            if (!result.isDone()) {
+                                routes.put(secondaryAddress, candidate);
+                                result.set(response);
+                            }
+                        }
+
+                        @Override
+                        public void onFailure(Throwable t) {
+                            if (pending.decrementAndGet() == 0) {
+                                String msg = MessageFormat.format("Meter {0} did not respond on any segment.",
+                                        secondaryAddress);
+                                result.setException(new IOException(msg, t));
+                            }
+                        }
+                    }, MoreExecutors.directExecutor());
+        }
+        return result;
+    }
+
+    /**
+     * Reads all given meters. Meters on different segments are read in parallel.
+     *
+     * @param secondaryAddresses
+     *            the meters to read.
+     * @return a future holding the responses in the order of the given addresses. The entry of a meter that could not
+     *         be read is {@code null}.
+     */
+    public ListenableFuture<List<VariableDataStructure>> readAll(Collection<SecondaryAddress> secondaryAddresses) {
+        List<ListenableFuture<VariableDataStructure>> reads = new ArrayList<>(secondaryAddresses.size());
+        for (SecondaryAddress secondaryAddress : secondaryAddresses) {
+            reads.add(read(secondaryAddress));
+        }
+        return Futures.successfulAsList(reads);
+    }
+
+    /**
+     * Scans all segments for secondary addresses in parallel. Known addresses of a segment are confirmed instead of
+     * searched, see {@link SecondaryAddressScanner#setKnownAddresses(Collection)}. The detected meters are assigned to
+     * their segments.
+     *
+     * @param wildcardMask
+     *            eight digits of the identification number, 'f' is a wildcard.
+     * @param knownAddresses
+     *            the addresses found by a previous scan. Addresses assigned to a segment are only passed to the scan of
+     *            that segment.
+     * @return a future holding the detected addresses per segment ID.
+     */
+    public ListenableFuture<Map<String, List<SecondaryAddress>>> scan(final String wildcardMask,
+            Collection<SecondaryAddress> knownAddresses) {
+        final List<Segment> targets;
+        synchronized (this) {
+            targets = new ArrayList<>(segments.values());
+        }
+
+        List<ListenableFuture<List<SecondaryAddress>>> scans = new ArrayList<>(targets.size());
+        for (final Segment segment : targets) {
+            final List<SecondaryAddress> known = new ArrayList<>();
+            for (SecondaryAddress secondaryAddress : knownAddresses) {
+                Segment route = routes.get(secondaryAddress);
+                if (route == null || route == segment) {
+                    known.add(secondaryAddress);
+                }
+            }
+
+            scans.add(segment.connection.submit(new Callable<List<SecondaryAddress>>() {
+
+                @Override
+                public List<SecondaryAddress> call() throws IOException {
+                    List<SecondaryAddress> found = new SecondaryAddressScanner(segment.connection)
+                            .setWildcardMask(wildcardMask)
+                            .setKnownAddresses(known)
+                            .scan();
+                    for (SecondaryAddress secondaryAddress : found) {
+                        routes.put(secondaryAddress, segment);
+                    }
+                    return found;
+                }
+            }));
+        }
+
+        return Futures.transform(Futures.allAsList(scans),
+                new Function<List<List<SecondaryAddress>>, Map<String, List<SecondaryAddress>>>() {
+
+                    @Override
+                    public Map<String, List<SecondaryAddress>> apply(List<List<SecondaryAddress>> results) {
+                        Map<String, List<SecondaryAddress>> bySegment = new LinkedHashMap<>();
+                        for (int i = 0; i < results.size(); i++) {
+                            bySegment.put(targets.get(i).id, results.get(i));
+                        }
+                        return bySegment;
+                    }
+                }, MoreExecutors.directExecutor());
+    }
+
+    /**
+     * Scans all segments for primary addresses in parallel.
+     *
+     * @param probeTimeout
+     *            the time to wait for the acknowledgement of a probe in milliseconds.
+     * @return a future holding the scan result per segment ID.
+     * @see PrimaryAddressScanner
+     */
+    public ListenableFuture<Map<String, PrimaryAddressScanResult>> scanPrimaryAddresses(final int probeTimeout) {
+        final List<Segment> targets;
+        synchronized (this) {
+            targets = new ArrayList<>(segments.values());
+        }
+
+        List<ListenableFuture<PrimaryAddressScanResult>> scans = new ArrayList<>(targets.size());
+        for (final Segment segment : targets) {
+            scans.add(segment.connection.submit(new Callable<PrimaryAddressScanResult>() {
+
+                @Override
+                public PrimaryAddressScanResult call() throws IOException {
+                    return new PrimaryAddressScanner(segment.connection).setProbeTimeout(probeTimeout).scan();
+                }
+            }));
+        }
+
+        return Futures.transform(Futures.allAsList(scans),
+                new Function<List<PrimaryAddressScanResult>, Map<String, PrimaryAddressScanResult>>() {
+
+                    @Override
+                    public Map<String, PrimaryAddressScanResult> apply(List<PrimaryAddressScanResult> results) {
+                        Map<String, PrimaryAddressScanResult> bySegment = new LinkedHashMap<>();
+                        for (int i = 0; i < results.size(); i++) {
+                            bySegment.put(targets.get(i).id, results.get(i));
+                        }
+                        return bySegment;
+                    }
+                }, MoreExecutors.directExecutor());
+    }
+
+    private synchronized Segment segmentFor(String segmentId) {
+        Segment segment = segments.get(segmentId);
+        if (segment == null) {
+            throw new IllegalArgumentException(MessageFormat.format("Unknown segment {0}.", segmentId));
+        }
+        return segment;
+    }
+
+    /**
+     * Closes all connections of the pool. Pending requests are cancelled.
+     */
+    @Override
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        for (Segment segment : segments.values()) {
+            segment.connection.close();
+        }
+    }
+
+    private static class Segment {
+        private final String id;
+        private final MBusConnection connection;
+
+        Segment(String id, MBusConnection connection) {
+            this.id = id;
+            this.connection = connection;
+        }
+    }
+
+}
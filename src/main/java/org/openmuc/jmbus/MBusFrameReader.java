@@ -0,0 +1,210 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package org.openmuc.jmbus;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.openmuc.jmbus.transportlayer.InputStreams;
+
+/**
+ * Reads the frames sent by M-Bus slaves into a reusable buffer.
+ * <p>
+ * The stream is read in chunks of the bytes available, a complete frame is validated (start, length, checksum and stop
+ * byte) in one pass and is then available as a slice of the internal buffer until the next call of
+ * {@link #readFrame()}. Leading bytes which do not start a frame are skipped without allocation.
+ * </p>
+ */
+class MBusFrameReader {
+
+    // room for one complete frame and the beginning of the next one
+    private static final int BUFFER_SIZE = 2 * MBusFrames.MAX_MESSAGE_SIZE;
+
+    private static final int LONG_FRAME_HEADER_LENGTH = 4;
+
+    private final InputStream is;
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+
+    private int start = 0;
+    private int end = 0;
+    private int frameOffset = 0;
+
+    MBusFrameReader(InputStream is) {
+        this.is = is;
+    }
+
+    /**
+     * Discards all buffered bytes. Called before a request is sent, bytes received before are not part of the
+     * response.
+     */
+    void discard() {
+        start = 0;
+        end = 0;
+    }
+
+    /**
+     * Discards all buffered bytes and the bytes already waiting in the stream, e.g. the late response to an earlier
+     * request.
+     *
+     * @throws IOException
+     *             if the stream fails.
+     */
+    void drain() throws IOException {
+        discard();
+        int available;
+        while ((available = is.available()) > 0) {
+            if (is.read(buffer, 0, Math.min(available, buffer.length)) < 0) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Waits until at least one byte of the next frame has been received.
+     *
+     * @throws IOException
+     *             if the stream fails or times out.
+     */
+    void awaitData() throws IOException {
+        if (start == end) {
+            fill();
+        }
+    }
+
+    /**
+     * Reads the next frame.
+     *
+     * @return the length of the frame, which starts at {@link #getFrameOffset()} in {@link #getBuffer()}.
+     * @throws IOException
+     *             if the stream fails or times out or the received bytes are not a valid frame.
+     */
+    int readFrame() throws IOException {
+        try {
+            return nextFrame();
+        } catch (IOException e) {
+            discard();
+            throw e;
+        }
+    }
+
+    private int nextFrame() throws IOException {
+        awaitData();
+
+        if (!skipToFrameStart()) {
+            // a collision or noise, report it instead of waiting for a frame which will not come
+            int garbage = buffer[start] & 0xff;
+            throw new IOException(String.format("Received unknown message: %02X", garbage));
+        }
+
+        int frameLength;
+        while ((frameLength = checkFrame(buffer, start, end - start)) == 0) {
+            fill();
+        }
+
+        frameOffset = start;
+        start += frameLength;
+        if (start == end) {
+            discard();
+        }
+        return frameLength;
+    }
+
+    byte[] getBuffer() {
+        return buffer;
+    }
+
+    int getFrameOffset() {
+        return frameOffset;
+    }
+
+    /**
+     * Skips buffered bytes up to the start of a long frame. A single character is only accepted as the first byte,
+     * within noise it is indistinguishable from a garbled byte.
+     *
+     * @return <code>false</code> if no frame start has been found in the buffered bytes.
+     */
+    private boolean skipToFrameStart() {
+        if ((buffer[start] & 0xff) == MBusFrames.SINGLE_CHARACTER) {
+            return true;
+        }
+        for (int i = start; i < end; i++) {
+            if ((buffer[i] & 0xff) == MBusFrames.LONG_FRAME_START_BYTE) {
+                start = i;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void fill() throws IOException {
+        if (end == buffer.length) {
+            // compact, a frame never exceeds half of the buffer
+            System.arraycopy(buffer, start, buffer, 0, end - start);
+            end -= start;
+            start = 0;
+        }
+        end += InputStreams.readAvailable(is, buffer, end, buffer.length - end);
+    }
+
+    /**
+     * Validates the frame which starts at the given offset.
+     *
+     * @param buffer
+     *            the buffer.
+     * @param offset
+     *            the offset of the first byte of the frame.
+     * @param length
+     *            the number of bytes available.
+     * @return the length of the frame or 0 if more bytes are needed to complete the frame.
+     * @throws IOException
+     *             if the bytes are not a valid single character or long frame.
+     */
+    static int checkFrame(byte[] buffer, int offset, int length) throws IOException {
+        if (length == 0) {
+            return 0;
+        }
+
+        int b0 = buffer[offset] & 0xff;
+        if (b0 == MBusFrames.SINGLE_CHARACTER) {
+            return 1;
+        }
+        if (b0 != MBusFrames.LONG_FRAME_START_BYTE) {
+            throw new IOException(String.format("Received unknown message: %02X", b0));
+        }
+        if (length < LONG_FRAME_HEADER_LENGTH) {
+            return 0;
+        }
+
+        // the L field gives the quantity of the user data inputs plus 3 (for C,A,CI)
+        int lField = buffer[offset + 1] & 0xff;
+        if (lField != (buffer[offset + 2] & 0xff)) {
+            throw new IOException("Length fields are not identical in long frame!");
+        }
+        if ((buffer[offset + 3] & 0xff) != MBusFrames.LONG_FRAME_START_BYTE) {
+            throw new IOException("Fourth byte of long frame was not 0x68.");
+        }
+
+        int frameLength = lField + 6;
+        if (length < frameLength) {
+            return 0;
+        }
+
+        int checksum = 0;
+        int checksumIndex = offset + LONG_FRAME_HEADER_LENGTH + lField;
+        for (int i = offset + LONG_FRAME_HEADER_LENGTH; i < checksumIndex; i++) {
+            checksum += buffer[i];
+        }
+        if ((byte) checksum != buffer[checksumIndex]) {
+            throw new IOException(String.format("Wrong checksum in long frame. Expected 0x%02X but received 0x%02X.",
+                    checksum & 0xff, buffer[checksumIndex] & 0xff));
+        }
+        if ((buffer[checksumIndex + 1] & 0xff) != MBusFrames.STOP_BYTE) {
+            throw new IOException("Long frame does not end with the stop byte 0x16.");
+        }
+        return frameLength;
+    }
+
+}
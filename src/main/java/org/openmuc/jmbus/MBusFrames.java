@@ -0,0 +1,88 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package org.openmuc.jmbus;
+
+/**
+ * Encodes the frames sent by an M-Bus master.
+ */
+final class MBusFrames {
+
+    static final int SHORT_FRAME_START_BYTE = 0x10;
+    static final int LONG_FRAME_START_BYTE = 0x68;
+    static final int STOP_BYTE = 0x16;
+    static final int SINGLE_CHARACTER = 0xe5;
+
+    // 261 is the maximum size of a long frame
+    static final int MAX_MESSAGE_SIZE = 261;
+
+    static final int SHORT_FRAME_LENGTH = 5;
+    static final int LONG_FRAME_OVERHEAD = 9;
+
+    /**
+     * Encodes a short frame into the given buffer.
+     *
+     * @param buffer
+     *            the buffer to write the frame to, starting at index 0.
+     * @param slaveAddr
+     *            the address field.
+     * @param cmd
+     *            the control field.
+     * @return the length of the frame.
+     */
+    static int encodeShortFrame(byte[] buffer, int slaveAddr, int cmd) {
+        buffer[0] = SHORT_FRAME_START_BYTE;
+        buffer[1] = (byte) (cmd);
+        buffer[2] = (byte) (slaveAddr);
+        buffer[3] = (byte) (cmd + slaveAddr);
+        buffer[4] = STOP_BYTE;
+        return SHORT_FRAME_LENGTH;
+    }
+
+    /**
+     * Encodes a long frame into the given buffer.
+     *
+     * @param buffer
+     *            the buffer to write the frame to, starting at index 0.
+     * @param slaveAddr
+     *            the address field.
+     * @param controlField
+     *            the control field.
+     * @param ci
+     *            the control information field.
+     * @param length
+     *            the number of user data bytes.
+     * @param data
+     *            the user data.
+     * @return the length of the frame.
+     */
+    static int encodeLongFrame(byte[] buffer, int slaveAddr, int controlField, int ci, int length, byte[] data) {
+        buffer[0] = LONG_FRAME_START_BYTE;
+        buffer[1] = (byte) (length + 3);
+        buffer[2] = (byte) (length + 3);
+        buffer[3] = LONG_FRAME_START_BYTE;
+        buffer[4] = (byte) controlField;
+        buffer[5] = (byte) slaveAddr;
+        buffer[6] = (byte) ci;
+
+        System.arraycopy(data, 0, buffer, 7, length);
+
+        buffer[length + 7] = computeChecksum(length, buffer);
+        buffer[length + 8] = STOP_BYTE;
+        return length + LONG_FRAME_OVERHEAD;
+    }
+
+    private static byte computeChecksum(int length, byte[] buffer) {
+        int checksum = 0;
+        for (int j = 4; j < (length + 7); j++) {
+            checksum += buffer[j];
+        }
+        return (byte) (checksum & 0xff);
+    }
+
+    private MBusFrames() {
+    }
+
+}
@@ -0,0 +1,802 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package org.openmuc.jmbus;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.text.MessageFormat;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.openmuc.jmbus.MBusMessage.MessageType;
+
+import com.google.common.base.Function;
+import com.google.common.util.concurrent.AsyncCallable;
+import com.google.common.util.concurrent.AsyncFunction;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+
+/**
+ * Non-blocking M-Bus connection to an M-Bus/TCP gateway.
+ * <p>
+ * The connection offers the frame level requests of {@link MBusConnection} but does not occupy a thread while waiting
+ * for a response. Its I/O is served by one of the event loops of the {@link MBusNioConnectionManager} which created it.
+ * Requests are queued and sent one after another, as the bus only allows one request at a time.
+ * </p>
+ * <p>
+ * The returned futures are completed by the event loop thread. Callbacks which are executed directly must therefore
+ * not block.
+ * </p>
+ *
+ * @see MBusNioConnectionManager#connect(String, int)
+ */
+public class MBusNioConnection implements AutoCloseable {
+
+    private static final int RECEIVE_BUFFER_SIZE = 2 * MBusFrames.MAX_MESSAGE_SIZE;
+
+    private final NioEventLoop loop;
+    private final InetSocketAddress remoteAddress;
+    private final int connectionTimeout;
+    private volatile int timeout;
+
+    private final Queue<Operation<?>> operations = new ArrayDeque<>();
+    private Operation<?> currentOperation;
+    private volatile boolean closed = false;
+
+    // only touched by the operation in progress
+    private final boolean[] frameCountBits;
+
+    // only touched by the event loop thread
+    private final SettableFuture<MBusNioConnection> connectFuture = SettableFuture.create();
+    private final ByteBuffer receiveBuffer = ByteBuffer.allocate(RECEIVE_BUFFER_SIZE);
+    private SocketChannel channel;
+    private SelectionKey key;
+    private Exchange exchange;
+    private long deadline;
+
+    MBusNioConnection(NioEventLoop loop, InetSocketAddress remoteAddress, int connectionTimeout, int timeout) {
+        this.loop = loop;
+        this.remoteAddress = remoteAddress;
+        this.connectionTimeout = connectionTimeout;
+        this.timeout = timeout;
+
+        this.frameCountBits = new boolean[254];
+        Arrays.fill(frameCountBits, true);
+    }
+
+    ListenableFuture<MBusNioConnection> connect() {
+        try {
+            loop.execute(new Runnable() {
+
+                @Override
+                public void run() {
+                    startConnect();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            closed = true;
+            connectFuture.setException(new IOException(e.getMessage(), e));
+        }
+        return connectFuture;
+    }
+
+    /**
+     * Get the address of the gateway.
+     *
+     * @return the address of the gateway.
+     */
+    public InetSocketAddress getRemoteAddress() {
+        return remoteAddress;
+    }
+
+    /**
+     * Sets the time to wait for the response of a meter.
+     *
+     * @param timeout
+     *            the timeout in milliseconds. Zero is interpreted as infinite timeout.
+     */
+    public void setTimeout(int timeout) {
+        this.timeout = timeout;
+    }
+
+    public int getTimeout() {
+        return timeout;
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Closes the connection. Requests which have not been processed yet fail with an {@link IOException}.
+     */
+    @Override
+    public void close() {
+        List<Operation<?>> pending;
+        synchronized (operations) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            pending = new ArrayList<>(operations);
+            operations.clear();
+        }
+        for (Operation<?> operation : pending) {
+            operation.result.setException(new IOException("Connection has been closed."));
+        }
+        try {
+            loop.execute(new Runnable() {
+
+                @Override
+                public void run() {
+                    closeInLoop(new IOException("Connection has been closed."));
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // the loop closes its connections itself
+        }
+    }
+
+    /**
+     * Reads a meter using primary addressing.
+     *
+     * @param primaryAddress
+     *            the primary address of the meter to read. For secondary address use 0xfd.
+     * @return a future holding the variable data structure from the received RSP_UD frame. It fails with an
+     *         {@link InterruptedIOException} if the meter does not respond within the timeout.
+     * @see MBusConnection#read(int)
+     */
+    public ListenableFuture<VariableDataStructure> readAsync(final int primaryAddress) {
+        return submit(new AsyncCallable<VariableDataStructure>() {
+
+            @Override
+            public ListenableFuture<VariableDataStructure> call() {
+                return doRead(primaryAddress);
+            }
+        });
+    }
+
+    /**
+     * Reads a meter using secondary addressing. Select, read and deselect are processed as one request, so they are
+     * never interleaved with other requests of this connection.
+     *
+     * @param secondaryAddress
+     *            the secondary address of the meter to read.
+     * @return a future holding the variable data structure from the received RSP_UD frame.
+     * @see MBusConnection#read(SecondaryAddress)
+     */
+    public ListenableFuture<VariableDataStructure> readAsync(final SecondaryAddress secondaryAddress) {
+        return submit(new AsyncCallable<VariableDataStructure>() {
+
+            @Override
+            public ListenableFuture<VariableDataStructure> call() {
+                return doRead(secondaryAddress);
+            }
+        });
+    }
+
+    /**
+     * Writes to a meter using primary addressing.
+     *
+     * @param primaryAddress
+     *            the primary address of the meter to write. For secondary address use 0xfd.
+     * @param data
+     *            the data to sends to the meter.
+     * @return a future which completes when the meter acknowledged the data.
+     * @see MBusConnection#write(int, byte[])
+     */
+    public ListenableFuture<Void> writeAsync(final int primaryAddress, byte[] data) {
+        final byte[] userData = data == null ? new byte[0] : data;
+        return submit(new AsyncCallable<Void>() {
+
+            @Override
+            public ListenableFuture<Void> call() {
+                return expectAck(exchange(longFrame(primaryAddress, 0x73, 0x51, userData), true),
+                        "Unable to write data.");
+            }
+        });
+    }
+
+    /**
+     * Sends a SND_NKE message to reset the FCB (frame counter bit).
+     *
+     * @param primaryAddress
+     *            the primary address of the meter to reset.
+     * @return a future which completes when the meter acknowledged the reset.
+     * @see MBusConnection#linkReset(int)
+     */
+    public ListenableFuture<Void> linkResetAsync(final int primaryAddress) {
+        return submit(new AsyncCallable<Void>() {
+
+            @Override
+            public ListenableFuture<Void> call() {
+                ListenableFuture<Void> result = expectAck(exchange(shortFrame(primaryAddress, 0x40), true),
+                        "Unable to reset link.");
+                return Futures.transform(result, new Function<Void, Void>() {
+
+                    @Override
+                    public Void apply(Void input) {
+                        frameCountBits[primaryAddress] = true;
+                        return null;
+                    }
+                }, MoreExecutors.directExecutor());
+            }
+        });
+    }
+
+    /**
+     * Sends a short message with individual parameters.
+     *
+     * @param primaryAddr
+     *            the primary address of the meter. For secondary address use 0xfd.
+     * @param cmd
+     *            the command to send to the meter.
+     * @param responseExpected
+     *            set this flag to <code>false</code> if no response is expected.
+     * @return a future holding the received message or <code>null</code> if no response is expected.
+     * @see MBusConnection#sendShortMessage(int, int, boolean)
+     */
+    public ListenableFuture<MBusMessage> sendShortMessageAsync(final int primaryAddr, final int cmd,
+            final boolean responseExpected) {
+        return submit(new AsyncCallable<MBusMessage>() {
+
+            @Override
+            public ListenableFuture<MBusMessage> call() {
+                return exchange(shortFrame(primaryAddr, cmd), responseExpected);
+            }
+        });
+    }
+
+    /**
+     * Sends a long message with individual parameters.
+     *
+     * @param primaryAddr
+     *            the primary address of the meter. For secondary address use 0xfd.
+     * @param controlField
+     *            control field (C Field) has the size of 1 byte.
+     * @param ci
+     *            control information field (CI Field) has the size of 1 byte.
+     * @param data
+     *            the data to sends to the meter.
+     * @param responseExpected
+     *            set this flag to <code>false</code> if no response is expected.
+     * @return a future holding the received message or <code>null</code> if no response is expected.
+     * @see MBusConnection#sendLongMessage(int, int, int, byte[], boolean)
+     */
+    public ListenableFuture<MBusMessage> sendLongMessageAsync(final int primaryAddr, final int controlField,
+            final int ci, final byte[] data, final boolean responseExpected) {
+        return submit(new AsyncCallable<MBusMessage>() {
+
+            @Override
+            public ListenableFuture<MBusMessage> call() {
+                return exchange(longFrame(primaryAddr, controlField, ci, data), responseExpected);
+            }
+        });
+    }
+
+    /**
+     * Reads a meter using primary addressing and waits for the result.
+     *
+     * @param primaryAddress
+     *            the primary address of the meter to read. For secondary address use 0xfd.
+     * @return the variable data structure from the received RSP_UD frame
+     * @throws IOException
+     *             if any kind of error (including timeout) occurs while trying to read the remote device.
+     * @see #readAsync(int)
+     */
+    public VariableDataStructure read(int primaryAddress) throws IOException {
+        return await(readAsync(primaryAddress));
+    }
+
+    /**
+     * Reads a meter using secondary addressing and waits for the result.
+     *
+     * @param secondaryAddress
+     *            the secondary address of the meter to read.
+     * @return the variable data structure from the received RSP_UD frame
+     * @throws IOException
+     *             if any kind of error (including timeout) occurs while trying to read the remote device.
+     * @see #readAsync(SecondaryAddress)
+     */
+    public VariableDataStructure read(SecondaryAddress secondaryAddress) throws IOException {
+        return await(readAsync(secondaryAddress));
+    }
+
+    /**
+     * Writes to a meter using primary addressing and waits for the acknowledgement.
+     *
+     * @param primaryAddress
+     *            the primary address of the meter to write. For secondary address use 0xfd.
+     * @param data
+     *            the data to sends to the meter.
+     * @throws IOException
+     *             if any kind of error (including timeout) occurs while writing to the remote device.
+     * @see #writeAsync(int, byte[])
+     */
+    public void write(int primaryAddress, byte[] data) throws IOException {
+        await(writeAsync(primaryAddress, data));
+    }
+
+    /**
+     * Sends a SND_NKE message to reset the FCB (frame counter bit) and waits for the acknowledgement.
+     *
+     * @param primaryAddress
+     *            the primary address of the meter to reset.
+     * @throws IOException
+     *             if an error occurs during the reset process.
+     * @see #linkResetAsync(int)
+     */
+    public void linkReset(int primaryAddress) throws IOException {
+        await(linkResetAsync(primaryAddress));
+    }
+
+    private static <T> T await(ListenableFuture<T> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            // a request on the wire is completed in the background before the next one is sent
+            future.cancel(false);
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the response.");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    private ListenableFuture<VariableDataStructure> doRead(int primaryAddress) {
+        byte[] frame;
+        if (frameCountBits[primaryAddress]) {
+            frame = shortFrame(primaryAddress, 0x7b);
+            frameCountBits[primaryAddress] = false;
+        }
+        else {
+            frame = shortFrame(primaryAddress, 0x5b);
+            frameCountBits[primaryAddress] = true;
+        }
+
+        return Futures.transformAsync(exchange(frame, true), new AsyncFunction<MBusMessage, VariableDataStructure>() {
+
+            @Override
+            public ListenableFuture<VariableDataStructure> apply(MBusMessage mBusMessage) throws IOException {
+                if (mBusMessage.getMessageType() != MessageType.RSP_UD) {
+                    throw new IOException(
+                            "Received wrong kind of message. Expected RSP_UD but got: " + mBusMessage.getMessageType());
+                }
+                try {
+                    mBusMessage.getVariableDataResponse().decode();
+                } catch (DecodingException e) {
+                    throw new IOException("Error decoding incoming RSP_UD message.", e);
+                }
+                return Futures.immediateFuture(mBusMessage.getVariableDataResponse());
+            }
+        }, MoreExecutors.directExecutor());
+    }
+
+    private ListenableFuture<VariableDataStructure> doRead(final SecondaryAddress secondaryAddress) {
+        ListenableFuture<Void> selected = expectAck(
+                exchange(longFrame(0xfd, 0x53, 0x52, secondaryAddress.asByteArray()), true),
+                "unable to select component");
+
+        final ListenableFuture<VariableDataStructure> result = Futures.transformAsync(selected,
+                new AsyncFunction<Void, VariableDataStructure>() {
+
+                    @Override
+                    public ListenableFuture<VariableDataStructure> apply(Void input) {
+                        return doRead(0xfd);
+                    }
+                }, MoreExecutors.directExecutor());
+
+        // deselect regardless of the outcome of the read, a read error takes precedence over a deselect error
+        final SettableFuture<VariableDataStructure> deselected = SettableFuture.create();
+        result.addListener(new Runnable() {
+
+            @Override
+            public void run() {
+                final ListenableFuture<Void> deselect = expectAck(
+                        exchange(longFrame(0xfd, 0x53, 0x56, secondaryAddress.asByteArray()), true),
+                        "unable to deselect component");
+                deselect.addListener(new Runnable() {
+
+                    @Override
+                    public void run() {
+                        try {
+                            VariableDataStructure variableDataStructure = Futures.getDone(result);
+                            Futures.getDone(deselect);
+                            deselected.set(variableDataStructure);
+                        } catch (ExecutionException e) {
+                            deselected.setException(e.getCause());
+                        } catch (RuntimeException e) {
+                            deselected.setException(e);
+                        }
+                    }
+                }, MoreExecutors.directExecutor());
+            }
+        }, MoreExecutors.directExecutor());
+        return deselected;
+    }
+
+    private static ListenableFuture<Void> expectAck(ListenableFuture<MBusMessage> response, final String errorMessage) {
+        return Futures.transformAsync(response, new AsyncFunction<MBusMessage, Void>() {
+
+            @Override
+            public ListenableFuture<Void> apply(MBusMessage mBusMessage) throws IOException {
+                if (mBusMessage.getMessageType() != MessageType.SINGLE_CHARACTER) {
+                    throw new IOException(errorMessage);
+                }
+                return Futures.immediateFuture(null);
+            }
+        }, MoreExecutors.directExecutor());
+    }
+
+    private static byte[] shortFrame(int slaveAddr, int cmd) {
+        byte[] frame = new byte[MBusFrames.SHORT_FRAME_LENGTH];
+        MBusFrames.encodeShortFrame(frame, slaveAddr, cmd);
+        return frame;
+    }
+
+    private static byte[] longFrame(int slaveAddr, int controlField, int ci, byte[] data) {
+        byte[] frame = new byte[data.length + MBusFrames.LONG_FRAME_OVERHEAD];
+        MBusFrames.encodeLongFrame(frame, slaveAddr, controlField, ci, data.length, data);
+        return frame;
+    }
+
+    /*
+     * Request queue. An operation consists of one or more exchanges. The next operation is started by the event loop
+     * after the exchanges of the previous one have completed. Cancelling the result of an operation does not cancel
+     * its exchanges, otherwise the response to a cancelled request could be taken for the response to the next one.
+     */
+
+    private <T> ListenableFuture<T> submit(AsyncCallable<T> callable) {
+        Operation<T> operation = new Operation<>(callable);
+        synchronized (operations) {
+            if (closed) {
+                return Futures.immediateFailedFuture(new IOException("Connection has been closed."));
+            }
+            if (currentOperation != null) {
+                operations.add(operation);
+                return operation.result;
+            }
+            currentOperation = operation;
+        }
+        start(operation);
+        return operation.result;
+    }
+
+    private void start(Operation<?> operation) {
+        try {
+            loop.execute(operation);
+        } catch (RejectedExecutionException e) {
+            operation.result.setException(new IOException(e.getMessage(), e));
+            operationFinished();
+        }
+    }
+
+    private void operationFinished() {
+        Operation<?> next;
+        synchronized (operations) {
+            next = operations.poll();
+            currentOperation = next;
+        }
+        if (next != null) {
+            start(next);
+        }
+    }
+
+    private class Operation<T> implements Runnable {
+        private final AsyncCallable<T> callable;
+        private final SettableFuture<T> result = SettableFuture.create();
+
+        Operation(AsyncCallable<T> callable) {
+            this.callable = callable;
+        }
+
+        @Override
+        public void run() {
+            if (result.isDone()) {
+                // cancelled before it has been started
+                operationFinished();
+                return;
+            }
+
+            final ListenableFuture<T> work;
+            try {
+                work = callable.call();
+            } catch (Exception e) {
+                result.setException(e);
+                operationFinished();
+                return;
+            }
+
+            work.addListener(new Runnable() {
+
+                @Override
+                public void run() {
+                    try {
+                        result.set(Futures.getDone(work));
+                    } catch (ExecutionException e) {
+                        result.setException(e.getCause());
+                    } catch (RuntimeException e) {
+                        result.setException(e);
+                    }
+                    operationFinished();
+                }
+            }, MoreExecutors.directExecutor());
+        }
+    }
+
+    /*
+     * Event loop side. Everything below is only executed by the event loop thread.
+     */
+
+    private ListenableFuture<MBusMessage> exchange(byte[] frame, boolean responseExpected) {
+        final Exchange newExchange = new Exchange(frame, responseExpected);
+        if (loop.inLoop()) {
+            startExchange(newExchange);
+        }
+        else {
+            try {
+                loop.execute(new Runnable() {
+
+                    @Override
+                    public void run() {
+                        startExchange(newExchange);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                newExchange.response.setException(new IOException(e.getMessage(), e));
+            }
+        }
+        return newExchange.response;
+    }
+
+    private void startConnect() {
+        loop.register(this);
+        try {
+            channel = SocketChannel.open();
+            channel.configureBlocking(false);
+            if (channel.connect(remoteAddress)) {
+                key = channel.register(loop.getSelector(), SelectionKey.OP_READ, this);
+                connectFuture.set(this);
+            }
+            else {
+                key = channel.register(loop.getSelector(), SelectionKey.OP_CONNECT, this);
+                setDeadline(connectionTimeout);
+            }
+        } catch (IOException e) {
+            closeInLoop(connectFailed(e));
+        }
+    }
+
+    private IOException connectFailed(IOException cause) {
+        String msg = MessageFormat.format("Connecting to {0}:{1} failed.", remoteAddress.getHostString(),
+                String.valueOf(remoteAddress.getPort()));
+        return new IOException(msg, cause);
+    }
+
+    private void startExchange(Exchange newExchange) {
+        if (closed || key == null) {
+            newExchange.response.setException(new IOException("Connection has been closed."));
+            return;
+        }
+
+        // bytes received before the request are not part of the response
+        receiveBuffer.clear();
+
+        exchange = newExchange;
+        setDeadline(timeout);
+        writePending();
+    }
+
+    void handleKey(SelectionKey selectionKey) {
+        try {
+            if (!selectionKey.isValid()) {
+                return;
+            }
+            if (selectionKey.isConnectable()) {
+                finishConnect();
+            }
+            if (selectionKey.isValid() && selectionKey.isWritable()) {
+                writePending();
+            }
+            if (selectionKey.isValid() && selectionKey.isReadable()) {
+                readAvailable();
+            }
+        } catch (IOException e) {
+            closeInLoop(e);
+        }
+    }
+
+    private void finishConnect() throws IOException {
+        try {
+            channel.finishConnect();
+        } catch (IOException e) {
+            throw connectFailed(e);
+        }
+        deadline = 0;
+        key.interestOps(SelectionKey.OP_READ);
+        connectFuture.set(this);
+    }
+
+    private void writePending() {
+        if (exchange == null || !exchange.request.hasRemaining()) {
+            return;
+        }
+        try {
+            channel.write(exchange.request);
+        } catch (IOException e) {
+            closeInLoop(e);
+            return;
+        }
+
+        if (exchange.request.hasRemaining()) {
+            key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+            return;
+        }
+
+        key.interestOps(SelectionKey.OP_READ);
+        if (exchange.responseExpected) {
+            // the response timeout starts when the request has been sent
+            setDeadline(timeout);
+        }
+        else {
+            complete(null);
+        }
+    }
+
+    private void readAvailable() throws IOException {
+        if (!receiveBuffer.hasRemaining()) {
+            receiveBuffer.clear();
+        }
+        int read = channel.read(receiveBuffer);
+        if (read < 0) {
+            throw new IOException("Connection closed by the gateway.");
+        }
+
+        if (exchange == null || exchange.request.hasRemaining()) {
+            // nobody is waiting for these bytes
+            receiveBuffer.clear();
+            return;
+        }
+
+        byte[] buffer = receiveBuffer.array();
+        int length = receiveBuffer.position();
+
+        int messageLength;
+        try {
+            messageLength = MBusFrameReader.checkFrame(buffer, 0, length);
+        } catch (IOException e) {
+            receiveBuffer.clear();
+            fail(e);
+            return;
+        }
+        if (messageLength == 0) {
+            return;
+        }
+
+        // the decoded message references its buffer
+        byte[] receivedBytes = Arrays.copyOf(buffer, messageLength);
+        receiveBuffer.clear();
+
+        MBusMessage mBusMessage;
+        try {
+            mBusMessage = MBusMessage.decode(receivedBytes, receivedBytes.length);
+        } catch (IOException e) {
+            fail(e);
+            return;
+        }
+        complete(mBusMessage);
+    }
+
+    private void setDeadline(int timeout) {
+        if (timeout <= 0) {
+            deadline = 0;
+            return;
+        }
+        deadline = NioEventLoop.now() + timeout;
+        loop.wakeUpAt(this, deadline);
+    }
+
+    /**
+     * Checks the timeout of this connection.
+     */
+    void checkTimeout(long now) {
+        if (deadline == 0 || now < deadline) {
+            return;
+        }
+        deadline = 0;
+        if (!connectFuture.isDone()) {
+            closeInLoop(connectFailed(new SocketTimeoutException("Connection timed out.")));
+        }
+        else if (exchange != null) {
+            receiveBuffer.clear();
+            // a request which is stuck in the send buffer makes the connection unusable
+            if (exchange.request.hasRemaining()) {
+                closeInLoop(new SocketTimeoutException("Timeout while sending the request."));
+            }
+            else {
+                fail(new SocketTimeoutException("Timeout while waiting for the response."));
+            }
+        }
+    }
+
+    private void complete(MBusMessage mBusMessage) {
+        Exchange completed = exchange;
+        exchange = null;
+        deadline = 0;
+        completed.response.set(mBusMessage);
+    }
+
+    private void fail(IOException cause) {
+        Exchange failed = exchange;
+        exchange = null;
+        deadline = 0;
+        failed.response.setException(cause);
+    }
+
+    void closeInLoop(IOException cause) {
+        synchronized (operations) {
+            closed = true;
+        }
+        loop.unregister(this);
+        deadline = 0;
+        if (key != null) {
+            key.cancel();
+        }
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                // ignore
+            }
+        }
+        connectFuture.setException(cause);
+        if (exchange != null) {
+            fail(cause);
+        }
+
+        List<Operation<?>> pending;
+        synchronized (operations) {
+            pending = new ArrayList<>(operations);
+            operations.clear();
+        }
+        for (Operation<?> operation : pending) {
+            operation.result.setException(cause);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "M-Bus/TCP gateway " + remoteAddress.getHostString() + ":" + remoteAddress.getPort();
+    }
+
+    private static class Exchange {
+        private final ByteBuffer request;
+        private final boolean responseExpected;
+        private final SettableFuture<MBusMessage> response = SettableFuture.create();
+
+        Exchange(byte[] frame, boolean responseExpected) {
+            this.request = ByteBuffer.wrap(frame);
+            this.responseExpected = responseExpected;
+        }
+    }
+
+}
@@ -0,0 +1,146 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package org.openmuc.jmbus;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.text.MessageFormat;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+
+/**
+ * Manages non-blocking connections to a large number of M-Bus/TCP gateways.
+ * <p>
+ * The connections are distributed over a fixed number of event loop threads. Each event loop serves the connect, the
+ * timeouts and the frame reassembly of its connections using one selector, so no thread is blocked while waiting for
+ * a meter.
+ * </p>
+ *
+ * <pre>
+ * try (MBusNioConnectionManager manager = new MBusNioConnectionManager(2)) {
+ *     MBusNioConnection connection = manager.connect("192.168.1.10", 10001).get();
+ *     ListenableFuture&lt;VariableDataStructure&gt; response = connection.readAsync(1);
+ *     ...
+ * }
+ * </pre>
+ */
+public class MBusNioConnectionManager implements AutoCloseable {
+
+    private final NioEventLoop[] eventLoops;
+    private final AtomicInteger nextEventLoop = new AtomicInteger();
+
+    private volatile int timeout = 500;
+    private volatile int connectionTimeout = 10000;
+
+    /**
+     * Creates a new connection manager and starts its event loops.
+     *
+     * @param eventLoops
+     *            the number of event loop threads.
+     * @throws IOException
+     *             if a selector could not be opened.
+     */
+    public MBusNioConnectionManager(int eventLoops) throws IOException {
+        if (eventLoops < 1) {
+            throw new IllegalArgumentException("At least one event loop is required.");
+        }
+        this.eventLoops = new NioEventLoop[eventLoops];
+
+        ThreadFactory threadFactory = new EventLoopThreadFactory();
+        try {
+            for (int i = 0; i < eventLoops; i++) {
+                this.eventLoops[i] = new NioEventLoop(threadFactory);
+            }
+        } catch (IOException e) {
+            for (NioEventLoop eventLoop : this.eventLoops) {
+                if (eventLoop != null) {
+                    eventLoop.getSelector().close();
+                }
+            }
+            throw e;
+        }
+
+        for (NioEventLoop eventLoop : this.eventLoops) {
+            eventLoop.start();
+        }
+    }
+
+    /**
+     * Sets the response timeout of connections created afterwards. Default is 500 ms.
+     *
+     * @param timeout
+     *            a timeout in milliseconds. Zero is interpreted as infinite timeout.
+     * @see MBusNioConnection#setTimeout(int)
+     */
+    public void setTimeout(int timeout) {
+        this.timeout = timeout;
+    }
+
+    /**
+     * Sets the TCP connection timeout of connections created afterwards. Default is 10 s.
+     *
+     * @param connectionTimeout
+     *            the TCP connection timeout in milliseconds. Zero is interpreted as infinite timeout.
+     */
+    public void setConnectionTimeout(int connectionTimeout) {
+        this.connectionTimeout = connectionTimeout;
+    }
+
+    /**
+     * Connects to an M-Bus/TCP gateway without blocking the calling thread for the TCP handshake. Only the host name
+     * is resolved by the calling thread.
+     *
+     * @param hostAddress
+     *            the host address of the gateway. e.g. "192.168.1.10".
+     * @param port
+     *            the TCP port of the gateway.
+     * @return a future holding the connection once it has been established.
+     */
+    public ListenableFuture<MBusNioConnection> connect(String hostAddress, int port) {
+        InetSocketAddress remoteAddress = new InetSocketAddress(hostAddress, port);
+        if (remoteAddress.isUnresolved()) {
+            return Futures.immediateFailedFuture(
+                    new UnknownHostException(MessageFormat.format("Unknown host {0}.", hostAddress)));
+        }
+
+        NioEventLoop eventLoop = eventLoops[(nextEventLoop.getAndIncrement() & 0x7fffffff) % eventLoops.length];
+        return new MBusNioConnection(eventLoop, remoteAddress, connectionTimeout, timeout).connect();
+    }
+
+    /**
+     * Closes all connections and stops the event loops.
+     */
+    @Override
+    public void close() {
+        for (NioEventLoop eventLoop : eventLoops) {
+            eventLoop.close();
+        }
+        for (NioEventLoop eventLoop : eventLoops) {
+            try {
+                eventLoop.join(1000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private static class EventLoopThreadFactory implements ThreadFactory {
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "jmbus-nio-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+
+}
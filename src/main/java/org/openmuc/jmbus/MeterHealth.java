@@ -0,0 +1,105 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package org.openmuc.jmbus;
+
+/**
+ * Snapshot of the circuit breaker of a meter.
+ *
+ * @see MBusConnection#getMeterHealth(int)
+ * @see RetryPolicy
+ */
+public class MeterHealth {
+
+    /**
+     * The state of the circuit breaker of a meter.
+     */
+    public enum State {
+        /**
+         * The meter is read normally.
+         */
+        CLOSED,
+        /**
+         * The meter has failed repeatedly and is skipped.
+         */
+        OPEN,
+        /**
+         * The open period has passed, the next read probes the meter.
+         */
+        HALF_OPEN
+    }
+
+    private final State state;
+    private final int consecutiveFailures;
+    private final long failures;
+    private final long retries;
+    private final long skippedReads;
+    private final long retryAt;
+
+    MeterHealth(State state, int consecutiveFailures, long failures, long retries, long skippedReads, long retryAt) {
+        this.state = state;
+        this.consecutiveFailures = consecutiveFailures;
+        this.failures = failures;
+        this.retries = retries;
+        this.skippedReads = skippedReads;
+        this.retryAt = retryAt;
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    /**
+     * @return the number of reads that have failed since the last successful read.
+     */
+    public int getConsecutiveFailures() {
+        return consecutiveFailures;
+    }
+
+    /**
+     * @return the number of reads that have failed after all retries.
+     */
+    public long getFailures() {
+        return failures;
+    }
+
+    /**
+     * @return the number of repeated read attempts.
+     */
+    public long getRetries() {
+        return retries;
+    }
+
+    /**
+     * @return the number of reads that have been skipped because the breaker was open.
+     */
+    public long getSkippedReads() {
+        return skippedReads;
+    }
+
+    /**
+     * @return the time at which an open breaker lets the next probe through in milliseconds since the epoch, 0 if the
+     *         breaker is closed.
+     */
+    public long getRetryAt() {
+        return retryAt;
+    }
+
+    @Override
+    public String toString() {
+        return new StringBuilder().append("state: ")
+                .append(state)
+                .append(", consecutive failures: ")
+                .append(consecutiveFailures)
+                .append(", failures: ")
+                .append(failures)
+                .append(", retries: ")
+                .append(retries)
+                .append(", skipped: ")
+                .append(skippedReads)
+                .toString();
+    }
+
+}
@@ -0,0 +1,33 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package org.openmuc.jmbus;
+
+import java.io.IOException;
+
+/**
+ * Signals that a meter has not been read because it has failed repeatedly and its circuit breaker is open.
+ *
+ * @see RetryPolicy
+ */
+public class MeterUnavailableException extends IOException {
+
+    private static final long serialVersionUID = -2203455329462318725L;
+
+    private final long retryAt;
+
+    public MeterUnavailableException(String message, long retryAt) {
+        super(message);
+        this.retryAt = retryAt;
+    }
+
+    /**
+     * @return the time at which the meter is probed again in milliseconds since the epoch.
+     */
+    public long getRetryAt() {
+        return retryAt;
+    }
+
+}
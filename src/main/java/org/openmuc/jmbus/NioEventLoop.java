@@ -0,0 +1,199 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package org.openmuc.jmbus;
+
+import java.io.IOException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A thread which serves the I/O events and timeouts of many {@link MBusNioConnection}s using one selector.
+ * <p>
+ * All state of the connections of a loop is only touched by the loop thread. Other threads hand over work by
+ * {@link #execute(Runnable)}. The timeouts of the connections are kept in a queue ordered by deadline, so only the
+ * connections whose deadline has passed are checked.
+ * </p>
+ */
+class NioEventLoop implements Executor, Runnable {
+
+    private final Selector selector;
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    private final Set<MBusNioConnection> connections = new HashSet<>();
+    private final PriorityQueue<Timeout> timeouts = new PriorityQueue<>(11, new DeadlineComparator());
+    private final Thread thread;
+
+    private volatile boolean closed = false;
+    // set when the loop does not take any more tasks, guarded by tasks
+    private boolean terminated = false;
+
+    NioEventLoop(ThreadFactory threadFactory) throws IOException {
+        this.selector = Selector.open();
+        this.thread = threadFactory.newThread(this);
+    }
+
+    void start() {
+        thread.start();
+    }
+
+    Selector getSelector() {
+        return selector;
+    }
+
+    boolean inLoop() {
+        return Thread.currentThread() == thread;
+    }
+
+    /**
+     * @throws RejectedExecutionException
+     *             if the loop has been closed and will not run the task.
+     */
+    @Override
+    public void execute(Runnable task) {
+        synchronized (tasks) {
+            if (terminated) {
+                throw new RejectedExecutionException("Connection manager has been closed.");
+            }
+            tasks.add(task);
+        }
+        if (!inLoop()) {
+            selector.wakeup();
+        }
+    }
+
+    /**
+     * Registers a connection to be closed with the loop. Must be called by the loop thread.
+     */
+    void register(MBusNioConnection connection) {
+        connections.add(connection);
+    }
+
+    void unregister(MBusNioConnection connection) {
+        connections.remove(connection);
+    }
+
+    /**
+     * Makes sure the loop checks the timeout of the connection at the given time. Must be called by the loop thread.
+     */
+    void wakeUpAt(MBusNioConnection connection, long deadline) {
+        timeouts.add(new Timeout(connection, deadline));
+    }
+
+    static long now() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime());
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (!closed) {
+                select();
+                runTasks();
+                processSelectedKeys();
+                checkTimeouts();
+            }
+        } catch (IOException | ClosedSelectorException e) {
+            // the loop cannot continue, the connections are closed below
+        } finally {
+            synchronized (tasks) {
+                terminated = true;
+            }
+            runTasks();
+            closeConnections();
+            try {
+                selector.close();
+            } catch (IOException e) {
+                // ignore
+            }
+        }
+    }
+
+    private void select() throws IOException {
+        if (!tasks.isEmpty()) {
+            selector.selectNow();
+        }
+        else if (timeouts.isEmpty()) {
+            selector.select();
+        }
+        else {
+            selector.select(Math.max(1, timeouts.peek().deadline - now()));
+        }
+    }
+
+    private void runTasks() {
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                // a failing task must not stop the loop
+            }
+        }
+    }
+
+    private void processSelectedKeys() {
+        Iterator<SelectionKey> iterator = selector.selectedKeys().iterator();
+        while (iterator.hasNext()) {
+            SelectionKey key = iterator.next();
+            iterator.remove();
+            ((MBusNioConnection) key.attachment()).handleKey(key);
+        }
+    }
+
+    private void checkTimeouts() {
+        long now = now();
+        while (!timeouts.isEmpty() && timeouts.peek().deadline <= now) {
+            // the connection ignores the timeout if its deadline has been reset or moved in the meantime
+            timeouts.poll().connection.checkTimeout(now);
+        }
+    }
+
+    private void closeConnections() {
+        for (MBusNioConnection connection : new ArrayList<>(connections)) {
+            connection.closeInLoop(new IOException("Connection manager has been closed."));
+        }
+    }
+
+    void close() {
+        closed = true;
+        selector.wakeup();
+    }
+
+    void join(long timeout) throws InterruptedException {
+        thread.join(timeout);
+    }
+
+    private static class Timeout {
+        private final MBusNioConnection connection;
+        private final long deadline;
+
+        Timeout(MBusNioConnection connection, long deadline) {
+            this.connection = connection;
+            this.deadline = deadline;
+        }
+    }
+
+    private static class DeadlineComparator implements Comparator<Timeout> {
+
+        @Override
+        public int compare(Timeout t1, Timeout t2) {
+            return Long.compare(t1.deadline, t2.deadline);
+        }
+    }
+
+}
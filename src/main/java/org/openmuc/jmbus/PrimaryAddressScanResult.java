@@ -0,0 +1,61 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package org.openmuc.jmbus;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The result of a {@link PrimaryAddressScanner}.
+ */
+public class PrimaryAddressScanResult {
+
+    private final Map<Integer, VariableDataStructure> responders = new LinkedHashMap<>();
+    private final List<Integer> collisions = new ArrayList<>();
+
+    void addResponder(int primaryAddress, VariableDataStructure variableDataStructure) {
+        responders.put(primaryAddress, variableDataStructure);
+    }
+
+    void addCollision(int primaryAddress) {
+        responders.remove(primaryAddress);
+        collisions.add(primaryAddress);
+    }
+
+    /**
+     * Get the primary addresses at which exactly one meter answered.
+     *
+     * @return the primary addresses in ascending order.
+     */
+    public List<Integer> getPrimaryAddresses() {
+        return new ArrayList<>(responders.keySet());
+    }
+
+    /**
+     * Get the response of the meter at the given address.
+     *
+     * @param primaryAddress
+     *            the primary address.
+     * @return the variable data structure or <code>null</code> if the responders have not been read or the meter did
+     *         not answer the read.
+     */
+    public VariableDataStructure getVariableDataStructure(int primaryAddress) {
+        return responders.get(primaryAddress);
+    }
+
+    /**
+     * Get the primary addresses at which several meters answered at the same time, e.g. unconfigured meters at the
+     * default address 0. These meters have to be searched by secondary address.
+     *
+     * @return the primary addresses in ascending order.
+     */
+    public List<Integer> getCollisions() {
+        return new ArrayList<>(collisions);
+    }
+
+}
@@ -0,0 +1,182 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package org.openmuc.jmbus;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.SocketException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Searches the meters of a bus by their primary address.
+ * <p>
+ * The scan runs in two passes. First every address is probed with a link reset (SND_NKE), which a meter acknowledges
+ * with a single character, using a probe timeout derived from the baud rate. An acknowledgement following a probe that
+ * has timed out is confirmed by a second probe, so the late answer of a meter is not taken for a meter at the next
+ * address. Then only the addresses that have answered are read (REQ_UD2)
+ * with the timeout of the connection. A garbled answer in either pass means that several meters share the address, such
+ * addresses are reported as collisions.
+ * </p>
+ * <p>
+ * Buses are scanned in parallel by one scanner per connection, see
+ * {@link MBusConnectionPool#scanPrimaryAddresses(int)}.
+ * </p>
+ */
+public class PrimaryAddressScanner {
+
+    private final MBusConnection connection;
+
+    private int firstAddress = 0;
+    private int lastAddress = 250;
+    // derived from the baud rate of the line if not set
+    private int probeTimeout = -1;
+    private boolean readResponders = true;
+    private ScanProgressListener progressListener;
+
+    /**
+     * Creates a scanner for the bus of the given connection.
+     *
+     * @param connection
+     *            an open connection.
+     */
+    public PrimaryAddressScanner(MBusConnection connection) {
+        this.connection = connection;
+    }
+
+    /**
+     * Restricts the scan to a range of addresses.
+     *
+     * @param firstAddress
+     *            the first address to probe, default is 0.
+     * @param lastAddress
+     *            the last address to probe, default is 250.
+     * @return this scanner.
+     */
+    public PrimaryAddressScanner setAddressRange(int firstAddress, int lastAddress) {
+        if (firstAddress < 0 || lastAddress > 250 || firstAddress > lastAddress) {
+            throw new IllegalArgumentException("Primary addresses range from 0 to 250.");
+        }
+        this.firstAddress = firstAddress;
+        this.lastAddress = lastAddress;
+        return this;
+    }
+
+    /**
+     * Sets the time to wait for the acknowledgement of a probe. A meter has to start its answer within 330 bit times
+     * plus 50ms, so the default is this time plus one character at the baud rate of the line, which is 193ms at 2400
+     * baud and 1187ms at 300 baud. A shorter timeout shortens the scan of a sparse bus, but misses slow meters.
+     *
+     * @param probeTimeout
+     *            the timeout in milliseconds.
+     * @return this scanner.
+     */
+    public PrimaryAddressScanner setProbeTimeout(int probeTimeout) {
+        this.probeTimeout = probeTimeout;
+        return this;
+    }
+
+    /**
+     * @param readResponders
+     *            <code>false</code> to skip reading the addresses that have answered the probe, default is
+     *            <code>true</code>.
+     * @return this scanner.
+     */
+    public PrimaryAddressScanner setReadResponders(boolean readResponders) {
+        this.readResponders = readResponders;
+        return this;
+    }
+
+    /**
+     * @param progressListener
+     *            listener to get the progress of the probe pass, may be <code>null</code>.
+     * @return this scanner.
+     */
+    public PrimaryAddressScanner setProgressListener(ScanProgressListener progressListener) {
+        this.progressListener = progressListener;
+        return this;
+    }
+
+    /**
+     * Scans the bus.
+     *
+     * @return the addresses which have answered and the collisions.
+     * @throws IOException
+     *             if the connection to the bus fails.
+     */
+    public PrimaryAddressScanResult scan() throws IOException {
+        PrimaryAddressScanResult result = new PrimaryAddressScanResult();
+        List<Integer> responders = probe(result);
+
+        for (int primaryAddress : responders) {
+            if (!readResponders) {
+                result.addResponder(primaryAddress, null);
+                continue;
+            }
+            try {
+                result.addResponder(primaryAddress, connection.requestUserData(primaryAddress));
+            } catch (InterruptedIOException e) {
+                result.addResponder(primaryAddress, null);
+            } catch (EOFException | SocketException e) {
+                throw e;
+            } catch (IOException e) {
+                result.addCollision(primaryAddress);
+            }
+        }
+        return result;
+    }
+
+    private List<Integer> probe(PrimaryAddressScanResult result) throws IOException {
+        List<Integer> responders = new ArrayList<>();
+        int count = lastAddress - firstAddress + 1;
+
+        int timeout = connection.getTimeout();
+        connection.setTimeout(probeTimeout < 0 ? responseWindow(connection.getLineBaudrate()) : probeTimeout);
+        try {
+            boolean previousTimedOut = false;
+            for (int primaryAddress = firstAddress; primaryAddress <= lastAddress; primaryAddress++) {
+                try {
+                    connection.drainInput();
+                    connection.linkReset(primaryAddress);
+                    if (previousTimedOut) {
+                        // the acknowledgement may be the late answer of a meter at the previous address, a meter at
+                        // this address answers again
+                        connection.drainInput();
+                        connection.linkReset(primaryAddress);
+                    }
+                    responders.add(primaryAddress);
+                    previousTimedOut = false;
+                } catch (InterruptedIOException e) {
+                    // no meter at this address
+                    previousTimedOut = true;
+                } catch (EOFException | SocketException e) {
+                    throw e;
+                } catch (IOException e) {
+                    result.addCollision(primaryAddress);
+                    previousTimedOut = false;
+                }
+
+                if (progressListener != null) {
+                    int probes = primaryAddress - firstAddress + 1;
+                    progressListener.scanProgress((double) probes / count, probes, responders.size());
+                }
+            }
+        } finally {
+            connection.setTimeout(timeout);
+        }
+        return responders;
+    }
+
+    /**
+     * @return the time in milliseconds within which a meter has answered: 330 bit times plus 50ms until the start of
+     *         the answer and one character of 11 bits.
+     */
+    static int responseWindow(int baudrate) {
+        return (330 + 11) * 1000 / baudrate + 1 + 50;
+    }
+
+}
@@ -0,0 +1,39 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package org.openmuc.jmbus;
+
+import java.io.IOException;
+import java.util.EventListener;
+
+/**
+ * Listener to get the results of the readouts executed by a {@link ReadoutScheduler}.
+ */
+public interface ReadoutListener extends EventListener {
+
+    /**
+     * A meter has been read successfully.
+     *
+     * @param readout
+     *            the scheduled readout.
+     * @param variableDataStructure
+     *            the variable data structure of the response.
+     */
+    void newReadout(ScheduledReadout readout, VariableDataStructure variableDataStructure);
+
+    /**
+     * A readout attempt failed. Cyclic readouts are retried with backoff, single readouts are retried until their
+     * deadline has passed.
+     *
+     * @param readout
+     *            the scheduled readout.
+     * @param cause
+     *            the cause of the failure.
+     * @param willRetry
+     *            {@code false} if this was the last attempt of a single readout.
+     */
+    void readoutFailed(ScheduledReadout readout, IOException cause, boolean willRetry);
+
+}
@@ -0,0 +1,388 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package org.openmuc.jmbus;
+
+import java.io.IOException;
+import java.text.MessageFormat;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Executes cyclic and deadline readouts of wired meters.
+ * <p>
+ * A bus only allows one request at a time, therefore the scheduler keeps at most one readout per bus in flight. If
+ * several readouts of a bus are due, the one with the highest priority is executed first, followed by the one with the
+ * earliest deadline. The first readout of a cyclic meter is shifted by an address dependent phase within its interval,
+ * so meters with the same interval do not all become due at the same time. Failed readouts are retried with
+ * exponential backoff.
+ * </p>
+ * <p>
+ * The scheduler does not close the connections of its buses.
+ * </p>
+ */
+public class ReadoutScheduler implements AutoCloseable {
+
+    private static final long DEFAULT_INITIAL_BACKOFF = 1000;
+    private static final long DEFAULT_MAX_BACKOFF = 5 * 60 * 1000;
+
+    private final ReadoutListener listener;
+    private final ScheduledExecutorService timer;
+    private final Map<String, Bus> buses = new HashMap<>();
+
+    private long initialBackoff = DEFAULT_INITIAL_BACKOFF;
+    private long maxBackoff = DEFAULT_MAX_BACKOFF;
+    private boolean closed = false;
+
+    /**
+     * Creates a new readout scheduler.
+     *
+     * @param listener
+     *            the listener which receives the results of all readouts.
+     */
+    public ReadoutScheduler(ReadoutListener listener) {
+        this.listener = listener;
+        this.timer = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder().setNameFormat("jmbus-readout-scheduler").setDaemon(true).build());
+    }
+
+    /**
+     * Adds a bus to the scheduler.
+     *
+     * @param busId
+     *            a unique ID of the bus.
+     * @param connection
+     *            an open connection to the bus.
+     */
+    public synchronized void addBus(String busId, MBusConnection connection) {
+        if (buses.containsKey(busId)) {
+            throw new IllegalArgumentException(MessageFormat.format("Bus {0} already exists.", busId));
+        }
+        buses.put(busId, new Bus(connection));
+    }
+
+    /**
+     * Sets the backoff of failed readouts. The delay before the n-th retry is {@code initialBackoff * 2^(n-1)} but not
+     * more than {@code maxBackoff}. Default is 1 s initial and 5 min maximum backoff.
+     *
+     * @param initialBackoff
+     *            the delay before the first retry in milliseconds.
+     * @param maxBackoff
+     *            the maximum delay in milliseconds.
+     */
+    public synchronized void setRetryBackoff(long initialBackoff, long maxBackoff) {
+        this.initialBackoff = initialBackoff;
+        this.maxBackoff = maxBackoff;
+    }
+
+    /**
+     * Adds a readout to the schedule.
+     *
+     * @param readout
+     *            the readout.
+     * @throws IllegalArgumentException
+     *             if the bus of the readout is not known or the readout has already been scheduled.
+     */
+    public synchronized void schedule(ScheduledReadout readout) {
+        if (closed) {
+            throw new IllegalStateException("Scheduler is closed.");
+        }
+        Bus bus = busFor(readout.getBusId());
+        if (bus.jobs.containsKey(readout)) {
+            throw new IllegalArgumentException("Readout has already been scheduled.");
+        }
+
+        long now = System.currentTimeMillis();
+        Job job = new Job(readout);
+        if (readout.isCyclic()) {
+            job.slot = now + phaseOf(readout);
+            job.due = job.slot;
+        }
+        else {
+            job.due = now;
+        }
+
+        bus.jobs.put(readout, job);
+        bus.waiting.add(job);
+        dispatch(bus);
+    }
+
+    /**
+     * Removes a readout from the schedule. A readout which is currently in progress is completed but not rescheduled.
+     *
+     * @param readout
+     *            the readout to remove.
+     * @return {@code true} if the readout was scheduled.
+     */
+    public synchronized boolean cancel(ScheduledReadout readout) {
+        Bus bus = buses.get(readout.getBusId());
+        if (bus == null) {
+            return false;
+        }
+        Job job = bus.jobs.remove(readout);
+        if (job == null) {
+            return false;
+        }
+        job.cancelled = true;
+        bus.waiting.remove(job);
+        bus.ready.remove(job);
+        return true;
+    }
+
+    /**
+     * Get how far the given bus is behind its schedule.
+     *
+     * @param busId
+     *            the ID of the bus.
+     * @return the time in milliseconds the most overdue readout of the bus is waiting for execution, or 0 if no
+     *         readout is overdue.
+     */
+    public synchronized long getLag(String busId) {
+        Bus bus = busFor(busId);
+        long now = System.currentTimeMillis();
+        long oldestDue = now;
+        for (Job job : bus.ready) {
+            oldestDue = Math.min(oldestDue, job.due);
+        }
+        Job next = bus.waiting.peek();
+        if (next != null) {
+            oldestDue = Math.min(oldestDue, next.due);
+        }
+        return now - oldestDue;
+    }
+
+    /**
+     * Get the number of readouts that are scheduled on the given bus.
+     *
+     * @param busId
+     *            the ID of the bus.
+     * @return the number of scheduled readouts.
+     */
+    public synchronized int getScheduledReadouts(String busId) {
+        return busFor(busId).jobs.size();
+    }
+
+    /**
+     * Stops the scheduler. Readouts that are in progress are not reported anymore.
+     */
+    @Override
+    public synchronized void close() {
+        closed = true;
+        timer.shutdownNow();
+    }
+
+    private Bus busFor(String busId) {
+        Bus bus = buses.get(busId);
+        if (bus == null) {
+            throw new IllegalArgumentException(MessageFormat.format("Unknown bus {0}.", busId));
+        }
+        return bus;
+    }
+
+    private static long phaseOf(ScheduledReadout readout) {
+        int hash;
+        if (readout.getSecondaryAddress() != null) {
+            hash = readout.getSecondaryAddress().hashCode();
+        }
+        else {
+            hash = readout.getBusId().hashCode() * 31 + readout.getPrimaryAddress();
+        }
+        // spread the hash, similar addresses would otherwise get similar phases
+        hash ^= (hash >>> 16);
+        hash *= 0x85ebca6b;
+        hash ^= (hash >>> 13);
+        return (hash & 0x7fffffff) % readout.getInterval();
+    }
+
+    private void dispatch(final Bus bus) {
+        if (closed || bus.inFlight != null) {
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+        while (!bus.waiting.isEmpty() && bus.waiting.peek().due <= now) {
+            bus.ready.add(bus.waiting.poll());
+        }
+
+        final Job job = bus.ready.poll();
+        if (job == null) {
+            scheduleWakeup(bus, now);
+            return;
+        }
+
+        bus.inFlight = job;
+        ScheduledReadout readout = job.readout;
+        ListenableFuture<VariableDataStructure> result;
+        try {
+            if (readout.getSecondaryAddress() != null) {
+                result = bus.connection.readAsync(readout.getSecondaryAddress());
+            }
+            else {
+                result = bus.connection.readAsync(readout.getPrimaryAddress());
+            }
+        } catch (RuntimeException e) {
+            // e.g. the connection has been closed, the readout fails like one that has been rejected by the bus
+            result = Futures.immediateFailedFuture(new IOException("Readout could not be started.", e));
+        }
+
+        Futures.addCallback(result, new FutureCallback<VariableDataStructure>() {
+
+            @Override
+            public void onSuccess(VariableDataStructure variableDataStructure) {
+                readoutSucceeded(bus, job);
+                listener.newReadout(job.readout, variableDataStructure);
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+                IOException cause = t instanceof IOException ? (IOException) t : new IOException(t);
+                boolean willRetry = readoutFailed(bus, job);
+                listener.readoutFailed(job.readout, cause, willRetry);
+            }
+        }, timer);
+    }
+
+    private synchronized void readoutSucceeded(Bus bus, Job job) {
+        bus.inFlight = null;
+        job.failures = 0;
+
+        if (job.readout.isCyclic() && !job.cancelled) {
+            long now = System.currentTimeMillis();
+            long interval = job.readout.getInterval();
+            do {
+                job.slot += interval;
+            } while (job.slot <= now);
+            job.due = job.slot;
+            bus.waiting.add(job);
+        }
+        else {
+            removeJob(bus, job);
+        }
+
+        dispatch(bus);
+    }
+
+    private synchronized boolean readoutFailed(Bus bus, Job job) {
+        bus.inFlight = null;
+        job.failures++;
+
+        long now = System.currentTimeMillis();
+        long backoff = initialBackoff << Math.min(job.failures - 1, 30);
+        if (backoff <= 0 || backoff > maxBackoff) {
+            backoff = maxBackoff;
+        }
+        job.due = now + backoff;
+
+        boolean willRetry = !job.cancelled && (job.readout.isCyclic() || job.due <= job.readout.getDeadline());
+        if (willRetry) {
+            bus.waiting.add(job);
+        }
+        else {
+            removeJob(bus, job);
+        }
+
+        dispatch(bus);
+        return willRetry;
+    }
+
+    private static void removeJob(Bus bus, Job job) {
+        // the readout may have been cancelled and scheduled again while this job was in flight
+        if (bus.jobs.get(job.readout) == job) {
+            bus.jobs.remove(job.readout);
+        }
+    }
+
+    private void scheduleWakeup(final Bus bus, long now) {
+        Job next = bus.waiting.peek();
+        if (next == null) {
+            return;
+        }
+        if (bus.wakeup != null) {
+            if (bus.wakeupTime <= next.due) {
+                return;
+            }
+            bus.wakeup.cancel(false);
+        }
+
+        bus.wakeupTime = next.due;
+        bus.wakeup = timer.schedule(new Runnable() {
+
+            @Override
+            public void run() {
+                synchronized (ReadoutScheduler.this) {
+                    bus.wakeup = null;
+                    dispatch(bus);
+                }
+            }
+        }, next.due - now, TimeUnit.MILLISECONDS);
+    }
+
+    private static class Bus {
+        private final MBusConnection connection;
+        private final Map<ScheduledReadout, Job> jobs = new HashMap<>();
+        private final PriorityQueue<Job> waiting = new PriorityQueue<>(11, new DueTimeComparator());
+        private final PriorityQueue<Job> ready = new PriorityQueue<>(11, new PriorityComparator());
+
+        private Job inFlight;
+        private ScheduledFuture<?> wakeup;
+        private long wakeupTime;
+
+        Bus(MBusConnection connection) {
+            this.connection = connection;
+        }
+    }
+
+    private static class Job {
+        private final ScheduledReadout readout;
+        private long slot;
+        private long due;
+        private int failures;
+        private boolean cancelled;
+
+        Job(ScheduledReadout readout) {
+            this.readout = readout;
+        }
+    }
+
+    private static class DueTimeComparator implements Comparator<Job> {
+
+        @Override
+        public int compare(Job j1, Job j2) {
+            return Long.compare(j1.due, j2.due);
+        }
+    }
+
+    private static class PriorityComparator implements Comparator<Job> {
+
+        @Override
+        public int compare(Job j1, Job j2) {
+            int result = Integer.compare(j2.readout.getPriority(), j1.readout.getPriority());
+            if (result != 0) {
+                return result;
+            }
+            result = Long.compare(deadlineOf(j1), deadlineOf(j2));
+            if (result != 0) {
+                return result;
+            }
+            return Long.compare(j1.due, j2.due);
+        }
+
+        private static long deadlineOf(Job job) {
+            return job.readout.isCyclic() ? Long.MAX_VALUE : job.readout.getDeadline();
+        }
+    }
+
+}
@@ -0,0 +1,146 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package org.openmuc.jmbus;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The data records to be selected for readout, encoded once.
+ * <p>
+ * A selection is immutable and can be used for any number of meters and readout cycles. Meters that support the
+ * selection answer the following REQ_UD2 with the selected records only, which shortens the response frames.
+ * </p>
+ *
+ * @see MBusConnection#selectForReadout(int, ReadoutSelection)
+ */
+public class ReadoutSelection {
+
+    // a long frame holds 252 bytes of user data after C, A and CI field
+    private static final int MAX_LENGTH = 252;
+
+    private final byte[] encoded;
+
+    private ReadoutSelection(byte[] encoded) {
+        this.encoded = encoded;
+    }
+
+    /**
+     * Creates a selection of the records with the same DIB and VIB as the given records.
+     *
+     * @param dataRecords
+     *            the records to select, e.g. records of a previous readout.
+     * @return the selection.
+     */
+    public static ReadoutSelection of(List<DataRecord> dataRecords) {
+        Builder builder = new Builder();
+        for (DataRecord dataRecord : dataRecords) {
+            builder.add(dataRecord.getDib(), dataRecord.getVib());
+        }
+        return builder.build();
+    }
+
+    /**
+     * @return a builder of a selection.
+     */
+    public static Builder newBuilder() {
+        return new Builder();
+    }
+
+    /**
+     * Builds a selection from DIF and VIF descriptors.
+     */
+    public static class Builder {
+
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+        private Builder() {
+        }
+
+        /**
+         * Adds a record described by a single DIF and VIF, e.g. DIF 0x04 and VIF 0x13 for a 32 bit volume in liters.
+         *
+         * @param dif
+         *            the data information field.
+         * @param vif
+         *            the value information field.
+         * @return this builder.
+         */
+        public Builder add(int dif, int vif) {
+            return add(new byte[] { (byte) dif }, new byte[] { (byte) vif });
+        }
+
+        /**
+         * Adds a record described by its DIB and VIB including extensions.
+         *
+         * @param dib
+         *            the DIF followed by its DIFEs.
+         * @param vib
+         *            the VIF followed by its VIFEs.
+         * @return this builder.
+         * @throws IllegalArgumentException
+         *             if the extension bits do not match the length of the DIB or VIB.
+         */
+        public Builder add(byte[] dib, byte[] vib) {
+            checkExtensionBits(dib, "DIB");
+            checkExtensionBits(vib, "VIB");
+            bytes.write(dib, 0, dib.length);
+            bytes.write(vib, 0, vib.length);
+            return this;
+        }
+
+        /**
+         * @return the selection.
+         * @throws IllegalArgumentException
+         *             if the records do not fit into a single frame.
+         */
+        public ReadoutSelection build() {
+            if (bytes.size() > MAX_LENGTH) {
+                throw new IllegalArgumentException(
+                        "Selection of " + bytes.size() + " bytes exceeds the maximum of " + MAX_LENGTH + " bytes.");
+            }
+            return new ReadoutSelection(bytes.toByteArray());
+        }
+
+        private static void checkExtensionBits(byte[] field, String name) {
+            if (field.length == 0) {
+                throw new IllegalArgumentException(name + " must not be empty.");
+            }
+            for (int i = 0; i < field.length; i++) {
+                boolean extended = (field[i] & 0x80) == 0x80;
+                if (extended != (i < field.length - 1)) {
+                    throw new IllegalArgumentException(
+                            name + " " + HexUtils.bytesToHex(field) + " does not match its extension bits.");
+                }
+            }
+        }
+    }
+
+    int getLength() {
+        return encoded.length;
+    }
+
+    byte[] getEncoded() {
+        return encoded;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        return obj instanceof ReadoutSelection && Arrays.equals(encoded, ((ReadoutSelection) obj).encoded);
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(encoded);
+    }
+
+    @Override
+    public String toString() {
+        return HexUtils.bytesToHex(encoded);
+    }
+
+}
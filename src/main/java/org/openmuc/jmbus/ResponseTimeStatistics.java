@@ -0,0 +1,110 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package org.openmuc.jmbus;
+
+/**
+ * Snapshot of the response times observed for one meter or for all meters of a connection.
+ *
+ * @see MBusConnection#getResponseTimeStatistics(int)
+ * @see MBusConnection#enableAdaptiveTimeout(int, double)
+ */
+public class ResponseTimeStatistics {
+
+    private final int samples;
+    private final int minimum;
+    private final int maximum;
+    private final int mean;
+    private final int percentile99;
+    private final long timeouts;
+    private final int timeout;
+
+    ResponseTimeStatistics(int samples, int minimum, int maximum, int mean, int percentile99, long timeouts,
+            int timeout) {
+        this.samples = samples;
+        this.minimum = minimum;
+        this.maximum = maximum;
+        this.mean = mean;
+        this.percentile99 = percentile99;
+        this.timeouts = timeouts;
+        this.timeout = timeout;
+    }
+
+    /**
+     * Get the number of response times the statistics are based on. Only the most recent responses are kept.
+     *
+     * @return the number of samples.
+     */
+    public int getSamples() {
+        return samples;
+    }
+
+    /**
+     * @return the shortest response time in milliseconds.
+     */
+    public int getMinimum() {
+        return minimum;
+    }
+
+    /**
+     * @return the longest response time in milliseconds.
+     */
+    public int getMaximum() {
+        return maximum;
+    }
+
+    /**
+     * @return the mean response time in milliseconds.
+     */
+    public int getMean() {
+        return mean;
+    }
+
+    /**
+     * @return the 99th percentile of the response times in milliseconds.
+     */
+    public int getPercentile99() {
+        return percentile99;
+    }
+
+    /**
+     * Get the number of requests which have not been answered within the timeout.
+     *
+     * @return the number of timeouts.
+     */
+    public long getTimeouts() {
+        return timeouts;
+    }
+
+    /**
+     * Get the timeout which is applied to the next request if adaptive timeouts are enabled.
+     *
+     * @return the timeout in milliseconds.
+     */
+    public int getTimeout() {
+        return timeout;
+    }
+
+    @Override
+    public String toString() {
+        return new StringBuilder().append("samples: ")
+                .append(samples)
+                .append(", min: ")
+                .append(minimum)
+                .append("ms, mean: ")
+                .append(mean)
+                .append("ms, p99: ")
+                .append(percentile99)
+                .append("ms, max: ")
+                .append(maximum)
+                .append("ms, timeouts: ")
+                .append(timeouts)
+                .append(", timeout: ")
+                .append(timeout)
+                .append("ms")
+                .toString();
+    }
+
+}
@@ -0,0 +1,140 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package org.openmuc.jmbus;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Keeps the recent response times per address and derives response timeouts from them.
+ * <p>
+ * The timeout of an address is its 99th percentile response time multiplied by a margin, limited by a floor and the
+ * configured timeout as ceiling. Addresses without enough samples of their own use the statistics of all addresses.
+ * After a timeout the next request of the address is given the full ceiling once, so a meter which has become slower
+ * is not lost, while an address which stays silent falls back to the short timeout.
+ * </p>
+ */
+class ResponseTimeTracker {
+
+    private static final int MAX_SAMPLES = 64;
+    private static final int MIN_SAMPLES = 5;
+
+    private final Map<Object, Samples> samplesByAddress = new HashMap<>();
+    private final Samples allSamples = new Samples();
+
+    private int minimumTimeout;
+    private int maximumTimeout;
+    private double margin;
+
+    ResponseTimeTracker(int minimumTimeout, int maximumTimeout, double margin) {
+        setLimits(minimumTimeout, maximumTimeout, margin);
+    }
+
+    synchronized void setLimits(int minimumTimeout, int maximumTimeout, double margin) {
+        this.minimumTimeout = minimumTimeout;
+        this.maximumTimeout = maximumTimeout;
+        this.margin = margin;
+    }
+
+    synchronized int getMaximumTimeout() {
+        return maximumTimeout;
+    }
+
+    synchronized void responseReceived(Object address, long responseTime) {
+        int value = (int) Math.min(Integer.MAX_VALUE, Math.max(0, responseTime));
+        samplesFor(address).add(value);
+        allSamples.add(value);
+    }
+
+    synchronized void timedOut(Object address) {
+        Samples samples = samplesFor(address);
+        samples.timeouts++;
+        samples.consecutiveTimeouts++;
+        allSamples.timeouts++;
+    }
+
+    synchronized int timeoutFor(Object address) {
+        Samples samples = samplesByAddress.get(address);
+        if (samples != null && samples.consecutiveTimeouts == 1) {
+            return maximumTimeout;
+        }
+        return learnedTimeout(samples);
+    }
+
+    synchronized ResponseTimeStatistics statisticsFor(Object address) {
+        Samples samples = samplesByAddress.get(address);
+        if (samples == null) {
+            return null;
+        }
+        return samples.statistics(timeoutFor(address));
+    }
+
+    synchronized ResponseTimeStatistics statistics() {
+        return allSamples.statistics(learnedTimeout(null));
+    }
+
+    private int learnedTimeout(Samples samples) {
+        Samples basis = samples != null && samples.count >= MIN_SAMPLES ? samples : allSamples;
+        if (basis.count < MIN_SAMPLES) {
+            return maximumTimeout;
+        }
+        long timeout = (long) Math.ceil(basis.percentile99() * margin);
+        return (int) Math.min(maximumTimeout, Math.max(minimumTimeout, timeout));
+    }
+
+    private Samples samplesFor(Object address) {
+        Samples samples = samplesByAddress.get(address);
+        if (samples == null) {
+            samples = new Samples();
+            samplesByAddress.put(address, samples);
+        }
+        return samples;
+    }
+
+    private static class Samples {
+        private final int[] values = new int[MAX_SAMPLES];
+        private int count;
+        private int next;
+        private long timeouts;
+        private int consecutiveTimeouts;
+        private int percentile99 = -1;
+
+        void add(int value) {
+            values[next] = value;
+            next = (next + 1) % MAX_SAMPLES;
+            count = Math.min(count + 1, MAX_SAMPLES);
+            consecutiveTimeouts = 0;
+            percentile99 = -1;
+        }
+
+        int percentile99() {
+            if (percentile99 < 0) {
+                int[] sorted = Arrays.copyOf(values, count);
+                Arrays.sort(sorted);
+                percentile99 = sorted[(int) Math.ceil(0.99 * count) - 1];
+            }
+            return percentile99;
+        }
+
+        ResponseTimeStatistics statistics(int timeout) {
+            if (count == 0) {
+                return new ResponseTimeStatistics(0, 0, 0, 0, 0, timeouts, timeout);
+            }
+            int min = Integer.MAX_VALUE;
+            int max = 0;
+            long sum = 0;
+            for (int i = 0; i < count; i++) {
+                min = Math.min(min, values[i]);
+                max = Math.max(max, values[i]);
+                sum += values[i];
+            }
+            return new ResponseTimeStatistics(count, min, max, (int) (sum / count), percentile99(), timeouts,
+                    timeout);
+        }
+    }
+
+}
@@ -0,0 +1,127 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package org.openmuc.jmbus;
+
+/**
+ * Configures how a connection retries failed reads and when it stops reading a meter that keeps failing.
+ * <p>
+ * A failed read is repeated up to {@link #setRetries(int) retries} times with an exponentially growing delay between
+ * the attempts. Before repeating a read by primary address the link of the meter is reset (SND_NKE). The bus is free
+ * for other requests while a retry is delayed.
+ * </p>
+ * <p>
+ * Every meter has a circuit breaker. After {@link #setFailureThreshold(int) failureThreshold} consecutive failed reads
+ * the breaker opens: reads of the meter fail immediately with a {@link MeterUnavailableException} instead of waiting
+ * for the timeout. When the open period has passed, one read is let through as probe. If it succeeds the breaker
+ * closes, otherwise it opens again for twice the period, up to a maximum.
+ * </p>
+ *
+ * @see MBusConnection#setRetryPolicy(RetryPolicy)
+ */
+public class RetryPolicy {
+
+    private int retries = 2;
+    private boolean linkResetBeforeRetry = true;
+    private long initialRetryDelay = 50;
+    private long maxRetryDelay = 1000;
+    private int failureThreshold = 3;
+    private long initialOpenPeriod = 60 * 1000;
+    private long maxOpenPeriod = 60 * 60 * 1000;
+
+    /**
+     * @param retries
+     *            the number of times a failed read is repeated, default is 2.
+     * @return this policy.
+     */
+    public RetryPolicy setRetries(int retries) {
+        this.retries = retries;
+        return this;
+    }
+
+    /**
+     * @param linkResetBeforeRetry
+     *            <code>false</code> to repeat a read without resetting the link of the meter first, default is
+     *            <code>true</code>.
+     * @return this policy.
+     */
+    public RetryPolicy setLinkResetBeforeRetry(boolean linkResetBeforeRetry) {
+        this.linkResetBeforeRetry = linkResetBeforeRetry;
+        return this;
+    }
+
+    /**
+     * Sets the delay between the attempts of a read. The delay before the n-th retry is
+     * {@code initialRetryDelay * 2^(n-1)} but not more than {@code maxRetryDelay}. Default is 50 ms initial and 1 s
+     * maximum delay.
+     *
+     * @param initialRetryDelay
+     *            the delay before the first retry in milliseconds.
+     * @param maxRetryDelay
+     *            the maximum delay in milliseconds.
+     * @return this policy.
+     */
+    public RetryPolicy setRetryDelay(long initialRetryDelay, long maxRetryDelay) {
+        this.initialRetryDelay = initialRetryDelay;
+        this.maxRetryDelay = maxRetryDelay;
+        return this;
+    }
+
+    /**
+     * @param failureThreshold
+     *            the number of consecutive failed reads (including their retries) after which a meter is not read
+     *            anymore, default is 3.
+     * @return this policy.
+     */
+    public RetryPolicy setFailureThreshold(int failureThreshold) {
+        this.failureThreshold = failureThreshold;
+        return this;
+    }
+
+    /**
+     * Sets how long a meter is skipped after its breaker has opened. The period doubles with every failed probe but
+     * is not more than {@code maxOpenPeriod}. Default is 1 min initial and 1 h maximum period.
+     *
+     * @param initialOpenPeriod
+     *            the period in milliseconds.
+     * @param maxOpenPeriod
+     *            the maximum period in milliseconds.
+     * @return this policy.
+     */
+    public RetryPolicy setOpenPeriod(long initialOpenPeriod, long maxOpenPeriod) {
+        this.initialOpenPeriod = initialOpenPeriod;
+        this.maxOpenPeriod = maxOpenPeriod;
+        return this;
+    }
+
+    public int getRetries() {
+        return retries;
+    }
+
+    public boolean isLinkResetBeforeRetry() {
+        return linkResetBeforeRetry;
+    }
+
+    public int getFailureThreshold() {
+        return failureThreshold;
+    }
+
+    long retryDelay(int retry) {
+        return exponential(initialRetryDelay, maxRetryDelay, retry - 1);
+    }
+
+    long openPeriod(int failedProbes) {
+        return exponential(initialOpenPeriod, maxOpenPeriod, failedProbes);
+    }
+
+    private static long exponential(long initial, long max, int exponent) {
+        long value = initial << Math.min(exponent, 30);
+        if (value < 0 || value > max) {
+            return max;
+        }
+        return value;
+    }
+
+}
@@ -0,0 +1,27 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package org.openmuc.jmbus;
+
+import java.util.EventListener;
+
+/**
+ * Listener to follow the progress of a {@link SecondaryAddressScanner}.
+ */
+public interface ScanProgressListener extends EventListener {
+
+    /**
+     * A branch of the address space has been completed.
+     *
+     * @param progress
+     *            the share of the address space that has been searched, from 0 to 1.
+     * @param probes
+     *            the number of selections sent so far.
+     * @param devicesFound
+     *            the number of devices found so far.
+     */
+    void scanProgress(double progress, int probes, int devicesFound);
+
+}
@@ -0,0 +1,183 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package org.openmuc.jmbus;
+
+/**
+ * Describes a readout which is executed by the {@link ReadoutScheduler}. A readout is either cyclic with a fixed
+ * interval or a single readout which has to be completed before a deadline.
+ *
+ * @see ReadoutScheduler#schedule(ScheduledReadout)
+ */
+public class ScheduledReadout {
+
+    private final String busId;
+    private final int primaryAddress;
+    private final SecondaryAddress secondaryAddress;
+    private final long interval;
+    private final long deadline;
+    private final int priority;
+
+    private ScheduledReadout(String busId, int primaryAddress, SecondaryAddress secondaryAddress, long interval,
+            long deadline, int priority) {
+        this.busId = busId;
+        this.primaryAddress = primaryAddress;
+        this.secondaryAddress = secondaryAddress;
+        this.interval = interval;
+        this.deadline = deadline;
+        this.priority = priority;
+    }
+
+    /**
+     * Creates a cyclic readout of a meter using primary addressing.
+     *
+     * @param busId
+     *            the ID of the bus the meter is connected to.
+     * @param primaryAddress
+     *            the primary address of the meter.
+     * @param interval
+     *            the readout interval in milliseconds.
+     * @param priority
+     *            the priority of the readout. Readouts with a higher value are executed first if several readouts of
+     *            one bus are due.
+     * @return a new cyclic readout.
+     */
+    public static ScheduledReadout newCyclicReadout(String busId, int primaryAddress, long interval, int priority) {
+        checkInterval(interval);
+        return new ScheduledReadout(busId, primaryAddress, null, interval, 0, priority);
+    }
+
+    /**
+     * Creates a cyclic readout of a meter using secondary addressing.
+     *
+     * @param busId
+     *            the ID of the bus the meter is connected to.
+     * @param secondaryAddress
+     *            the secondary address of the meter.
+     * @param interval
+     *            the readout interval in milliseconds.
+     * @param priority
+     *            the priority of the readout. Readouts with a higher value are executed first if several readouts of
+     *            one bus are due.
+     * @return a new cyclic readout.
+     */
+    public static ScheduledReadout newCyclicReadout(String busId, SecondaryAddress secondaryAddress, long interval,
+            int priority) {
+        checkInterval(interval);
+        return new ScheduledReadout(busId, 0xfd, secondaryAddress, interval, 0, priority);
+    }
+
+    /**
+     * Creates a single readout of a meter using primary addressing which has to be completed before the given
+     * deadline. Failed attempts are repeated until the deadline has passed.
+     *
+     * @param busId
+     *            the ID of the bus the meter is connected to.
+     * @param primaryAddress
+     *            the primary address of the meter.
+     * @param deadline
+     *            the deadline in milliseconds since epoch.
+     * @param priority
+     *            the priority of the readout. Readouts with a higher value are executed first if several readouts of
+     *            one bus are due.
+     * @return a new single readout.
+     */
+    public static ScheduledReadout newDeadlineReadout(String busId, int primaryAddress, long deadline, int priority) {
+        return new ScheduledReadout(busId, primaryAddress, null, 0, deadline, priority);
+    }
+
+    /**
+     * Creates a single readout of a meter using secondary addressing which has to be completed before the given
+     * deadline. Failed attempts are repeated until the deadline has passed.
+     *
+     * @param busId
+     *            the ID of the bus the meter is connected to.
+     * @param secondaryAddress
+     *            the secondary address of the meter.
+     * @param deadline
+     *            the deadline in milliseconds since epoch.
+     * @param priority
+     *            the priority of the readout. Readouts with a higher value are executed first if several readouts of
+     *            one bus are due.
+     * @return a new single readout.
+     */
+    public static ScheduledReadout newDeadlineReadout(String busId, SecondaryAddress secondaryAddress, long deadline,
+            int priority) {
+        return new ScheduledReadout(busId, 0xfd, secondaryAddress, 0, deadline, priority);
+    }
+
+    private static void checkInterval(long interval) {
+        if (interval <= 0) {
+            throw new IllegalArgumentException("Readout interval must be greater than zero.");
+        }
+    }
+
+    public String getBusId() {
+        return busId;
+    }
+
+    /**
+     * Get the primary address of the meter.
+     *
+     * @return the primary address or 0xfd if the meter is read using secondary addressing.
+     */
+    public int getPrimaryAddress() {
+        return primaryAddress;
+    }
+
+    /**
+     * Get the secondary address of the meter.
+     *
+     * @return the secondary address or {@code null} if the meter is read using primary addressing.
+     */
+    public SecondaryAddress getSecondaryAddress() {
+        return secondaryAddress;
+    }
+
+    /**
+     * Get the readout interval.
+     *
+     * @return the interval in milliseconds or 0 if this is a single readout.
+     */
+    public long getInterval() {
+        return interval;
+    }
+
+    /**
+     * Get the deadline of a single readout.
+     *
+     * @return the deadline in milliseconds since epoch or 0 if this is a cyclic readout.
+     */
+    public long getDeadline() {
+        return deadline;
+    }
+
+    public int getPriority() {
+        return priority;
+    }
+
+    public boolean isCyclic() {
+        return interval > 0;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder().append("bus: ").append(busId).append(", address: ");
+        if (secondaryAddress != null) {
+            builder.append(secondaryAddress);
+        }
+        else {
+            builder.append(primaryAddress);
+        }
+        if (isCyclic()) {
+            builder.append(", interval: ").append(interval).append("ms");
+        }
+        else {
+            builder.append(", deadline: ").append(deadline);
+        }
+        return builder.append(", priority: ").append(priority).toString();
+    }
+
+}
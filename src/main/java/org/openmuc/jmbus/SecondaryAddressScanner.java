@@ -0,0 +1,346 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package org.openmuc.jmbus;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.openmuc.jmbus.MBusMessage.MessageType;
+
+/**
+ * Searches the meters of a bus by their secondary address.
+ * <p>
+ * The scanner selects a wildcard address and reads the selected meter. If several meters answer, the digits of the
+ * identification number are fixed one after another until every meter answers alone. Addresses known from a previous
+ * scan are used to skip selections whose outcome is already known: a branch that holds two or more known meters is
+ * split without selecting it, a branch with one known meter is confirmed by a single selection. Only branches that
+ * turn out to differ from the known addresses are searched further.
+ * </p>
+ * <p>
+ * A scanner keeps no state between scans other than its settings, one scanner per connection can be used for every
+ * scan of that bus. Buses are scanned in parallel by one scanner per connection, see
+ * {@link MBusConnectionPool#scan(String, Collection)}.
+ * </p>
+ */
+public class SecondaryAddressScanner {
+
+    private static final int ID_NIBBLES = 8;
+    private static final int ADDRESS_NIBBLES = 16;
+    private static final int WILDCARD = 0xf;
+
+    private enum ProbeResult {
+        NO_RESPONSE,
+        FOUND,
+        COLLISION
+    }
+
+    private final MBusConnection connection;
+
+    private String wildcardMask = "ffffffff";
+    private Set<SecondaryAddress> knownAddresses = Collections.emptySet();
+    private int collisionRetries = 1;
+    private SecondaryAddressListener listener;
+    private ScanProgressListener progressListener;
+
+    private final List<SecondaryAddress> found = new ArrayList<>();
+    private final List<SecondaryAddress> added = new ArrayList<>();
+    private final List<SecondaryAddress> removed = new ArrayList<>();
+    private int probes;
+    private double progress;
+    private SecondaryAddress lastRead;
+
+    /**
+     * Creates a scanner for the bus of the given connection.
+     *
+     * @param connection
+     *            an open connection.
+     */
+    public SecondaryAddressScanner(MBusConnection connection) {
+        this.connection = connection;
+    }
+
+    /**
+     * Restricts the scan to the identification numbers matching the mask.
+     *
+     * @param wildcardMask
+     *            eight digits of the identification number in the byte order of the long header, 'f' is a
+     *            wildcard. E.g. "ffff3412" scans the identification numbers 1234xxxx. The default is "ffffffff".
+     * @return this scanner.
+     */
+    public SecondaryAddressScanner setWildcardMask(String wildcardMask) {
+        if (wildcardMask == null || wildcardMask.isEmpty()) {
+            wildcardMask = "ffffffff";
+        }
+        if (!wildcardMask.matches("[0-9a-fA-F]{8}")) {
+            throw new IllegalArgumentException(
+                    MessageFormat.format("Wildcard mask must have eight hex digits: {0}", wildcardMask));
+        }
+        this.wildcardMask = wildcardMask;
+        return this;
+    }
+
+    /**
+     * Sets the addresses found by a previous scan of this bus.
+     *
+     * @param knownAddresses
+     *            the known addresses.
+     * @return this scanner.
+     */
+    public SecondaryAddressScanner setKnownAddresses(Collection<SecondaryAddress> knownAddresses) {
+        this.knownAddresses = new LinkedHashSet<>(knownAddresses);
+        return this;
+    }
+
+    /**
+     * Sets how often a meter is read again if its response is garbled. A garbled response after a clean selection
+     * acknowledgement may be a transmission error of a single meter as well as a collision.
+     *
+     * @param collisionRetries
+     *            the number of repeated reads, default is 1.
+     * @return this scanner.
+     */
+    public SecondaryAddressScanner setCollisionRetries(int collisionRetries) {
+        this.collisionRetries = collisionRetries;
+        return this;
+    }
+
+    /**
+     * @param listener
+     *            listener to get scan messages and detected devices, may be <code>null</code>.
+     * @return this scanner.
+     */
+    public SecondaryAddressScanner setListener(SecondaryAddressListener listener) {
+        this.listener = listener;
+        return this;
+    }
+
+    /**
+     * @param progressListener
+     *            listener to get the progress of the scan, may be <code>null</code>.
+     * @return this scanner.
+     */
+    public SecondaryAddressScanner setProgressListener(ScanProgressListener progressListener) {
+        this.progressListener = progressListener;
+        return this;
+    }
+
+    /**
+     * Scans the bus.
+     *
+     * @return the secondary addresses of all detected devices.
+     * @throws IOException
+     *             if writing to the bus fails.
+     */
+    public synchronized List<SecondaryAddress> scan() throws IOException {
+        found.clear();
+        added.clear();
+        removed.clear();
+        probes = 0;
+        progress = 0;
+
+        int[] nibbles = parseMask(wildcardMask);
+        List<SecondaryAddress> known = matching(knownAddresses, nibbles);
+
+        explore(nibbles, 0, 1.0, known);
+
+        for (SecondaryAddress secondaryAddress : found) {
+            if (!knownAddresses.contains(secondaryAddress)) {
+                added.add(secondaryAddress);
+            }
+        }
+        for (SecondaryAddress secondaryAddress : known) {
+            if (!found.contains(secondaryAddress)) {
+                removed.add(secondaryAddress);
+            }
+        }
+        return new ArrayList<>(found);
+    }
+
+    /**
+     * @return the devices found by the last scan which are not among the known addresses.
+     */
+    public synchronized List<SecondaryAddress> getAddedAddresses() {
+        return new ArrayList<>(added);
+    }
+
+    /**
+     * @return the known addresses within the wildcard mask that have not been found by the last scan.
+     */
+    public synchronized List<SecondaryAddress> getRemovedAddresses() {
+        return new ArrayList<>(removed);
+    }
+
+    /**
+     * @return the number of selections sent by the last scan.
+     */
+    public synchronized int getProbes() {
+        return probes;
+    }
+
+    private void explore(int[] nibbles, int position, double weight, List<SecondaryAddress> known)
+            throws IOException {
+        int next = nextWildcard(nibbles, position);
+
+        if (known.size() >= 2 && next >= 0) {
+            notifyScanMsg(MessageFormat.format("split wildcard {0} holding {1} known devices",
+                    HexUtils.bytesToHex(toSendByteArray(nibbles)), known.size()));
+            split(nibbles, next, weight, known);
+            return;
+        }
+
+        ProbeResult result = probe(nibbles);
+        if (result == ProbeResult.COLLISION) {
+            if (next >= 0) {
+                split(nibbles, next, weight, known);
+                return;
+            }
+            notifyScanMsg("Collision of devices with the same identification number.");
+        }
+        else if (result == ProbeResult.FOUND) {
+            deviceFound(lastRead);
+        }
+
+        progress += weight;
+        if (progressListener != null) {
+            progressListener.scanProgress(Math.min(1.0, progress), probes, found.size());
+        }
+    }
+
+    private void split(int[] nibbles, int position, double weight, List<SecondaryAddress> known) throws IOException {
+        for (int digit = 0; digit < 10; digit++) {
+            nibbles[position] = digit;
+            explore(nibbles, position + 1, weight / 10, matching(known, nibbles));
+        }
+        nibbles[position] = WILDCARD;
+    }
+
+    private ProbeResult probe(int[] nibbles) throws IOException {
+        // the selection must not be changed by another thread before the selected meter has been read
+        connection.beginTransaction();
+        try {
+            return selectAndRead(nibbles);
+        } finally {
+            connection.endTransaction();
+        }
+    }
+
+    private ProbeResult selectAndRead(int[] nibbles) throws IOException {
+        byte[] wildcard = toSendByteArray(nibbles);
+        notifyScanMsg(MessageFormat.format("scan with wildcard: {0}", HexUtils.bytesToHex(wildcard)));
+        probes++;
+
+        connection.sendLongMessage(0xfd, 0x53, 0x52, 8, wildcard);
+        try {
+            MBusMessage mBusMessage = connection.receiveMessage();
+            if (mBusMessage.getMessageType() != MessageType.SINGLE_CHARACTER) {
+                return ProbeResult.COLLISION;
+            }
+        } catch (InterruptedIOException e) {
+            return ProbeResult.NO_RESPONSE;
+        } catch (IOException e) {
+            // several acknowledgements overlapped, reading would only confirm the collision
+            if (nextWildcard(nibbles, 0) >= 0) {
+                notifyScanMsg("Select IOException / Collision");
+                return ProbeResult.COLLISION;
+            }
+        }
+
+        // overlapping acknowledgements can look like a single one, so only the read tells
+        for (int attempt = 0;; attempt++) {
+            try {
+                lastRead = connection.requestUserData(0xfd).getSecondaryAddress();
+                if (lastRead == null) {
+                    notifyScanMsg("Problem to decode secondary address. Perhaps a collision.");
+                    return ProbeResult.COLLISION;
+                }
+                return ProbeResult.FOUND;
+            } catch (InterruptedIOException e) {
+                // no meter is selected if the selection matched several meters
+                notifyScanMsg("Read (REQ_UD2) TimeoutException");
+                return ProbeResult.COLLISION;
+            } catch (IOException e) {
+                notifyScanMsg("Read (REQ_UD2) IOException / Collision");
+                if (attempt >= collisionRetries) {
+                    return ProbeResult.COLLISION;
+                }
+            }
+        }
+    }
+
+    private void deviceFound(SecondaryAddress secondaryAddress) {
+        if (found.contains(secondaryAddress)) {
+            return;
+        }
+        notifyScanMsg("Detected Device:\n" + secondaryAddress.toString());
+        found.add(secondaryAddress);
+        if (listener != null) {
+            listener.newDeviceFound(secondaryAddress);
+        }
+    }
+
+    private void notifyScanMsg(String message) {
+        if (listener != null) {
+            listener.newScanMessage(message);
+        }
+    }
+
+    private static int nextWildcard(int[] nibbles, int position) {
+        for (int i = position; i < ID_NIBBLES; i++) {
+            if (nibbles[i] == WILDCARD) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static List<SecondaryAddress> matching(Collection<SecondaryAddress> addresses, int[] nibbles) {
+        List<SecondaryAddress> matching = new ArrayList<>();
+        for (SecondaryAddress secondaryAddress : addresses) {
+            byte[] bytes = secondaryAddress.asByteArray();
+            boolean matches = true;
+            for (int i = 0; i < ID_NIBBLES && matches; i++) {
+                int nibble = i % 2 == 0 ? bytes[i / 2] & 0x0f : (bytes[i / 2] >> 4) & 0x0f;
+                matches = nibbles[i] == WILDCARD || nibbles[i] == nibble;
+            }
+            if (matches) {
+                matching.add(secondaryAddress);
+            }
+        }
+        return matching;
+    }
+
+    /**
+     * Converts the mask to nibbles in the order of the long header, e.g. from 01253fff to 1052f3ff followed by eight
+     * wildcards for manufacturer, version and medium.
+     */
+    private static int[] parseMask(String wildcardMask) {
+        int[] nibbles = new int[ADDRESS_NIBBLES];
+        for (int i = 0; i < ID_NIBBLES; i += 2) {
+            nibbles[i] = Character.digit(wildcardMask.charAt(i + 1), 16);
+            nibbles[i + 1] = Character.digit(wildcardMask.charAt(i), 16);
+        }
+        for (int i = ID_NIBBLES; i < ADDRESS_NIBBLES; i++) {
+            nibbles[i] = WILDCARD;
+        }
+        return nibbles;
+    }
+
+    private static byte[] toSendByteArray(int[] nibbles) {
+        byte[] sendByteArray = new byte[8];
+        for (int i = 0; i < ADDRESS_NIBBLES; i += 2) {
+            sendByteArray[i / 2] = (byte) (nibbles[i + 1] << 4 | nibbles[i]);
+        }
+        return sendByteArray;
+    }
+
+}
@@ -0,0 +1,80 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package org.openmuc.jmbus;
+
+/**
+ * A write (SND_UD) to one meter or to all meters of a bus, see {@link MBusConnection#writeAll(java.util.Collection)}.
+ */
+public class WriteRequest {
+
+    /**
+     * The primary address of a broadcast. All meters of the bus accept the data, none of them answers.
+     */
+    public static final int BROADCAST_ADDRESS = 0xff;
+
+    private final int primaryAddress;
+    private final SecondaryAddress secondaryAddress;
+    private final byte[] data;
+
+    /**
+     * Creates a write using primary addressing.
+     *
+     * @param primaryAddress
+     *            the primary address of the meter or {@link #BROADCAST_ADDRESS}.
+     * @param data
+     *            the data records to send, e.g. {@code 0x01 0x7a 0x09} to set the primary address to 9.
+     */
+    public WriteRequest(int primaryAddress, byte[] data) {
+        this.primaryAddress = primaryAddress;
+        this.secondaryAddress = null;
+        this.data = data == null ? new byte[0] : data;
+    }
+
+    /**
+     * Creates a write using secondary addressing.
+     *
+     * @param secondaryAddress
+     *            the secondary address of the meter.
+     * @param data
+     *            the data records to send.
+     */
+    public WriteRequest(SecondaryAddress secondaryAddress, byte[] data) {
+        this.primaryAddress = 0xfd;
+        this.secondaryAddress = secondaryAddress;
+        this.data = data == null ? new byte[0] : data;
+    }
+
+    /**
+     * @return the primary address, 0xfd for a write using secondary addressing.
+     */
+    public int getPrimaryAddress() {
+        return primaryAddress;
+    }
+
+    /**
+     * @return the secondary address or <code>null</code> for a write using primary addressing.
+     */
+    public SecondaryAddress getSecondaryAddress() {
+        return secondaryAddress;
+    }
+
+    public byte[] getData() {
+        return data;
+    }
+
+    /**
+     * @return <code>true</code> if the write is sent to all meters of the bus.
+     */
+    public boolean isBroadcast() {
+        return secondaryAddress == null && primaryAddress == BROADCAST_ADDRESS;
+    }
+
+    @Override
+    public String toString() {
+        return secondaryAddress != null ? secondaryAddress.toString() : "primary address " + primaryAddress;
+    }
+
+}
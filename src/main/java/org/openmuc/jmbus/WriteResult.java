@@ -0,0 +1,41 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package org.openmuc.jmbus;
+
+import java.io.IOException;
+
+/**
+ * The outcome of one {@link WriteRequest} of a batch.
+ */
+public class WriteResult {
+
+    private final WriteRequest request;
+    private final IOException exception;
+
+    WriteResult(WriteRequest request, IOException exception) {
+        this.request = request;
+        this.exception = exception;
+    }
+
+    public WriteRequest getRequest() {
+        return request;
+    }
+
+    /**
+     * @return <code>true</code> if the meter has acknowledged the write or the broadcast has been sent.
+     */
+    public boolean isSuccessful() {
+        return exception == null;
+    }
+
+    /**
+     * @return the cause of the failure or <code>null</code> if the write was successful.
+     */
+    public IOException getException() {
+        return exception;
+    }
+
+}
@@ -0,0 +1,34 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package org.openmuc.jmbus.transportlayer;
+
+import java.io.IOException;
+
+/**
+ * A transport layer whose baud rate can be changed while it is open, e.g. a serial port.
+ */
+public interface BaudrateSwitchable {
+
+    /**
+     * Get the current baud rate.
+     * 
+     * @return the baud rate.
+     * @throws IOException
+     *             if an I/O error occurs.
+     */
+    int getBaudrate() throws IOException;
+
+    /**
+     * Changes the baud rate. Data written afterwards is sent with the new baud rate.
+     * 
+     * @param baudrate
+     *            the new baud rate.
+     * @throws IOException
+     *             if an I/O error occurs.
+     */
+    void setBaudrate(int baudrate) throws IOException;
+
+}
@@ -6,6 +6,8 @@
 package org.openmuc.jmbus.transportlayer;
 
 import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadFactory;
 
 /**
  * A abstract builder to an active M-Bus connection.
@@ -18,6 +20,8 @@ import java.io.IOException;
 public abstract class Builder<C, B extends Builder<C, B>> {
 
     private int timeout;
+    private ExecutorService executor;
+    private ThreadFactory threadFactory;
 
     protected Builder() {
         this.timeout = 500;
@@ -39,6 +43,48 @@ public abstract class Builder<C, B extends Builder<C, B>> {
         return timeout;
     }
 
+    /**
+     * Set the executor which runs the background tasks of the connection, e.g. asynchronous requests or the receiver of
+     * a wireless connection. The executor may create a new thread per task, e.g. a virtual thread per task executor.
+     * The executor is not shut down when the connection is closed.
+     * <p>
+     * The receiver of a wireless connection is a single task which occupies a thread of the executor until the
+     * connection is closed. Unless a dispatcher with its own executor is set, the messages are delivered to the
+     * listener by further tasks on the same executor, so a bounded executor needs one thread per wireless connection
+     * and at least one more for the delivery, otherwise no message is ever delivered.
+     * </p>
+     * 
+     * @param executor
+     *            the executor or <code>null</code> to let the connection create its own threads.
+     * @return the builder itself.
+     * @see #setThreadFactory(ThreadFactory)
+     */
+    public B setExecutor(ExecutorService executor) {
+        this.executor = executor;
+        return self();
+    }
+
+    /**
+     * Set the thread factory used by the connection to create its own threads. Ignored if an executor has been set.
+     * 
+     * @param threadFactory
+     *            the thread factory or <code>null</code> to use the default thread factory.
+     * @return the builder itself.
+     * @see #setExecutor(ExecutorService)
+     */
+    public B setThreadFactory(ThreadFactory threadFactory) {
+        this.threadFactory = threadFactory;
+        return self();
+    }
+
+    protected ExecutorService getExecutor() {
+        return executor;
+    }
+
+    protected ThreadFactory getThreadFactory() {
+        return threadFactory;
+    }
+
     @SuppressWarnings("unchecked")
     protected B self() {
         return (B) this;
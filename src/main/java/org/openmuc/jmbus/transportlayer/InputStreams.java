@@ -0,0 +1,51 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package org.openmuc.jmbus.transportlayer;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reads from the stream of a transport layer.
+ */
+public class InputStreams {
+
+    /**
+     * Reads the bytes available in the stream, at least one byte.
+     * <p>
+     * Never more than is available is requested: a block read of a serial stream which only implements
+     * <code>read()</code> returns only when the buffer is full or the timeout of the port expires. Requesting at least
+     * one byte waits for the next byte if none is available.
+     * </p>
+     * 
+     * @param is
+     *            the stream.
+     * @param buffer
+     *            the buffer into which the bytes are read.
+     * @param offset
+     *            the offset in the buffer.
+     * @param maxLength
+     *            the maximum number of bytes to read, at least one.
+     * @return the number of bytes read.
+     * @throws EOFException
+     *             if the stream has been closed by the remote side.
+     * @throws IOException
+     *             if the stream fails or times out.
+     */
+    public static int readAvailable(InputStream is, byte[] buffer, int offset, int maxLength) throws IOException {
+        int length = Math.max(1, Math.min(is.available(), maxLength));
+        int read = is.read(buffer, offset, length);
+        if (read < 0) {
+            throw new EOFException("Connection has been closed by the remote side.");
+        }
+        return read;
+    }
+
+    private InputStreams() {
+        // hide it
+    }
+}
@@ -12,7 +12,7 @@ import java.io.IOException;
 import org.openmuc.jrxtx.SerialPort;
 import org.openmuc.jrxtx.SerialPortBuilder;
 
-class SerialLayer implements TransportLayer {
+class SerialLayer implements TransportLayer, BaudrateSwitchable {
     private final SerialPortBuilder serialPortBuilder;
     private final int timeout;
 
@@ -71,4 +71,14 @@ class SerialLayer implements TransportLayer {
         return serialPort.getSerialPortTimeout();
     }
 
+    @Override
+    public int getBaudrate() {
+        return serialPort.getBaudRate();
+    }
+
+    @Override
+    public void setBaudrate(int baudrate) throws IOException {
+        serialPort.setBaudRate(baudrate);
+    }
+
 }
@@ -13,6 +13,7 @@ import java.util.HashMap;
 import java.util.Map;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 
 import org.openmuc.jmbus.SecondaryAddress;
 import org.openmuc.jmbus.transportlayer.TransportLayer;
@@ -21,7 +22,6 @@ abstract class AbstractWMBusConnection implements WMBusConnection {
 
     private static final int ACK = 0x3E;
 
-    protected static final int BUFFER_LENGTH = 1000;
     protected static final int MESSAGE_FRAGEMENT_TIMEOUT = 1000;
 
     private TransportLayer transportLayer;
@@ -32,15 +32,52 @@ abstract class AbstractWMBusConnection implements WMBusConnection {
     final Map<SecondaryAddress, byte[]> keyMap = new HashMap<>();
 
     private volatile boolean closed;
-    private final ExecutorService receiverService;
-
-    protected AbstractWMBusConnection(WMBusMode mode, WMBusListener listener, TransportLayer tl) {
+    private final ExecutorService executor;
+    private final boolean ownsExecutor;
+    private WMBusDispatcher dispatcher;
+    private DispatchQueue listenerQueue;
+    private WMBusReceiverGroup receiverGroup;
+    private String receiverId;
+    private WMBusAddressFilter addressFilter;
+    private ReceptionStatistics receptionStatistics;
+    private WMBusFrameFormat frameFormat = WMBusFrameFormat.A;
+
+    protected AbstractWMBusConnection(WMBusMode mode, WMBusListener listener, TransportLayer tl,
+            ExecutorService executor, ThreadFactory threadFactory) {
         this.listener = listener;
         this.mode = mode;
         this.transportLayer = tl;
 
         this.closed = true;
-        this.receiverService = Executors.newSingleThreadExecutor();
+        if (executor != null) {
+            this.executor = executor;
+            this.ownsExecutor = false;
+        }
+        else {
+            this.executor = Executors
+                    .newCachedThreadPool(threadFactory != null ? threadFactory : Executors.defaultThreadFactory());
+            this.ownsExecutor = true;
+        }
+        this.dispatcher = new WMBusDispatcher(this.executor);
+    }
+
+    void setReceiverGroup(WMBusReceiverGroup receiverGroup, String receiverId) {
+        this.receiverGroup = receiverGroup;
+        this.receiverId = receiverId;
+    }
+
+    WMBusReceiverGroup getReceiverGroup() {
+        return receiverGroup;
+    }
+
+    String getReceiverId() {
+        return receiverId;
+    }
+
+    void setDispatcher(WMBusDispatcher dispatcher) {
+        if (dispatcher != null) {
+            this.dispatcher = dispatcher;
+        }
     }
 
     @Override
@@ -51,7 +88,9 @@ abstract class AbstractWMBusConnection implements WMBusConnection {
         }
 
         try {
-            this.receiverService.shutdown();
+            if (ownsExecutor) {
+                this.executor.shutdown();
+            }
             this.transportLayer.close();
         } finally {
             this.transportLayer = null;
@@ -83,7 +122,8 @@ abstract class AbstractWMBusConnection implements WMBusConnection {
 
             throw e;
         }
-        this.receiverService.execute(newMessageReceiver(this.transportLayer, this.listener));
+        this.listenerQueue = dispatcher.newQueue(this.listener);
+        this.executor.execute(newMessageReceiver(this.transportLayer, this.listener));
 
         this.closed = false;
     }
@@ -92,6 +132,51 @@ abstract class AbstractWMBusConnection implements WMBusConnection {
 
     protected abstract void initializeWirelessTransceiver(WMBusMode mode) throws IOException;
 
+    void setAddressFilter(WMBusAddressFilter addressFilter) {
+        this.addressFilter = addressFilter;
+    }
+
+    WMBusAddressFilter getAddressFilter() {
+        return addressFilter;
+    }
+
+    void setFrameFormat(WMBusFrameFormat frameFormat) {
+        if (frameFormat != null) {
+            this.frameFormat = frameFormat;
+        }
+    }
+
+    /**
+     * @return the frame format the transceiver is configured for in C mode.
+     */
+    protected WMBusFrameFormat getFrameFormat() {
+        return frameFormat;
+    }
+
+    /**
+     * @return <code>true</code> if the transceiver passes the frames with their CRCs, which is the case for frames in
+     *         format B.
+     */
+    boolean framesCarryCrcs() {
+        return mode == WMBusMode.C && frameFormat == WMBusFrameFormat.B;
+    }
+
+    void setReceptionStatistics(ReceptionStatistics receptionStatistics) {
+        this.receptionStatistics = receptionStatistics;
+    }
+
+    ReceptionStatistics getReceptionStatistics() {
+        return receptionStatistics;
+    }
+
+    WMBusListener getListener() {
+        return listener;
+    }
+
+    DispatchQueue getListenerQueue() {
+        return listenerQueue;
+    }
+
     protected boolean isClosed() {
         return closed;
     }
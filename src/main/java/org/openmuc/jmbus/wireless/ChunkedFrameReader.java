@@ -0,0 +1,99 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package org.openmuc.jmbus.wireless;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.Arrays;
+
+import org.openmuc.jmbus.transportlayer.InputStreams;
+
+/**
+ * The reusable buffer of a transceiver stream, which is read in chunks of the bytes available and split into frames
+ * by the subclass. Bytes which are not part of a frame are collected as noise.
+ */
+abstract class ChunkedFrameReader {
+
+    // the largest frame with the framing of the transceiver, and the beginning of the next one
+    private static final int BUFFER_SIZE = 1024;
+
+    private final InputStream is;
+    private final long fragmentTimeout;
+
+    final byte[] buffer = new byte[BUFFER_SIZE];
+    int start = 0;
+    int end = 0;
+    private long lastDataTime;
+
+    private byte[] discarded;
+
+    /**
+     * @param is
+     *            the stream of the transceiver, whose read timeout is the poll interval of the reader.
+     * @param fragmentTimeout
+     *            the time in milliseconds after which an incomplete frame is dropped.
+     */
+    ChunkedFrameReader(InputStream is, long fragmentTimeout) {
+        this.is = is;
+        this.fragmentTimeout = fragmentTimeout;
+    }
+
+    /**
+     * @return the time in milliseconds since the epoch at which the last chunk has been read.
+     */
+    long getLastDataTime() {
+        return lastDataTime;
+    }
+
+    /**
+     * @return the bytes dropped since the last call or <code>null</code> if none.
+     */
+    byte[] takeDiscarded() {
+        byte[] result = discarded;
+        discarded = null;
+        return result;
+    }
+
+    /**
+     * Reads the next chunk. Waits for one poll interval of the stream at most.
+     * 
+     * @return <code>false</code> if the stream has timed out. A frame not completed within the fragment timeout has
+     *         then been dropped as noise.
+     * @throws IOException
+     *             if the stream fails.
+     */
+    boolean fill() throws IOException {
+        if (end == buffer.length) {
+            System.arraycopy(buffer, start, buffer, 0, end - start);
+            end -= start;
+            start = 0;
+        }
+        try {
+            end += InputStreams.readAvailable(is, buffer, end, buffer.length - end);
+        } catch (InterruptedIOException e) {
+            if (start < end && System.currentTimeMillis() - lastDataTime >= fragmentTimeout) {
+                // the rest of the frame is lost
+                addNoise(start, end - start);
+                start = end = 0;
+            }
+            return false;
+        }
+        lastDataTime = System.currentTimeMillis();
+        return true;
+    }
+
+    void addNoise(int offset, int length) {
+        if (discarded == null) {
+            discarded = Arrays.copyOfRange(buffer, offset, offset + length);
+            return;
+        }
+        byte[] merged = Arrays.copyOf(discarded, discarded.length + length);
+        System.arraycopy(buffer, offset, merged, discarded.length, length);
+        discarded = merged;
+    }
+
+}
@@ -0,0 +1,235 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package org.openmuc.jmbus.wireless;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.openmuc.jmbus.wireless.WMBusDispatcher.OverflowPolicy;
+
+/**
+ * The ring buffer of one connection. Holds received messages, raw frames and discarded bytes until the dispatcher
+ * delivers them.
+ * <p>
+ * The queue is its own delivery task, so queueing a message allocates nothing but the ring slot. An exception thrown
+ * by the listener is passed to the uncaught exception handler of the delivering thread and does not affect the
+ * delivery of the other messages.
+ * </p>
+ */
+class DispatchQueue implements Runnable {
+
+    private final WMBusDispatcher dispatcher;
+    private final WMBusListener listener;
+    private final OverflowPolicy overflowPolicy;
+
+    private final Object[] ring;
+    private int head;
+    private int size;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notFull = lock.newCondition();
+
+    // a delivery task is scheduled or running, at most one per queue so the order is kept
+    private boolean scheduled;
+    private IOException stopCause;
+    private boolean stopNotified;
+
+    DispatchQueue(WMBusDispatcher dispatcher, WMBusListener listener, int capacity, OverflowPolicy overflowPolicy) {
+        this.dispatcher = dispatcher;
+        this.listener = listener;
+        this.overflowPolicy = overflowPolicy;
+        this.ring = new Object[capacity];
+    }
+
+    void offerMessage(WMBusMessage message) {
+        offer(message);
+    }
+
+    void offerRawFrame(WMBusRawFrame frame) {
+        offer(frame);
+    }
+
+    void offerDiscarded(byte[] discardedBytes) {
+        offer(discardedBytes);
+    }
+
+    /**
+     * Queues the end of the connection. It is never dropped and delivered after all queued messages.
+     */
+    void stop(IOException cause) {
+        boolean schedule;
+        lock.lock();
+        try {
+            stopCause = cause;
+            schedule = !scheduled;
+            scheduled = true;
+        } finally {
+            lock.unlock();
+        }
+        if (schedule) {
+            schedule();
+        }
+    }
+
+    private void offer(Object event) {
+        boolean schedule;
+        lock.lock();
+        try {
+            while (size == ring.length) {
+                switch (overflowPolicy) {
+                case BLOCK:
+                    dispatcher.blocked();
+                    try {
+                        notFull.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        dispatcher.dropped();
+                        return;
+                    }
+                    break;
+                case DROP_OLDEST:
+                    ring[head] = null;
+                    head = (head + 1) % ring.length;
+                    size--;
+                    dispatcher.dropped();
+                    break;
+                case DROP_NEWEST:
+                default:
+                    dispatcher.dropped();
+                    return;
+                }
+            }
+            ring[(head + size) % ring.length] = event;
+            size++;
+
+            schedule = !scheduled;
+            scheduled = true;
+        } finally {
+            lock.unlock();
+        }
+        if (schedule) {
+            schedule();
+        }
+    }
+
+    private void schedule() {
+        try {
+            dispatcher.getExecutor().execute(this);
+        } catch (RejectedExecutionException e) {
+            // the connection has been closed in the meantime
+            lock.lock();
+            try {
+                scheduled = false;
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    @Override
+    public void run() {
+        List<Object> batch;
+        IOException stopped = null;
+
+        lock.lock();
+        try {
+            batch = new ArrayList<>(Math.min(size, dispatcher.getMaxBatchSize()));
+            while (size > 0 && batch.size() < dispatcher.getMaxBatchSize()) {
+                batch.add(ring[head]);
+                ring[head] = null;
+                head = (head + 1) % ring.length;
+                size--;
+            }
+            if (size == 0 && stopCause != null && !stopNotified) {
+                stopped = stopCause;
+                stopNotified = true;
+            }
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+
+        try {
+            deliver(batch);
+        } finally {
+            if (stopped != null) {
+                try {
+                    listener.stoppedListening(stopped);
+                } catch (RuntimeException e) {
+                    listenerFailed(e);
+                }
+            }
+
+            // one batch per turn, queues sharing the executor are served in turn
+            boolean schedule;
+            lock.lock();
+            try {
+                schedule = size > 0 || stopCause != null && !stopNotified;
+                scheduled = schedule;
+            } finally {
+                lock.unlock();
+            }
+            if (schedule) {
+                schedule();
+            }
+        }
+    }
+
+    private void deliver(List<Object> batch) {
+        List<WMBusMessage> messages = new ArrayList<>(batch.size());
+        for (Object event : batch) {
+            if (event instanceof WMBusMessage) {
+                messages.add((WMBusMessage) event);
+                continue;
+            }
+            deliverMessages(messages);
+            messages = new ArrayList<>(batch.size());
+            try {
+                if (event instanceof WMBusRawFrame) {
+                    ((WMBusRawListener) listener).newRawFrame((WMBusRawFrame) event);
+                }
+                else {
+                    listener.discardedBytes((byte[]) event);
+                }
+            } catch (RuntimeException e) {
+                listenerFailed(e);
+            }
+        }
+        deliverMessages(messages);
+        dispatcher.delivered(batch.size());
+    }
+
+    private void deliverMessages(List<WMBusMessage> messages) {
+        if (messages.isEmpty()) {
+            return;
+        }
+        if (listener instanceof WMBusBatchListener) {
+            try {
+                ((WMBusBatchListener) listener).newMessages(messages);
+            } catch (RuntimeException e) {
+                listenerFailed(e);
+            }
+            return;
+        }
+        for (WMBusMessage message : messages) {
+            try {
+                listener.newMessage(message);
+            } catch (RuntimeException e) {
+                listenerFailed(e);
+            }
+        }
+    }
+
+    private static void listenerFailed(RuntimeException e) {
+        Thread thread = Thread.currentThread();
+        thread.getUncaughtExceptionHandler().uncaughtException(thread, e);
+    }
+
+}
@@ -0,0 +1,86 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package org.openmuc.jmbus.wireless;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.openmuc.jmbus.wireless.WMBusConnectionImst.Const;
+
+/**
+ * Splits the byte stream of an IMST module into HCI messages.
+ * <p>
+ * The stream is read in chunks of the bytes available into a reusable buffer, so a single read returns all messages
+ * the module has sent meanwhile, which are then decoded from memory. Bytes in front of a start of frame are collected
+ * as noise. A message whose FCS does not match or that is not completed within the fragment timeout after its last
+ * byte is dropped as noise as well.
+ * </p>
+ */
+class HciFrameReader extends ChunkedFrameReader {
+
+    /**
+     * @param is
+     *            the stream of the module, whose read timeout is the poll interval of the reader.
+     * @param fragmentTimeout
+     *            the time in milliseconds after which an incomplete message is dropped.
+     */
+    HciFrameReader(InputStream is, long fragmentTimeout) {
+        super(is, fragmentTimeout);
+    }
+
+    /**
+     * Reads the next message. Waits for one poll interval of the stream at most if no message is complete.
+     *
+     * @return the message or <code>null</code> if no message has been completed. Bytes that have been dropped
+     *         meanwhile are available through {@link #takeDiscarded()}.
+     * @throws IOException
+     *             if the stream fails.
+     */
+    HciMessage readMessage() throws IOException {
+        HciMessage message = nextBufferedMessage();
+        if (message != null) {
+            return message;
+        }
+
+        if (!fill()) {
+            return null;
+        }
+        return nextBufferedMessage();
+    }
+
+    private HciMessage nextBufferedMessage() {
+        int i = start;
+        while (i < end && buffer[i] != Const.START_OF_FRAME) {
+            i++;
+        }
+        if (i > start) {
+            addNoise(start, i - start);
+            start = i;
+        }
+        if (end - start < Const.HCI_HEADER_LENGTH) {
+            return null;
+        }
+
+        int messageLength = HciMessage.messageLength(buffer, start);
+        if (end - start < messageLength) {
+            return null;
+        }
+
+        HciMessage message = null;
+        if (HciMessage.checkFcs(buffer, start, messageLength)) {
+            message = HciMessage.decode(buffer, start);
+        }
+        else {
+            addNoise(start, messageLength);
+        }
+        start += messageLength;
+        if (start == end) {
+            start = end = 0;
+        }
+        return message;
+    }
+
+}
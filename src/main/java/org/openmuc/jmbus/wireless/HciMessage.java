@@ -0,0 +1,201 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package org.openmuc.jmbus.wireless;
+
+import org.openmuc.jmbus.HexUtils;
+import org.openmuc.jmbus.wireless.WMBusConnectionImst.Const;
+
+/**
+ * <li><tt>HCI Message</tt>
+ * <ul>
+ * <li>StartOfFrame 8 Bit: 0xA5
+ * <li>MsgHeader 24 Bit:
+ * <ul>
+ * <li>ControlField 4 Bit:
+ * <ul>
+ * <li>0000b Reserved
+ * <li>0010b Time Stamp Field attached
+ * <li>0100b RSSI Field attached
+ * <li>1000b CRC16 Field attached
+ * </ul>
+ * <li>EndPoint ID 4 Bit: Identifies a logical message endpoint which groups several messages.
+ * <li>Msg ID Field 8 Bit: Identifies the message type.
+ * <li>LengthFiled 8 Bit: Number of bytes in the payload. If null no payload.
+ * </ul>
+ * <li>PayloadField n * 8 Bit: wMBus Message
+ * <li>Time Stamp (optional): 32 Bit Timestamp of the RTC
+ * <li>RSSI (optional) 8 Bit: Receive Signal Strength Indicator
+ * <li>FCS (optional) 16 Bit: CRC from Control Field up to last byte of Payload, Time Stamp or RSSI Field.</li>
+ * </ul>
+ *
+ */
+class HciMessage {
+
+    private final byte controlField;
+    private final byte endpointID;
+    private final byte msgId;
+    private final int length;
+
+    private final byte[] payload;
+    private final long timeStamp;
+    private final int rSSI;
+    private final int fCS;
+
+    private HciMessage(byte controlField, byte endpointID, byte msgId, int length, byte[] payload, long timeStamp,
+            int rSSI, int fCS) {
+        this.controlField = controlField;
+        this.endpointID = endpointID;
+        this.msgId = msgId;
+        this.length = length;
+        this.payload = payload;
+        this.timeStamp = timeStamp;
+        this.rSSI = rSSI;
+        this.fCS = fCS;
+    }
+
+    /**
+     * @param header
+     *            the start of frame and the message header.
+     * @param offset
+     *            the position of the start of frame.
+     * @return the number of bytes of the message including the start of frame and the optional trailing fields.
+     */
+    static int messageLength(byte[] header, int offset) {
+        byte controlField = (byte) ((header[offset + 1] >> 4) & 0x0F);
+        int length = Const.HCI_HEADER_LENGTH + (header[offset + 3] & 0xff);
+        if ((controlField & Const.TIMESTAMP_ATTACHED) == Const.TIMESTAMP_ATTACHED) {
+            length += 4;
+        }
+        if ((controlField & Const.RSSI_ATTACHED) == Const.RSSI_ATTACHED) {
+            length += 1;
+        }
+        if ((controlField & Const.CRC16_ATTACHED) == Const.CRC16_ATTACHED) {
+            length += 2;
+        }
+        return length;
+    }
+
+    /**
+     * Checks the FCS of a complete message, which is the CRC-16/CCITT of the control field up to the last byte before
+     * the FCS, sent with the low byte first.
+     *
+     * @param buffer
+     *            the buffer holding the message.
+     * @param offset
+     *            the position of the start of frame.
+     * @param messageLength
+     *            the length of the message, see {@link #messageLength(byte[], int)}.
+     * @return <code>true</code> if the FCS matches or no FCS is attached.
+     */
+    static boolean checkFcs(byte[] buffer, int offset, int messageLength) {
+        byte controlField = (byte) ((buffer[offset + 1] >> 4) & 0x0F);
+        if ((controlField & Const.CRC16_ATTACHED) != Const.CRC16_ATTACHED) {
+            return true;
+        }
+        int fcsOffset = offset + messageLength - 2;
+        int fcs = buffer[fcsOffset] & 0xff | (buffer[fcsOffset + 1] & 0xff) << 8;
+        return crc16(buffer, offset + 1, fcsOffset) == fcs;
+    }
+
+    /**
+     * @return the CRC-16/CCITT (X.25) of the bytes from <code>from</code> inclusive to <code>to</code> exclusive.
+     */
+    static int crc16(byte[] buffer, int from, int to) {
+        int crc = 0xffff;
+        for (int i = from; i < to; i++) {
+            crc ^= buffer[i] & 0xff;
+            for (int j = 0; j < 8; j++) {
+                crc = (crc & 1) != 0 ? (crc >>> 1) ^ 0x8408 : crc >>> 1;
+            }
+        }
+        return ~crc & 0xffff;
+    }
+
+    /**
+     * Decodes a complete message, see {@link #messageLength(byte[], int)}.
+     */
+    static HciMessage decode(byte[] buffer, int offset) {
+        byte b1 = buffer[offset + 1];
+        byte controlField = (byte) ((b1 >> 4) & 0x0F);
+        byte endpointId = (byte) (b1 & 0x0F);
+
+        byte msgId = buffer[offset + 2];
+        int length = buffer[offset + 3] & 0xff;
+        int i = offset + Const.HCI_HEADER_LENGTH;
+
+        // the payload is preceded by its length, which is the length field of the wireless M-Bus frame
+        byte[] payload = new byte[length + 1];
+        payload[0] = (byte) length;
+        System.arraycopy(buffer, i, payload, 1, length);
+        i += length;
+
+        long timeStamp = -1;
+        if ((controlField & Const.TIMESTAMP_ATTACHED) == Const.TIMESTAMP_ATTACHED) {
+            timeStamp = (buffer[i] & 0xffL) << 24 | (buffer[i + 1] & 0xff) << 16 | (buffer[i + 2] & 0xff) << 8
+                    | buffer[i + 3] & 0xff;
+            i += 4;
+        }
+
+        int rSSI = 0;
+        if ((controlField & Const.RSSI_ATTACHED) == Const.RSSI_ATTACHED) {
+            double b = -100.0 - (4000.0 / 150.0);
+            double m = 80.0 / 150.0;
+            rSSI = (int) (m * (buffer[i] & 0xff) + b);
+            i += 1;
+        }
+
+        int fCS = 0;
+        if ((controlField & Const.CRC16_ATTACHED) == Const.CRC16_ATTACHED) {
+            fCS = buffer[i] & 0xff | (buffer[i + 1] & 0xff) << 8;
+        }
+
+        return new HciMessage(controlField, endpointId, msgId, length, payload, timeStamp, rSSI, fCS);
+    }
+
+    @Override
+    public String toString() {
+        return new StringBuilder().append("Control Field: ")
+                .append(byteAsHexString(controlField))
+                .append("\nEndpointID:    ")
+                .append(byteAsHexString(endpointID))
+                .append("\nMsg ID:        ")
+                .append(byteAsHexString(msgId))
+                .append("\nLength:        ")
+                .append(length)
+                .append("\nTimestamp:     ")
+                .append(timeStamp)
+                .append("\nRSSI:          ")
+                .append(rSSI)
+                .append("\nFCS:           ")
+                .append(fCS)
+                .append("\nPayload:\n")
+                .append(HexUtils.bytesToHex(payload))
+                .toString();
+    }
+
+    private static String byteAsHexString(byte b) {
+        return String.format("%02X", b);
+    }
+
+    /**
+     * @return the payload preceded by its length.
+     */
+    public byte[] getPayload() {
+        return payload;
+    }
+
+    public int getRSSI() {
+        return rSSI;
+    }
+
+    /**
+     * @return the unsigned RTC value of the module at the time of reception or -1 if no time stamp is attached.
+     */
+    public long getTimeStamp() {
+        return timeStamp;
+    }
+
+}
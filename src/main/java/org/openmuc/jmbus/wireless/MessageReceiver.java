@@ -6,48 +6,97 @@
 package org.openmuc.jmbus.wireless;
 
 import java.io.IOException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.Collections;
+
+import org.openmuc.jmbus.DecodingException;
 
 abstract class MessageReceiver implements Runnable {
 
-    private final ExecutorService executor;
-    private final WMBusListener listener;
+    private final AbstractWMBusConnection connection;
+    private final DispatchQueue queue;
+    private final boolean rawListener;
 
-    public MessageReceiver(WMBusListener listener) {
-        this.listener = listener;
-        this.executor = Executors.newSingleThreadExecutor();
+    public MessageReceiver(AbstractWMBusConnection connection) {
+        this.connection = connection;
+        this.queue = connection.getListenerQueue();
+        this.rawListener = connection.getListener() instanceof WMBusRawListener;
     }
 
-    protected void shutdown() {
-        this.executor.shutdown();
+    protected void notifyStoppedListening(final IOException ioException) {
+        queue.stop(ioException);
     }
 
-    protected void notifyStoppedListening(final IOException ioException) {
-        executor.execute(new Runnable() {
-            @Override
-            public void run() {
-                listener.stoppedListening(ioException);
-            }
-        });
+    /**
+     * Removes the CRCs of a frame in format B and passes a received message which passes the address filter to the
+     * receiver group of the connection, which delivers it once for all receivers of the group, or queues it undecoded
+     * for a raw listener, or decodes it and queues it for the listener.
+     */
+    protected void notifyNewMessage(byte[] buffer, Integer signalStrengthInDBm) {
+        notifyNewMessage(buffer, signalStrengthInDBm, System.currentTimeMillis());
+    }
+
+    /**
+     * @param receiveTime
+     *            the time the message has been received in milliseconds since the epoch.
+     */
+    protected void notifyNewMessage(byte[] buffer, Integer signalStrengthInDBm, long receiveTime) {
+        notifyNewMessage(buffer, signalStrengthInDBm, receiveTime, -1);
     }
 
-    protected void notifyNewMessage(final WMBusMessage wmBusMessage) {
-        executor.execute(new Runnable() {
-            @Override
-            public void run() {
-                listener.newMessage(wmBusMessage);
+    /**
+     * @param receiveTime
+     *            the time the message has been received in milliseconds since the epoch, converted from the time stamp
+     *            of the transceiver if it attaches one.
+     * @param transceiverTimestamp
+     *            the time stamp the transceiver has attached or -1 if none.
+     */
+    protected void notifyNewMessage(byte[] buffer, Integer signalStrengthInDBm, long receiveTime,
+            long transceiverTimestamp) {
+        if (connection.framesCarryCrcs()) {
+            try {
+                buffer = WMBusFrameFormat.B.removeCrcs(buffer);
+            } catch (DecodingException e) {
+                queue.offerDiscarded(buffer);
+                return;
             }
-        });
+        }
 
+        WMBusAddressFilter addressFilter = connection.getAddressFilter();
+        if (addressFilter != null && !addressFilter.accept(buffer, 2)) {
+            return;
+        }
+
+        ReceptionStatistics receptionStatistics = connection.getReceptionStatistics();
+        if (receptionStatistics != null) {
+            receptionStatistics.frameReceived(buffer, signalStrengthInDBm, receiveTime, connection.getReceiverId());
+        }
+
+        WMBusReceiverGroup receiverGroup = connection.getReceiverGroup();
+        if (receiverGroup != null) {
+            // a raw listener of the group gets the frame undecoded from the group
+            receiverGroup.messageReceived(connection.getReceiverId(), buffer, signalStrengthInDBm, receiveTime,
+                    transceiverTimestamp, connection.keyMap);
+            return;
+        }
+
+        if (rawListener) {
+            queue.offerRawFrame(
+                    new WMBusRawFrame(buffer, signalStrengthInDBm, receiveTime, connection.getReceiverId()));
+            return;
+        }
+
+        try {
+            queue.offerMessage(WMBusMessage.decode(buffer, signalStrengthInDBm, receiveTime, transceiverTimestamp,
+                    connection.keyMap, Collections.<String>emptyList()));
+        } catch (DecodingException e) {
+            if (receptionStatistics != null) {
+                receptionStatistics.decodingFailed(buffer, connection.getReceiverId());
+            }
+            queue.offerDiscarded(buffer);
+        }
     }
 
     protected void notifyDiscarded(final byte[] discardedBytes) {
-        executor.execute(new Runnable() {
-            @Override
-            public void run() {
-                listener.discardedBytes(discardedBytes);
-            }
-        });
+        queue.offerDiscarded(discardedBytes);
     }
 }
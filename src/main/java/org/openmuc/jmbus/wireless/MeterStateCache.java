@@ -0,0 +1,395 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package org.openmuc.jmbus.wireless;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.openmuc.jmbus.DataRecord;
+import org.openmuc.jmbus.DataRecord.Description;
+import org.openmuc.jmbus.DecodingException;
+import org.openmuc.jmbus.DeviceType;
+import org.openmuc.jmbus.DlmsUnit;
+import org.openmuc.jmbus.SecondaryAddress;
+
+import com.google.common.collect.AbstractIterator;
+
+/**
+ * Keeps the latest readings of every meter heard by one or more wireless connections.
+ * <p>
+ * The cache is the listener of the connections, or is fed by the application listener through
+ * {@link #update(WMBusMessage)}. Messages are passed on to the listener set with {@link #setListener(WMBusListener)}
+ * afterwards. For every meter the cache holds an immutable {@link MeterState} with the last readings of its numeric
+ * data records as primitive values. A new message replaces the state of its meter by compare-and-set, so queries never
+ * block the receivers and the receivers never block each other. The states returned by queries are the cached
+ * instances and the bulk queries are live views of the cache, nothing is copied.
+ * </p>
+ */
+public class MeterStateCache implements WMBusListener {
+
+    private final int depth;
+    private final ConcurrentMap<SecondaryAddress, MeterState> states = new ConcurrentHashMap<>();
+
+    private volatile WMBusListener listener;
+
+    /**
+     * The readings of one meter, the latest at index 0. The values of each reading are in the order of the data
+     * records of the messages, data records that are not numbers are {@link Double#NaN}. If the meter changes the
+     * layout of its data records, the older readings are dropped.
+     */
+    public static final class MeterState {
+
+        private final SecondaryAddress secondaryAddress;
+        private final Description[] descriptions;
+        private final DlmsUnit[] units;
+        private final long[] receiveTimes;
+        private final int[] rssis;
+        private final double[] values;
+        private final long telegrams;
+        private final long lastHeard;
+        private final int lastRssi;
+
+        private MeterState(SecondaryAddress secondaryAddress, Description[] descriptions, DlmsUnit[] units,
+                long[] receiveTimes, int[] rssis, double[] values, long telegrams, long lastHeard, int lastRssi) {
+            this.secondaryAddress = secondaryAddress;
+            this.descriptions = descriptions;
+            this.units = units;
+            this.receiveTimes = receiveTimes;
+            this.rssis = rssis;
+            this.values = values;
+            this.telegrams = telegrams;
+            this.lastHeard = lastHeard;
+            this.lastRssi = lastRssi;
+        }
+
+        private MeterState withReading(Description[] descriptions, DlmsUnit[] units, long receiveTime, int rssi,
+                double[] reading, int depth) {
+            boolean sameLayout = Arrays.equals(this.descriptions, descriptions) && Arrays.equals(this.units, units);
+            int kept = sameLayout ? Math.min(receiveTimes.length, depth - 1) : 0;
+
+            long[] newReceiveTimes = new long[kept + 1];
+            int[] newRssis = new int[kept + 1];
+            double[] newValues = new double[(kept + 1) * reading.length];
+            newReceiveTimes[0] = receiveTime;
+            newRssis[0] = rssi;
+            System.arraycopy(reading, 0, newValues, 0, reading.length);
+            System.arraycopy(receiveTimes, 0, newReceiveTimes, 1, kept);
+            System.arraycopy(rssis, 0, newRssis, 1, kept);
+            System.arraycopy(values, 0, newValues, reading.length, kept * reading.length);
+
+            return new MeterState(secondaryAddress, sameLayout ? this.descriptions : descriptions,
+                    sameLayout ? this.units : units, newReceiveTimes, newRssis, newValues, telegrams + 1, receiveTime,
+                    rssi);
+        }
+
+        private MeterState heard(long receiveTime, int rssi) {
+            return new MeterState(secondaryAddress, descriptions, units, receiveTimes, rssis, values, telegrams + 1,
+                    receiveTime, rssi);
+        }
+
+        public SecondaryAddress getSecondaryAddress() {
+            return secondaryAddress;
+        }
+
+        /**
+         * @return the number of messages of the meter received since it has been added to the cache.
+         */
+        public long getTelegrams() {
+            return telegrams;
+        }
+
+        /**
+         * @return the number of readings held, at least one and at most the depth of the cache.
+         */
+        public int getReadings() {
+            return receiveTimes.length;
+        }
+
+        /**
+         * @return the number of values of each reading.
+         */
+        public int getRecords() {
+            return descriptions.length;
+        }
+
+        /**
+         * @param record
+         *            the index of the value within a reading.
+         * @return the description of the data record.
+         */
+        public Description getDescription(int record) {
+            return descriptions[record];
+        }
+
+        /**
+         * @param record
+         *            the index of the value within a reading.
+         * @return the unit of the data record, may be <code>null</code>.
+         */
+        public DlmsUnit getUnit(int record) {
+            return units[record];
+        }
+
+        /**
+         * @return the receive time of the latest message of the meter in milliseconds since the epoch, including
+         *         messages that could not be decoded and therefore have not added a reading.
+         */
+        public long getLastSeen() {
+            return lastHeard;
+        }
+
+        /**
+         * @return the RSSI of the latest message of the meter in dBm or {@link Integer#MIN_VALUE} if the transceiver
+         *         does not report it, see {@link #getLastSeen()}.
+         */
+        public int getLastRssi() {
+            return lastRssi;
+        }
+
+        /**
+         * @param reading
+         *            the index of the reading, 0 is the latest.
+         * @return the receive time in milliseconds since the epoch.
+         */
+        public long getReceiveTime(int reading) {
+            return receiveTimes[reading];
+        }
+
+        /**
+         * @param reading
+         *            the index of the reading, 0 is the latest.
+         * @return the RSSI in dBm or {@link Integer#MIN_VALUE} if the transceiver does not report it.
+         */
+        public int getRssi(int reading) {
+            return rssis[reading];
+        }
+
+        /**
+         * @param reading
+         *            the index of the reading, 0 is the latest.
+         * @param record
+         *            the index of the value within the reading.
+         * @return the scaled value or {@link Double#NaN} if the data record is not a number.
+         */
+        public double getValue(int reading, int record) {
+            return values[reading * descriptions.length + record];
+        }
+
+        /**
+         * @param description
+         *            the description of a data record.
+         * @return the index of the first data record with that description or -1 if there is none.
+         */
+        public int indexOf(Description description) {
+            for (int i = 0; i < descriptions.length; i++) {
+                if (descriptions[i] == description) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+    }
+
+    /**
+     * Iterates over the states of the cache that match a condition, each time the view is iterated.
+     */
+    private abstract class FilteredView implements Iterable<MeterState> {
+
+        abstract boolean accept(MeterState state);
+
+        @Override
+        public Iterator<MeterState> iterator() {
+            final Iterator<MeterState> iterator = states.values().iterator();
+            return new AbstractIterator<MeterState>() {
+                @Override
+                protected MeterState computeNext() {
+                    while (iterator.hasNext()) {
+                        MeterState state = iterator.next();
+                        if (accept(state)) {
+                            return state;
+                        }
+                    }
+                    return endOfData();
+                }
+            };
+        }
+    }
+
+    /**
+     * Creates a cache holding the latest reading of every meter.
+     */
+    public MeterStateCache() {
+        this(1);
+    }
+
+    /**
+     * @param depth
+     *            the number of readings held per meter.
+     */
+    public MeterStateCache(int depth) {
+        if (depth < 1) {
+            throw new IllegalArgumentException("The depth must be at least 1.");
+        }
+        this.depth = depth;
+    }
+
+    /**
+     * @param listener
+     *            the listener the messages are passed to after the cache has been updated, may be <code>null</code>.
+     * @return this cache.
+     */
+    public MeterStateCache setListener(WMBusListener listener) {
+        this.listener = listener;
+        return this;
+    }
+
+    @Override
+    public void newMessage(WMBusMessage message) {
+        update(message);
+
+        WMBusListener listener = this.listener;
+        if (listener != null) {
+            listener.newMessage(message);
+        }
+    }
+
+    @Override
+    public void discardedBytes(byte[] bytes) {
+        WMBusListener listener = this.listener;
+        if (listener != null) {
+            listener.discardedBytes(bytes);
+        }
+    }
+
+    @Override
+    public void stoppedListening(IOException cause) {
+        WMBusListener listener = this.listener;
+        if (listener != null) {
+            listener.stoppedListening(cause);
+        }
+    }
+
+    /**
+     * Adds a message to the state of its meter. The variable data structure of the message is decoded if it has not
+     * been. A message that cannot be decoded, e.g. because its key is missing, only updates the time and RSSI the
+     * meter has last been heard with, the readings keep their receive times.
+     *
+     * @param message
+     *            the received message.
+     */
+    public void update(WMBusMessage message) {
+        List<DataRecord> dataRecords;
+        try {
+            message.getVariableDataResponse().decode();
+            dataRecords = message.getVariableDataResponse().getDataRecords();
+        } catch (DecodingException e) {
+            dataRecords = Collections.emptyList();
+        }
+
+        int records = dataRecords.size();
+        Description[] descriptions = new Description[records];
+        DlmsUnit[] units = new DlmsUnit[records];
+        double[] reading = new double[records];
+        for (int i = 0; i < records; i++) {
+            DataRecord dataRecord = dataRecords.get(i);
+            descriptions[i] = dataRecord.getDescription();
+            units[i] = dataRecord.getUnit();
+            Double value = dataRecord.getScaledDataValue();
+            reading[i] = value == null ? Double.NaN : value;
+        }
+
+        long receiveTime = message.getReceiveTime();
+        int rssi = message.getRssi() == null ? Integer.MIN_VALUE : message.getRssi();
+        SecondaryAddress secondaryAddress = message.getSecondaryAddress();
+
+        while (true) {
+            MeterState state = states.get(secondaryAddress);
+            if (state == null) {
+                MeterState newState = new MeterState(secondaryAddress, descriptions, units, new long[] { receiveTime },
+                        new int[] { rssi }, reading, 1, receiveTime, rssi);
+                if (states.putIfAbsent(secondaryAddress, newState) == null) {
+                    return;
+                }
+            }
+            else {
+                MeterState newState = records == 0 && state.descriptions.length > 0
+                        ? state.heard(receiveTime, rssi)
+                        : state.withReading(descriptions, units, receiveTime, rssi, reading, depth);
+                if (states.replace(secondaryAddress, state, newState)) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * @param secondaryAddress
+     *            the address of the meter.
+     * @return the state of the meter or <code>null</code> if it has not been heard.
+     */
+    public MeterState get(SecondaryAddress secondaryAddress) {
+        return states.get(secondaryAddress);
+    }
+
+    /**
+     * @return a live view of the states of all meters.
+     */
+    public Collection<MeterState> getAll() {
+        return Collections.unmodifiableCollection(states.values());
+    }
+
+    /**
+     * @param deviceType
+     *            the device type (medium) of the meters.
+     * @return a live view of the states of all meters of the device type.
+     */
+    public Iterable<MeterState> getByDeviceType(final DeviceType deviceType) {
+        return new FilteredView() {
+            @Override
+            boolean accept(MeterState state) {
+                return state.secondaryAddress.getDeviceType() == deviceType;
+            }
+        };
+    }
+
+    /**
+     * @param time
+     *            a time in milliseconds since the epoch, e.g. now minus 15 minutes.
+     * @return a live view of the states of all meters which have not been heard since the given time.
+     */
+    public Iterable<MeterState> getNotSeenSince(final long time) {
+        return new FilteredView() {
+            @Override
+            boolean accept(MeterState state) {
+                return state.getLastSeen() < time;
+            }
+        };
+    }
+
+    /**
+     * @return the number of meters in the cache.
+     */
+    public int size() {
+        return states.size();
+    }
+
+    /**
+     * Removes a meter from the cache, e.g. after it has not been heard for a long time.
+     *
+     * @param secondaryAddress
+     *            the address of the meter.
+     */
+    public void remove(SecondaryAddress secondaryAddress) {
+        states.remove(secondaryAddress);
+    }
+
+}
@@ -0,0 +1,398 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package org.openmuc.jmbus.wireless;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.openmuc.jmbus.SecondaryAddress;
+
+/**
+ * Collects reception statistics per meter and receiver from the frames of one or more wireless connections.
+ * <p>
+ * For every pair of meter and receiver the statistics count the telegrams, learn the transmission interval of the
+ * meter and count the telegrams missed in longer gaps, collect an RSSI histogram and count repeated copies of the same
+ * telegram and telegrams that could not be decoded. All values are kept in primitive arrays allocated for a fixed
+ * number of pairs at construction, a frame is recorded without allocating memory. Pairs beyond the capacity are not
+ * tracked, their frames are only counted.
+ * </p>
+ *
+ * @see WMBusConnection.WMBusSerialBuilder#setReceptionStatistics(ReceptionStatistics)
+ */
+public class ReceptionStatistics {
+
+    private static final int ADDRESS_LENGTH = 8;
+
+    /**
+     * The number of bins of the RSSI histogram. The first bin holds all values below -120 dBm, the last one all
+     * values from -50 dBm on, the others are 5 dB wide.
+     */
+    public static final int RSSI_BINS = 16;
+    private static final int RSSI_MIN = -120;
+    private static final int RSSI_BIN_WIDTH = 5;
+
+    private final int capacity;
+    private final int mask;
+
+    // index into the arrays of the pairs plus one, 0 is an empty slot
+    private final int[] table;
+
+    private final long[] meters;
+    private final int[] receivers;
+    private final int[] telegrams;
+    private final int[] missed;
+    private final int[] duplicates;
+    private final int[] failures;
+    private final long[] lastSeen;
+    private final int[] expectedInterval;
+    private final int[] lastFrameHash;
+    private final int[] rssiHistogram;
+
+    private final Map<String, Integer> receiverIndices = new LinkedHashMap<>();
+    private final List<String> receiverIds = new ArrayList<>();
+
+    private int size;
+    private long untrackedFrames;
+
+    /**
+     * The statistics of one meter at one receiver at the time they have been requested.
+     */
+    public static class Entry {
+        private final SecondaryAddress secondaryAddress;
+        private final String receiverId;
+        private final int telegrams;
+        private final int missed;
+        private final int duplicates;
+        private final int failures;
+        private final long lastSeen;
+        private final int expectedInterval;
+        private final int[] rssiHistogram;
+
+        private Entry(SecondaryAddress secondaryAddress, String receiverId, int telegrams, int missed, int duplicates,
+                int failures, long lastSeen, int expectedInterval, int[] rssiHistogram) {
+            this.secondaryAddress = secondaryAddress;
+            this.receiverId = receiverId;
+            this.telegrams = telegrams;
+            this.missed = missed;
+            this.duplicates = duplicates;
+            this.failures = failures;
+            this.lastSeen = lastSeen;
+            this.expectedInterval = expectedInterval;
+            this.rssiHistogram = rssiHistogram;
+        }
+
+        public SecondaryAddress getSecondaryAddress() {
+            return secondaryAddress;
+        }
+
+        /**
+         * @return the ID of the receiver or <code>null</code> if the connection has no receiver ID.
+         */
+        public String getReceiverId() {
+            return receiverId;
+        }
+
+        /**
+         * @return the number of telegrams received, without repeated copies.
+         */
+        public int getTelegrams() {
+            return telegrams;
+        }
+
+        /**
+         * @return the number of telegrams missed according to the transmission interval.
+         */
+        public int getMissedTelegrams() {
+            return missed;
+        }
+
+        /**
+         * @return the number of repeated copies of telegrams.
+         */
+        public int getDuplicates() {
+            return duplicates;
+        }
+
+        /**
+         * @return the number of telegrams that could not be decoded or decrypted.
+         */
+        public int getDecodingFailures() {
+            return failures;
+        }
+
+        /**
+         * @return the receive time of the last telegram in milliseconds since the epoch.
+         */
+        public long getLastSeen() {
+            return lastSeen;
+        }
+
+        /**
+         * @return the learned transmission interval of the meter in milliseconds or 0 if less than two telegrams
+         *         have been received.
+         */
+        public int getExpectedInterval() {
+            return expectedInterval;
+        }
+
+        /**
+         * @return the share of the sent telegrams that has been received, between 0 and 1.
+         */
+        public double getReceptionRate() {
+            return (double) telegrams / (telegrams + missed);
+        }
+
+        /**
+         * @return the share of repeated copies among all frames received.
+         */
+        public double getDuplicateRatio() {
+            return (double) duplicates / (telegrams + duplicates);
+        }
+
+        /**
+         * @return the share of the telegrams that could not be decoded or decrypted.
+         */
+        public double getFailureRate() {
+            return (double) failures / telegrams;
+        }
+
+        /**
+         * @return the number of telegrams per RSSI bin, see {@link ReceptionStatistics#RSSI_BINS}.
+         */
+        public int[] getRssiHistogram() {
+            return rssiHistogram;
+        }
+    }
+
+    /**
+     * @param capacity
+     *            the number of pairs of meter and receiver that are tracked.
+     */
+    public ReceptionStatistics(int capacity) {
+        this.capacity = capacity;
+        int tableSize = Integer.highestOneBit(Math.max(capacity, 1) * 2 - 1) << 1;
+        this.mask = tableSize - 1;
+        this.table = new int[tableSize];
+
+        this.meters = new long[capacity];
+        this.receivers = new int[capacity];
+        this.telegrams = new int[capacity];
+        this.missed = new int[capacity];
+        this.duplicates = new int[capacity];
+        this.failures = new int[capacity];
+        this.lastSeen = new long[capacity];
+        this.expectedInterval = new int[capacity];
+        this.lastFrameHash = new int[capacity];
+        this.rssiHistogram = new int[capacity * RSSI_BINS];
+    }
+
+    /**
+     * @return the number of pairs of meter and receiver tracked.
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * @return the number of frames of pairs that have not been tracked because the capacity has been exhausted.
+     */
+    public synchronized long getUntrackedFrames() {
+        return untrackedFrames;
+    }
+
+    /**
+     * @return the IDs of all receivers in the order they have been seen, <code>null</code> for a connection without
+     *         receiver ID.
+     */
+    public synchronized List<String> getReceiverIds() {
+        return new ArrayList<>(receiverIds);
+    }
+
+    /**
+     * @param secondaryAddress
+     *            the address of the meter.
+     * @param receiverId
+     *            the ID of the receiver.
+     * @return the statistics or <code>null</code> if the receiver has not received the meter.
+     */
+    public synchronized Entry get(SecondaryAddress secondaryAddress, String receiverId) {
+        Integer receiver = receiverIndices.get(receiverId);
+        if (receiver == null) {
+            return null;
+        }
+        int i = indexOf(WMBusAddressFilter.pack(secondaryAddress), receiver, false);
+        return i < 0 ? null : entry(i);
+    }
+
+    /**
+     * @param secondaryAddress
+     *            the address of the meter.
+     * @return the statistics of all receivers that have received the meter.
+     */
+    public synchronized List<Entry> get(SecondaryAddress secondaryAddress) {
+        long meter = WMBusAddressFilter.pack(secondaryAddress);
+        List<Entry> entries = new ArrayList<>();
+        for (int receiver = 0; receiver < receiverIds.size(); receiver++) {
+            int i = indexOf(meter, receiver, false);
+            if (i >= 0) {
+                entries.add(entry(i));
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * Records that a telegram has been received but could not be decoded or decrypted, e.g. because the key of the
+     * meter is wrong. Frames whose header cannot be decoded are recorded by the connection.
+     *
+     * @param secondaryAddress
+     *            the address of the meter.
+     * @param receiverId
+     *            the ID of the receiver.
+     */
+    public synchronized void decodingFailed(SecondaryAddress secondaryAddress, String receiverId) {
+        Integer receiver = receiverIndices.get(receiverId);
+        if (receiver == null) {
+            return;
+        }
+        int i = indexOf(WMBusAddressFilter.pack(secondaryAddress), receiver, false);
+        if (i >= 0) {
+            failures[i]++;
+        }
+    }
+
+    synchronized void decodingFailed(byte[] buffer, String receiverId) {
+        if (buffer.length < 2 + ADDRESS_LENGTH) {
+            return;
+        }
+        int i = indexOf(WMBusAddressFilter.pack(buffer, 2), receiverIndex(receiverId), false);
+        if (i >= 0) {
+            failures[i]++;
+        }
+    }
+
+    /**
+     * Records a link layer frame.
+     */
+    synchronized void frameReceived(byte[] buffer, Integer signalStrengthInDBm, long receiveTime,
+            String receiverId) {
+        int length = buffer[0] & 0xff;
+        if (buffer.length < 2 + ADDRESS_LENGTH || length > buffer.length - 1) {
+            return;
+        }
+        int i = indexOf(WMBusAddressFilter.pack(buffer, 2), receiverIndex(receiverId), true);
+        if (i < 0) {
+            untrackedFrames++;
+            return;
+        }
+
+        // the access number changes with every telegram, an identical frame is a repeated copy
+        int hash = hash(buffer, length + 1);
+        if (telegrams[i] > 0 && hash == lastFrameHash[i]) {
+            duplicates[i]++;
+            return;
+        }
+        lastFrameHash[i] = hash;
+
+        if (telegrams[i] > 0) {
+            updateInterval(i, receiveTime - lastSeen[i]);
+        }
+        telegrams[i]++;
+        lastSeen[i] = receiveTime;
+
+        if (signalStrengthInDBm != null) {
+            rssiHistogram[i * RSSI_BINS + rssiBin(signalStrengthInDBm)]++;
+        }
+    }
+
+    private void updateInterval(int i, long interval) {
+        if (interval <= 0) {
+            return;
+        }
+        long expected = expectedInterval[i];
+        if (expected == 0 || interval * 3 / 2 < expected) {
+            // the first interval, or a much shorter one: the earlier intervals spanned lost telegrams, which cannot
+            // be counted as missed since the interval of the meter was not known yet
+            expectedInterval[i] = (int) Math.min(interval, Integer.MAX_VALUE);
+            return;
+        }
+
+        long sent = (interval + expected / 2) / expected;
+        if (sent > 1 && interval > expected * 3 / 2) {
+            missed[i] += (int) Math.min(sent - 1, Integer.MAX_VALUE);
+            interval /= sent;
+        }
+        // follows the slow drift of the clock of the meter
+        expectedInterval[i] = (int) (expected + (interval - expected) / 8);
+    }
+
+    private static int rssiBin(int signalStrengthInDBm) {
+        if (signalStrengthInDBm < RSSI_MIN) {
+            return 0;
+        }
+        return Math.min(1 + (signalStrengthInDBm - RSSI_MIN) / RSSI_BIN_WIDTH, RSSI_BINS - 1);
+    }
+
+    private int receiverIndex(String receiverId) {
+        Integer receiver = receiverIndices.get(receiverId);
+        if (receiver == null) {
+            receiver = receiverIds.size();
+            receiverIndices.put(receiverId, receiver);
+            receiverIds.add(receiverId);
+        }
+        return receiver;
+    }
+
+    private int indexOf(long meter, int receiver, boolean create) {
+        int slot = (int) mix(meter * 31 + receiver) & mask;
+        while (true) {
+            int index = table[slot] - 1;
+            if (index < 0) {
+                if (!create || size == capacity) {
+                    return -1;
+                }
+                index = size++;
+                meters[index] = meter;
+                receivers[index] = receiver;
+                table[slot] = index + 1;
+                return index;
+            }
+            if (meters[index] == meter && receivers[index] == receiver) {
+                return index;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    private Entry entry(int i) {
+        byte[] address = new byte[ADDRESS_LENGTH];
+        for (int j = 0; j < ADDRESS_LENGTH; j++) {
+            address[j] = (byte) (meters[i] >>> (8 * (ADDRESS_LENGTH - 1 - j)));
+        }
+        return new Entry(SecondaryAddress.newFromWMBusHeader(address, 0), receiverIds.get(receivers[i]), telegrams[i],
+                missed[i], duplicates[i], failures[i], lastSeen[i], expectedInterval[i],
+                Arrays.copyOfRange(rssiHistogram, i * RSSI_BINS, (i + 1) * RSSI_BINS));
+    }
+
+    private static long mix(long value) {
+        value ^= value >>> 33;
+        value *= 0xff51afd7ed558ccdL;
+        value ^= value >>> 33;
+        return value;
+    }
+
+    private static int hash(byte[] buffer, int length) {
+        int hash = 1;
+        for (int i = 0; i < length; i++) {
+            hash = 31 * hash + buffer[i];
+        }
+        return hash;
+    }
+
+}
@@ -0,0 +1,73 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package org.openmuc.jmbus.wireless;
+
+/**
+ * Converts the 32 bit receive time stamps of a transceiver to the wall-clock time of the host.
+ * <p>
+ * A time stamp is taken when the frame is received and can therefore never be later than the time the host reads the
+ * frame. The offset between both clocks is the smallest difference seen so far, so the latency of the serial line and
+ * of block reads is not part of the converted time. A converted time is never later than the time the frame has been
+ * read, even if the counter is coarser than the latency, so the time stamp keeps the order and the distance of frames
+ * that are read in one block. The counter may wrap around between two frames. If a converted
+ * time differs from the time the frame has been read by more than the resynchronization threshold, e.g. because the
+ * transceiver has been reset or no frame has been received for a full turn of the counter, the clocks are
+ * synchronized anew.
+ * </p>
+ */
+class TransceiverClock {
+
+    private static final long COUNTER_RANGE = 1L << 32;
+    private static final long RESYNC_THRESHOLD = 5000;
+
+    private final long ticksPerSecond;
+
+    private boolean synced = false;
+    private long lastCounter;
+    private long ticks;
+    private long offset;
+
+    /**
+     * @param ticksPerSecond
+     *            the frequency of the counter of the transceiver.
+     */
+    TransceiverClock(long ticksPerSecond) {
+        this.ticksPerSecond = ticksPerSecond;
+    }
+
+    /**
+     * @param counter
+     *            the unsigned time stamp of a frame.
+     * @param readTime
+     *            the time in milliseconds since the epoch at which the frame has been read.
+     * @return the time in milliseconds since the epoch at which the frame has been received.
+     */
+    long toWallClock(long counter, long readTime) {
+        if (synced) {
+            ticks += (counter - lastCounter + COUNTER_RANGE) % COUNTER_RANGE;
+        }
+        else {
+            ticks = counter;
+        }
+        lastCounter = counter;
+
+        long difference = readTime - toMillis(ticks);
+        if (!synced || Math.abs(difference - offset) > RESYNC_THRESHOLD) {
+            ticks = counter;
+            offset = readTime - toMillis(ticks);
+            synced = true;
+        }
+        else if (difference < offset) {
+            offset = difference;
+        }
+        return offset + toMillis(ticks);
+    }
+
+    private long toMillis(long ticks) {
+        return ticks * 1000 / ticksPerSecond;
+    }
+
+}
@@ -0,0 +1,190 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package org.openmuc.jmbus.wireless;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.openmuc.jmbus.DeviceType;
+import org.openmuc.jmbus.SecondaryAddress;
+
+/**
+ * Selects the frames a wireless connection passes on by the address of the sender.
+ * <p>
+ * The filter is applied to the address bytes of the link layer header before a frame is decoded, rejected frames are
+ * only counted. A frame is accepted if its address is not denied and matches every configured criterion: it is
+ * allowed, if addresses have been allowed, its manufacturer is allowed, if manufacturers have been allowed, and its
+ * device type is allowed, if device types have been allowed. An empty filter accepts every frame.
+ * </p>
+ * 
+ * @see WMBusConnection.WMBusSerialBuilder#setAddressFilter(WMBusAddressFilter)
+ */
+public class WMBusAddressFilter {
+
+    private static final int ADDRESS_LENGTH = 8;
+
+    // addresses in the byte order of the wireless header packed into a long, sorted for binary search
+    private volatile long[] allowed = new long[0];
+    private volatile long[] denied = new long[0];
+    private volatile BitSet manufacturers = new BitSet();
+    private volatile BitSet deviceTypes = new BitSet();
+
+    private final AtomicLong acceptedFrames = new AtomicLong();
+    private final AtomicLong rejectedFrames = new AtomicLong();
+
+    /**
+     * Allows a meter. Once a meter has been allowed, frames of other meters are rejected.
+     * 
+     * @param secondaryAddress
+     *            the address of the meter.
+     * @return this filter.
+     */
+    public synchronized WMBusAddressFilter allow(SecondaryAddress secondaryAddress) {
+        allowed = add(allowed, pack(secondaryAddress));
+        return this;
+    }
+
+    /**
+     * Rejects the frames of a meter.
+     * 
+     * @param secondaryAddress
+     *            the address of the meter.
+     * @return this filter.
+     */
+    public synchronized WMBusAddressFilter deny(SecondaryAddress secondaryAddress) {
+        denied = add(denied, pack(secondaryAddress));
+        return this;
+    }
+
+    /**
+     * Allows the meters of a manufacturer. Once a manufacturer has been allowed, frames of other manufacturers are
+     * rejected.
+     * 
+     * @param manufacturerId
+     *            the three letter manufacturer ID, e.g. "KAM".
+     * @return this filter.
+     */
+    public synchronized WMBusAddressFilter allowManufacturer(String manufacturerId) {
+        if (manufacturerId.length() != 3) {
+            throw new IllegalArgumentException("Manufacturer ID must have three letters: " + manufacturerId);
+        }
+        String id = manufacturerId.toUpperCase();
+        int code = (id.charAt(0) - 64) << 10 | (id.charAt(1) - 64) << 5 | (id.charAt(2) - 64);
+
+        BitSet copy = (BitSet) manufacturers.clone();
+        copy.set(code);
+        manufacturers = copy;
+        return this;
+    }
+
+    /**
+     * Allows the meters of a device type (medium). Once a device type has been allowed, frames of other device types
+     * are rejected.
+     * 
+     * @param deviceType
+     *            the device type.
+     * @return this filter.
+     */
+    public synchronized WMBusAddressFilter allowDeviceType(DeviceType deviceType) {
+        BitSet copy = (BitSet) deviceTypes.clone();
+        copy.set(deviceType.getId());
+        deviceTypes = copy;
+        return this;
+    }
+
+    /**
+     * @return the number of frames passed on.
+     */
+    public long getAcceptedFrames() {
+        return acceptedFrames.get();
+    }
+
+    /**
+     * @return the number of frames rejected.
+     */
+    public long getRejectedFrames() {
+        return rejectedFrames.get();
+    }
+
+    /**
+     * Checks the address of a wireless M-Bus frame.
+     * 
+     * @param buffer
+     *            the frame.
+     * @param offset
+     *            the offset of the address, 2 in a link layer frame.
+     * @return <code>true</code> if the frame is accepted.
+     */
+    boolean accept(byte[] buffer, int offset) {
+        if (buffer.length < offset + ADDRESS_LENGTH) {
+            // too short to be decoded, let the receiver report it
+            return true;
+        }
+        if (matches(buffer, offset)) {
+            acceptedFrames.incrementAndGet();
+            return true;
+        }
+        rejectedFrames.incrementAndGet();
+        return false;
+    }
+
+    private boolean matches(byte[] buffer, int offset) {
+        long[] denied = this.denied;
+        long[] allowed = this.allowed;
+        BitSet manufacturers = this.manufacturers;
+        BitSet deviceTypes = this.deviceTypes;
+
+        if (denied.length > 0 || allowed.length > 0) {
+            long address = pack(buffer, offset);
+            if (Arrays.binarySearch(denied, address) >= 0) {
+                return false;
+            }
+            if (allowed.length > 0 && Arrays.binarySearch(allowed, address) < 0) {
+                return false;
+            }
+        }
+        if (!manufacturers.isEmpty()) {
+            int manufacturer = (buffer[offset] & 0xff) | (buffer[offset + 1] & 0xff) << 8;
+            if (!manufacturers.get(manufacturer)) {
+                return false;
+            }
+        }
+        return deviceTypes.isEmpty() || deviceTypes.get(buffer[offset + 7] & 0xff);
+    }
+
+    static long pack(SecondaryAddress secondaryAddress) {
+        byte[] bytes = secondaryAddress.asByteArray();
+        if (!secondaryAddress.isLongHeader()) {
+            return pack(bytes, 0);
+        }
+        // the long header starts with the ID number, the wireless header with the manufacturer
+        byte[] wireless = new byte[ADDRESS_LENGTH];
+        System.arraycopy(bytes, 4, wireless, 0, 2);
+        System.arraycopy(bytes, 0, wireless, 2, 4);
+        System.arraycopy(bytes, 6, wireless, 6, 2);
+        return pack(wireless, 0);
+    }
+
+    static long pack(byte[] buffer, int offset) {
+        long address = 0;
+        for (int i = 0; i < ADDRESS_LENGTH; i++) {
+            address = address << 8 | (buffer[offset + i] & 0xff);
+        }
+        return address;
+    }
+
+    private static long[] add(long[] addresses, long address) {
+        if (Arrays.binarySearch(addresses, address) >= 0) {
+            return addresses;
+        }
+        long[] result = Arrays.copyOf(addresses, addresses.length + 1);
+        result[addresses.length] = address;
+        Arrays.sort(result);
+        return result;
+    }
+
+}
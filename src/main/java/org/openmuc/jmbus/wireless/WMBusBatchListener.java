@@ -0,0 +1,24 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package org.openmuc.jmbus.wireless;
+
+import java.util.List;
+
+/**
+ * A wireless M-Bus listener that receives the messages queued by a {@link WMBusDispatcher} in batches instead of one
+ * by one. {@link #newMessage(WMBusMessage)} is not called for listeners of this type.
+ */
+public interface WMBusBatchListener extends WMBusListener {
+
+    /**
+     * Received new wireless M-Bus messages.
+     * 
+     * @param messages
+     *            the messages in the order they have been received, at most the maximum batch size of the dispatcher.
+     */
+    void newMessages(List<WMBusMessage> messages);
+
+}
@@ -7,6 +7,8 @@ package org.openmuc.jmbus.wireless;
 
 import java.io.IOException;
 import java.text.MessageFormat;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadFactory;
 
 import org.openmuc.jmbus.SecondaryAddress;
 import org.openmuc.jmbus.transportlayer.SerialBuilder;
@@ -82,6 +84,21 @@ public interface WMBusConnection extends AutoCloseable {
             return self();
         }
 
+        /**
+         * Sets the frame format of the meters in C mode, for transceivers that receive only one of the formats. The
+         * default is format A. Frames in format B are passed by the transceiver with their CRCs, which are checked
+         * and removed by the connection. Format B is only supported in mode C, building a connection with format B in
+         * another mode fails with an {@link IllegalArgumentException}.
+         * 
+         * @param frameFormat
+         *            the frame format.
+         * @return the builder itself.
+         */
+        public WMBusSerialBuilder setFrameFormat(WMBusFrameFormat frameFormat) {
+            builder.frameFormat = frameFormat;
+            return self();
+        }
+
         public WMBusSerialBuilder setWmBusManufacturer(WMBusManufacturer wmBusManufacturer) {
             builder.wmBusManufacturer = wmBusManufacturer;
             return self();
@@ -92,9 +109,76 @@ public interface WMBusConnection extends AutoCloseable {
             return self();
         }
 
+        /**
+         * Sets the dispatcher delivering the received messages to the listener. Connections can share a dispatcher.
+         * By default every connection uses a dispatcher of its own running on the executor of the connection.
+         * 
+         * @param dispatcher
+         *            the dispatcher.
+         * @return the builder itself.
+         */
+        public WMBusSerialBuilder setDispatcher(WMBusDispatcher dispatcher) {
+            builder.dispatcher = dispatcher;
+            return self();
+        }
+
+        /**
+         * Sets a filter which rejects frames by the address of the sender before they are decoded.
+         * 
+         * @param addressFilter
+         *            the filter, may be shared by several connections.
+         * @return the builder itself.
+         */
+        public WMBusSerialBuilder setAddressFilter(WMBusAddressFilter addressFilter) {
+            builder.addressFilter = addressFilter;
+            return self();
+        }
+
+        /**
+         * Sets the statistics recording every frame that passes the address filter.
+         * 
+         * @param receptionStatistics
+         *            the statistics, may be shared by several connections with different receiver IDs.
+         * @return the builder itself.
+         */
+        public WMBusSerialBuilder setReceptionStatistics(ReceptionStatistics receptionStatistics) {
+            builder.receptionStatistics = receptionStatistics;
+            return self();
+        }
+
+        /**
+         * Sets the ID of the receiver, which is passed with every frame to a {@link WMBusRawListener}.
+         * 
+         * @param receiverId
+         *            the ID of the receiver.
+         * @return the builder itself.
+         */
+        public WMBusSerialBuilder setReceiverId(String receiverId) {
+            builder.receiverId = receiverId;
+            return self();
+        }
+
+        /**
+         * Adds the connection to a receiver group. Received messages are passed to the group, which delivers every
+         * telegram once no matter how many receivers of the group heard it. Discarded bytes and the end of the
+         * connection are still reported to the listener of this connection.
+         * 
+         * @param receiverGroup
+         *            the group.
+         * @param receiverId
+         *            the ID of this receiver in the group, see {@link WMBusMessage#getReceivers()}.
+         * @return the builder itself.
+         */
+        public WMBusSerialBuilder setReceiverGroup(WMBusReceiverGroup receiverGroup, String receiverId) {
+            builder.receiverGroup = receiverGroup;
+            builder.receiverId = receiverId;
+            return self();
+        }
+
         @Override
         public WMBusConnection build() throws IOException {
-            return builder.build(buildTransportLayer());
+            builder.checkFrameFormat();
+            return builder.build(buildTransportLayer(), getExecutor(), getThreadFactory());
         }
 
     }
@@ -114,6 +198,21 @@ public interface WMBusConnection extends AutoCloseable {
             return self();
         }
 
+        /**
+         * Sets the frame format of the meters in C mode, for transceivers that receive only one of the formats. The
+         * default is format A. Frames in format B are passed by the transceiver with their CRCs, which are checked
+         * and removed by the connection. Format B is only supported in mode C, building a connection with format B in
+         * another mode fails with an {@link IllegalArgumentException}.
+         * 
+         * @param frameFormat
+         *            the frame format.
+         * @return the builder itself.
+         */
+        public WMBusTcpBuilder setFrameFormat(WMBusFrameFormat frameFormat) {
+            builder.frameFormat = frameFormat;
+            return self();
+        }
+
         public WMBusTcpBuilder setWmBusManufacturer(WMBusManufacturer wmBusManufacturer) {
             builder.wmBusManufacturer = wmBusManufacturer;
             return self();
@@ -124,9 +223,76 @@ public interface WMBusConnection extends AutoCloseable {
             return self();
         }
 
+        /**
+         * Sets the dispatcher delivering the received messages to the listener. Connections can share a dispatcher.
+         * By default every connection uses a dispatcher of its own running on the executor of the connection.
+         * 
+         * @param dispatcher
+         *            the dispatcher.
+         * @return the builder itself.
+         */
+        public WMBusTcpBuilder setDispatcher(WMBusDispatcher dispatcher) {
+            builder.dispatcher = dispatcher;
+            return self();
+        }
+
+        /**
+         * Sets a filter which rejects frames by the address of the sender before they are decoded.
+         * 
+         * @param addressFilter
+         *            the filter, may be shared by several connections.
+         * @return the builder itself.
+         */
+        public WMBusTcpBuilder setAddressFilter(WMBusAddressFilter addressFilter) {
+            builder.addressFilter = addressFilter;
+            return self();
+        }
+
+        /**
+         * Sets the statistics recording every frame that passes the address filter.
+         * 
+         * @param receptionStatistics
+         *            the statistics, may be shared by several connections with different receiver IDs.
+         * @return the builder itself.
+         */
+        public WMBusTcpBuilder setReceptionStatistics(ReceptionStatistics receptionStatistics) {
+            builder.receptionStatistics = receptionStatistics;
+            return self();
+        }
+
+        /**
+         * Sets the ID of the receiver, which is passed with every frame to a {@link WMBusRawListener}.
+         * 
+         * @param receiverId
+         *            the ID of the receiver.
+         * @return the builder itself.
+         */
+        public WMBusTcpBuilder setReceiverId(String receiverId) {
+            builder.receiverId = receiverId;
+            return self();
+        }
+
+        /**
+         * Adds the connection to a receiver group. Received messages are passed to the group, which delivers every
+         * telegram once no matter how many receivers of the group heard it. Discarded bytes and the end of the
+         * connection are still reported to the listener of this connection.
+         * 
+         * @param receiverGroup
+         *            the group.
+         * @param receiverId
+         *            the ID of this receiver in the group, see {@link WMBusMessage#getReceivers()}.
+         * @return the builder itself.
+         */
+        public WMBusTcpBuilder setReceiverGroup(WMBusReceiverGroup receiverGroup, String receiverId) {
+            builder.receiverGroup = receiverGroup;
+            builder.receiverId = receiverId;
+            return self();
+        }
+
         @Override
         public WMBusConnection build() throws IOException {
-            return builder.build(buildTransportLayer());
+            builder.checkFrameFormat();
+            return builder.build(buildTransportLayer(), getExecutor(), getThreadFactory());
         }
 
     }
@@ -136,6 +302,12 @@ public interface WMBusConnection extends AutoCloseable {
         private WMBusManufacturer wmBusManufacturer;
         private WMBusMode mode;
         private WMBusListener listener;
+        private WMBusDispatcher dispatcher;
+        private WMBusReceiverGroup receiverGroup;
+        private String receiverId;
+        private WMBusAddressFilter addressFilter;
+        private ReceptionStatistics receptionStatistics;
+        private WMBusFrameFormat frameFormat;
 
         Builder(WMBusManufacturer wmBusManufacturer, WMBusListener listener) {
             this.listener = listener;
@@ -143,23 +315,39 @@ public interface WMBusConnection extends AutoCloseable {
             this.mode = WMBusMode.T;
         }
 
-        WMBusConnection build(TransportLayer transportLayer) throws IOException {
+        void checkFrameFormat() {
+            // in CT mode the T mode frames never carry CRCs, the format of a frame is not known before it is decoded
+            if (frameFormat == WMBusFrameFormat.B && mode != WMBusMode.C) {
+                throw new IllegalArgumentException("Frame format B is only supported in mode C.");
+            }
+        }
+
+        WMBusConnection build(TransportLayer transportLayer, ExecutorService executor, ThreadFactory threadFactory)
+                throws IOException {
             AbstractWMBusConnection wmBusConnection;
             switch (this.wmBusManufacturer) {
             case AMBER:
-                wmBusConnection = new WMBusConnectionAmber(this.mode, this.listener, transportLayer);
+                wmBusConnection = new WMBusConnectionAmber(this.mode, this.listener, transportLayer, executor,
+                        threadFactory);
                 break;
             case IMST:
-                wmBusConnection = new WMBusConnectionImst(this.mode, this.listener, transportLayer);
+                wmBusConnection = new WMBusConnectionImst(this.mode, this.listener, transportLayer, executor,
+                        threadFactory);
                 break;
             case RADIO_CRAFTS:
-                wmBusConnection = new WMBusConnectionRadioCrafts(this.mode, this.listener, transportLayer);
+                wmBusConnection = new WMBusConnectionRadioCrafts(this.mode, this.listener, transportLayer, executor,
+                        threadFactory);
                 break;
             default:
                 // should not occur.
                 throw new RuntimeException("Unknown Manufacturer.");
             }
 
+            wmBusConnection.setDispatcher(dispatcher);
+            wmBusConnection.setReceiverGroup(receiverGroup, receiverId);
+            wmBusConnection.setAddressFilter(addressFilter);
+            wmBusConnection.setReceptionStatistics(receptionStatistics);
+            wmBusConnection.setFrameFormat(frameFormat);
             wmBusConnection.open();
             return wmBusConnection;
         }
@@ -5,15 +5,13 @@
  */
 package org.openmuc.jmbus.wireless;
 
-import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
-import java.io.InterruptedIOException;
 import java.nio.ByteBuffer;
 import java.text.MessageFormat;
-import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadFactory;
 
-import org.openmuc.jmbus.DecodingException;
 import org.openmuc.jmbus.transportlayer.TransportLayer;
 
 /**
@@ -23,20 +21,22 @@ class WMBusConnectionAmber extends AbstractWMBusConnection {
 
     private class MessageReceiverImpl extends MessageReceiver {
 
-        private static final int MBUS_BL_CONTROL = 0x44;
-
         private int discardCount = 0;
         private final TransportLayer transportLayer;
+        private final WMBusFrameReader frameReader;
 
         public MessageReceiverImpl(TransportLayer transportLayer, WMBusListener listener) {
-            super(listener);
+            super(WMBusConnectionAmber.this);
             this.transportLayer = transportLayer;
+            this.frameReader = new WMBusFrameReader(transportLayer.getInputStream(), MESSAGE_FRAGEMENT_TIMEOUT, true);
         }
 
         @Override
         public void run() {
 
             try {
+                // the poll interval of the frame reader, it is not changed while receiving
+                transportLayer.setTimeout(MESSAGE_FRAGEMENT_TIMEOUT);
 
                 while (!isClosed()) {
                     task();
@@ -50,82 +50,20 @@ class WMBusConnectionAmber extends AbstractWMBusConnection {
 
             } finally {
                 close();
-                super.shutdown();
             }
 
         }
 
         private void task() throws IOException {
+            byte[] data = frameReader.readFrame();
 
-            ByteBuffer discardBuffer = ByteBuffer.allocate(100);
-
-            int b0, b1;
-            DataInputStream is = getInputStream();
-            while (true) {
-                try {
-                    this.transportLayer.setTimeout(0);
-                    b0 = is.read();
-                    this.transportLayer.setTimeout(MESSAGE_FRAGEMENT_TIMEOUT);
-                    b1 = is.read();
-
-                    if (b0 == 0xff && b1 == 0x03) {
-                        // it's optional if UART_CMD_Out_Enable is enabled on amber module
-                        // then you will get also CRC at the end of message frame
-                        continue;
-                    }
-
-                    if ((b1 ^ MBUS_BL_CONTROL) == 0) {
-                        // we found beginning of mBUS frame, in the b0 will be the length of message
-                        break;
-                    }
-
-                    if (discardBuffer.capacity() - discardBuffer.position() < 2) {
-                        discard(discardBuffer.array(), 0, discardBuffer.position());
-                        discardBuffer.clear();
-                    }
-                    discardBuffer.put((byte) b0);
-                    discardBuffer.put((byte) b1);
-                } catch (InterruptedIOException e) {
-                    continue;
-                }
-            }
-
-            int length = (b0 & 0xff) + 1; // +1 because length don't count the length byte itself
-            byte[] data = new byte[length];
-
-            data[0] = (byte) b0;
-            data[1] = (byte) b1;
-
-            int readLength = length - 2; // we already have first two bytes
-            int actualLength = is.read(data, 2, readLength);
-
-            if (readLength != actualLength) {
-                discard(data, 0, actualLength);
-                return;
-            }
-
-            if (is.available() > 0) {
-                // if there is one more bit it will be CRC, it's optional
-                byte crc = is.readByte();
-                byte countedCRC = (byte) (0xFF ^ 0x03);
-                for (byte element : data) {
-                    countedCRC = (byte) (countedCRC ^ element);
-                }
-                if (crc == countedCRC) {
-                    notifyListener(data);
-                }
-                else {
-                    notifyDiscarded(data);
-                }
+            byte[] discardedBytes = frameReader.takeDiscarded();
+            if (discardedBytes != null) {
+                discard(discardedBytes);
             }
-            else {
-                // parse data without CRC check
+            if (data != null) {
                 notifyListener(data);
             }
-
-            if (discardBuffer.position() > 0) {
-                discard(discardBuffer.array(), 0, discardBuffer.position());
-            }
         }
 
         private void notifyListener(final byte[] data) {
@@ -141,16 +79,11 @@ class WMBusConnectionAmber extends AbstractWMBusConnection {
 
             data[0] = (byte) (data[0] - 1);
 
-            try {
-                super.notifyNewMessage(WMBusMessage.decode(data, signalStrengthInDBm, keyMap));
-            } catch (DecodingException e) {
-                super.notifyDiscarded(data);
-            }
+            super.notifyNewMessage(data, signalStrengthInDBm);
         }
 
-        private void discard(byte[] data, int offset, int length) {
+        private void discard(byte[] discardedBytes) {
             discardCount++;
-            final byte[] discardedBytes = Arrays.copyOfRange(data, offset, offset + length);
 
             super.notifyDiscarded(discardedBytes);
 
@@ -166,8 +99,9 @@ class WMBusConnectionAmber extends AbstractWMBusConnection {
 
     }
 
-    public WMBusConnectionAmber(WMBusMode mode, WMBusListener listener, TransportLayer tl) {
-        super(mode, listener, tl);
+    public WMBusConnectionAmber(WMBusMode mode, WMBusListener listener, TransportLayer tl, ExecutorService executor,
+            ThreadFactory threadFactory) {
+        super(mode, listener, tl, executor, threadFactory);
     }
 
     @Override
@@ -192,6 +126,9 @@ class WMBusConnectionAmber extends AbstractWMBusConnection {
         case C:
             amberSetReg((byte) 0x46, (byte) 0x0e); // C2-OTHER
             break;
+        case CT:
+            amberSetReg((byte) 0x46, (byte) 0x09); // C2/T2-OTHER
+            break;
         default:
             String message = MessageFormat.format("wMBUS Mode ''{0}'' is not supported", mode.toString());
             throw new IOException(message);
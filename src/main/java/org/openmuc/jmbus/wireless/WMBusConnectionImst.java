@@ -5,15 +5,12 @@
  */
 package org.openmuc.jmbus.wireless;
 
-import java.io.DataInputStream;
 import java.io.IOException;
-import java.io.InterruptedIOException;
 import java.nio.ByteBuffer;
 import java.text.MessageFormat;
-import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadFactory;
 
-import org.openmuc.jmbus.DecodingException;
-import org.openmuc.jmbus.HexUtils;
 import org.openmuc.jmbus.transportlayer.TransportLayer;
 
 /**
@@ -25,24 +22,23 @@ class WMBusConnectionImst extends AbstractWMBusConnection {
 
         private static final byte MBUS_BL_CONTROL = 0x44;
         private final TransportLayer transportLayer;
+        private final HciFrameReader frameReader;
+        private final TransceiverClock clock = new TransceiverClock(Const.RTC_TICKS_PER_SECOND);
 
         public MessageReceiverImpl(TransportLayer transportLayer, WMBusListener listener) {
-            super(listener);
+            super(WMBusConnectionImst.this);
             this.transportLayer = transportLayer;
+            this.frameReader = new HciFrameReader(transportLayer.getInputStream(), MESSAGE_FRAGEMENT_TIMEOUT);
         }
 
         @Override
         public void run() {
             try {
+                // the poll interval of the frame reader, it is not changed while receiving
+                transportLayer.setTimeout(MESSAGE_FRAGEMENT_TIMEOUT);
 
                 while (!isClosed()) {
-                    try {
-                        task();
-                    } catch (InterruptedIOException e) {
-                        // ignore a timeout..
-                    } catch (HciMessageException e) {
-                        super.notifyDiscarded(e.getData());
-                    }
+                    task();
                 }
 
             } catch (IOException e) {
@@ -53,46 +49,39 @@ class WMBusConnectionImst extends AbstractWMBusConnection {
                 super.notifyStoppedListening(e);
             } finally {
                 close();
-                super.shutdown();
             }
         }
 
         private void task() throws IOException {
-            HciMessage hciMessage = readHciMsg();
+            HciMessage hciMessage = frameReader.readMessage();
+
+            byte[] discardedBytes = frameReader.takeDiscarded();
+            if (discardedBytes != null) {
+                super.notifyDiscarded(discardedBytes);
+            }
+            if (hciMessage == null || hciMessage.getPayload().length <= 1) {
+                return;
+            }
 
             final byte[] wmbusMessage = hciMessage.getPayload();
-            final int signalStrengthInDBm = hciMessage.getRSSI();
-            try {
-                super.notifyNewMessage(WMBusMessage.decode(wmbusMessage, signalStrengthInDBm, keyMap));
-            } catch (DecodingException e) {
+            if (wmbusMessage[1] != MBUS_BL_CONTROL) {
                 super.notifyDiscarded(wmbusMessage);
+                return;
             }
-        }
-
-        private HciMessage readHciMsg() throws IOException {
-            while (true) {
-                HciMessage hciMessage = HciMessage.decode(this.transportLayer);
 
-                if (hciMessage.getPayload().length <= 1) {
-                    continue;
-                }
-
-                if (hciMessage.getPayload()[1] == MBUS_BL_CONTROL) {
-                    return hciMessage;
-                }
-                else {
-                    discard(hciMessage);
-                }
+            final int signalStrengthInDBm = hciMessage.getRSSI();
+            long receiveTime = frameReader.getLastDataTime();
+            long timeStamp = hciMessage.getTimeStamp();
+            if (timeStamp >= 0) {
+                receiveTime = clock.toWallClock(timeStamp, receiveTime);
             }
-        }
-
-        private void discard(HciMessage hciMessage) {
-            super.notifyDiscarded(hciMessage.payload);
+            super.notifyNewMessage(wmbusMessage, signalStrengthInDBm, receiveTime, timeStamp);
         }
     }
 
-    public WMBusConnectionImst(WMBusMode mode, WMBusListener listener, TransportLayer tl) {
-        super(mode, listener, tl);
+    public WMBusConnectionImst(WMBusMode mode, WMBusListener listener, TransportLayer tl, ExecutorService executor,
+            ThreadFactory threadFactory) {
+        super(mode, listener, tl, executor, threadFactory);
     }
 
     @Override
@@ -107,7 +96,7 @@ class WMBusConnectionImst extends AbstractWMBusConnection {
                 .put((byte) 0x00) // NVM Flag: change configuration only temporary
                 .put((byte) 0x03) // IIFlag 1: Bit 0 Device Mode and Bit 1 Radio Mode
                 .put((byte) 0x00) // Device Mode: Meter
-                .put(linkRadioModeFor(mode)) // Link/Radio Mode
+                .put(linkRadioModeFor(mode, getFrameFormat())) // Link/Radio Mode
                 .put((byte) 0x10) // IIFlag 2: Bit 4 : Auto RSSI Attachment
                 .put((byte) 0x01) // Rx-Timestamp attached for each received Radio message
                 .array();
@@ -115,14 +104,15 @@ class WMBusConnectionImst extends AbstractWMBusConnection {
         writeCommand(Const.DEVMGMT_ID, Const.DEVMGMT_MSG_SET_CONFIG_REQ, payload);
     }
 
-    private static byte linkRadioModeFor(WMBusMode mode) throws IOException {
+    private static byte linkRadioModeFor(WMBusMode mode, WMBusFrameFormat frameFormat) throws IOException {
         switch (mode) {
         case S:
             return 0x01; // Link/Radio Mode: S1-m
         case T:
             return 0x04; // Link/Radio Mode: T2
         case C:
-            return 0x08; // Link/Radio Mode: C2 with telegram format A (C2 + format B = 0x09)
+            // Link/Radio Mode: C2 with telegram format A or B
+            return frameFormat == WMBusFrameFormat.B ? (byte) 0x09 : 0x08;
         default:
             String msg = MessageFormat.format("wMBUS Mode ''{0}'' is not supported", mode);
             throw new IOException(msg);
@@ -191,6 +181,10 @@ class WMBusConnectionImst extends AbstractWMBusConnection {
         public static final byte RSSI_ATTACHED = 0x04; // 0b0100
         public static final byte CRC16_ATTACHED = 0x08; // 0b1000 (FCS)
 
+        // the time stamp is the value of the real time clock of the module, which counts seconds, so it orders the
+        // messages read in one block but the converted time may be up to a second early
+        public static final long RTC_TICKS_PER_SECOND = 1;
+
         // List of Endpoint Identifier
         public static final byte DEVMGMT_ID = 0x01;
         public static final byte RADIOLINK_ID = 0x02;
@@ -244,145 +238,4 @@ class WMBusConnectionImst extends AbstractWMBusConnection {
         }
     }
 
-    /**
-     * <li><tt>HCI Message</tt>
-     * <ul>
-     * <li>StartOfFrame 8 Bit: 0xA5
-     * <li>MsgHeader 24 Bit:
-     * <ul>
-     * <li>ControlField 4 Bit:
-     * <ul>
-     * <li>0000b Reserved
-     * <li>0010b Time Stamp Field attached
-     * <li>0100b RSSI Field attached
-     * <li>1000b CRC16 Field attached
-     * </ul>
-     * <li>EndPoint ID 4 Bit: Identifies a logical message endpoint which groups several messages.
-     * <li>Msg ID Field 8 Bit: Identifies the message type.
-     * <li>LengthFiled 8 Bit: Number of bytes in the payload. If null no payload.
-     * </ul>
-     * <li>PayloadField n * 8 Bit: wMBus Message
-     * <li>Time Stamp (optional): 32 Bit Timestamp of the RTC
-     * <li>RSSI (optional) 8 Bit: Receive Signal Strength Indicator
-     * <li>FCS (optional) 16 Bit: CRC from Control Field up to last byte of Payload, Time Stamp or RSSI Field.</li>
-     * </ul>
-     *
-     */
-    private static class HciMessage {
-
-        private final byte controlField;;
-        private final byte endpointID;
-        private final byte msgId;
-        private final int length;
-
-        private final byte[] payload;
-        private final int timeStamp;
-        private final int rSSI;
-        private final int fCS;
-
-        private HciMessage(byte controlField, byte endpointID, byte msgId, int length, byte[] payload, int timeStamp,
-                int rSSI, int fCS) {
-            this.controlField = controlField;
-            this.endpointID = endpointID;
-            this.msgId = msgId;
-            this.length = length;
-            this.payload = payload;
-            this.timeStamp = timeStamp;
-            this.rSSI = rSSI;
-            this.fCS = fCS;
-        }
-
-        public static HciMessage decode(TransportLayer transportLayer) throws IOException {
-            DataInputStream is = transportLayer.getInputStream();
-            byte b0;
-            byte b1;
-
-            transportLayer.setTimeout(0);
-            b0 = is.readByte();
-            if (b0 != Const.START_OF_FRAME) {
-                String msg = String.format("First byte does not start with %02X.", Const.START_OF_FRAME);
-                throw new IOException(msg);
-            }
-
-            transportLayer.setTimeout(MESSAGE_FRAGEMENT_TIMEOUT);
-            // this may time out.
-            b1 = is.readByte();
-
-            byte controlField = (byte) ((b1 >> 4) & 0x0F);
-            byte endpointId = (byte) (b1 & 0x0F);
-
-            byte msgId = is.readByte();
-            int length = is.readUnsignedByte();
-
-            byte[] payload = readPayload(is, length);
-
-            int timeStamp = 0;
-            if ((controlField & Const.TIMESTAMP_ATTACHED) == Const.TIMESTAMP_ATTACHED) {
-                timeStamp = is.readInt();
-            }
-
-            int rSSI = 0;
-            if ((controlField & Const.RSSI_ATTACHED) == Const.RSSI_ATTACHED) {
-                double b = -100.0 - (4000.0 / 150.0);
-                double m = 80.0 / 150.0;
-                rSSI = (int) (m * is.readUnsignedByte() + b);
-            }
-
-            int fCS = 0;
-            if ((controlField & Const.CRC16_ATTACHED) == Const.CRC16_ATTACHED) {
-                fCS = is.readUnsignedShort();
-            }
-
-            return new HciMessage(controlField, endpointId, msgId, length, payload, timeStamp, rSSI, fCS);
-        }
-
-        private static byte[] readPayload(DataInputStream is, final int length) throws IOException {
-            byte[] payload = new byte[length + 1];
-            payload[0] = (byte) length;
-
-            int readLength = is.read(payload, 1, length);
-
-            if (readLength != length) {
-                byte[] data = Arrays.copyOfRange(payload, 1, 1 + readLength);
-                throw new HciMessageException(data);
-            }
-
-            return payload;
-        }
-
-        @Override
-        public String toString() {
-            return new StringBuilder().append("Control Field: ")
-                    .append(byteAsHexString(controlField))
-                    .append("\nEndpointID:    ")
-                    .append(byteAsHexString(endpointID))
-                    .append("\nMsg ID:        ")
-                    .append(byteAsHexString(msgId))
-                    .append("\nLength:        ")
-                    .append(length)
-                    .append("\nTimestamp:     ")
-                    .append(timeStamp)
-                    .append("\nRSSI:          ")
-                    .append(rSSI)
-                    .append("\nFCS:           ")
-                    .append(fCS)
-                    .append("\nPayload:\n")
-                    .append(HexUtils.bytesToHex(payload))
-                    .toString();
-        }
-
-        private static String byteAsHexString(byte b) {
-            return String.format("%02X", b);
-        }
-
-        public byte[] getPayload() {
-            return payload;
-        }
-
-        public int getRSSI() {
-            return rSSI;
-        }
-
-    }
-
 }
@@ -7,11 +7,10 @@ package org.openmuc.jmbus.wireless;
 
 import java.io.DataOutputStream;
 import java.io.IOException;
-import java.io.InterruptedIOException;
 import java.text.MessageFormat;
-import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadFactory;
 
-import org.openmuc.jmbus.DecodingException;
 import org.openmuc.jmbus.transportlayer.TransportLayer;
 
 /*
@@ -29,31 +28,32 @@ class WMBusConnectionRadioCrafts extends AbstractWMBusConnection {
 
     private class MessageReceiverImpl extends MessageReceiver {
 
-        /**
-         * Indicates message from primary station, function send/no reply (SND -N
-         */
-        private static final byte CONTROL_BYTE = 0x44;
         private final TransportLayer transportLayer;
-
-        private final byte[] discardBuffer = new byte[BUFFER_LENGTH];
-        private int bufferPointer = 0;
+        private final WMBusFrameReader frameReader;
 
         public MessageReceiverImpl(TransportLayer transportLayer, WMBusListener listener) {
-            super(listener);
+            super(WMBusConnectionRadioCrafts.this);
             this.transportLayer = transportLayer;
+            this.frameReader = new WMBusFrameReader(transportLayer.getInputStream(), MESSAGE_FRAGEMENT_TIMEOUT,
+                    false);
         }
 
         @Override
         public void run() {
             try {
+                // the poll interval of the frame reader, it is not changed while receiving
+                transportLayer.setTimeout(MESSAGE_FRAGEMENT_TIMEOUT);
 
                 while (!isClosed()) {
-
-                    byte[] messageData = initMessageData();
-
-                    int len = messageData.length - 2;
-                    handleData(messageData, len);
-
+                    byte[] messageData = frameReader.readFrame();
+
+                    byte[] discardedBytes = frameReader.takeDiscarded();
+                    if (discardedBytes != null) {
+                        super.notifyDiscarded(discardedBytes);
+                    }
+                    if (messageData != null) {
+                        notifyListener(messageData);
+                    }
                 }
             } catch (final IOException e) {
                 if (!isClosed()) {
@@ -62,85 +62,23 @@ class WMBusConnectionRadioCrafts extends AbstractWMBusConnection {
 
             } finally {
                 close();
-                super.shutdown();
             }
 
         }
 
-        private void handleData(byte[] messageData, int len) throws IOException {
-            try {
-                int numReadBytes = getInputStream().read(messageData, 2, len);
-
-                if (len == numReadBytes) {
-                    notifyListener(messageData);
-                }
-                else {
-                    discard(messageData, 0, numReadBytes + 2);
-                }
-            } catch (InterruptedIOException e) {
-                discard(messageData, 0, 2);
-            }
-        }
-
-        private byte[] initMessageData() throws IOException {
-            byte b0, b1;
-            while (true) {
-                this.transportLayer.setTimeout(0);
-                b0 = getInputStream().readByte();
-                this.transportLayer.setTimeout(MESSAGE_FRAGEMENT_TIMEOUT);
-
-                try {
-                    // this may time out.
-                    b1 = getInputStream().readByte();
-                } catch (InterruptedIOException e) {
-                    continue;
-                }
-
-                if (b1 == CONTROL_BYTE) {
-                    break;
-                }
-
-                discardBuffer[bufferPointer++] = b0;
-                discardBuffer[bufferPointer++] = b1;
-
-                if (bufferPointer - 2 >= discardBuffer.length) {
-                    discard(discardBuffer, 0, bufferPointer);
-                    bufferPointer = 0;
-                }
-
-            }
-
-            int messageLength = b0 & 0xff;
-
-            final byte[] messageData = new byte[messageLength + 1];
-            messageData[0] = b0;
-            messageData[1] = b1;
-
-            return messageData;
-        }
-
         private void notifyListener(final byte[] messageBytes) {
             messageBytes[0] = (byte) (messageBytes[0] - 1);
             int rssi = messageBytes[messageBytes.length - 1] & 0xff;
 
             final int signalStrengthInDBm = (rssi * -1) / 2;
-            try {
-                super.notifyNewMessage(WMBusMessage.decode(messageBytes, signalStrengthInDBm, keyMap));
-            } catch (DecodingException e) {
-                super.notifyDiscarded(messageBytes);
-            }
-        }
-
-        private void discard(byte[] buffer, int offset, int length) {
-            final byte[] discardedBytes = Arrays.copyOfRange(buffer, offset, offset + length);
-
-            super.notifyDiscarded(discardedBytes);
+            super.notifyNewMessage(messageBytes, signalStrengthInDBm);
         }
 
     }
 
-    public WMBusConnectionRadioCrafts(WMBusMode mode, WMBusListener listener, TransportLayer tl) {
-        super(mode, listener, tl);
+    public WMBusConnectionRadioCrafts(WMBusMode mode, WMBusListener listener, TransportLayer tl,
+            ExecutorService executor, ThreadFactory threadFactory) {
+        super(mode, listener, tl, executor, threadFactory);
     }
 
     @Override
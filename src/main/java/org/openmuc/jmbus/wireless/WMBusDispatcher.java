@@ -0,0 +1,152 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package org.openmuc.jmbus.wireless;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Delivers received messages to the listeners of wireless connections.
+ * <p>
+ * Every connection queues its messages in a ring buffer of fixed {@link #setCapacity(int) capacity}. The queued
+ * messages are delivered in batches by the executor of the dispatcher, in the order they have been received. A
+ * dispatcher can be shared by many connections, so a few threads serve the listeners of all of them. A connection is
+ * served one batch at a time, so a busy connection does not starve the others.
+ * </p>
+ * <p>
+ * If a listener cannot keep up, its ring buffer fills and the {@link OverflowPolicy} decides what happens to further
+ * messages. By default the receiving connection waits, so no message is lost. Dropped messages are counted, see
+ * {@link #getDroppedMessages()}.
+ * </p>
+ * 
+ * @see WMBusConnection.WMBusSerialBuilder#setDispatcher(WMBusDispatcher)
+ * @see WMBusBatchListener
+ */
+public class WMBusDispatcher {
+
+    /**
+     * What to do with a message if the queue of the connection is full.
+     */
+    public enum OverflowPolicy {
+        /**
+         * The receiving connection waits until the listener has taken messages from the queue. Incoming data is
+         * buffered by the transceiver and the operating system meanwhile.
+         */
+        BLOCK,
+        /**
+         * The oldest queued message is dropped.
+         */
+        DROP_OLDEST,
+        /**
+         * The new message is dropped.
+         */
+        DROP_NEWEST
+    }
+
+    private final Executor executor;
+
+    private int capacity = 1024;
+    private int maxBatchSize = 64;
+    private OverflowPolicy overflowPolicy = OverflowPolicy.BLOCK;
+
+    private final AtomicLong deliveredMessages = new AtomicLong();
+    private final AtomicLong droppedMessages = new AtomicLong();
+    private final AtomicLong blockedOffers = new AtomicLong();
+
+    /**
+     * Creates a dispatcher.
+     * 
+     * @param executor
+     *            the executor delivering the messages, e.g. a fixed thread pool shared by all connections.
+     */
+    public WMBusDispatcher(Executor executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * Sets the capacity of the queue of every connection. Applies to connections opened afterwards.
+     * 
+     * @param capacity
+     *            the number of messages, default is 1024.
+     * @return this dispatcher.
+     */
+    public WMBusDispatcher setCapacity(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be at least 1.");
+        }
+        this.capacity = capacity;
+        return this;
+    }
+
+    /**
+     * @param maxBatchSize
+     *            the maximum number of messages delivered to a listener at once, default is 64.
+     * @return this dispatcher.
+     */
+    public WMBusDispatcher setMaxBatchSize(int maxBatchSize) {
+        if (maxBatchSize < 1) {
+            throw new IllegalArgumentException("Batch size must be at least 1.");
+        }
+        this.maxBatchSize = maxBatchSize;
+        return this;
+    }
+
+    /**
+     * @param overflowPolicy
+     *            what to do if the queue of a connection is full, default is {@link OverflowPolicy#BLOCK}.
+     * @return this dispatcher.
+     */
+    public WMBusDispatcher setOverflowPolicy(OverflowPolicy overflowPolicy) {
+        this.overflowPolicy = overflowPolicy;
+        return this;
+    }
+
+    /**
+     * @return the number of messages and discarded byte sequences delivered to listeners.
+     */
+    public long getDeliveredMessages() {
+        return deliveredMessages.get();
+    }
+
+    /**
+     * @return the number of messages and discarded byte sequences dropped because a queue was full.
+     */
+    public long getDroppedMessages() {
+        return droppedMessages.get();
+    }
+
+    /**
+     * @return the number of times a connection had to wait for a full queue, see {@link OverflowPolicy#BLOCK}.
+     */
+    public long getBlockedOffers() {
+        return blockedOffers.get();
+    }
+
+    DispatchQueue newQueue(WMBusListener listener) {
+        return new DispatchQueue(this, listener, capacity, overflowPolicy);
+    }
+
+    Executor getExecutor() {
+        return executor;
+    }
+
+    int getMaxBatchSize() {
+        return maxBatchSize;
+    }
+
+    void delivered(int count) {
+        deliveredMessages.addAndGet(count);
+    }
+
+    void dropped() {
+        droppedMessages.incrementAndGet();
+    }
+
+    void blocked() {
+        blockedOffers.incrementAndGet();
+    }
+
+}
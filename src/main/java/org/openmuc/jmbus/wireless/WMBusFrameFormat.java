@@ -0,0 +1,127 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package org.openmuc.jmbus.wireless;
+
+import java.text.MessageFormat;
+
+import org.openmuc.jmbus.DecodingException;
+
+/**
+ * The frame formats of the wireless M-Bus link layer (EN 13757-4). They differ in the meaning of the length field and
+ * in the position of the CRCs.
+ * <p>
+ * The transceivers remove the CRCs of frames in format A. Frames in format B are passed as received, the connection
+ * checks and removes their CRCs with {@link #removeCrcs(byte[])}. The frames are then decoded in the form of format
+ * A: the length field counts the bytes following it without CRCs.
+ * </p>
+ */
+public enum WMBusFrameFormat {
+    /**
+     * The length field does not count the CRCs. The first block holds the header of 10 bytes, every further block 16
+     * bytes, each block is followed by its CRC. Used by all modes.
+     */
+    A,
+    /**
+     * The length field counts all following bytes including the CRCs. The header and up to 116 bytes of data share
+     * the first CRC, the rest of the frame is followed by a second CRC. Used by C mode and N mode only.
+     */
+    B;
+
+    private static final int HEADER_LENGTH = 10;
+    private static final int BLOCK_LENGTH = 16;
+    private static final int CRC_LENGTH = 2;
+    // the first two blocks of format B including the CRC
+    private static final int FORMAT_B_BLOCK_2_END = 128;
+
+    private static final int[] CRC_TABLE = new int[256];
+
+    static {
+        // CRC polynomial of EN 13757-4
+        for (int i = 0; i < 256; i++) {
+            int crc = i << 8;
+            for (int j = 0; j < 8; j++) {
+                crc = (crc & 0x8000) != 0 ? (crc << 1) ^ 0x3d65 : crc << 1;
+            }
+            CRC_TABLE[i] = crc & 0xffff;
+        }
+    }
+
+    /**
+     * @param lengthField
+     *            the length field of a frame in this format.
+     * @return the number of bytes of the frame including the length field and the CRCs.
+     */
+    public int getFrameLength(int lengthField) {
+        if (this == B) {
+            return lengthField + 1;
+        }
+        int dataLength = lengthField + 1 - HEADER_LENGTH;
+        int blocks = 1 + (dataLength + BLOCK_LENGTH - 1) / BLOCK_LENGTH;
+        return lengthField + 1 + blocks * CRC_LENGTH;
+    }
+
+    /**
+     * Checks and removes the CRCs of a frame in this format.
+     *
+     * @param frame
+     *            the frame starting with the length field.
+     * @return the frame without CRCs whose length field counts the following bytes, as passed by the transceivers.
+     * @throws DecodingException
+     *             if the frame is too short or a CRC is wrong.
+     */
+    public byte[] removeCrcs(byte[] frame) throws DecodingException {
+        int lengthField = frame[0] & 0xff;
+        int frameLength = getFrameLength(lengthField);
+        if (lengthField < HEADER_LENGTH + (this == B ? CRC_LENGTH : 0) || frame.length < frameLength) {
+            throw new DecodingException(MessageFormat.format(
+                    "Frame of {0} bytes is too short for the length field {1} in format {2}.", frame.length,
+                    lengthField, this));
+        }
+
+        if (this == B) {
+            int crcs = frameLength > FORMAT_B_BLOCK_2_END ? 2 : 1;
+            byte[] result = new byte[frameLength - crcs * CRC_LENGTH];
+            int block2End = Math.min(frameLength, FORMAT_B_BLOCK_2_END) - CRC_LENGTH;
+            copyBlock(frame, 0, block2End, result, 0);
+            if (crcs == 2) {
+                int block3Start = FORMAT_B_BLOCK_2_END;
+                copyBlock(frame, block3Start, frameLength - CRC_LENGTH - block3Start, result, block2End);
+            }
+            result[0] = (byte) (result.length - 1);
+            return result;
+        }
+
+        byte[] result = new byte[lengthField + 1];
+        copyBlock(frame, 0, HEADER_LENGTH, result, 0);
+        int source = HEADER_LENGTH + CRC_LENGTH;
+        for (int target = HEADER_LENGTH; target < result.length; target += BLOCK_LENGTH) {
+            int length = Math.min(BLOCK_LENGTH, result.length - target);
+            copyBlock(frame, source, length, result, target);
+            source += length + CRC_LENGTH;
+        }
+        return result;
+    }
+
+    private static void copyBlock(byte[] frame, int offset, int length, byte[] result, int resultOffset)
+            throws DecodingException {
+        int crc = crc(frame, offset, length);
+        int received = (frame[offset + length] & 0xff) << 8 | frame[offset + length + 1] & 0xff;
+        if (crc != received) {
+            throw new DecodingException(MessageFormat.format("Wrong CRC of the block at {0}: {1} instead of {2}.",
+                    offset, String.format("%04X", received), String.format("%04X", crc)));
+        }
+        System.arraycopy(frame, offset, result, resultOffset, length);
+    }
+
+    static int crc(byte[] bytes, int offset, int length) {
+        int crc = 0;
+        for (int i = offset; i < offset + length; i++) {
+            crc = (crc << 8 ^ CRC_TABLE[(crc >> 8 ^ bytes[i]) & 0xff]) & 0xffff;
+        }
+        return crc ^ 0xffff;
+    }
+
+}
@@ -0,0 +1,122 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package org.openmuc.jmbus.wireless;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * Splits the byte stream of a transceiver that passes the received link layer frames without further framing (Amber,
+ * RadioCrafts) into frames.
+ * <p>
+ * The stream is read in chunks of the bytes available into a reusable buffer and scanned in memory. A frame starts
+ * with its length field followed by the control field 0x44 (SND_NR). Bytes in front of a frame are collected as noise.
+ * A frame that is not completed within the fragment timeout after its last byte is dropped as noise as well; the time
+ * is tracked per chunk, the timeout of the port is never changed while receiving.
+ * </p>
+ */
+class WMBusFrameReader extends ChunkedFrameReader {
+
+    private static final int CONTROL_FIELD = 0x44;
+
+    // Amber modules with UART_CMD_Out_Enable prefix every frame with FF 03 and append an XOR checksum
+    private static final int CMD_PREFIX_0 = 0xff;
+    private static final int CMD_PREFIX_1 = 0x03;
+
+    private final boolean checksumFrames;
+
+    /**
+     * @param is
+     *            the stream of the transceiver, whose read timeout is the poll interval of the reader.
+     * @param fragmentTimeout
+     *            the time in milliseconds after which an incomplete frame is dropped.
+     * @param checksumFrames
+     *            <code>true</code> to accept frames with the FF 03 prefix and trailing checksum of Amber modules.
+     */
+    WMBusFrameReader(InputStream is, long fragmentTimeout, boolean checksumFrames) {
+        super(is, fragmentTimeout);
+        this.checksumFrames = checksumFrames;
+    }
+
+    /**
+     * Reads the next frame. Waits for one poll interval of the stream at most if no frame is complete.
+     * 
+     * @return the frame starting with the length field, or <code>null</code> if no frame has been completed.
+     *         Bytes that have been dropped meanwhile are available through {@link #takeDiscarded()}.
+     * @throws IOException
+     *             if the stream fails.
+     */
+    byte[] readFrame() throws IOException {
+        byte[] frame = nextBufferedFrame();
+        if (frame != null) {
+            return frame;
+        }
+
+        if (!fill()) {
+            return null;
+        }
+        return nextBufferedFrame();
+    }
+
+    private byte[] nextBufferedFrame() {
+        int i = start;
+        int headerLength = 0;
+        while (end - i >= 2) {
+            if (checksumFrames && (buffer[i] & 0xff) == CMD_PREFIX_0 && (buffer[i + 1] & 0xff) == CMD_PREFIX_1) {
+                if (end - i < 4) {
+                    break;
+                }
+                if ((buffer[i + 3] & 0xff) == CONTROL_FIELD) {
+                    headerLength = 2;
+                    break;
+                }
+            }
+            if ((buffer[i + 1] & 0xff) == CONTROL_FIELD) {
+                break;
+            }
+            i++;
+        }
+
+        if (i > start) {
+            addNoise(start, i - start);
+            start = i;
+        }
+        if (end - start < 2 + headerLength) {
+            return null;
+        }
+
+        int frameStart = start + headerLength;
+        int frameLength = (buffer[frameStart] & 0xff) + 1;
+        int checksumLength = headerLength > 0 ? 1 : 0;
+        int totalLength = headerLength + frameLength + checksumLength;
+        if (end - start < totalLength) {
+            return null;
+        }
+
+        byte[] frame = Arrays.copyOfRange(buffer, frameStart, frameStart + frameLength);
+        boolean valid = checksumLength == 0 || checksum(start, headerLength + frameLength) == buffer[start
+                + totalLength - 1];
+        if (!valid) {
+            addNoise(frameStart, frameLength);
+            frame = null;
+        }
+        start += totalLength;
+        if (start == end) {
+            start = end = 0;
+        }
+        return frame;
+    }
+
+    private byte checksum(int offset, int length) {
+        byte checksum = 0;
+        for (int i = offset; i < offset + length; i++) {
+            checksum ^= buffer[i];
+        }
+        return checksum;
+    }
+
+}
@@ -6,6 +6,8 @@
 package org.openmuc.jmbus.wireless;
 
 import java.text.MessageFormat;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 
 import org.openmuc.jmbus.DecodingException;
@@ -43,14 +45,21 @@ public class WMBusMessage {
     private final int controlField;
     private final SecondaryAddress secondaryAddress;
     private final VariableDataStructure vdr;
+    private final List<String> receivers;
+    private final long receiveTime;
+    private final long transceiverTimestamp;
 
     private WMBusMessage(Integer signalStrengthInDBm, byte[] buffer, int controlField,
-            SecondaryAddress secondaryAddress, VariableDataStructure vdr) {
+            SecondaryAddress secondaryAddress, VariableDataStructure vdr, List<String> receivers, long receiveTime,
+            long transceiverTimestamp) {
         this.signalStrengthInDBm = signalStrengthInDBm;
         this.buffer = buffer;
         this.controlField = controlField;
         this.secondaryAddress = secondaryAddress;
         this.vdr = vdr;
+        this.receivers = receivers;
+        this.receiveTime = receiveTime;
+        this.transceiverTimestamp = transceiverTimestamp;
     }
 
     /*
@@ -58,6 +67,17 @@ public class WMBusMessage {
      */
     static WMBusMessage decode(byte[] buffer, Integer signalStrengthInDBm, Map<SecondaryAddress, byte[]> keyMap)
             throws DecodingException {
+        return decode(buffer, signalStrengthInDBm, System.currentTimeMillis(), keyMap,
+                Collections.<String>emptyList());
+    }
+
+    static WMBusMessage decode(byte[] buffer, Integer signalStrengthInDBm, long receiveTime,
+            Map<SecondaryAddress, byte[]> keyMap, List<String> receivers) throws DecodingException {
+        return decode(buffer, signalStrengthInDBm, receiveTime, -1, keyMap, receivers);
+    }
+
+    static WMBusMessage decode(byte[] buffer, Integer signalStrengthInDBm, long receiveTime, long transceiverTimestamp,
+            Map<SecondaryAddress, byte[]> keyMap, List<String> receivers) throws DecodingException {
         int length = buffer[0] & 0xff;
 
         if (length > (buffer.length - 1)) {
@@ -71,7 +91,8 @@ public class WMBusMessage {
         SecondaryAddress secondaryAddress = SecondaryAddress.newFromWMBusHeader(buffer, 2);
         VariableDataStructure vdr = new VariableDataStructure(buffer, 10, length - 9, secondaryAddress, keyMap);
 
-        return new WMBusMessage(signalStrengthInDBm, buffer, controlField, secondaryAddress, vdr);
+        return new WMBusMessage(signalStrengthInDBm, buffer, controlField, secondaryAddress, vdr, receivers,
+                receiveTime, transceiverTimestamp);
     }
 
     /**
@@ -114,6 +135,42 @@ public class WMBusMessage {
         return signalStrengthInDBm;
     }
 
+    /**
+     * Get the receivers that heard the message if it has been received through a {@link WMBusReceiverGroup}. The RSSI
+     * of the message is the best of all receivers then.
+     * 
+     * @return the IDs of the receivers in the order they have received the message, empty if the message has not
+     *         been received through a group.
+     */
+    public List<String> getReceivers() {
+        return receivers;
+    }
+
+    /**
+     * Get the time the message has been received. If the transceiver attaches a receive time stamp to every message
+     * (IMST), the time stamp is converted to the clock of the host. The converted time is never later than the time
+     * the message has been read and keeps the distance to the messages read in the same block, but it is only as
+     * precise as the clock of the transceiver, see {@link #getTransceiverTimestamp()}. Otherwise it is the time the
+     * message has been read from the transceiver. Of a message received through a {@link WMBusReceiverGroup} it is the
+     * earliest receive time of all copies.
+     * 
+     * @return the receive time in milliseconds since the epoch.
+     */
+    public long getReceiveTime() {
+        return receiveTime;
+    }
+
+    /**
+     * Get the receive time stamp the transceiver has attached to the message, the unsigned 32 bit value of its real
+     * time clock. The clock of the IMST modules counts seconds. Of a message received through a
+     * {@link WMBusReceiverGroup} it is the time stamp of the copy with the best RSSI.
+     * 
+     * @return the time stamp or -1 if the transceiver does not attach one.
+     */
+    public long getTransceiverTimestamp() {
+        return transceiverTimestamp;
+    }
+
     @Override
     public String toString() {
         StringBuilder builder = new StringBuilder();
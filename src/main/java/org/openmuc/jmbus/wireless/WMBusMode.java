@@ -20,5 +20,10 @@ public enum WMBusMode {
     /**
      * Stationary (868.3 MHz). Meter sends data few times/day.
      */
-    S;
+    S,
+    /**
+     * Combined reception of C mode and T mode frames (868.95 MHz) by one transceiver, for networks with meters of both
+     * modes. Not every transceiver supports it.
+     */
+    CT;
 }
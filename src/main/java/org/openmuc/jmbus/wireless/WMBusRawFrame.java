@@ -0,0 +1,104 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package org.openmuc.jmbus.wireless;
+
+import java.util.Arrays;
+
+import org.openmuc.jmbus.HexUtils;
+import org.openmuc.jmbus.SecondaryAddress;
+
+/**
+ * A received wireless M-Bus link layer frame that has not been decoded.
+ * <p>
+ * The header fields are read from the frame when they are requested, nothing is decoded in advance.
+ * </p>
+ * 
+ * @see WMBusRawListener
+ */
+public class WMBusRawFrame {
+
+    private final byte[] buffer;
+    private final Integer signalStrengthInDBm;
+    private final long timestamp;
+    private final String receiverId;
+
+    WMBusRawFrame(byte[] buffer, Integer signalStrengthInDBm, long timestamp, String receiverId) {
+        this.buffer = buffer;
+        this.signalStrengthInDBm = signalStrengthInDBm;
+        this.timestamp = timestamp;
+        this.receiverId = receiverId;
+    }
+
+    /**
+     * Get the frame without the CRC checksums, starting with the length field. Trailing bytes added by the transceiver
+     * beyond the length field, e.g. the RSSI, are not part of the frame.
+     * 
+     * @return a copy of the frame.
+     */
+    public byte[] asBlob() {
+        return Arrays.copyOf(buffer, getLength());
+    }
+
+    /**
+     * @return the length of the frame including the length field.
+     */
+    public int getLength() {
+        return Math.min((buffer[0] & 0xff) + 1, buffer.length);
+    }
+
+    /**
+     * @return the control field (C field), e.g. 0x44 for SND_NR.
+     */
+    public int getControlField() {
+        return buffer[1] & 0xff;
+    }
+
+    /**
+     * Decodes the address of the sender from the header of the frame.
+     * 
+     * @return the secondary address.
+     */
+    public SecondaryAddress getSecondaryAddress() {
+        return SecondaryAddress.newFromWMBusHeader(buffer, 2);
+    }
+
+    /**
+     * @return the control information field (CI field) following the address, which tells the structure of the rest
+     *         of the frame.
+     */
+    public int getControlInformation() {
+        return buffer[10] & 0xff;
+    }
+
+    /**
+     * Returns the received signal strength indication (RSSI) in dBm.
+     * 
+     * @return the RSSI or <code>null</code> if the transceiver does not report it.
+     */
+    public Integer getRssi() {
+        return signalStrengthInDBm;
+    }
+
+    /**
+     * @return the time the frame has been received in milliseconds since the epoch.
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * @return the ID of the receiver set on the builder of the connection or <code>null</code> if none has been set.
+     */
+    public String getReceiverId() {
+        return receiverId;
+    }
+
+    @Override
+    public String toString() {
+        return HexUtils.bytesToHex(asBlob());
+    }
+
+}
@@ -0,0 +1,22 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package org.openmuc.jmbus.wireless;
+
+/**
+ * A wireless M-Bus listener that receives the frames as they come from the transceiver. The frames are not decoded,
+ * {@link #newMessage(WMBusMessage)} is not called for listeners of this type.
+ */
+public interface WMBusRawListener extends WMBusListener {
+
+    /**
+     * Received a new wireless M-Bus frame.
+     * 
+     * @param frame
+     *            the frame.
+     */
+    void newRawFrame(WMBusRawFrame frame);
+
+}
@@ -0,0 +1,245 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package org.openmuc.jmbus.wireless;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.openmuc.jmbus.DecodingException;
+import org.openmuc.jmbus.SecondaryAddress;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Merges the messages of several wireless connections with overlapping reception, e.g. receivers in neighbouring
+ * rooms, and delivers every telegram once.
+ * <p>
+ * A telegram is identified by its raw bytes, which include the address of the meter and the access number, so copies
+ * are recognized before they are decoded or decrypted. The first copy of a telegram is held for the
+ * {@link #setHoldTime(long) hold time} to collect the copies of the other receivers. Then the copy with the best RSSI
+ * is decoded and passed to the listener, {@link WMBusMessage#getReceivers()} tells which receivers heard it. Copies
+ * arriving later within the {@link #setDuplicateWindow(long) duplicate window} are dropped. A
+ * {@link WMBusRawListener} gets the best copy undecoded instead.
+ * </p>
+ * <p>
+ * The telegrams are queued for the listener like the messages of a connection and delivered by the
+ * {@link #setDispatcher(WMBusDispatcher) dispatcher} of the group, so a slow listener does not hold up the receivers.
+ * </p>
+ * 
+ * @see WMBusConnection.WMBusSerialBuilder#setReceiverGroup(WMBusReceiverGroup, String)
+ */
+public class WMBusReceiverGroup {
+
+    private final WMBusListener listener;
+    private final ScheduledExecutorService scheduler;
+    private volatile DispatchQueue queue;
+
+    private long holdTime = 100;
+    private long duplicateWindow = 10000;
+
+    // in the order of the first copy, so expired telegrams are at the head
+    private final Map<ByteBuffer, Reception> receptions = new LinkedHashMap<>();
+
+    private final AtomicLong telegrams = new AtomicLong();
+    private final AtomicLong duplicates = new AtomicLong();
+
+    private class Reception implements Runnable {
+        private final long firstReceived;
+        private final List<String> receivers = new ArrayList<>(4);
+        private byte[] buffer;
+        private String receiverId;
+        private Integer signalStrengthInDBm;
+        private Map<SecondaryAddress, byte[]> keyMap;
+        private long receiveTime;
+        private long transceiverTimestamp;
+
+        Reception(long firstReceived, long receiveTime) {
+            this.firstReceived = firstReceived;
+            this.receiveTime = receiveTime;
+        }
+
+        void add(String receiverId, byte[] buffer, Integer signalStrengthInDBm, long receiveTime,
+                long transceiverTimestamp, Map<SecondaryAddress, byte[]> keyMap) {
+            if (!receivers.contains(receiverId)) {
+                receivers.add(receiverId);
+            }
+            this.receiveTime = Math.min(this.receiveTime, receiveTime);
+            if (this.buffer == null || isStronger(signalStrengthInDBm, this.signalStrengthInDBm)) {
+                this.buffer = buffer;
+                this.receiverId = receiverId;
+                this.signalStrengthInDBm = signalStrengthInDBm;
+                this.transceiverTimestamp = transceiverTimestamp;
+                this.keyMap = keyMap;
+            }
+        }
+
+        @Override
+        public void run() {
+            byte[] bestBuffer;
+            String bestReceiver;
+            Integer bestSignalStrength;
+            Map<SecondaryAddress, byte[]> bestKeyMap;
+            long earliestReceiveTime;
+            long bestTimestamp;
+            List<String> heardBy;
+            synchronized (WMBusReceiverGroup.this) {
+                bestBuffer = buffer;
+                bestReceiver = receiverId;
+                bestSignalStrength = signalStrengthInDBm;
+                bestKeyMap = keyMap;
+                earliestReceiveTime = receiveTime;
+                bestTimestamp = transceiverTimestamp;
+                heardBy = Collections.unmodifiableList(new ArrayList<>(receivers));
+            }
+
+            if (listener instanceof WMBusRawListener) {
+                queue.offerRawFrame(
+                        new WMBusRawFrame(bestBuffer, bestSignalStrength, earliestReceiveTime, bestReceiver));
+                return;
+            }
+
+            try {
+                queue.offerMessage(WMBusMessage.decode(bestBuffer, bestSignalStrength, earliestReceiveTime,
+                        bestTimestamp, bestKeyMap, heardBy));
+            } catch (DecodingException e) {
+                queue.offerDiscarded(bestBuffer);
+            }
+        }
+    }
+
+    /**
+     * Creates a receiver group.
+     * 
+     * @param listener
+     *            the listener to get the messages of all receivers of the group.
+     * @param scheduler
+     *            the executor passing the messages to the dispatcher after the hold time.
+     */
+    public WMBusReceiverGroup(WMBusListener listener, ScheduledExecutorService scheduler) {
+        this.listener = listener;
+        this.scheduler = scheduler;
+        this.queue = new WMBusDispatcher(Executors.newCachedThreadPool(
+                new ThreadFactoryBuilder().setNameFormat("jmbus-receiver-group-%d").setDaemon(true).build()))
+                        .newQueue(listener);
+    }
+
+    /**
+     * Sets the dispatcher delivering the messages of the group to the listener. The default is a dispatcher with its
+     * own threads and default settings.
+     * 
+     * @param dispatcher
+     *            the dispatcher, may be shared with the connections. Its executor must not be the scheduler of the
+     *            group if the scheduler has a single thread and the overflow policy is
+     *            {@link WMBusDispatcher.OverflowPolicy#BLOCK}.
+     * @return this group.
+     */
+    public WMBusReceiverGroup setDispatcher(WMBusDispatcher dispatcher) {
+        this.queue = dispatcher.newQueue(listener);
+        return this;
+    }
+
+    /**
+     * @param holdTime
+     *            the time in milliseconds to wait for copies of a telegram before it is delivered, default is 100.
+     * @return this group.
+     */
+    public synchronized WMBusReceiverGroup setHoldTime(long holdTime) {
+        this.holdTime = holdTime;
+        this.duplicateWindow = Math.max(duplicateWindow, holdTime);
+        return this;
+    }
+
+    /**
+     * @param duplicateWindow
+     *            the time in milliseconds after the first copy of a telegram during which further copies are dropped,
+     *            default is 10000. At least the hold time.
+     * @return this group.
+     */
+    public synchronized WMBusReceiverGroup setDuplicateWindow(long duplicateWindow) {
+        this.duplicateWindow = Math.max(duplicateWindow, holdTime);
+        return this;
+    }
+
+    /**
+     * @return the number of distinct telegrams received.
+     */
+    public long getTelegrams() {
+        return telegrams.get();
+    }
+
+    /**
+     * @return the number of copies dropped as duplicates.
+     */
+    public long getDuplicates() {
+        return duplicates.get();
+    }
+
+    void messageReceived(String receiverId, byte[] buffer, Integer signalStrengthInDBm, long receiveTime,
+            long transceiverTimestamp, Map<SecondaryAddress, byte[]> keyMap) {
+        int length = buffer[0] & 0xff;
+        if (length > buffer.length - 1) {
+            // cannot be decoded, leave it to the listener. Queued outside the lock, the queue may wait for the
+            // listener.
+            queue.offerDiscarded(buffer);
+            return;
+        }
+        addCopy(receiverId, buffer, length, signalStrengthInDBm, receiveTime, transceiverTimestamp, keyMap);
+    }
+
+    private synchronized void addCopy(String receiverId, byte[] buffer, int length, Integer signalStrengthInDBm,
+            long receiveTime, long transceiverTimestamp, Map<SecondaryAddress, byte[]> keyMap) {
+        long now = System.currentTimeMillis();
+        expire(now);
+
+        // the length field and the payload, without the RSSI some transceivers append
+        ByteBuffer key = ByteBuffer.wrap(buffer, 0, length + 1);
+
+        Reception reception = receptions.get(key);
+        if (reception != null) {
+            duplicates.incrementAndGet();
+            reception.add(receiverId, buffer, signalStrengthInDBm, receiveTime, transceiverTimestamp, keyMap);
+            return;
+        }
+
+        telegrams.incrementAndGet();
+        reception = new Reception(now, receiveTime);
+        reception.add(receiverId, buffer, signalStrengthInDBm, receiveTime, transceiverTimestamp, keyMap);
+        receptions.put(key, reception);
+        try {
+            scheduler.schedule(reception, holdTime, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // the group has been shut down
+        }
+    }
+
+    private void expire(long now) {
+        Iterator<Reception> iterator = receptions.values().iterator();
+        while (iterator.hasNext()) {
+            if (now - iterator.next().firstReceived < duplicateWindow) {
+                return;
+            }
+            iterator.remove();
+        }
+    }
+
+    private static boolean isStronger(Integer signalStrengthInDBm, Integer other) {
+        if (signalStrengthInDBm == null) {
+            return false;
+        }
+        return other == null || signalStrengthInDBm > other;
+    }
+
+}
@@ -0,0 +1,70 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package org.openmuc.jmbus;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.InterruptedIOException;
+
+import org.junit.Test;
+
+public class AdaptiveTimeoutTest {
+
+    @Test
+    public void testTimeoutsAreLearnedPerMeter() throws Exception {
+        MBusTestBus bus = new MBusTestBus();
+        bus.addMeter(1, 10000001);
+        bus.addMeter(2, 10000002).setResponseDelay(40);
+        bus.addMeter(3, 10000003).setDead(true);
+
+        bus.setTimeout(1000);
+        try (MBusConnection connection = bus.newConnection()) {
+            assertNull(connection.getResponseTimeStatistics(1));
+            connection.enableAdaptiveTimeout(20, 1.5);
+
+            for (int i = 0; i < 5; i++) {
+                connection.read(1);
+                connection.read(2);
+            }
+
+            ResponseTimeStatistics fast = connection.getResponseTimeStatistics(1);
+            assertEquals(5, fast.getSamples());
+            assertTrue(fast.getTimeout() < 1000);
+
+            ResponseTimeStatistics slow = connection.getResponseTimeStatistics(2);
+            assertTrue(slow.getMinimum() >= 40);
+            assertTrue(slow.getTimeout() >= 60);
+            assertTrue(slow.getTimeout() < 1000);
+
+            // a silent address is given the timeout learned from all meters instead of the full timeout
+            long start = System.currentTimeMillis();
+            readFails(connection, 3);
+            assertTrue(System.currentTimeMillis() - start < 800);
+
+            ResponseTimeStatistics dead = connection.getResponseTimeStatistics(3);
+            assertEquals(0, dead.getSamples());
+            assertEquals(1, dead.getTimeouts());
+            // the full timeout is granted once after a timeout
+            assertEquals(1000, dead.getTimeout());
+            readFails(connection, 3);
+            assertTrue(connection.getResponseTimeStatistics(3).getTimeout() < 1000);
+
+            assertEquals(10, connection.getResponseTimeStatistics().getSamples());
+        }
+    }
+
+    private static void readFails(MBusConnection connection, int primaryAddress) throws Exception {
+        try {
+            connection.read(primaryAddress);
+        } catch (InterruptedIOException e) {
+            return;
+        }
+        throw new AssertionError("Expected a timeout.");
+    }
+
+}
@@ -0,0 +1,117 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package org.openmuc.jmbus;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+
+import org.junit.Test;
+
+public class BaudrateSwitchingTest {
+
+    @Test
+    public void testNegotiatedBaudrateIsRemembered() throws Exception {
+        MBusTestBus bus = new MBusTestBus();
+        bus.setTimeout(20);
+        MBusTestBus.Meter fast = bus.addMeter(1, 10000001).setBaudrates(4800, 9600);
+        bus.addMeter(2, 10000002);
+
+        try (MBusConnection connection = bus.newConnection()) {
+            connection.enableBaudrateSwitching(9600, 38400);
+
+            connection.read(1);
+            assertEquals(9600, connection.getMeterBaudrate(1));
+            assertEquals(2400, fast.getBaudrate());
+            assertEquals(2400, bus.getBaudrate());
+
+            int switches = countSwitchCommands(bus);
+            connection.read(1);
+            // one switch up and one back, no further negotiation
+            assertEquals(switches + 2, countSwitchCommands(bus));
+
+            connection.read(2);
+            assertEquals(2400, connection.getMeterBaudrate(2));
+            switches = countSwitchCommands(bus);
+            connection.read(2);
+            assertEquals(switches, countSwitchCommands(bus));
+        }
+    }
+
+    @Test
+    public void testSecondaryAddressReadAtMeterBaudrate() throws Exception {
+        MBusTestBus bus = new MBusTestBus();
+        bus.setTimeout(20);
+        MBusTestBus.Meter meter = bus.addMeter(0, 10000001).setBaudrates(38400).setTelegrams(3);
+
+        try (MBusConnection connection = bus.newConnection()) {
+            connection.enableBaudrateSwitching(38400);
+
+            assertEquals(6, connection.readAll(meter.getSecondaryAddress()).size());
+            assertEquals(38400, connection.getMeterBaudrate(meter.getSecondaryAddress()));
+            assertEquals(2400, meter.getBaudrate());
+        }
+    }
+
+    @Test
+    public void testFallbackToLowerBaudrate() throws Exception {
+        MBusTestBus bus = new MBusTestBus();
+        bus.setTimeout(20);
+        MBusTestBus.Meter meter = bus.addMeter(1, 10000001).setBaudrates(4800, 9600).setFailingBaudrates(4800, 9600);
+
+        try (MBusConnection connection = bus.newConnection()) {
+            connection.enableBaudrateSwitching(4800, 9600);
+
+            // acknowledges 9600 but does not answer at 9600, then at 4800
+            assertReadFails(connection);
+            assertReadFails(connection);
+
+            connection.read(1);
+            assertEquals(2400, connection.getMeterBaudrate(1));
+            assertEquals(2400, meter.getBaudrate());
+
+            int switches = countSwitchCommands(bus);
+            connection.read(1);
+            assertEquals(switches, countSwitchCommands(bus));
+        }
+    }
+
+    @Test
+    public void testFallbackToNextCandidate() throws Exception {
+        MBusTestBus bus = new MBusTestBus();
+        bus.setTimeout(20);
+        bus.addMeter(1, 10000001).setBaudrates(4800, 9600).setFailingBaudrates(9600);
+
+        try (MBusConnection connection = bus.newConnection()) {
+            connection.enableBaudrateSwitching(4800, 9600);
+
+            assertReadFails(connection);
+            connection.read(1);
+            assertEquals(4800, connection.getMeterBaudrate(1));
+        }
+    }
+
+    private static void assertReadFails(MBusConnection connection) {
+        try {
+            connection.read(1);
+            fail("The meter must not answer.");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    private static int countSwitchCommands(MBusTestBus bus) {
+        int count = 0;
+        for (byte[] request : bus.getRequests()) {
+            if (request[0] == 0x68 && (request[6] & 0xff) >= 0xb8 && (request[6] & 0xff) <= 0xbf) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+}
@@ -0,0 +1,112 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package org.openmuc.jmbus;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.Arrays;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.openmuc.jmbus.BusTopologyStore.Entry;
+import org.openmuc.jmbus.BusTopologyStore.ReadoutMode;
+
+public class BusTopologyStoreTest {
+
+    private static final SecondaryAddress METER = MBusTestBus.newSecondaryAddress(12345678);
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testSaveAndLoad() throws Exception {
+        File file = new File(folder.getRoot(), "topology.bin");
+        BusTopologyStore store = BusTopologyStore.load(file);
+        store.scanCompleted("bus1", Arrays.asList(METER, MBusTestBus.newSecondaryAddress(87654321)));
+        store.meterSeen("bus1", METER, 5, 42);
+        store.save();
+
+        BusTopologyStore loaded = BusTopologyStore.load(file);
+
+        assertEquals(Arrays.asList("bus1"), loaded.getBusIds());
+        assertEquals(store.getSecondaryAddresses("bus1"), loaded.getSecondaryAddresses("bus1"));
+        Entry entry = loaded.getEntry("bus1", METER);
+        assertEquals(5, entry.getPrimaryAddress());
+        assertEquals(42, entry.getLatency());
+        assertEquals(ReadoutMode.PRIMARY, entry.getReadoutMode());
+        assertEquals(-1, loaded.getEntry("bus1", MBusTestBus.newSecondaryAddress(87654321)).getPrimaryAddress());
+    }
+
+    @Test
+    public void testReadByPrimaryAddressAfterWarmStart() throws Exception {
+        MBusTestBus bus = new MBusTestBus();
+        bus.addMeter(5, 12345678);
+        BusTopologyStore store = new BusTopologyStore(new File(folder.getRoot(), "topology.bin"));
+        store.scanCompleted("bus1", Arrays.asList(METER));
+
+        MBusConnection connection = bus.newConnection();
+        try {
+            connection.setTopologyStore(store, "bus1");
+
+            connection.read(METER);
+            int selections = bus.countRequests(0x53);
+            assertEquals(ReadoutMode.PRIMARY, store.getEntry("bus1", METER).getReadoutMode());
+
+            assertEquals(METER, connection.read(METER).getSecondaryAddress());
+            assertEquals(selections, bus.countRequests(0x53));
+        } finally {
+            connection.close();
+        }
+    }
+
+    @Test
+    public void testStoredLatencySeedsBothAddresses() throws Exception {
+        MBusTestBus bus = new MBusTestBus();
+        bus.addMeter(5, 12345678);
+        BusTopologyStore store = new BusTopologyStore(new File(folder.getRoot(), "topology.bin"));
+        store.meterSeen("bus1", METER, 5, 42);
+        assertEquals(ReadoutMode.PRIMARY, store.getEntry("bus1", METER).getReadoutMode());
+
+        MBusConnection connection = bus.newConnection();
+        try {
+            connection.enableAdaptiveTimeout(10, 1.5);
+            connection.setTopologyStore(store, "bus1");
+
+            assertEquals(42, connection.getResponseTimeStatistics(METER).getMaximum());
+            assertEquals(42, connection.getResponseTimeStatistics(5).getMaximum());
+
+            connection.read(METER);
+            assertEquals(2, connection.getResponseTimeStatistics(5).getSamples());
+        } finally {
+            connection.close();
+        }
+    }
+
+    @Test
+    public void testChangedPrimaryAddressFallsBackToSelection() throws Exception {
+        MBusTestBus bus = new MBusTestBus();
+        bus.setTimeout(20);
+        bus.addMeter(5, 12345678).setDead(true);
+        bus.addMeter(7, 12345678);
+        BusTopologyStore store = new BusTopologyStore(new File(folder.getRoot(), "topology.bin"));
+        store.meterSeen("bus1", METER, 5, 10);
+
+        MBusConnection connection = bus.newConnection();
+        try {
+            connection.setTopologyStore(store, "bus1");
+
+            assertEquals(METER, connection.read(METER).getSecondaryAddress());
+            assertTrue(bus.countRequests(0x53) > 0);
+            assertEquals(7, store.getEntry("bus1", METER).getPrimaryAddress());
+        } finally {
+            connection.close();
+        }
+    }
+
+}
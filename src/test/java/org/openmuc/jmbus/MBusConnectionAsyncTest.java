@@ -0,0 +1,228 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package org.openmuc.jmbus;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+
+public class MBusConnectionAsyncTest {
+
+    @Test
+    public void testSelectReadDeselectIsNotInterleaved() throws Exception {
+        MBusTestBus bus = new MBusTestBus();
+        for (int i = 1; i <= 5; i++) {
+            bus.addMeter(i, 10000000 + i);
+        }
+
+        try (MBusConnection connection = bus.newConnection()) {
+            List<ListenableFuture<VariableDataStructure>> reads = new ArrayList<>();
+            for (int i = 1; i <= 5; i++) {
+                reads.add(connection.readAsync(MBusTestBus.newSecondaryAddress(10000000 + i)));
+                reads.add(connection.readAsync(i));
+            }
+
+            List<VariableDataStructure> result = Futures.allAsList(reads).get();
+            for (int i = 1; i <= 5; i++) {
+                SecondaryAddress expected = MBusTestBus.newSecondaryAddress(10000000 + i);
+                assertEquals(expected, result.get(2 * (i - 1)).getSecondaryAddress());
+                assertEquals(expected, result.get(2 * (i - 1) + 1).getSecondaryAddress());
+            }
+        }
+
+        List<byte[]> requests = bus.getRequests();
+        for (int i = 0; i < requests.size(); i++) {
+            if (isSelect(requests.get(i))) {
+                assertEquals(0x10, requests.get(i + 1)[0]);
+                assertEquals((byte) 0xfd, requests.get(i + 1)[2]);
+                assertEquals(0x56, requests.get(i + 2)[6]);
+            }
+        }
+    }
+
+    @Test
+    public void testCloseCancelsPendingRequests() throws Exception {
+        MBusTestBus bus = new MBusTestBus();
+        bus.addMeter(1, 10000001).setResponseDelay(100);
+
+        MBusConnection connection = bus.newConnection();
+        connection.readAsync(1);
+        ListenableFuture<VariableDataStructure> second = connection.readAsync(1);
+        Thread.sleep(20);
+        connection.close();
+
+        try {
+            second.get();
+        } catch (CancellationException e) {
+            assertTrue(second.isCancelled());
+            return;
+        }
+        throw new AssertionError("pending request was not cancelled");
+    }
+
+    @Test
+    public void testRequestsAreSequentialOnSharedExecutor() throws Exception {
+        MBusTestBus bus = new MBusTestBus();
+        for (int i = 1; i <= 5; i++) {
+            bus.addMeter(i, 10000000 + i).setResponseDelay(5);
+        }
+
+        ExecutorService executor = Executors.newCachedThreadPool();
+        try (MBusConnection connection = bus.newConnectionBuilder().setExecutor(executor).build()) {
+            List<ListenableFuture<VariableDataStructure>> reads = new ArrayList<>();
+            for (int i = 1; i <= 5; i++) {
+                reads.add(connection.readAsync(MBusTestBus.newSecondaryAddress(10000000 + i)));
+            }
+            assertEquals(5, Futures.allAsList(reads).get().size());
+        }
+        assertFalse("the connection must not shut down a given executor", executor.isShutdown());
+        executor.shutdown();
+
+        // a select is always followed by its read, requests of the shared executor did not overlap
+        List<byte[]> requests = bus.getRequests();
+        for (int i = 0; i < requests.size(); i++) {
+            if (isSelect(requests.get(i))) {
+                assertEquals(0x10, requests.get(i + 1)[0]);
+            }
+        }
+    }
+
+    @Test
+    public void testThreadFactory() throws Exception {
+        MBusTestBus bus = new MBusTestBus();
+        bus.addMeter(1, 10000001);
+
+        final AtomicInteger threads = new AtomicInteger();
+        ThreadFactory threadFactory = new ThreadFactory() {
+
+            @Override
+            public Thread newThread(Runnable r) {
+                threads.incrementAndGet();
+                return new Thread(r);
+            }
+        };
+        try (MBusConnection connection = bus.newConnectionBuilder().setThreadFactory(threadFactory).build()) {
+            connection.readAsync(1).get();
+            connection.readAsync(1).get();
+        }
+        assertEquals(1, threads.get());
+    }
+
+    @Test
+    public void testBlockingReadsFromSeveralThreads() throws Exception {
+        MBusTestBus bus = new MBusTestBus();
+        for (int i = 1; i <= 4; i++) {
+            bus.addMeter(i, 10000000 + i).setResponseDelay(1);
+        }
+
+        try (final MBusConnection connection = bus.newConnection()) {
+            final AtomicInteger errors = new AtomicInteger();
+            List<Thread> threads = new ArrayList<>();
+            for (int i = 1; i <= 4; i++) {
+                final int meter = i;
+                threads.add(new Thread() {
+
+                    @Override
+                    public void run() {
+                        SecondaryAddress secondaryAddress = MBusTestBus.newSecondaryAddress(10000000 + meter);
+                        for (int j = 0; j < 10; j++) {
+                            try {
+                                if (!secondaryAddress.equals(connection.read(secondaryAddress).getSecondaryAddress())
+                                        || !secondaryAddress.equals(connection.read(meter).getSecondaryAddress())) {
+                                    errors.incrementAndGet();
+                                }
+                            } catch (Exception e) {
+                                errors.incrementAndGet();
+                            }
+                        }
+                    }
+                });
+            }
+            for (Thread thread : threads) {
+                thread.start();
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+
+            assertEquals(0, errors.get());
+        }
+    }
+
+    @Test
+    public void testReadAllTelegrams() throws Exception {
+        MBusTestBus bus = new MBusTestBus();
+        bus.addMeter(1, 10000001).setTelegrams(3);
+        bus.addMeter(2, 10000002).setTelegrams(2);
+
+        try (MBusConnection connection = bus.newConnection()) {
+            assertEquals(6, connection.readAll(1).size());
+            assertEquals(3, bus.countRequests(0x7b) + bus.countRequests(0x5b));
+
+            final List<Integer> accessNumbers = new ArrayList<>();
+            connection.readAll(MBusTestBus.newSecondaryAddress(10000002), new DataRecordListener() {
+
+                @Override
+                public void newDataRecord(VariableDataStructure telegram, DataRecord dataRecord) {
+                    accessNumbers.add(telegram.getAccessNumber());
+                }
+            });
+            assertEquals(Arrays.asList(0, 0, 1, 1), accessNumbers);
+        }
+    }
+
+    @Test
+    public void testWriteAll() throws Exception {
+        MBusTestBus bus = new MBusTestBus();
+        bus.setTimeout(20);
+        bus.addMeter(1, 10000001);
+        bus.addMeter(2, 10000002);
+        bus.addMeter(3, 10000003);
+        byte[] data = new byte[] { 0x04, 0x6d, 0x19, 0x0f, (byte) 0x8a, 0x17 };
+
+        try (MBusConnection connection = bus.newConnection()) {
+            List<WriteResult> results = connection.writeAllAsync(Arrays.asList(new WriteRequest(1, data),
+                    new WriteRequest(9, data), new WriteRequest(MBusTestBus.newSecondaryAddress(10000002), data),
+                    new WriteRequest(MBusTestBus.newSecondaryAddress(10000002), data),
+                    new WriteRequest(MBusTestBus.newSecondaryAddress(10000003), data),
+                    new WriteRequest(WriteRequest.BROADCAST_ADDRESS, data))).get();
+
+            List<Boolean> successful = new ArrayList<>();
+            for (WriteResult result : results) {
+                successful.add(result.isSuccessful());
+            }
+            assertEquals(Arrays.asList(true, false, true, true, true, true), successful);
+
+            int selections = 0;
+            int deselections = 0;
+            for (byte[] request : bus.getRequests()) {
+                selections += isSelect(request) ? 1 : 0;
+                deselections += request[0] == 0x68 && request[6] == 0x56 ? 1 : 0;
+            }
+            assertEquals(2, selections);
+            assertEquals(1, deselections);
+        }
+    }
+
+    private static boolean isSelect(byte[] request) {
+        return request[0] == 0x68 && request[6] == 0x52;
+    }
+
+}
@@ -0,0 +1,109 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package org.openmuc.jmbus;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class MBusConnectionPoolTest {
+
+    private MBusTestBus bus1;
+    private MBusTestBus bus2;
+    private MBusConnectionPool pool;
+
+    @Before
+    public void setUp() throws Exception {
+        bus1 = new MBusTestBus();
+        bus2 = new MBusTestBus();
+        bus1.addMeter(1, 11111111);
+        bus2.addMeter(1, 22222222);
+
+        pool = new MBusConnectionPool();
+        pool.addSegment("bus1", bus1.newConnection());
+        pool.addSegment("bus2", bus2.newConnection());
+    }
+
+    @After
+    public void tearDown() {
+        pool.close();
+    }
+
+    @Test
+    public void testReadPrimaryAddressOnSegment() throws Exception {
+        VariableDataStructure vds = pool.read("bus2", 1).get();
+
+        assertEquals(MBusTestBus.newSecondaryAddress(22222222), vds.getSecondaryAddress());
+    }
+
+    @Test
+    public void testReadSecondaryAddressLearnsRoute() throws Exception {
+        SecondaryAddress address = MBusTestBus.newSecondaryAddress(22222222);
+        assertNull(pool.getSegmentId(address));
+
+        VariableDataStructure vds = pool.read(address).get();
+
+        assertEquals(address, vds.getSecondaryAddress());
+        assertEquals("bus2", pool.getSegmentId(address));
+    }
+
+    @Test
+    public void testSearchReturnsFirstResponse() throws Exception {
+        bus1.addMeter(2, 22222222).setResponseDelay(1500);
+        SecondaryAddress address = MBusTestBus.newSecondaryAddress(22222222);
+
+        VariableDataStructure vds = pool.read(address).get(1000, TimeUnit.MILLISECONDS);
+
+        assertEquals(address, vds.getSecondaryAddress());
+        assertEquals("bus2", pool.getSegmentId(address));
+    }
+
+    @Test
+    public void testStaleRouteFallsBackToSearch() throws Exception {
+        SecondaryAddress address = MBusTestBus.newSecondaryAddress(22222222);
+        pool.assignSegment(address, "bus1");
+
+        VariableDataStructure vds = pool.read(address).get();
+
+        assertEquals(address, vds.getSecondaryAddress());
+        assertEquals("bus2", pool.getSegmentId(address));
+    }
+
+    @Test
+    public void testReadAll() throws Exception {
+        SecondaryAddress address1 = MBusTestBus.newSecondaryAddress(11111111);
+        SecondaryAddress address2 = MBusTestBus.newSecondaryAddress(22222222);
+        SecondaryAddress unknown = MBusTestBus.newSecondaryAddress(33333333);
+        pool.assignSegment(address1, "bus1");
+
+        List<VariableDataStructure> result = pool.readAll(Arrays.asList(address1, address2, unknown)).get();
+
+        assertEquals(address1, result.get(0).getSecondaryAddress());
+        assertEquals(address2, result.get(1).getSecondaryAddress());
+        assertNull(result.get(2));
+    }
+
+    @Test
+    public void testUnknownMeterFails() throws Exception {
+        try {
+            pool.read(MBusTestBus.newSecondaryAddress(33333333)).get();
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof java.io.IOException);
+            return;
+        }
+        throw new AssertionError("read of an unknown meter did not fail");
+    }
+
+}
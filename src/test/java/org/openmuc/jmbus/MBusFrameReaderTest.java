@@ -0,0 +1,164 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package org.openmuc.jmbus;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class MBusFrameReaderTest {
+
+    private static final byte[] FRAME = MessagesData.test_ABB_A41_Msg1;
+
+    @Test
+    public void testFrameSplitIntoSingleBytes() throws Exception {
+        MBusFrameReader reader = new MBusFrameReader(new ChunkedInputStream(1, FRAME, new byte[] { (byte) 0xe5 }));
+
+        assertArrayEquals(FRAME, frameOf(reader, reader.readFrame()));
+        assertArrayEquals(new byte[] { (byte) 0xe5 }, frameOf(reader, reader.readFrame()));
+    }
+
+    @Test
+    public void testLeadingNoiseIsSkipped() throws Exception {
+        MBusFrameReader reader = new MBusFrameReader(
+                new ChunkedInputStream(300, new byte[] { 0x00, 0x16, (byte) 0xe5 }, FRAME));
+
+        assertArrayEquals(FRAME, frameOf(reader, reader.readFrame()));
+    }
+
+    @Test
+    public void testGarbageIsReportedAsError() throws Exception {
+        MBusFrameReader reader = new MBusFrameReader(new ChunkedInputStream(10, new byte[] { 0x01, 0x03, 0x07 }));
+        try {
+            reader.readFrame();
+            fail("Expected an error.");
+        } catch (IOException e) {
+            assertFalse(e instanceof InterruptedIOException);
+        }
+    }
+
+    @Test
+    public void testWrongChecksum() throws Exception {
+        byte[] corrupted = FRAME.clone();
+        corrupted[10]++;
+        MBusFrameReader reader = new MBusFrameReader(new ByteArrayInputStream(corrupted));
+        try {
+            reader.readFrame();
+            fail("Expected a checksum error.");
+        } catch (IOException e) {
+            assertEquals(0, MBusFrameReader.checkFrame(FRAME, 0, 3));
+            assertEquals(FRAME.length, MBusFrameReader.checkFrame(FRAME, 0, FRAME.length));
+        }
+    }
+
+    @Test
+    public void testFrameIsReturnedBeforeTimeout() throws Exception {
+        MBusFrameReader reader = new MBusFrameReader(new TimeoutInputStream(500, FRAME));
+
+        long startTime = System.currentTimeMillis();
+        assertArrayEquals(FRAME, frameOf(reader, reader.readFrame()));
+        assertTrue(System.currentTimeMillis() - startTime < 250);
+    }
+
+    @Test(expected = EOFException.class)
+    public void testEndOfStream() throws Exception {
+        new MBusFrameReader(new ByteArrayInputStream(Arrays.copyOf(FRAME, 20))).readFrame();
+    }
+
+    private static byte[] frameOf(MBusFrameReader reader, int length) {
+        int offset = reader.getFrameOffset();
+        return Arrays.copyOfRange(reader.getBuffer(), offset, offset + length);
+    }
+
+    /**
+     * Behaves like a serial port stream which only implements {@link #read()}: once the given bytes have been read,
+     * it blocks until the timeout expires.
+     */
+    private static class TimeoutInputStream extends InputStream {
+        private final int timeout;
+        private final byte[] data;
+        private int position = 0;
+
+        TimeoutInputStream(int timeout, byte[] data) {
+            this.timeout = timeout;
+            this.data = data;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (position < data.length) {
+                return data[position++] & 0xff;
+            }
+            try {
+                Thread.sleep(timeout);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            throw new InterruptedIOException("Read timed out");
+        }
+
+        @Override
+        public int available() {
+            return data.length - position;
+        }
+    }
+
+    /**
+     * Returns the given bytes in chunks of at most the given size.
+     */
+    private static class ChunkedInputStream extends InputStream {
+        private final byte[] data;
+        private final int chunkSize;
+        private int position = 0;
+
+        ChunkedInputStream(int chunkSize, byte[]... parts) {
+            this.chunkSize = chunkSize;
+            int length = 0;
+            for (byte[] part : parts) {
+                length += part.length;
+            }
+            data = new byte[length];
+            int i = 0;
+            for (byte[] part : parts) {
+                System.arraycopy(part, 0, data, i, part.length);
+                i += part.length;
+            }
+        }
+
+        @Override
+        public int read() {
+            return position < data.length ? data[position++] & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (position == data.length) {
+                return -1;
+            }
+            int n = Math.min(Math.min(len, chunkSize), data.length - position);
+            System.arraycopy(data, position, b, off, n);
+            position += n;
+            return n;
+        }
+
+        @Override
+        public int available() {
+            return Math.min(chunkSize, data.length - position);
+        }
+    }
+
+}
@@ -0,0 +1,201 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package org.openmuc.jmbus;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+
+public class MBusNioConnectionTest {
+
+    @Test
+    public void testReadSeveralGatewaysOnOneEventLoop() throws Exception {
+        List<TestGateway> gateways = new ArrayList<>();
+        try (MBusNioConnectionManager manager = new MBusNioConnectionManager(1)) {
+            List<ListenableFuture<MBusNioConnection>> connects = new ArrayList<>();
+            for (int g = 0; g < 3; g++) {
+                MBusTestBus bus = new MBusTestBus();
+                for (int i = 1; i <= 3; i++) {
+                    bus.addMeter(i, 10000000 + g * 10 + i).setResponseDelay(20);
+                }
+                TestGateway gateway = new TestGateway(bus);
+                gateways.add(gateway);
+                connects.add(manager.connect("127.0.0.1", gateway.getPort()));
+            }
+            List<MBusNioConnection> connections = Futures.allAsList(connects).get();
+
+            List<ListenableFuture<VariableDataStructure>> reads = new ArrayList<>();
+            for (int g = 0; g < 3; g++) {
+                for (int i = 1; i <= 3; i++) {
+                    reads.add(connections.get(g).readAsync(i));
+                    reads.add(connections.get(g).readAsync(MBusTestBus.newSecondaryAddress(10000000 + g * 10 + i)));
+                }
+            }
+
+            List<VariableDataStructure> result = Futures.allAsList(reads).get();
+            int n = 0;
+            for (int g = 0; g < 3; g++) {
+                for (int i = 1; i <= 3; i++) {
+                    SecondaryAddress expected = MBusTestBus.newSecondaryAddress(10000000 + g * 10 + i);
+                    assertEquals(expected, result.get(n++).getSecondaryAddress());
+                    assertEquals(expected, result.get(n++).getSecondaryAddress());
+                }
+            }
+
+            connections.get(0).linkReset(1);
+            assertEquals(1, gateways.get(0).bus.countRequests(0x40));
+        } finally {
+            for (TestGateway gateway : gateways) {
+                gateway.close();
+            }
+        }
+    }
+
+    @Test
+    public void testTimeoutAndRefusedConnection() throws Exception {
+        MBusTestBus bus = new MBusTestBus();
+        bus.addMeter(1, 10000001).setDead(true);
+        bus.addMeter(2, 10000002);
+
+        try (MBusNioConnectionManager manager = new MBusNioConnectionManager(1);
+                TestGateway gateway = new TestGateway(bus)) {
+            manager.setTimeout(100);
+            MBusNioConnection connection = manager.connect("127.0.0.1", gateway.getPort()).get();
+
+            try {
+                connection.read(1);
+                fail("Expected a timeout.");
+            } catch (InterruptedIOException e) {
+                // expected
+            }
+            assertEquals(MBusTestBus.newSecondaryAddress(10000002), connection.read(2).getSecondaryAddress());
+
+            connection.close();
+            int closedPort;
+            try (ServerSocket serverSocket = new ServerSocket(0)) {
+                closedPort = serverSocket.getLocalPort();
+            }
+            try {
+                manager.connect("127.0.0.1", closedPort).get();
+                fail("Expected the connection to be refused.");
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof IOException);
+            }
+        }
+    }
+
+    @Test
+    public void testCancelledRequestKeepsBusBusy() throws Exception {
+        MBusTestBus bus = new MBusTestBus();
+        bus.addMeter(1, 10000001).setResponseDelay(200);
+        bus.addMeter(2, 10000002);
+
+        try (MBusNioConnectionManager manager = new MBusNioConnectionManager(1);
+                TestGateway gateway = new TestGateway(bus)) {
+            MBusNioConnection connection = manager.connect("127.0.0.1", gateway.getPort()).get();
+
+            ListenableFuture<VariableDataStructure> cancelled = connection.readAsync(1);
+            ListenableFuture<VariableDataStructure> next = connection.readAsync(2);
+            Thread.sleep(50);
+            assertTrue(cancelled.cancel(false));
+
+            // the late response of meter 1 must not be taken for the response of meter 2
+            assertEquals(MBusTestBus.newSecondaryAddress(10000002), next.get().getSecondaryAddress());
+        }
+    }
+
+    @Test
+    public void testConnectAfterCloseFails() throws Exception {
+        MBusNioConnectionManager manager = new MBusNioConnectionManager(1);
+        manager.close();
+
+        try {
+            manager.connect("127.0.0.1", 10001).get(5, TimeUnit.SECONDS);
+            fail("Expected the connect to fail.");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IOException);
+        }
+    }
+
+    /**
+     * Serves a test bus over TCP like an M-Bus/TCP gateway.
+     */
+    private static class TestGateway implements AutoCloseable, Runnable {
+        private final MBusTestBus bus;
+        private final ServerSocket serverSocket;
+
+        TestGateway(MBusTestBus bus) throws IOException {
+            this.bus = bus;
+            bus.open();
+            this.serverSocket = new ServerSocket(0);
+            Thread thread = new Thread(this);
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        int getPort() {
+            return serverSocket.getLocalPort();
+        }
+
+        @Override
+        public void run() {
+            try (Socket socket = serverSocket.accept()) {
+                DataInputStream is = new DataInputStream(socket.getInputStream());
+                OutputStream os = socket.getOutputStream();
+                while (true) {
+                    byte[] request;
+                    int b0 = is.read();
+                    if (b0 == 0x10) {
+                        request = new byte[5];
+                        is.readFully(request, 1, 4);
+                    }
+                    else if (b0 == 0x68) {
+                        int length = is.read();
+                        request = new byte[length + 6];
+                        request[1] = (byte) length;
+                        is.readFully(request, 2, length + 4);
+                    }
+                    else {
+                        return;
+                    }
+                    request[0] = (byte) b0;
+
+                    bus.getOutputStream().write(request);
+                    int available = bus.getInputStream().available();
+                    if (available > 0) {
+                        byte[] response = new byte[available];
+                        bus.getInputStream().readFully(response);
+                        os.write(response);
+                    }
+                }
+            } catch (IOException e) {
+                // gateway closed
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            serverSocket.close();
+        }
+    }
+
+}
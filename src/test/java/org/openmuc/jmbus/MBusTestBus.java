@@ -0,0 +1,487 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package org.openmuc.jmbus;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.openmuc.jmbus.MBusConnection.MBusTcpBuilder;
+import org.openmuc.jmbus.transportlayer.BaudrateSwitchable;
+import org.openmuc.jmbus.transportlayer.TransportLayer;
+
+/**
+ * Simulates a wired M-Bus segment with a number of slaves. Requests written to the output stream are answered on the
+ * input stream like a real bus would do.
+ */
+public class MBusTestBus implements TransportLayer, BaudrateSwitchable {
+
+    private final List<Meter> meters = new ArrayList<>();
+    private final List<byte[]> requests = new ArrayList<>();
+
+    private final byte[] rxBuffer = new byte[4096];
+    private int rxHead = 0;
+    private int rxTail = 0;
+
+    private boolean closed = true;
+    private int timeout = 200;
+    private int baudrate = 2400;
+    private Meter selected;
+    private Exception writeFailure;
+
+    private final DataInputStream is = new DataInputStream(new BusInputStream());
+    private final DataOutputStream os = new DataOutputStream(new BusOutputStream());
+
+    public static class Meter {
+        private final int primaryAddress;
+        private final SecondaryAddress secondaryAddress;
+        private int telegrams = 1;
+        private int telegramIndex = 0;
+        private long responseDelay = 0;
+        private long lateResponseDelay = 0;
+        private boolean dead;
+        private int[] baudrates = new int[0];
+        private int[] failingBaudrates = new int[0];
+        private int baudrate = 2400;
+
+        Meter(int primaryAddress, SecondaryAddress secondaryAddress) {
+            this.primaryAddress = primaryAddress;
+            this.secondaryAddress = secondaryAddress;
+        }
+
+        public Meter setTelegrams(int telegrams) {
+            this.telegrams = telegrams;
+            return this;
+        }
+
+        public Meter setResponseDelay(long responseDelay) {
+            this.responseDelay = responseDelay;
+            return this;
+        }
+
+        /**
+         * The response arrives after the request has been written, so it may fall into the wait for the response of
+         * the next request.
+         */
+        public Meter setLateResponseDelay(long lateResponseDelay) {
+            this.lateResponseDelay = lateResponseDelay;
+            return this;
+        }
+
+        public Meter setDead(boolean dead) {
+            this.dead = dead;
+            return this;
+        }
+
+        public Meter setBaudrates(int... baudrates) {
+            this.baudrates = baudrates;
+            return this;
+        }
+
+        /**
+         * The meter acknowledges the switch to these baud rates but does not answer requests at them.
+         */
+        public Meter setFailingBaudrates(int... failingBaudrates) {
+            this.failingBaudrates = failingBaudrates;
+            return this;
+        }
+
+        public int getBaudrate() {
+            return baudrate;
+        }
+
+        public SecondaryAddress getSecondaryAddress() {
+            return secondaryAddress;
+        }
+    }
+
+    public static SecondaryAddress newSecondaryAddress(int id) {
+        byte[] idBytes = new byte[] { bcd(id % 100), bcd(id / 100 % 100), bcd(id / 10000 % 100),
+                bcd(id / 1000000 % 100) };
+        return SecondaryAddress.newFromManufactureId(idBytes, "ABB", (byte) 0x02, (byte) 0x07, true);
+    }
+
+    private static byte bcd(int value) {
+        return (byte) ((value / 10) << 4 | value % 10);
+    }
+
+    public MBusConnection newConnection() throws IOException {
+        return newConnectionBuilder().build();
+    }
+
+    public MBusTcpBuilder newConnectionBuilder() {
+        return new MBusTcpBuilder("", 0) {
+            @Override
+            protected TransportLayer buildTransportLayer() {
+                return MBusTestBus.this;
+            }
+        };
+    }
+
+    /**
+     * Lets every following request fail, e.g. with an {@link java.io.EOFException} of a lost connection.
+     * 
+     * @param writeFailure
+     *            an {@link IOException} or a {@link RuntimeException}, or <code>null</code> to answer requests again.
+     */
+    public synchronized void setWriteFailure(Exception writeFailure) {
+        this.writeFailure = writeFailure;
+    }
+
+    private synchronized Exception getWriteFailure() {
+        return writeFailure;
+    }
+
+    public synchronized Meter addMeter(int primaryAddress, int id) {
+        Meter meter = new Meter(primaryAddress, newSecondaryAddress(id));
+        meters.add(meter);
+        return meter;
+    }
+
+    public synchronized Meter getMeter(int id) {
+        SecondaryAddress secondaryAddress = newSecondaryAddress(id);
+        for (Meter meter : meters) {
+            if (meter.secondaryAddress.equals(secondaryAddress)) {
+                return meter;
+            }
+        }
+        return null;
+    }
+
+    public synchronized List<byte[]> getRequests() {
+        return new ArrayList<>(requests);
+    }
+
+    public synchronized int countRequests(int controlField) {
+        int count = 0;
+        for (byte[] request : requests) {
+            if (request[0] == 0x10 && (request[1] & 0xff) == controlField) {
+                count++;
+            }
+            else if (request[0] == 0x68 && (request[4] & 0xff) == controlField) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    @Override
+    public void open() throws IOException {
+        closed = false;
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+    }
+
+    @Override
+    public DataOutputStream getOutputStream() {
+        return os;
+    }
+
+    @Override
+    public DataInputStream getInputStream() {
+        return is;
+    }
+
+    @Override
+    public boolean isClosed() {
+        return closed;
+    }
+
+    @Override
+    public synchronized void setTimeout(int timeout) throws IOException {
+        this.timeout = timeout;
+    }
+
+    @Override
+    public synchronized int getTimeout() throws IOException {
+        return timeout;
+    }
+
+    @Override
+    public synchronized int getBaudrate() {
+        return baudrate;
+    }
+
+    @Override
+    public synchronized void setBaudrate(int baudrate) {
+        this.baudrate = baudrate;
+    }
+
+    private synchronized void handleRequest(byte[] request) {
+        requests.add(request);
+
+        if (request[0] == 0x10) {
+            int cmd = request[1] & 0xff;
+            int address = request[2] & 0xff;
+            List<Meter> addressed = addressed(address);
+            if (cmd == 0x40) {
+                respondAck(addressed);
+            }
+            else if (cmd == 0x5b || cmd == 0x7b) {
+                respondData(addressed);
+            }
+            return;
+        }
+
+        int controlField = request[4] & 0xff;
+        int address = request[5] & 0xff;
+        int ci = request[6] & 0xff;
+
+        if (address == 0xfd && (ci == 0x52 || ci == 0x56)) {
+            byte[] mask = new byte[8];
+            System.arraycopy(request, 7, mask, 0, 8);
+            List<Meter> matching = new ArrayList<>();
+            for (Meter meter : meters) {
+                if (listening(meter) && matches(mask, meter.secondaryAddress.asByteArray())) {
+                    matching.add(meter);
+                }
+            }
+            if (ci == 0x52) {
+                selected = matching.size() == 1 ? matching.get(0) : null;
+            }
+            else {
+                selected = null;
+            }
+            respondAck(matching);
+        }
+        else if ((controlField == 0x53 || controlField == 0x73) && ci >= 0xb8 && ci <= 0xbf) {
+            int newBaudrate = 300 << (ci - 0xb8);
+            List<Meter> switching = new ArrayList<>();
+            for (Meter meter : addressed(address)) {
+                if (newBaudrate == 2400 || Arrays.binarySearch(meter.baudrates, newBaudrate) >= 0) {
+                    switching.add(meter);
+                }
+            }
+            respondAck(switching);
+            for (Meter meter : switching) {
+                meter.baudrate = newBaudrate;
+            }
+        }
+        else if (controlField == 0x53 || controlField == 0x73) {
+            if (address == 0xff) {
+                return;
+            }
+            respondAck(addressed(address));
+        }
+    }
+
+    private List<Meter> addressed(int address) {
+        List<Meter> addressed = new ArrayList<>();
+        if (address == 0xfd) {
+            if (selected != null && listening(selected)) {
+                addressed.add(selected);
+            }
+        }
+        else {
+            for (Meter meter : meters) {
+                if (meter.primaryAddress == address && listening(meter)) {
+                    addressed.add(meter);
+                }
+            }
+        }
+        return addressed;
+    }
+
+    private boolean listening(Meter meter) {
+        // a meter cannot decode frames sent with another baud rate
+        return !meter.dead && meter.baudrate == baudrate;
+    }
+
+    private static boolean matches(byte[] mask, byte[] address) {
+        for (int i = 0; i < mask.length; i++) {
+            int m = mask[i] & 0xff;
+            int a = address[i] & 0xff;
+            if ((m & 0x0f) != 0x0f && (m & 0x0f) != (a & 0x0f)) {
+                return false;
+            }
+            if ((m & 0xf0) != 0xf0 && (m & 0xf0) != (a & 0xf0)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void respondAck(List<Meter> addressed) {
+        if (addressed.isEmpty()) {
+            return;
+        }
+        if (addressed.size() > 1) {
+            respond(addressed.get(0), new byte[] { (byte) 0x7f });
+            return;
+        }
+        respond(addressed.get(0), new byte[] { (byte) 0xe5 });
+    }
+
+    private void respondData(List<Meter> addressed) {
+        if (addressed.isEmpty()) {
+            return;
+        }
+        if (addressed.size() > 1) {
+            respond(addressed.get(0), new byte[] { (byte) 0x68, 0x01, 0x23 });
+            return;
+        }
+        Meter meter = addressed.get(0);
+        if (Arrays.binarySearch(meter.failingBaudrates, meter.baudrate) >= 0) {
+            return;
+        }
+        boolean moreFollow = meter.telegramIndex < meter.telegrams - 1;
+        respond(meter, newRspUd(meter, moreFollow));
+        meter.telegramIndex = moreFollow ? meter.telegramIndex + 1 : 0;
+    }
+
+    private static byte[] newRspUd(Meter meter, boolean moreFollow) {
+        byte[] sa = meter.secondaryAddress.asByteArray();
+        byte[] records = new byte[] { 0x0c, 0x13, 0x45, 0x23, 0x01, 0x00, 0x04, 0x6d, 0x19, 0x0f, (byte) 0x8a,
+                0x17 };
+        int userDataLength = 3 + 12 + records.length + (moreFollow ? 1 : 0);
+
+        byte[] frame = new byte[userDataLength + 6];
+        int i = 0;
+        frame[i++] = 0x68;
+        frame[i++] = (byte) userDataLength;
+        frame[i++] = (byte) userDataLength;
+        frame[i++] = 0x68;
+        frame[i++] = 0x08;
+        frame[i++] = (byte) meter.primaryAddress;
+        frame[i++] = 0x72;
+        System.arraycopy(sa, 0, frame, i, 8);
+        i += 8;
+        frame[i++] = (byte) meter.telegramIndex;
+        frame[i++] = 0x00;
+        frame[i++] = 0x00;
+        frame[i++] = 0x00;
+        System.arraycopy(records, 0, frame, i, records.length);
+        i += records.length;
+        if (moreFollow) {
+            frame[i++] = 0x1f;
+        }
+        int checksum = 0;
+        for (int j = 4; j < i; j++) {
+            checksum += frame[j];
+        }
+        frame[i++] = (byte) checksum;
+        frame[i] = 0x16;
+        return frame;
+    }
+
+    private void respond(Meter meter, final byte[] response) {
+        if (meter.responseDelay > 0) {
+            try {
+                wait(meter.responseDelay);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (meter.lateResponseDelay > 0) {
+            final long delay = meter.lateResponseDelay;
+            Thread responder = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        Thread.sleep(delay);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    synchronized (MBusTestBus.this) {
+                        receive(response);
+                    }
+                }
+            };
+            responder.setDaemon(true);
+            responder.start();
+            return;
+        }
+        receive(response);
+    }
+
+    private void receive(byte[] response) {
+        for (byte b : response) {
+            rxBuffer[rxTail++ % rxBuffer.length] = b;
+        }
+        notifyAll();
+    }
+
+    private synchronized int readBytes(byte[] b, int off, int len) throws IOException {
+        long deadline = System.currentTimeMillis() + timeout;
+        while (rxHead == rxTail) {
+            long remaining = deadline - System.currentTimeMillis();
+            if (closed) {
+                throw new IOException("Bus is closed.");
+            }
+            if (remaining <= 0) {
+                throw new SocketTimeoutException("Read timed out");
+            }
+            try {
+                wait(remaining);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException(e);
+            }
+        }
+        int n = 0;
+        while (n < len && rxHead != rxTail) {
+            b[off + n++] = rxBuffer[rxHead++ % rxBuffer.length];
+        }
+        return n;
+    }
+
+    private class BusInputStream extends InputStream {
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            readBytes(b, 0, 1);
+            return b[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            return readBytes(b, off, len);
+        }
+
+        @Override
+        public int available() {
+            synchronized (MBusTestBus.this) {
+                return rxTail - rxHead;
+            }
+        }
+    }
+
+    private class BusOutputStream extends OutputStream {
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            Exception failure = getWriteFailure();
+            if (failure instanceof IOException) {
+                throw (IOException) failure;
+            }
+            if (failure != null) {
+                throw (RuntimeException) failure;
+            }
+            byte[] request = new byte[len];
+            System.arraycopy(b, off, request, 0, len);
+            handleRequest(request);
+        }
+    }
+
+}
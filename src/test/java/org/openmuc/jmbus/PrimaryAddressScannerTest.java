@@ -0,0 +1,101 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package org.openmuc.jmbus;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class PrimaryAddressScannerTest {
+
+    @Test
+    public void testRespondersAndCollisions() throws Exception {
+        MBusTestBus bus = new MBusTestBus();
+        bus.addMeter(0, 10000001);
+        bus.addMeter(0, 10000002);
+        bus.addMeter(3, 10000003);
+        bus.addMeter(17, 10000017);
+
+        try (MBusConnection connection = bus.newConnection()) {
+            PrimaryAddressScanResult result = new PrimaryAddressScanner(connection).setAddressRange(0, 20)
+                    .setProbeTimeout(10)
+                    .scan();
+
+            assertEquals(Arrays.asList(3, 17), result.getPrimaryAddresses());
+            assertEquals(MBusTestBus.newSecondaryAddress(10000017),
+                    result.getVariableDataStructure(17).getSecondaryAddress());
+            assertEquals(Arrays.asList(0), result.getCollisions());
+            // the responders following an address without a meter are probed twice
+            assertEquals(23, bus.countRequests(0x40));
+            assertEquals(2, bus.countRequests(0x7b) + bus.countRequests(0x5b));
+            assertEquals(200, bus.getTimeout());
+        }
+    }
+
+    @Test
+    public void testSlowResponderIsFound() throws Exception {
+        MBusTestBus bus = new MBusTestBus();
+        // within 330 bit times plus 50ms at 2400 baud
+        bus.addMeter(5, 10000005).setLateResponseDelay(150);
+
+        try (MBusConnection connection = bus.newConnection()) {
+            assertEquals(193, PrimaryAddressScanner.responseWindow(2400));
+            assertEquals(1187, PrimaryAddressScanner.responseWindow(300));
+
+            PrimaryAddressScanResult result = new PrimaryAddressScanner(connection).setAddressRange(4, 7)
+                    .setReadResponders(false)
+                    .scan();
+
+            assertEquals(Arrays.asList(5), result.getPrimaryAddresses());
+            assertTrue(result.getCollisions().isEmpty());
+        }
+    }
+
+    @Test
+    public void testLateAcknowledgementIsNotTakenForNextAddress() throws Exception {
+        MBusTestBus bus = new MBusTestBus();
+        // answers while the next address is probed
+        bus.addMeter(5, 10000005).setLateResponseDelay(150);
+
+        try (MBusConnection connection = bus.newConnection()) {
+            PrimaryAddressScanResult result = new PrimaryAddressScanner(connection).setAddressRange(5, 8)
+                    .setProbeTimeout(100)
+                    .setReadResponders(false)
+                    .scan();
+
+            assertTrue(result.getPrimaryAddresses().isEmpty());
+            assertTrue(result.getCollisions().isEmpty());
+        }
+    }
+
+    @Test
+    public void testPoolScansSegmentsInParallel() throws Exception {
+        MBusTestBus bus1 = new MBusTestBus();
+        MBusTestBus bus2 = new MBusTestBus();
+        bus1.addMeter(1, 10000001);
+        bus2.addMeter(250, 20000250);
+
+        try (MBusConnectionPool pool = new MBusConnectionPool()) {
+            pool.addSegment("bus1", bus1.newConnection());
+            pool.addSegment("bus2", bus2.newConnection());
+
+            long start = System.currentTimeMillis();
+            Map<String, PrimaryAddressScanResult> results = pool.scanPrimaryAddresses(10).get();
+
+            assertEquals(Arrays.asList(1), results.get("bus1").getPrimaryAddresses());
+            assertEquals(Arrays.asList(250), results.get("bus2").getPrimaryAddresses());
+            assertNull(results.get("bus2").getVariableDataStructure(1));
+            // both buses wait for their 250 probe timeouts at the same time
+            assertTrue(System.currentTimeMillis() - start < 2 * 250 * 10);
+        }
+    }
+
+}
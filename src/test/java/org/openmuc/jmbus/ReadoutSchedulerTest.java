@@ -0,0 +1,145 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package org.openmuc.jmbus;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class ReadoutSchedulerTest {
+
+    @Test
+    public void testCyclicReadoutsAndPriority() throws Exception {
+        MBusTestBus bus = new MBusTestBus();
+        bus.addMeter(1, 10000001);
+        bus.addMeter(2, 10000002).setResponseDelay(50);
+        bus.addMeter(3, 10000003);
+
+        RecordingListener listener = new RecordingListener(6);
+        try (MBusConnection connection = bus.newConnection();
+                ReadoutScheduler scheduler = new ReadoutScheduler(listener)) {
+            scheduler.addBus("bus", connection);
+
+            // occupies the bus while the following readouts become due
+            scheduler.schedule(ScheduledReadout.newDeadlineReadout("bus", MBusTestBus.newSecondaryAddress(10000002),
+                    System.currentTimeMillis() + 10000, 0));
+            scheduler.schedule(ScheduledReadout.newDeadlineReadout("bus", MBusTestBus.newSecondaryAddress(10000001),
+                    System.currentTimeMillis() + 10000, 1));
+            scheduler.schedule(ScheduledReadout.newDeadlineReadout("bus", MBusTestBus.newSecondaryAddress(10000003),
+                    System.currentTimeMillis() + 10000, 5));
+            scheduler.schedule(ScheduledReadout.newCyclicReadout("bus", 1, 100, 0));
+
+            assertTrue(listener.latch.await(5, TimeUnit.SECONDS));
+            assertEquals(1, scheduler.getScheduledReadouts("bus"));
+        }
+
+        assertEquals("10000002", listener.readouts.get(0));
+        assertEquals("10000003", listener.readouts.get(1));
+        assertEquals("10000001", listener.readouts.get(2));
+        assertEquals(Collections.nCopies(3, "10000001"), listener.readouts.subList(3, 6));
+    }
+
+    @Test
+    public void testDeadlineReadoutGivesUp() throws Exception {
+        MBusTestBus bus = new MBusTestBus();
+        bus.addMeter(1, 10000001).setDead(true);
+
+        RecordingListener listener = new RecordingListener(1);
+        try (MBusConnection connection = bus.newConnection();
+                ReadoutScheduler scheduler = new ReadoutScheduler(listener)) {
+            scheduler.addBus("bus", connection);
+            scheduler.setRetryBackoff(10, 40);
+            scheduler.schedule(ScheduledReadout.newDeadlineReadout("bus", MBusTestBus.newSecondaryAddress(10000001),
+                    System.currentTimeMillis() + 500, 0));
+
+            assertTrue(listener.latch.await(5, TimeUnit.SECONDS));
+            assertEquals(0, scheduler.getScheduledReadouts("bus"));
+            assertEquals(0, scheduler.getLag("bus"));
+        }
+        assertTrue(listener.failures > 1);
+        assertFalse(listener.lastWillRetry);
+    }
+
+    @Test
+    public void testRescheduleWhileInFlight() throws Exception {
+        MBusTestBus bus = new MBusTestBus();
+        bus.addMeter(1, 10000001).setResponseDelay(200);
+
+        RecordingListener listener = new RecordingListener(1);
+        try (MBusConnection connection = bus.newConnection();
+                ReadoutScheduler scheduler = new ReadoutScheduler(listener)) {
+            scheduler.addBus("bus", connection);
+            ScheduledReadout readout = ScheduledReadout.newDeadlineReadout("bus", 1,
+                    System.currentTimeMillis() + 10000, 0);
+
+            scheduler.schedule(readout);
+            assertTrue(scheduler.cancel(readout));
+            scheduler.schedule(readout);
+
+            // the completion of the cancelled job must not remove the new one
+            assertTrue(listener.latch.await(5, TimeUnit.SECONDS));
+            assertEquals(1, scheduler.getScheduledReadouts("bus"));
+            assertTrue(scheduler.cancel(readout));
+        }
+    }
+
+    @Test
+    public void testClosedConnectionDoesNotBlockBus() throws Exception {
+        MBusTestBus bus = new MBusTestBus();
+        bus.addMeter(1, 10000001);
+
+        RecordingListener listener = new RecordingListener(2);
+        MBusConnection connection = bus.newConnection();
+        connection.close();
+        try (ReadoutScheduler scheduler = new ReadoutScheduler(listener)) {
+            scheduler.addBus("bus", connection);
+            scheduler.setRetryBackoff(10, 40);
+            scheduler.schedule(ScheduledReadout.newDeadlineReadout("bus", 1, System.currentTimeMillis() + 100, 0));
+            scheduler.schedule(ScheduledReadout.newDeadlineReadout("bus", 2, System.currentTimeMillis() + 100, 0));
+
+            // both readouts are tried until their deadline
+            assertTrue(listener.latch.await(5, TimeUnit.SECONDS));
+            assertEquals(0, scheduler.getScheduledReadouts("bus"));
+        }
+        assertFalse(listener.lastWillRetry);
+    }
+
+    private static class RecordingListener implements ReadoutListener {
+        private final List<String> readouts = Collections.synchronizedList(new ArrayList<String>());
+        private final CountDownLatch latch;
+        private volatile int failures;
+        private volatile boolean lastWillRetry = true;
+
+        RecordingListener(int expectedEvents) {
+            this.latch = new CountDownLatch(expectedEvents);
+        }
+
+        @Override
+        public void newReadout(ScheduledReadout readout, VariableDataStructure variableDataStructure) {
+            readouts.add(variableDataStructure.getSecondaryAddress().getDeviceId().toString());
+            latch.countDown();
+        }
+
+        @Override
+        public void readoutFailed(ScheduledReadout readout, IOException cause, boolean willRetry) {
+            failures++;
+            lastWillRetry = willRetry;
+            if (!willRetry) {
+                latch.countDown();
+            }
+        }
+    }
+
+}
@@ -0,0 +1,62 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package org.openmuc.jmbus;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+public class ReadoutSelectionTest {
+
+    @Test
+    public void testSelectionIsSentAsEncoded() throws Exception {
+        ReadoutSelection selection = ReadoutSelection.newBuilder()
+                .add(0x04, 0x13)
+                .add(new byte[] { (byte) 0x84, 0x10 }, new byte[] { (byte) 0xfd, 0x3a })
+                .build();
+
+        MBusTestBus bus = new MBusTestBus();
+        bus.addMeter(1, 10000001);
+        bus.addMeter(2, 10000002);
+        try (MBusConnection connection = bus.newConnection()) {
+            connection.selectForReadout(1, selection);
+            connection.selectForReadout(2, selection);
+        }
+
+        byte[] expected = new byte[] { 0x04, 0x13, (byte) 0x84, 0x10, (byte) 0xfd, 0x3a };
+        List<byte[]> requests = bus.getRequests();
+        assertEquals(2, requests.size());
+        for (byte[] request : requests) {
+            assertEquals(0x51, request[6]);
+            assertArrayEquals(expected, Arrays.copyOfRange(request, 7, 7 + expected.length));
+        }
+    }
+
+    @Test
+    public void testSelectionFromDecodedRecords() throws Exception {
+        VariableDataStructure vds = MBusMessage.decode(MessagesData.test_ABB_A41_Msg1,
+                MessagesData.test_ABB_A41_Msg1.length).getVariableDataResponse();
+        vds.decode();
+        List<DataRecord> dataRecords = vds.getDataRecords().subList(0, 2);
+
+        ReadoutSelection.Builder builder = ReadoutSelection.newBuilder();
+        for (DataRecord dataRecord : dataRecords) {
+            builder.add(dataRecord.getDib(), dataRecord.getVib());
+        }
+
+        assertEquals(builder.build(), ReadoutSelection.of(dataRecords));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMissingExtensionIsRejected() {
+        ReadoutSelection.newBuilder().add(new byte[] { (byte) 0x84 }, new byte[] { 0x13 });
+    }
+
+}
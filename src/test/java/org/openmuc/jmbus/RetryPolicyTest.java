@@ -0,0 +1,165 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package org.openmuc.jmbus;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.openmuc.jmbus.MeterHealth.State;
+
+import com.google.common.util.concurrent.ListenableFuture;
+
+public class RetryPolicyTest {
+
+    private MBusTestBus bus;
+    private MBusTestBus.Meter meter;
+    private MBusConnection connection;
+
+    @Before
+    public void setUp() throws Exception {
+        bus = new MBusTestBus();
+        bus.setTimeout(20);
+        meter = bus.addMeter(1, 10000001).setDead(true);
+        connection = bus.newConnection();
+        connection.setRetryPolicy(
+                new RetryPolicy().setRetries(1).setFailureThreshold(2).setRetryDelay(0, 0).setOpenPeriod(100, 1000));
+    }
+
+    @After
+    public void tearDown() {
+        connection.close();
+    }
+
+    @Test
+    public void testRetryWithLinkReset() throws Exception {
+        meter.setDead(false);
+        assertEquals(MBusTestBus.newSecondaryAddress(10000001), connection.read(1).getSecondaryAddress());
+
+        meter.setDead(true);
+        expectFailure(InterruptedIOException.class);
+
+        assertEquals(3, bus.countRequests(0x7b) + bus.countRequests(0x5b));
+        assertEquals(1, bus.countRequests(0x40));
+        MeterHealth health = connection.getMeterHealth(1);
+        assertEquals(State.CLOSED, health.getState());
+        assertEquals(1, health.getConsecutiveFailures());
+        assertEquals(1, health.getRetries());
+    }
+
+    @Test
+    public void testOpenBreakerSkipsMeterUntilProbe() throws Exception {
+        expectFailure(InterruptedIOException.class);
+        expectFailure(InterruptedIOException.class);
+        assertEquals(State.OPEN, connection.getMeterHealth(1).getState());
+
+        int requests = bus.getRequests().size();
+        expectFailure(MeterUnavailableException.class);
+        assertEquals(requests, bus.getRequests().size());
+        assertEquals(1, connection.getMeterHealth(1).getSkippedReads());
+
+        // the failed probe is not retried and doubles the open period
+        Thread.sleep(120);
+        expectFailure(InterruptedIOException.class);
+        assertEquals(requests + 1, bus.getRequests().size());
+        MeterHealth health = connection.getMeterHealth(1);
+        assertEquals(State.OPEN, health.getState());
+        assertTrue(health.getRetryAt() - System.currentTimeMillis() > 150);
+
+        Thread.sleep(220);
+        meter.setDead(false);
+        connection.read(1);
+        assertEquals(State.CLOSED, connection.getMeterHealth(1).getState());
+        assertEquals(0, connection.getMeterHealth(1).getConsecutiveFailures());
+    }
+
+    @Test
+    public void testAsyncRetryDelayDoesNotBlockQueue() throws Exception {
+        bus.addMeter(2, 10000002);
+        connection.setRetryPolicy(new RetryPolicy().setRetries(1).setRetryDelay(500, 500));
+
+        ListenableFuture<VariableDataStructure> failing = connection.readAsync(1);
+        ListenableFuture<VariableDataStructure> other = connection.readAsync(2);
+
+        // meter 2 is read while the read of meter 1 waits for its retry
+        assertEquals(MBusTestBus.newSecondaryAddress(10000002),
+                other.get(300, TimeUnit.MILLISECONDS).getSecondaryAddress());
+        assertFalse(failing.isDone());
+
+        try {
+            failing.get(5, TimeUnit.SECONDS);
+            fail("Expected a timeout.");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof InterruptedIOException);
+        }
+        assertEquals(1, connection.getMeterHealth(1).getRetries());
+    }
+
+    @Test
+    public void testConnectionFailureIsNotCounted() throws Exception {
+        bus.setWriteFailure(new EOFException("Connection lost."));
+        expectFailure(EOFException.class);
+        expectFailure(EOFException.class);
+        try {
+            connection.readAsync(1).get(5, TimeUnit.SECONDS);
+            fail("Expected EOFException");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof EOFException);
+        }
+
+        MeterHealth health = connection.getMeterHealth(1);
+        assertEquals(State.CLOSED, health.getState());
+        assertEquals(0, health.getFailures());
+        assertEquals(0, health.getRetries());
+    }
+
+    @Test
+    public void testAbortedProbeDoesNotKeepBreakerHalfOpen() throws Exception {
+        expectFailure(InterruptedIOException.class);
+        expectFailure(InterruptedIOException.class);
+        assertEquals(State.OPEN, connection.getMeterHealth(1).getState());
+        Thread.sleep(120);
+
+        // the lost connection says nothing about the meter, the next read is the probe
+        bus.setWriteFailure(new EOFException("Connection lost."));
+        expectFailure(EOFException.class);
+        MeterHealth health = connection.getMeterHealth(1);
+        assertEquals(State.OPEN, health.getState());
+        assertEquals(2, health.getConsecutiveFailures());
+
+        bus.setWriteFailure(new IllegalStateException("Port is not open."));
+        try {
+            connection.read(1);
+            fail("Expected IllegalStateException");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        health = connection.getMeterHealth(1);
+        assertEquals(State.OPEN, health.getState());
+        assertEquals(3, health.getConsecutiveFailures());
+        assertTrue(health.getRetryAt() > System.currentTimeMillis());
+    }
+
+    private void expectFailure(Class<? extends IOException> expected) throws Exception {
+        try {
+            connection.read(1);
+            fail("Expected " + expected.getSimpleName());
+        } catch (IOException e) {
+            assertTrue(e.toString(), expected.isInstance(e));
+        }
+    }
+
+}
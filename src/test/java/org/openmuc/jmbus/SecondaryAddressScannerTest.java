@@ -0,0 +1,122 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package org.openmuc.jmbus;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class SecondaryAddressScannerTest {
+
+    private MBusTestBus bus;
+    private MBusConnection connection;
+
+    @Before
+    public void setUp() throws Exception {
+        bus = newBus(12345678, 12345679, 22345678, 99000001);
+        connection = bus.newConnection();
+    }
+
+    @After
+    public void tearDown() {
+        connection.close();
+    }
+
+    @Test
+    public void testScanFindsMetersSharingDigits() throws Exception {
+        List<SecondaryAddress> found = new SecondaryAddressScanner(connection).scan();
+
+        assertEquals(addresses(12345678, 12345679, 22345678, 99000001), new HashSet<>(found));
+    }
+
+    @Test
+    public void testKnownAddressesSaveProbes() throws Exception {
+        SecondaryAddressScanner scanner = new SecondaryAddressScanner(connection);
+        List<SecondaryAddress> found = scanner.scan();
+        int fullScanProbes = scanner.getProbes();
+
+        final double[] progress = new double[1];
+        scanner.setKnownAddresses(found).setProgressListener(new ScanProgressListener() {
+
+            @Override
+            public void scanProgress(double value, int probes, int devicesFound) {
+                progress[0] = value;
+            }
+        });
+
+        assertEquals(new HashSet<>(found), new HashSet<>(scanner.scan()));
+        assertTrue(scanner.getProbes() < fullScanProbes);
+        assertTrue(scanner.getAddedAddresses().isEmpty());
+        assertTrue(scanner.getRemovedAddresses().isEmpty());
+        assertEquals(1.0, progress[0], 1e-9);
+    }
+
+    @Test
+    public void testSwappedMeterIsReported() throws Exception {
+        SecondaryAddressScanner scanner = new SecondaryAddressScanner(connection);
+        scanner.setKnownAddresses(scanner.scan());
+
+        bus.addMeter(5, 12345670);
+        bus.getMeter(12345679).setDead(true);
+        scanner.scan();
+
+        assertEquals(Arrays.asList(MBusTestBus.newSecondaryAddress(12345670)), scanner.getAddedAddresses());
+        assertEquals(Arrays.asList(MBusTestBus.newSecondaryAddress(12345679)), scanner.getRemovedAddresses());
+    }
+
+    @Test
+    public void testWildcardMask() throws Exception {
+        List<SecondaryAddress> found = new SecondaryAddressScanner(connection).setWildcardMask("7f563412").scan();
+
+        assertEquals(addresses(12345678, 12345679), new HashSet<>(found));
+    }
+
+    @Test
+    public void testPoolScansSegmentsInParallel() throws Exception {
+        MBusConnectionPool pool = new MBusConnectionPool();
+        try {
+            pool.addSegment("bus1", connection);
+            pool.addSegment("bus2", newBus(55555555).newConnection());
+
+            Map<String, List<SecondaryAddress>> found = pool
+                    .scan("ffffffff", Collections.<SecondaryAddress>emptyList())
+                    .get();
+
+            assertEquals(4, found.get("bus1").size());
+            assertEquals(Arrays.asList(MBusTestBus.newSecondaryAddress(55555555)), found.get("bus2"));
+            assertEquals("bus2", pool.getSegmentId(MBusTestBus.newSecondaryAddress(55555555)));
+        } finally {
+            pool.close();
+        }
+    }
+
+    private static MBusTestBus newBus(int... ids) throws Exception {
+        MBusTestBus bus = new MBusTestBus();
+        bus.setTimeout(20);
+        for (int i = 0; i < ids.length; i++) {
+            bus.addMeter(i + 1, ids[i]);
+        }
+        return bus;
+    }
+
+    private static HashSet<SecondaryAddress> addresses(int... ids) {
+        HashSet<SecondaryAddress> addresses = new HashSet<>();
+        for (int id : ids) {
+            addresses.add(MBusTestBus.newSecondaryAddress(id));
+        }
+        return addresses;
+    }
+
+}
@@ -0,0 +1,146 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package org.openmuc.jmbus.wireless;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import org.junit.Test;
+import org.openmuc.jmbus.wireless.WMBusFrameReaderTest.ChunkedInputStream;
+import org.openmuc.jmbus.wireless.WMBusFrameReaderTest.TimeoutInputStream;
+
+public class HciFrameReaderTest {
+
+    // length, SND_NR, address, CI and payload
+    private static final byte[] FRAME = new byte[] { 0x0d, 0x44, 0x2d, 0x2c, 0x06, 0x35, 0x72, 0x60, 0x19, 0x0c,
+            0x7a, 0x01, 0x02, 0x03 };
+
+    @Test
+    public void testSeveralMessagesInOneRead() throws Exception {
+        byte[] first = hciMessage(FRAME, 0x00001000);
+        byte[] second = hciMessage(FRAME, 0x00001001);
+        HciFrameReader reader = new HciFrameReader(new ChunkedInputStream(1024, first, second), 1000);
+
+        HciMessage message = reader.readMessage();
+        assertArrayEquals(FRAME, message.getPayload());
+        assertEquals(0x1000, message.getTimeStamp());
+        assertEquals(-80, message.getRSSI());
+
+        // the second message is decoded from the buffer without reading again
+        assertEquals(0x1001, reader.readMessage().getTimeStamp());
+        assertNull(reader.takeDiscarded());
+    }
+
+    @Test
+    public void testMessageIsReturnedBeforeTimeout() throws Exception {
+        HciFrameReader reader = new HciFrameReader(new TimeoutInputStream(500, hciMessage(FRAME, 0)), 1000);
+
+        long startTime = System.currentTimeMillis();
+        assertArrayEquals(FRAME, reader.readMessage().getPayload());
+        assertTrue(System.currentTimeMillis() - startTime < 250);
+    }
+
+    @Test
+    public void testFcs() throws Exception {
+        assertEquals(0x906e, HciMessage.crc16("123456789".getBytes(StandardCharsets.US_ASCII), 0, 9));
+
+        byte[] valid = withFcs(hciMessage(FRAME, 0x2000));
+        byte[] corrupted = withFcs(hciMessage(FRAME, 0x2001));
+        corrupted[6]++;
+        HciFrameReader reader = new HciFrameReader(new ChunkedInputStream(1024, corrupted, valid), 1000);
+
+        HciMessage message = reader.readMessage();
+        assertNull(message);
+        assertArrayEquals(corrupted, reader.takeDiscarded());
+
+        message = reader.readMessage();
+        assertArrayEquals(FRAME, message.getPayload());
+        assertEquals(0x2000, message.getTimeStamp());
+        assertEquals(-80, message.getRSSI());
+    }
+
+    @Test
+    public void testNoiseAndIncompleteMessage() throws Exception {
+        byte[] noise = new byte[] { 0x01, 0x02 };
+        byte[] fragment = Arrays.copyOf(hciMessage(FRAME, 0), 9);
+        HciFrameReader reader = new HciFrameReader(
+                new ChunkedInputStream(3, noise, hciMessage(FRAME, 0xffffffffL), fragment), 0);
+
+        HciMessage message;
+        while ((message = reader.readMessage()) == null) {
+            // wait for more bytes
+        }
+        assertEquals(0xffffffffL, message.getTimeStamp());
+        assertArrayEquals(noise, reader.takeDiscarded());
+
+        while (reader.readMessage() == null && reader.takeDiscarded() == null) {
+            // the fragment is dropped once the port times out
+        }
+    }
+
+    @Test
+    public void testTimeStampToWallClock() {
+        TransceiverClock clock = new TransceiverClock(1);
+
+        assertEquals(100300, clock.toWallClock(100, 100300));
+        // read late, e.g. together with the next message
+        assertEquals(101300, clock.toWallClock(101, 101900));
+        // read with less latency than before
+        assertEquals(102100, clock.toWallClock(102, 102100));
+        assertEquals(103100, clock.toWallClock(103, 103400));
+
+        // the counter wraps around
+        clock = new TransceiverClock(1);
+        assertEquals(5000, clock.toWallClock(0xffffffffL, 5000));
+        assertEquals(7000, clock.toWallClock(1, 7000));
+
+        // the transceiver has been reset
+        assertEquals(60000, clock.toWallClock(3, 60000));
+
+        // messages read in one block keep their distance and are never later than the read time
+        clock = new TransceiverClock(1);
+        assertEquals(10000, clock.toWallClock(10, 10000));
+        assertEquals(20000, clock.toWallClock(20, 21500));
+        assertEquals(21000, clock.toWallClock(21, 21500));
+    }
+
+    /**
+     * A wireless M-Bus message indication with time stamp and RSSI attached.
+     */
+    private static byte[] hciMessage(byte[] frame, long timeStamp) {
+        int length = frame.length - 1;
+        byte[] message = new byte[4 + length + 4 + 1];
+        message[0] = (byte) 0xa5;
+        message[1] = 0x62;
+        message[2] = 0x03;
+        message[3] = (byte) length;
+        System.arraycopy(frame, 1, message, 4, length);
+        for (int i = 0; i < 4; i++) {
+            message[4 + length + i] = (byte) (timeStamp >> (24 - 8 * i));
+        }
+        // -80 dBm
+        message[message.length - 1] = 87;
+        return message;
+    }
+
+    /**
+     * Sets the CRC16 flag of a message and attaches the FCS.
+     */
+    private static byte[] withFcs(byte[] hciMessage) {
+        byte[] message = Arrays.copyOf(hciMessage, hciMessage.length + 2);
+        message[1] |= 0x80;
+        int fcs = HciMessage.crc16(message, 1, hciMessage.length);
+        message[hciMessage.length] = (byte) fcs;
+        message[hciMessage.length + 1] = (byte) (fcs >> 8);
+        return message;
+    }
+
+}
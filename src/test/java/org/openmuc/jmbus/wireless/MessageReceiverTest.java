@@ -0,0 +1,181 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package org.openmuc.jmbus.wireless;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+import org.openmuc.jmbus.HexUtils;
+import org.openmuc.jmbus.MBusTestBus;
+import org.openmuc.jmbus.transportlayer.TransportLayer;
+import org.openmuc.jmbus.wireless.WMBusConnection.WMBusManufacturer;
+
+import com.google.common.util.concurrent.MoreExecutors;
+
+public class MessageReceiverTest {
+
+    // Kamstrup heat meter 60723506
+    private static final byte[] PACKET = HexUtils.hexToBytes("5C442D2C06357260190C8D207B70032F21271D7802F9FF150"
+            + "11104061765000004EEFF07BFA8000004EEFF08D24F00000414B1FB000002FD170000026CE919426CFF184406F76400004414E"
+            + "8FA0000043B0B0000000259DB11025D1C0B5B");
+
+    @Test
+    public void testReceiverGroupServesRawListener() throws Exception {
+        RecordingRawListener connectionListener = new RecordingRawListener(1);
+        RecordingRawListener groupListener = new RecordingRawListener(1);
+
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+        try {
+            WMBusReceiverGroup group = new WMBusReceiverGroup(groupListener, scheduler).setHoldTime(50);
+            TestConnection kitchen = TestConnection.open(connectionListener);
+            kitchen.setReceiverGroup(group, "kitchen");
+            TestConnection hall = TestConnection.open(connectionListener);
+            hall.setReceiverGroup(group, "hall");
+
+            kitchen.receiver.notifyNewMessage(PACKET.clone(), -80);
+            hall.receiver.notifyNewMessage(PACKET.clone(), -60);
+
+            assertTrue(groupListener.received.await(5, TimeUnit.SECONDS));
+            assertEquals(1, groupListener.frames.size());
+            assertEquals("hall", groupListener.frames.get(0).getReceiverId());
+            assertEquals(0, connectionListener.frames.size());
+            assertEquals(1, group.getDuplicates());
+        } finally {
+            scheduler.shutdown();
+        }
+    }
+
+    @Test
+    public void testTransceiverTimestamp() throws Exception {
+        byte[] packet = Arrays.copyOf(PACKET, (PACKET[0] & 0xff) + 1);
+        RecordingListener listener = new RecordingListener(2);
+        TestConnection connection = TestConnection.open(listener);
+        connection.receiver.notifyNewMessage(packet.clone(), -70, 5000, 0x12345678L);
+        connection.receiver.notifyNewMessage(packet.clone(), -70, 6000);
+
+        assertTrue(listener.received.await(5, TimeUnit.SECONDS));
+        assertEquals(5000, listener.messages.get(0).getReceiveTime());
+        assertEquals(0x12345678L, listener.messages.get(0).getTransceiverTimestamp());
+        assertEquals(-1, listener.messages.get(1).getTransceiverTimestamp());
+    }
+
+    @Test
+    public void testFormatBFrameIsDecoded() throws Exception {
+        byte[] packet = Arrays.copyOf(PACKET, (PACKET[0] & 0xff) + 1);
+        byte[] frame = WMBusFrameFormatTest.toFormatB(packet);
+        byte[] corrupted = frame.clone();
+        corrupted[20]++;
+
+        RecordingListener listener = new RecordingListener(2);
+        TestConnection connection = TestConnection.open(listener, WMBusFrameFormat.B);
+        connection.receiver.notifyNewMessage(corrupted, -70);
+        connection.receiver.notifyNewMessage(frame, -70);
+
+        assertTrue(listener.received.await(5, TimeUnit.SECONDS));
+        assertEquals(1, listener.messages.size());
+        assertEquals("60723506", listener.messages.get(0).getSecondaryAddress().getDeviceId().toString());
+        assertEquals(1, listener.discarded.size());
+        assertArrayEquals(corrupted, listener.discarded.get(0));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testFormatBIsRejectedInModeCT() throws Exception {
+        new WMBusConnection.WMBusTcpBuilder(WMBusManufacturer.AMBER, new RecordingListener(0), "localhost", 1)
+                .setMode(WMBusMode.CT)
+                .setFrameFormat(WMBusFrameFormat.B)
+                .build();
+    }
+
+    /**
+     * A connection without transceiver whose receiver is fed by the test.
+     */
+    static class TestConnection extends AbstractWMBusConnection {
+        private MessageReceiver receiver;
+
+        TestConnection(WMBusListener listener, TransportLayer transportLayer) {
+            super(WMBusMode.C, listener, transportLayer, MoreExecutors.newDirectExecutorService(), null);
+        }
+
+        static TestConnection open(WMBusListener listener) throws IOException {
+            return open(listener, WMBusFrameFormat.A);
+        }
+
+        static TestConnection open(WMBusListener listener, WMBusFrameFormat frameFormat) throws IOException {
+            TestConnection connection = new TestConnection(listener, new MBusTestBus());
+            connection.setFrameFormat(frameFormat);
+            connection.open();
+            return connection;
+        }
+
+        @Override
+        protected MessageReceiver newMessageReceiver(TransportLayer transportLayer, WMBusListener listener) {
+            receiver = new MessageReceiver(this) {
+
+                @Override
+                public void run() {
+                    // fed by the test
+                }
+            };
+            return receiver;
+        }
+
+        @Override
+        protected void initializeWirelessTransceiver(WMBusMode mode) {
+        }
+    }
+
+    static class RecordingListener implements WMBusListener {
+        final List<WMBusMessage> messages = new CopyOnWriteArrayList<>();
+        final List<byte[]> discarded = new CopyOnWriteArrayList<>();
+        final CountDownLatch received;
+
+        RecordingListener(int expected) {
+            this.received = new CountDownLatch(expected);
+        }
+
+        @Override
+        public void newMessage(WMBusMessage message) {
+            messages.add(message);
+            received.countDown();
+        }
+
+        @Override
+        public void discardedBytes(byte[] bytes) {
+            discarded.add(bytes);
+            received.countDown();
+        }
+
+        @Override
+        public void stoppedListening(IOException cause) {
+        }
+    }
+
+    static class RecordingRawListener extends RecordingListener implements WMBusRawListener {
+        final List<WMBusRawFrame> frames = new CopyOnWriteArrayList<>();
+
+        RecordingRawListener(int expected) {
+            super(expected);
+        }
+
+        @Override
+        public void newRawFrame(WMBusRawFrame frame) {
+            frames.add(frame);
+            received.countDown();
+        }
+    }
+
+}
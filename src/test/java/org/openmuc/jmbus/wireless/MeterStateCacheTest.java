@@ -0,0 +1,116 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package org.openmuc.jmbus.wireless;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+import org.openmuc.jmbus.DataRecord.Description;
+import org.openmuc.jmbus.DecodingException;
+import org.openmuc.jmbus.DeviceType;
+import org.openmuc.jmbus.HexUtils;
+import org.openmuc.jmbus.SecondaryAddress;
+import org.openmuc.jmbus.wireless.MeterStateCache.MeterState;
+
+import com.google.common.collect.Iterables;
+
+public class MeterStateCacheTest {
+
+    private static final String HCA_PACKET = "2644333015010100021D72150101003330021D880400402F2F0E6E1001000000002F2F2F2F2F2F6E";
+    private static final String ERROR_FLAGS_PACKET = "2644333015010100021D72150101003330021D790400002F2F02FD971D000004FD08FC0800002F49";
+
+    @Test
+    public void testReadingsOfOneMeter() throws Exception {
+        MeterStateCache cache = new MeterStateCache(2);
+
+        cache.newMessage(message(HCA_PACKET, -70, 1000));
+        cache.newMessage(message(HCA_PACKET, -75, 2000));
+        cache.newMessage(message(HCA_PACKET, -80, 3000));
+
+        SecondaryAddress secondaryAddress = message(HCA_PACKET, 0, 0).getSecondaryAddress();
+        MeterState state = cache.get(secondaryAddress);
+        assertEquals(3, state.getTelegrams());
+        assertEquals(2, state.getReadings());
+        assertEquals(3000, state.getLastSeen());
+        assertEquals(2000, state.getReceiveTime(1));
+        assertEquals(-75, state.getRssi(1));
+        assertEquals(110, state.getValue(0, state.indexOf(Description.HCA)), 0.01);
+
+        assertSame(state, Iterables.getOnlyElement(cache.getByDeviceType(DeviceType.RESERVED_FOR_SENSOR_0X1D)));
+        assertFalse(cache.getByDeviceType(DeviceType.WATER_METER).iterator().hasNext());
+        assertFalse(cache.getNotSeenSince(3000).iterator().hasNext());
+        assertSame(state, Iterables.getOnlyElement(cache.getNotSeenSince(3001)));
+
+        // another layout of data records replaces the readings
+        cache.update(message(ERROR_FLAGS_PACKET, -70, 4000));
+        state = cache.get(secondaryAddress);
+        assertEquals(1, state.getReadings());
+        assertEquals(2, state.getRecords());
+        assertEquals(0, state.getValue(0, state.indexOf(Description.ERROR_FLAGS)), 0.01);
+        assertEquals(-1, state.indexOf(Description.HCA));
+    }
+
+    @Test
+    public void testUndecodableMessageKeepsReading() throws Exception {
+        MeterStateCache cache = new MeterStateCache();
+
+        cache.update(message(HCA_PACKET, -70, 1000));
+        // the same meter with an encrypted block, whose key is missing
+        cache.update(message(HCA_PACKET.replace("880400402F2F", "880410052F2F"), -90, 2000));
+
+        MeterState state = cache.get(message(HCA_PACKET, 0, 0).getSecondaryAddress());
+        assertEquals(2, state.getTelegrams());
+        assertEquals(1, state.getReadings());
+        assertEquals(1000, state.getReceiveTime(0));
+        assertEquals(-70, state.getRssi(0));
+        assertEquals(110, state.getValue(0, state.indexOf(Description.HCA)), 0.01);
+        assertEquals(2000, state.getLastSeen());
+        assertEquals(-90, state.getLastRssi());
+    }
+
+    @Test
+    public void testConcurrentUpdates() throws Exception {
+        final MeterStateCache cache = new MeterStateCache(4);
+        final int updates = 1000;
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        for (int i = 0; i < 4; i++) {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        for (int j = 0; j < updates; j++) {
+                            cache.update(message(HCA_PACKET, -70, j));
+                        }
+                    } catch (DecodingException e) {
+                        throw new AssertionError(e);
+                    }
+                }
+            });
+        }
+        executor.shutdown();
+        executor.awaitTermination(10, TimeUnit.SECONDS);
+
+        assertEquals(1, cache.size());
+        MeterState state = cache.getAll().iterator().next();
+        assertEquals(4 * updates, state.getTelegrams());
+        assertEquals(4, state.getReadings());
+    }
+
+    private static WMBusMessage message(String packet, int rssi, long receiveTime) throws DecodingException {
+        return WMBusMessage.decode(HexUtils.hexToBytes(packet), rssi, receiveTime,
+                new HashMap<SecondaryAddress, byte[]>(), Collections.<String>emptyList());
+    }
+
+}
@@ -0,0 +1,97 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package org.openmuc.jmbus.wireless;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+import org.openmuc.jmbus.HexUtils;
+import org.openmuc.jmbus.SecondaryAddress;
+import org.openmuc.jmbus.wireless.ReceptionStatistics.Entry;
+
+public class ReceptionStatisticsTest {
+
+    private static final byte[] PACKET = HexUtils.hexToBytes("5C442D2C06357260190C8D207B70032F21271D7802F9FF150"
+            + "11104061765000004EEFF07BFA8000004EEFF08D24F00000414B1FB000002FD170000026CE919426CFF184406F76400004414E"
+            + "8FA0000043B0B0000000259DB11025D1C0B5B");
+
+    private static final SecondaryAddress METER = SecondaryAddress.newFromWMBusHeader(PACKET, 2);
+
+    @Test
+    public void testIntervalGapsAndDuplicates() {
+        ReceptionStatistics statistics = new ReceptionStatistics(10);
+
+        // a telegram every minute, the 4th and 5th are missed
+        long[] receiveTimes = { 0, 60000, 120000, 300000, 360500 };
+        for (int i = 0; i < receiveTimes.length; i++) {
+            statistics.frameReceived(telegram(i), -70, receiveTimes[i], "roof");
+        }
+        statistics.frameReceived(telegram(4), -72, 361000, "roof");
+
+        Entry entry = statistics.get(METER, "roof");
+        assertEquals(5, entry.getTelegrams());
+        assertEquals(2, entry.getMissedTelegrams());
+        assertEquals(1, entry.getDuplicates());
+        assertEquals(360500, entry.getLastSeen());
+        assertEquals(60000, entry.getExpectedInterval(), 100);
+        assertEquals(5.0 / 7, entry.getReceptionRate(), 0.001);
+        assertEquals(1.0 / 6, entry.getDuplicateRatio(), 0.001);
+
+        int[] histogram = new int[ReceptionStatistics.RSSI_BINS];
+        // -70 dBm falls into the bin from -70 to -66 dBm
+        histogram[11] = 5;
+        assertEquals(Arrays.toString(histogram), Arrays.toString(entry.getRssiHistogram()));
+    }
+
+    @Test
+    public void testFirstIntervalSpansGap() {
+        ReceptionStatistics statistics = new ReceptionStatistics(10);
+
+        // a telegram every minute, the 2nd and 3rd and later the 6th to 9th are missed
+        long[] receiveTimes = { 0, 180000, 240000, 300000, 600000 };
+        for (int i = 0; i < receiveTimes.length; i++) {
+            statistics.frameReceived(telegram(i), -70, receiveTimes[i], "roof");
+        }
+
+        Entry entry = statistics.get(METER, "roof");
+        assertEquals(5, entry.getTelegrams());
+        assertEquals(60000, entry.getExpectedInterval(), 100);
+        // the telegrams lost before the interval was known are not counted
+        assertEquals(4, entry.getMissedTelegrams());
+    }
+
+    @Test
+    public void testReceiversAndCapacity() {
+        ReceptionStatistics statistics = new ReceptionStatistics(2);
+
+        statistics.frameReceived(telegram(0), -60, 0, "roof");
+        statistics.frameReceived(telegram(0), -90, 0, "cellar");
+        statistics.decodingFailed(telegram(0), "cellar");
+        statistics.decodingFailed(METER, "roof");
+
+        byte[] otherMeter = telegram(0);
+        otherMeter[4]++;
+        statistics.frameReceived(otherMeter, -60, 0, "roof");
+
+        assertEquals(Arrays.asList("roof", "cellar"), statistics.getReceiverIds());
+        assertEquals(2, statistics.get(METER).size());
+        assertEquals(1, statistics.get(METER, "roof").getDecodingFailures());
+        assertEquals(1.0, statistics.get(METER, "cellar").getFailureRate(), 0.001);
+        assertEquals(2, statistics.size());
+        assertEquals(1, statistics.getUntrackedFrames());
+        assertNull(statistics.get(SecondaryAddress.newFromWMBusHeader(otherMeter, 2), "roof"));
+    }
+
+    private static byte[] telegram(int accessNumber) {
+        byte[] telegram = PACKET.clone();
+        telegram[11] = (byte) accessNumber;
+        return telegram;
+    }
+
+}
@@ -0,0 +1,66 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package org.openmuc.jmbus.wireless;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.openmuc.jmbus.DeviceType;
+import org.openmuc.jmbus.HexUtils;
+import org.openmuc.jmbus.SecondaryAddress;
+
+public class WMBusAddressFilterTest {
+
+    // Kamstrup heat meter 60723506
+    private static final byte[] PACKET = HexUtils.hexToBytes("5C442D2C06357260190C8D207B70032F21271D7802F9FF150"
+            + "11104061765000004EEFF07BFA8000004EEFF08D24F00000414B1FB000002FD170000026CE919426CFF184406F76400004414E"
+            + "8FA0000043B0B0000000259DB11025D1C0B5B");
+
+    private static final SecondaryAddress METER = SecondaryAddress.newFromWMBusHeader(PACKET, 2);
+
+    @Test
+    public void testAllowAndDeny() {
+        byte[] foreign = PACKET.clone();
+        foreign[4]++;
+
+        WMBusAddressFilter filter = new WMBusAddressFilter();
+        assertTrue(filter.accept(foreign, 2));
+
+        filter.allow(METER);
+        assertTrue(filter.accept(PACKET, 2));
+        assertFalse(filter.accept(foreign, 2));
+
+        filter.deny(METER);
+        assertFalse(filter.accept(PACKET, 2));
+
+        assertEquals(2, filter.getAcceptedFrames());
+        assertEquals(2, filter.getRejectedFrames());
+    }
+
+    @Test
+    public void testAllowLongHeaderAddress() {
+        byte[] longHeader = new byte[] { 0x06, 0x35, 0x72, 0x60, 0x2d, 0x2c, 0x19, 0x0c };
+        WMBusAddressFilter filter = new WMBusAddressFilter()
+                .allow(SecondaryAddress.newFromLongHeader(longHeader, 0));
+
+        assertTrue(filter.accept(PACKET, 2));
+    }
+
+    @Test
+    public void testManufacturerAndDeviceType() {
+        assertTrue(new WMBusAddressFilter().allowManufacturer("KAM").accept(PACKET, 2));
+        assertFalse(new WMBusAddressFilter().allowManufacturer("ABB").accept(PACKET, 2));
+
+        WMBusAddressFilter filter = new WMBusAddressFilter().allowManufacturer("kam")
+                .allowDeviceType(DeviceType.WATER_METER);
+        assertFalse(filter.accept(PACKET, 2));
+        filter.allowDeviceType(DeviceType.HEAT_METER_INLET);
+        assertTrue(filter.accept(PACKET, 2));
+    }
+
+}
@@ -0,0 +1,211 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package org.openmuc.jmbus.wireless;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.io.IOException;
+import java.lang.Thread.UncaughtExceptionHandler;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+
+import org.junit.Test;
+import org.openmuc.jmbus.HexUtils;
+import org.openmuc.jmbus.SecondaryAddress;
+import org.openmuc.jmbus.wireless.WMBusDispatcher.OverflowPolicy;
+
+public class WMBusDispatcherTest {
+
+    private static final byte[] PACKET = HexUtils.hexToBytes("5C442D2C06357260190C8D207B70032F21271D7802F9FF150"
+            + "11104061765000004EEFF07BFA8000004EEFF08D24F00000414B1FB000002FD170000026CE919426CFF184406F76400004414E"
+            + "8FA0000043B0B0000000259DB11025D1C0B5B");
+
+    /**
+     * Runs the delivery tasks only when the test says so, like a listener that cannot keep up.
+     */
+    private static class ManualExecutor implements Executor {
+        private final Queue<Runnable> tasks = new LinkedList<>();
+
+        @Override
+        public synchronized void execute(Runnable task) {
+            tasks.add(task);
+        }
+
+        synchronized void runAll() {
+            while (!tasks.isEmpty()) {
+                tasks.poll().run();
+            }
+        }
+    }
+
+    private static class RecordingListener implements WMBusBatchListener {
+        private final List<Integer> batchSizes = new ArrayList<>();
+        private final List<WMBusMessage> messages = new ArrayList<>();
+        private final List<byte[]> discarded = new ArrayList<>();
+        private IOException stopCause;
+
+        @Override
+        public void newMessages(List<WMBusMessage> messages) {
+            batchSizes.add(messages.size());
+            this.messages.addAll(messages);
+        }
+
+        @Override
+        public void newMessage(WMBusMessage message) {
+            throw new AssertionError("batch listener must not get single messages");
+        }
+
+        @Override
+        public void discardedBytes(byte[] bytes) {
+            discarded.add(bytes);
+        }
+
+        @Override
+        public void stoppedListening(IOException cause) {
+            stopCause = cause;
+        }
+    }
+
+    @Test
+    public void testBatchesAndDropOldest() throws Exception {
+        ManualExecutor executor = new ManualExecutor();
+        WMBusDispatcher dispatcher = new WMBusDispatcher(executor).setCapacity(8)
+                .setMaxBatchSize(5)
+                .setOverflowPolicy(OverflowPolicy.DROP_OLDEST);
+        RecordingListener listener = new RecordingListener();
+        DispatchQueue queue = dispatcher.newQueue(listener);
+
+        List<WMBusMessage> sent = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            WMBusMessage message = WMBusMessage.decode(PACKET, i, new HashMap<SecondaryAddress, byte[]>());
+            sent.add(message);
+            queue.offerMessage(message);
+        }
+        IOException cause = new IOException("closed");
+        queue.stop(cause);
+        executor.runAll();
+
+        assertEquals(2, dispatcher.getDroppedMessages());
+        assertEquals(8, dispatcher.getDeliveredMessages());
+        assertEquals(Arrays.asList(5, 3), listener.batchSizes);
+        assertEquals(sent.subList(2, 10), listener.messages);
+        assertSame(cause, listener.stopCause);
+    }
+
+    @Test
+    public void testDropNewestKeepsOrderOfDiscardedBytes() throws Exception {
+        ManualExecutor executor = new ManualExecutor();
+        WMBusDispatcher dispatcher = new WMBusDispatcher(executor).setCapacity(2)
+                .setOverflowPolicy(OverflowPolicy.DROP_NEWEST);
+        RecordingListener listener = new RecordingListener();
+        DispatchQueue queue = dispatcher.newQueue(listener);
+
+        WMBusMessage message = WMBusMessage.decode(PACKET, 0, new HashMap<SecondaryAddress, byte[]>());
+        byte[] noise = new byte[] { 0x01, 0x02 };
+        queue.offerDiscarded(noise);
+        queue.offerMessage(message);
+        queue.offerMessage(message);
+        executor.runAll();
+
+        assertEquals(1, dispatcher.getDroppedMessages());
+        assertEquals(Arrays.asList(noise), listener.discarded);
+        assertEquals(Arrays.asList(message), listener.messages);
+    }
+
+    @Test(timeout = 5000)
+    public void testBlockWaitsForListener() throws Exception {
+        ManualExecutor executor = new ManualExecutor();
+        WMBusDispatcher dispatcher = new WMBusDispatcher(executor).setCapacity(1)
+                .setOverflowPolicy(OverflowPolicy.BLOCK);
+        RecordingListener listener = new RecordingListener();
+        final DispatchQueue queue = dispatcher.newQueue(listener);
+        final WMBusMessage message = WMBusMessage.decode(PACKET, 0, new HashMap<SecondaryAddress, byte[]>());
+
+        queue.offerMessage(message);
+        Thread receiver = new Thread() {
+            @Override
+            public void run() {
+                queue.offerMessage(message);
+            }
+        };
+        receiver.start();
+        while (dispatcher.getBlockedOffers() == 0) {
+            Thread.sleep(1);
+        }
+
+        executor.runAll();
+        receiver.join();
+        executor.runAll();
+
+        assertEquals(0, dispatcher.getDroppedMessages());
+        assertEquals(2, listener.messages.size());
+    }
+
+    @Test
+    public void testFailingListenerGetsRestOfBatch() throws Exception {
+        ManualExecutor executor = new ManualExecutor();
+        WMBusDispatcher dispatcher = new WMBusDispatcher(executor);
+        final List<WMBusMessage> received = new ArrayList<>();
+        final List<IOException> stopCauses = new ArrayList<>();
+        DispatchQueue queue = dispatcher.newQueue(new WMBusListener() {
+
+            @Override
+            public void newMessage(WMBusMessage message) {
+                received.add(message);
+                if (received.size() == 1) {
+                    throw new IllegalStateException("listener failed");
+                }
+            }
+
+            @Override
+            public void discardedBytes(byte[] bytes) {
+                throw new IllegalStateException("listener failed");
+            }
+
+            @Override
+            public void stoppedListening(IOException cause) {
+                stopCauses.add(cause);
+            }
+        });
+
+        List<WMBusMessage> sent = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            WMBusMessage message = WMBusMessage.decode(PACKET, i, new HashMap<SecondaryAddress, byte[]>());
+            sent.add(message);
+            queue.offerMessage(message);
+        }
+        queue.offerDiscarded(new byte[] { 0x01 });
+        IOException cause = new IOException("closed");
+        queue.stop(cause);
+
+        final List<Throwable> failures = new ArrayList<>();
+        Thread thread = Thread.currentThread();
+        UncaughtExceptionHandler handler = thread.getUncaughtExceptionHandler();
+        thread.setUncaughtExceptionHandler(new UncaughtExceptionHandler() {
+
+            @Override
+            public void uncaughtException(Thread t, Throwable e) {
+                failures.add(e);
+            }
+        });
+        try {
+            executor.runAll();
+        } finally {
+            thread.setUncaughtExceptionHandler(handler);
+        }
+
+        assertEquals(sent, received);
+        assertEquals(Arrays.asList(cause), stopCauses);
+        assertEquals(2, failures.size());
+    }
+
+}
@@ -0,0 +1,91 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package org.openmuc.jmbus.wireless;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import org.junit.Test;
+import org.openmuc.jmbus.DecodingException;
+import org.openmuc.jmbus.HexUtils;
+
+public class WMBusFrameFormatTest {
+
+    // Kamstrup heat meter 60723506, without CRCs
+    private static final byte[] RECEIVED = HexUtils.hexToBytes("5C442D2C06357260190C8D207B70032F21271D7802F9FF150"
+            + "11104061765000004EEFF07BFA8000004EEFF08D24F00000414B1FB000002FD170000026CE919426CFF184406F76400004414E"
+            + "8FA0000043B0B0000000259DB11025D1C0B5B");
+    private static final byte[] PACKET = Arrays.copyOf(RECEIVED, (RECEIVED[0] & 0xff) + 1);
+
+    @Test
+    public void testCrc() {
+        byte[] check = "123456789".getBytes(StandardCharsets.US_ASCII);
+        assertEquals(0xC2B7, WMBusFrameFormat.crc(check, 0, check.length));
+    }
+
+    @Test
+    public void testFormatA() throws DecodingException {
+        ByteArrayOutputStream frame = new ByteArrayOutputStream();
+        appendBlock(frame, PACKET, 0, 10);
+        for (int i = 10; i < PACKET.length; i += 16) {
+            appendBlock(frame, PACKET, i, Math.min(16, PACKET.length - i));
+        }
+        byte[] bytes = frame.toByteArray();
+
+        assertEquals(bytes.length, WMBusFrameFormat.A.getFrameLength(PACKET[0] & 0xff));
+        assertArrayEquals(PACKET, WMBusFrameFormat.A.removeCrcs(bytes));
+    }
+
+    @Test
+    public void testFormatB() throws DecodingException {
+        byte[] frame = toFormatB(PACKET);
+        assertEquals((PACKET[0] & 0xff) + 2, frame[0] & 0xff);
+        assertEquals(frame.length, WMBusFrameFormat.B.getFrameLength(frame[0] & 0xff));
+        assertArrayEquals(PACKET, WMBusFrameFormat.B.removeCrcs(frame));
+
+        // frames longer than 128 bytes carry a second CRC
+        byte[] longPacket = Arrays.copyOf(PACKET, 150);
+        for (int i = PACKET.length; i < longPacket.length; i++) {
+            longPacket[i] = (byte) i;
+        }
+        longPacket[0] = (byte) (longPacket.length - 1);
+        frame = toFormatB(longPacket);
+        assertEquals(longPacket.length + 4, frame.length);
+        assertArrayEquals(longPacket, WMBusFrameFormat.B.removeCrcs(frame));
+    }
+
+    @Test(expected = DecodingException.class)
+    public void testWrongCrc() throws DecodingException {
+        byte[] frame = toFormatB(PACKET);
+        frame[20]++;
+        WMBusFrameFormat.B.removeCrcs(frame);
+    }
+
+    static byte[] toFormatB(byte[] packet) {
+        ByteArrayOutputStream frame = new ByteArrayOutputStream();
+        byte[] bytes = packet.clone();
+        int crcs = packet.length + 2 > 128 ? 2 : 1;
+        bytes[0] = (byte) (packet.length - 1 + crcs * 2);
+        int block2End = Math.min(packet.length, 126);
+        appendBlock(frame, bytes, 0, block2End);
+        if (crcs == 2) {
+            appendBlock(frame, bytes, block2End, packet.length - block2End);
+        }
+        return frame.toByteArray();
+    }
+
+    private static void appendBlock(ByteArrayOutputStream frame, byte[] bytes, int offset, int length) {
+        frame.write(bytes, offset, length);
+        int crc = WMBusFrameFormat.crc(bytes, offset, length);
+        frame.write(crc >> 8);
+        frame.write(crc);
+    }
+
+}
@@ -0,0 +1,167 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package org.openmuc.jmbus.wireless;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.SocketTimeoutException;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class WMBusFrameReaderTest {
+
+    // length, SND_NR, address, CI and payload followed by the RSSI
+    private static final byte[] FRAME = new byte[] { 0x0e, 0x44, 0x2d, 0x2c, 0x06, 0x35, 0x72, 0x60, 0x19, 0x0c,
+            0x7a, 0x01, 0x02, 0x03, (byte) 0xa0 };
+
+    @Test
+    public void testFrameSplitIntoSingleBytes() throws Exception {
+        byte[] noise = new byte[] { 0x01, 0x02, 0x03 };
+        WMBusFrameReader reader = new WMBusFrameReader(new ChunkedInputStream(1, noise, FRAME, FRAME), 1000, false);
+
+        assertArrayEquals(FRAME, nextFrame(reader));
+        assertArrayEquals(noise, reader.takeDiscarded());
+        assertArrayEquals(FRAME, nextFrame(reader));
+        assertNull(reader.takeDiscarded());
+    }
+
+    @Test
+    public void testFrameIsReturnedBeforeTimeout() throws Exception {
+        WMBusFrameReader reader = new WMBusFrameReader(new TimeoutInputStream(500, FRAME), 1000, false);
+
+        long startTime = System.currentTimeMillis();
+        assertArrayEquals(FRAME, reader.readFrame());
+        assertTrue(System.currentTimeMillis() - startTime < 250);
+    }
+
+    @Test
+    public void testChecksumFrames() throws Exception {
+        byte[] prefixed = new byte[FRAME.length + 3];
+        prefixed[0] = (byte) 0xff;
+        prefixed[1] = 0x03;
+        System.arraycopy(FRAME, 0, prefixed, 2, FRAME.length);
+        byte checksum = 0;
+        for (int i = 0; i < prefixed.length - 1; i++) {
+            checksum ^= prefixed[i];
+        }
+        prefixed[prefixed.length - 1] = checksum;
+        byte[] corrupted = prefixed.clone();
+        corrupted[5]++;
+
+        WMBusFrameReader reader = new WMBusFrameReader(new ChunkedInputStream(100, prefixed, corrupted, FRAME), 1000,
+                true);
+
+        assertArrayEquals(FRAME, reader.readFrame());
+        assertNull(reader.readFrame());
+        assertArrayEquals(Arrays.copyOfRange(corrupted, 2, 2 + FRAME.length), reader.takeDiscarded());
+        assertArrayEquals(FRAME, reader.readFrame());
+    }
+
+    @Test
+    public void testIncompleteFrameIsDropped() throws Exception {
+        byte[] fragment = Arrays.copyOf(FRAME, 6);
+        WMBusFrameReader reader = new WMBusFrameReader(new ChunkedInputStream(100, fragment), 0, false);
+
+        assertNull(reader.readFrame());
+        assertNull(reader.takeDiscarded());
+        // the port times out, no byte has arrived within the fragment timeout
+        assertNull(reader.readFrame());
+        assertArrayEquals(fragment, reader.takeDiscarded());
+    }
+
+    private static byte[] nextFrame(WMBusFrameReader reader) throws Exception {
+        byte[] frame;
+        while ((frame = reader.readFrame()) == null) {
+            // wait for more bytes
+        }
+        return frame;
+    }
+
+    /**
+     * Returns the given bytes in chunks of at most the given size, then times out like an idle serial port.
+     */
+    static class ChunkedInputStream extends InputStream {
+        private final byte[] data;
+        private final int chunkSize;
+        private int position = 0;
+
+        ChunkedInputStream(int chunkSize, byte[]... parts) {
+            this.chunkSize = chunkSize;
+            int length = 0;
+            for (byte[] part : parts) {
+                length += part.length;
+            }
+            data = new byte[length];
+            int i = 0;
+            for (byte[] part : parts) {
+                System.arraycopy(part, 0, data, i, part.length);
+                i += part.length;
+            }
+        }
+
+        @Override
+        public int read() throws SocketTimeoutException {
+            byte[] b = new byte[1];
+            read(b, 0, 1);
+            return b[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws SocketTimeoutException {
+            if (position == data.length) {
+                throw new SocketTimeoutException("Read timed out");
+            }
+            int n = Math.min(Math.min(len, chunkSize), data.length - position);
+            System.arraycopy(data, position, b, off, n);
+            position += n;
+            return n;
+        }
+
+        @Override
+        public int available() {
+            return Math.min(chunkSize, data.length - position);
+        }
+    }
+
+    /**
+     * Behaves like a serial port stream which only implements {@link #read()}: once the given bytes have been read,
+     * it blocks until the timeout expires.
+     */
+    static class TimeoutInputStream extends InputStream {
+        private final int timeout;
+        private final byte[] data;
+        private int position = 0;
+
+        TimeoutInputStream(int timeout, byte[] data) {
+            this.timeout = timeout;
+            this.data = data;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (position < data.length) {
+                return data[position++] & 0xff;
+            }
+            try {
+                Thread.sleep(timeout);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            throw new SocketTimeoutException("Read timed out");
+        }
+
+        @Override
+        public int available() {
+            return data.length - position;
+        }
+    }
+
+}
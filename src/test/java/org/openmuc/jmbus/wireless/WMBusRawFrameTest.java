@@ -0,0 +1,82 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package org.openmuc.jmbus.wireless;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import org.junit.Test;
+import org.openmuc.jmbus.HexUtils;
+import org.openmuc.jmbus.SecondaryAddress;
+
+public class WMBusRawFrameTest {
+
+    private static final byte[] PACKET = HexUtils.hexToBytes("5C442D2C06357260190C8D207B70032F21271D7802F9FF150"
+            + "11104061765000004EEFF07BFA8000004EEFF08D24F00000414B1FB000002FD170000026CE919426CFF184406F76400004414E"
+            + "8FA0000043B0B0000000259DB11025D1C0B5B");
+
+    @Test
+    public void testHeaderView() {
+        // a transceiver appended the RSSI
+        byte[] received = Arrays.copyOf(PACKET, PACKET.length + 1);
+        WMBusRawFrame frame = new WMBusRawFrame(received, -70, 1234L, "roof");
+
+        assertArrayEquals(Arrays.copyOf(PACKET, (PACKET[0] & 0xff) + 1), frame.asBlob());
+        assertEquals(0x44, frame.getControlField());
+        assertEquals(0x8d, frame.getControlInformation());
+        assertEquals(SecondaryAddress.newFromWMBusHeader(PACKET, 2), frame.getSecondaryAddress());
+        assertEquals(Integer.valueOf(-70), frame.getRssi());
+        assertEquals(1234L, frame.getTimestamp());
+        assertEquals("roof", frame.getReceiverId());
+    }
+
+    @Test
+    public void testRawFramesAreQueuedUndecoded() {
+        final List<WMBusRawFrame> frames = new ArrayList<>();
+        WMBusRawListener listener = new WMBusRawListener() {
+
+            @Override
+            public void newRawFrame(WMBusRawFrame frame) {
+                frames.add(frame);
+            }
+
+            @Override
+            public void newMessage(WMBusMessage message) {
+                throw new AssertionError("raw listener must not get decoded messages");
+            }
+
+            @Override
+            public void discardedBytes(byte[] bytes) {
+            }
+
+            @Override
+            public void stoppedListening(IOException cause) {
+            }
+        };
+        Executor directExecutor = new Executor() {
+
+            @Override
+            public void execute(Runnable command) {
+                command.run();
+            }
+        };
+
+        DispatchQueue queue = new WMBusDispatcher(directExecutor).newQueue(listener);
+        WMBusRawFrame frame = new WMBusRawFrame(PACKET, null, 0, null);
+        queue.offerRawFrame(frame);
+
+        assertEquals(1, frames.size());
+        assertSame(frame, frames.get(0));
+    }
+
+}
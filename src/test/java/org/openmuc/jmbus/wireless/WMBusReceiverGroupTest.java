@@ -0,0 +1,136 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package org.openmuc.jmbus.wireless;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+import org.openmuc.jmbus.HexUtils;
+import org.openmuc.jmbus.SecondaryAddress;
+
+public class WMBusReceiverGroupTest {
+
+    private static final byte[] PACKET = HexUtils.hexToBytes("5C442D2C06357260190C8D207B70032F21271D7802F9FF150"
+            + "11104061765000004EEFF07BFA8000004EEFF08D24F00000414B1FB000002FD170000026CE919426CFF184406F76400004414E"
+            + "8FA0000043B0B0000000259DB11025D1C0B5B");
+
+    @Test
+    public void testCopiesAreDeliveredOnce() throws Exception {
+        final List<WMBusMessage> messages = new CopyOnWriteArrayList<>();
+        final CountDownLatch delivered = new CountDownLatch(2);
+        WMBusListener listener = new WMBusListener() {
+
+            @Override
+            public void newMessage(WMBusMessage message) {
+                messages.add(message);
+                delivered.countDown();
+            }
+
+            @Override
+            public void discardedBytes(byte[] bytes) {
+            }
+
+            @Override
+            public void stoppedListening(IOException cause) {
+            }
+        };
+
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+        try {
+            WMBusReceiverGroup group = new WMBusReceiverGroup(listener, scheduler).setHoldTime(50);
+            HashMap<SecondaryAddress, byte[]> keyMap = new HashMap<>();
+
+            group.messageReceived("kitchen", PACKET.clone(), -80, 1002, 7, keyMap);
+            group.messageReceived("hall", PACKET.clone(), -60, 1000, 42, keyMap);
+            group.messageReceived("kitchen", PACKET.clone(), -79, 1002, 7, keyMap);
+            byte[] next = PACKET.clone();
+            // the next access number of the meter
+            next[11]++;
+            group.messageReceived("cellar", next, -90, 2000, -1, keyMap);
+
+            assertTrue(delivered.await(5, TimeUnit.SECONDS));
+            // copies arriving after the hold time are still recognized
+            group.messageReceived("cellar", PACKET.clone(), -70, 1001, -1, keyMap);
+
+            assertEquals(2, group.getTelegrams());
+            assertEquals(3, group.getDuplicates());
+
+            WMBusMessage message = messages.get(0);
+            assertEquals(Arrays.asList("kitchen", "hall"), message.getReceivers());
+            assertEquals(Integer.valueOf(-60), message.getRssi());
+            assertEquals(1000, message.getReceiveTime());
+            assertEquals(42, message.getTransceiverTimestamp());
+            assertEquals(Arrays.asList("cellar"), messages.get(1).getReceivers());
+            assertEquals(2, messages.size());
+        } finally {
+            scheduler.shutdown();
+        }
+    }
+
+    @Test
+    public void testSlowListenerDoesNotHoldUpReceivers() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch delivered = new CountDownLatch(3);
+        WMBusListener listener = new WMBusListener() {
+
+            @Override
+            public void newMessage(WMBusMessage message) {
+                delivered.countDown();
+            }
+
+            @Override
+            public void discardedBytes(byte[] bytes) {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                delivered.countDown();
+            }
+
+            @Override
+            public void stoppedListening(IOException cause) {
+            }
+        };
+
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            WMBusDispatcher dispatcher = new WMBusDispatcher(executor);
+            WMBusReceiverGroup group = new WMBusReceiverGroup(listener, scheduler).setHoldTime(10)
+                    .setDispatcher(dispatcher);
+            HashMap<SecondaryAddress, byte[]> keyMap = new HashMap<>();
+
+            // the listener blocks on the first one, the receiver goes on
+            group.messageReceived("kitchen", new byte[] { 0x7f, 0x44 }, -80, 1000, -1, keyMap);
+            group.messageReceived("kitchen", new byte[] { 0x7f, 0x44 }, -80, 1000, -1, keyMap);
+            group.messageReceived("kitchen", PACKET.clone(), -80, 1000, -1, keyMap);
+            Thread.sleep(100);
+            assertEquals(1, group.getTelegrams());
+            assertEquals(0, dispatcher.getDeliveredMessages());
+
+            release.countDown();
+            assertTrue(delivered.await(5, TimeUnit.SECONDS));
+        } finally {
+            release.countDown();
+            scheduler.shutdown();
+            executor.shutdown();
+        }
+    }
+
+}